@@ -0,0 +1,158 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.io.File;
+
+import java.security.Permission;
+import java.security.ProtectionDomain;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.edugility.bauer.AuditLog;
+import com.edugility.bauer.DefaultPermissionEvaluator;
+import com.edugility.bauer.Policy;
+import com.edugility.bauer.PolicyConfigurationFactory;
+
+/**
+ * Measures the cost an {@link AuditLog} adds to {@link
+ * Policy#implies(ProtectionDomain, Permission)} against a {@link
+ * SyntheticPolicy}, with no {@link AuditLog}, with one recording the
+ * default fraction of granted decisions, and with one recording every
+ * decision, which overflows its buffer as soon as the callers outpace
+ * the background thread.
+ *
+ * <p>Each thread cycles through the same shuffled mix of granted,
+ * excluded, unchecked and unmatched permissions; the unmatched ones
+ * are denied by the delegate policy and always recorded.  The numbers
+ * of decisions written and dropped are printed at the end of each
+ * trial.  Run it across thread counts with {@link ScalingBenchmarks},
+ * or directly with, e.g., {@code java -jar target/benchmarks.jar
+ * AuditLog -t 8}.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class AuditLogBenchmark {
+
+  private static final String CONTEXT_ID = AuditLogBenchmark.class.getName();
+
+  @Param({ "MEDIUM" })
+  public SyntheticPolicy.Size size;
+
+  @Param({ "none", "sampled", "all" })
+  public String audit;
+
+  @Param({ "4" })
+  public int callerRoles;
+
+  private Policy policy;
+
+  private AuditLog auditLog;
+
+  private ProtectionDomain protectionDomain;
+
+  private Permission[] permissions;
+
+  @Setup(Level.Trial)
+  public void setUp() throws PolicyContextException {
+    final SyntheticPolicy syntheticPolicy = new SyntheticPolicy(this.size);
+    final PolicyConfiguration configuration = new PolicyConfigurationFactory().getPolicyConfiguration(CONTEXT_ID, true);
+    syntheticPolicy.generate(SyntheticPolicy.sink(configuration));
+    configuration.commit();
+
+    this.policy = new Policy();
+    this.policy.setPermissionEvaluator(new DefaultPermissionEvaluator());
+    final File directory = new File(System.getProperty("java.io.tmpdir"), CONTEXT_ID);
+    if ("sampled".equals(this.audit)) {
+      this.auditLog = new AuditLog(directory, AuditLog.DEFAULT_CAPACITY, AuditLog.DEFAULT_GRANTED_SAMPLE_RATE, AuditLog.DEFAULT_MAX_FILE_SIZE, 2);
+    } else if ("all".equals(this.audit)) {
+      this.auditLog = new AuditLog(directory, AuditLog.DEFAULT_CAPACITY, 1.0, AuditLog.DEFAULT_MAX_FILE_SIZE, 2);
+    }
+    this.policy.setAuditLog(this.auditLog);
+    this.protectionDomain = new ProtectionDomain(null, null, null, syntheticPolicy.newPrincipals(this.callerRoles));
+    this.permissions = syntheticPolicy.getCheckedPermissions();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (this.auditLog != null) {
+      this.auditLog.close();
+      System.out.println();
+      System.out.println(this.auditLog);
+    }
+  }
+
+  /**
+   * Per-thread state that binds the JACC policy context identifier to
+   * each benchmark thread and walks through the permissions to check.
+   */
+  @State(Scope.Thread)
+  public static class Caller {
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      javax.security.jacc.PolicyContext.setContextID(CONTEXT_ID);
+    }
+
+    final Permission next(final Permission[] permissions) {
+      final Permission returnValue = permissions[this.next];
+      this.next = (this.next + 1) % permissions.length;
+      return returnValue;
+    }
+
+  }
+
+  @Benchmark
+  public boolean implies(final Caller caller) {
+    return this.policy.implies(this.protectionDomain, caller.next(this.permissions));
+  }
+
+}
@@ -0,0 +1,167 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.security.Permission;
+import java.security.ProtectionDomain;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.edugility.bauer.CompositePermissionEvaluator;
+import com.edugility.bauer.DefaultPermissionEvaluator;
+import com.edugility.bauer.Policy;
+import com.edugility.bauer.PolicyConfigurationFactory;
+import com.edugility.bauer.PolicyContextBinding;
+
+/**
+ * Measures {@link Policy#implies(ProtectionDomain, Permission)}, end
+ * to end, against a {@link SyntheticPolicy} through either a {@link
+ * DefaultPermissionEvaluator} or a {@link
+ * CompositePermissionEvaluator} wrapping one, with and without a
+ * {@link PolicyContextBinding}.
+ *
+ * <p>Each thread cycles through the same shuffled mix of granted,
+ * excluded, unchecked and unmatched permissions.  Run it across
+ * thread counts with {@link ScalingBenchmarks}, or directly with,
+ * e.g., {@code java -jar target/benchmarks.jar Authorization -t
+ * 8 -p size=LARGE}.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class AuthorizationBenchmark {
+
+  private static final String CONTEXT_ID = AuthorizationBenchmark.class.getName();
+
+  @Param({ "SMALL", "MEDIUM", "LARGE" })
+  public SyntheticPolicy.Size size;
+
+  @Param({ "default", "composite" })
+  public String evaluator;
+
+  @Param({ "4" })
+  public int callerRoles;
+
+  private Policy policy;
+
+  private ProtectionDomain protectionDomain;
+
+  private Permission[] permissions;
+
+  @Setup(Level.Trial)
+  public void setUp() throws PolicyContextException {
+    final SyntheticPolicy syntheticPolicy = new SyntheticPolicy(this.size);
+    final PolicyConfiguration configuration = new PolicyConfigurationFactory().getPolicyConfiguration(CONTEXT_ID, true);
+    syntheticPolicy.generate(SyntheticPolicy.sink(configuration));
+    configuration.commit();
+
+    this.policy = new Policy();
+    if ("composite".equals(this.evaluator)) {
+      this.policy.setPermissionEvaluator(new CompositePermissionEvaluator(new DefaultPermissionEvaluator()));
+    } else {
+      this.policy.setPermissionEvaluator(new DefaultPermissionEvaluator());
+    }
+    this.protectionDomain = new ProtectionDomain(null, null, null, syntheticPolicy.newPrincipals(this.callerRoles));
+    this.permissions = syntheticPolicy.getCheckedPermissions();
+  }
+
+  /**
+   * Per-thread state that binds the JACC policy context identifier to
+   * each benchmark thread and walks through the permissions to check.
+   */
+  @State(Scope.Thread)
+  public static class Caller {
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      javax.security.jacc.PolicyContext.setContextID(CONTEXT_ID);
+    }
+
+    final Permission next(final Permission[] permissions) {
+      final Permission returnValue = permissions[this.next];
+      this.next = (this.next + 1) % permissions.length;
+      return returnValue;
+    }
+
+  }
+
+  /**
+   * Per-thread state that binds the policy context to each benchmark
+   * thread with a {@link PolicyContextBinding}, as a container would
+   * for the duration of a request.
+   */
+  @State(Scope.Thread)
+  public static class BoundCaller extends Caller {
+
+    private PolicyContextBinding binding;
+
+    @Setup(Level.Trial)
+    public void bind() throws PolicyContextException {
+      this.binding = PolicyContextBinding.bind(CONTEXT_ID);
+    }
+
+    @TearDown(Level.Trial)
+    public void unbind() {
+      this.binding.unbind();
+    }
+
+  }
+
+  @Benchmark
+  public boolean implies(final Caller caller) {
+    return this.policy.implies(this.protectionDomain, caller.next(this.permissions));
+  }
+
+  @Benchmark
+  public boolean impliesBound(final BoundCaller caller) {
+    return this.policy.implies(this.protectionDomain, caller.next(this.permissions));
+  }
+
+}
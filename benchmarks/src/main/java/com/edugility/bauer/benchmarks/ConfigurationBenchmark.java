@@ -0,0 +1,151 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+import javax.security.jacc.WebResourcePermission;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.edugility.bauer.ConfigurablePolicyContext;
+import com.edugility.bauer.PolicyConfigurationFactory;
+import com.edugility.bauer.PolicyStatements;
+
+/**
+ * Measures bulk configuration of a {@link ConfigurablePolicyContext}
+ * with a {@link SyntheticPolicy}, as a container does at deployment
+ * time, either one statement at a time or as a single {@link
+ * PolicyStatements} batch, followed by {@link
+ * PolicyConfiguration#commit()}, and reopening such a policy context
+ * to add a single permission before committing it again, as a
+ * container does when redeploying part of an application.
+ *
+ * <p>When run with several threads each thread configures its own
+ * policy context.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class ConfigurationBenchmark {
+
+  @Param({ "SMALL", "MEDIUM", "LARGE" })
+  public SyntheticPolicy.Size size;
+
+  private PolicyConfigurationFactory factory;
+
+  private SyntheticPolicy syntheticPolicy;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.factory = new PolicyConfigurationFactory();
+    this.syntheticPolicy = new SyntheticPolicy(this.size);
+  }
+
+  /**
+   * Per-thread state naming the policy context each thread
+   * configures.
+   */
+  @State(Scope.Thread)
+  public static class Deployment {
+
+    private String contextId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      this.contextId = ConfigurationBenchmark.class.getName() + "." + Thread.currentThread().getId();
+    }
+
+  }
+
+  /**
+   * Per-thread state holding a policy context already configured with
+   * the {@link SyntheticPolicy} and committed.
+   */
+  @State(Scope.Thread)
+  public static class Redeployment {
+
+    private String contextId;
+
+    private int count;
+
+    @Setup(Level.Trial)
+    public void setUp(final ConfigurationBenchmark benchmark) throws PolicyContextException {
+      this.contextId = ConfigurationBenchmark.class.getName() + ".redeployment." + Thread.currentThread().getId();
+      final PolicyConfiguration configuration = benchmark.factory.getPolicyConfiguration(this.contextId, true);
+      benchmark.syntheticPolicy.generate(SyntheticPolicy.sink(configuration));
+      configuration.commit();
+    }
+
+  }
+
+  @Benchmark
+  public PolicyConfiguration configureAndCommit(final Deployment deployment) throws PolicyContextException {
+    final PolicyConfiguration configuration = this.factory.getPolicyConfiguration(deployment.contextId, true);
+    this.syntheticPolicy.generate(SyntheticPolicy.sink(configuration));
+    configuration.commit();
+    return configuration;
+  }
+
+  @Benchmark
+  public PolicyConfiguration configureBatchAndCommit(final Deployment deployment) throws PolicyContextException {
+    final ConfigurablePolicyContext configuration = (ConfigurablePolicyContext)this.factory.getPolicyConfiguration(deployment.contextId, true);
+    final PolicyStatements statements = new PolicyStatements(this.syntheticPolicy.getSize().roles);
+    this.syntheticPolicy.generate(SyntheticPolicy.sink(statements));
+    configuration.addAll(statements);
+    configuration.commit();
+    return configuration;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public PolicyConfiguration reopenAndCommit(final Redeployment redeployment) throws PolicyContextException {
+    final PolicyConfiguration configuration = this.factory.getPolicyConfiguration(redeployment.contextId, false);
+    final int count = redeployment.count++;
+    configuration.addToRole(SyntheticPolicy.roleName(count % this.syntheticPolicy.getSize().roles), new WebResourcePermission("/redeployed/" + count, "GET"));
+    configuration.commit();
+    return configuration;
+  }
+
+}
@@ -0,0 +1,157 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.security.Permission;
+import java.security.Principal;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.locks.Lock;
+
+import javax.security.jacc.EJBMethodPermission;
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.edugility.bauer.ConfigurablePolicyContext;
+import com.edugility.bauer.PolicyConfigurationFactory;
+
+/**
+ * Compares {@link EJBMethodPermission} role checks against a
+ * committed, indexed policy with the same checks against the linear
+ * {@link java.security.Permissions} scan they replaced.
+ *
+ * <p>Each role is granted every method of {@code beans / roles}
+ * beans; one bean in every ten also grants its whole interface
+ * through a method-name wildcard.  The {@code granted} parameter
+ * chooses between a permission the caller holds and one it does not,
+ * the latter being the worst case for a linear scan.</p>
+ *
+ * <p>Run it with, e.g., {@code java -jar target/benchmarks.jar
+ * EJBMethodPermission}.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class EJBMethodPermissionBenchmark {
+
+  private static final String CONTEXT_ID = EJBMethodPermissionBenchmark.class.getName();
+
+  @Param({ "10", "100", "1000" })
+  public int beans;
+
+  @Param({ "50" })
+  public int methodsPerBean;
+
+  @Param({ "4" })
+  public int roles;
+
+  @Param({ "true", "false" })
+  public boolean granted;
+
+  private ConfigurablePolicyContext indexedPolicyContext;
+
+  private LockingPolicyContext linearPolicyContext;
+
+  private Principal[] principals;
+
+  private Permission permission;
+
+  @Setup(Level.Trial)
+  public void setUp() throws PolicyContextException {
+    final PolicyConfigurationFactory factory = new PolicyConfigurationFactory();
+    final PolicyConfiguration configuration = factory.getPolicyConfiguration(CONTEXT_ID + "." + this.beans + "." + this.granted, true);
+    this.linearPolicyContext = new LockingPolicyContext(CONTEXT_ID + ".linear");
+    for (int b = 0; b < this.beans; b++) {
+      final String roleName = "role" + (b % this.roles);
+      final String ejbName = "Bean" + b;
+      if (b % 10 == 0) {
+        final Permission p = new EJBMethodPermission(ejbName, ",Local");
+        configuration.addToRole(roleName, p);
+        this.linearPolicyContext.addToRole(roleName, p);
+      }
+      for (int m = 0; m < this.methodsPerBean; m++) {
+        final Permission p = new EJBMethodPermission(ejbName, "method" + m + ",Remote,java.lang.String");
+        configuration.addToRole(roleName, p);
+        this.linearPolicyContext.addToRole(roleName, p);
+      }
+    }
+    configuration.commit();
+    this.indexedPolicyContext = (ConfigurablePolicyContext)configuration;
+
+    // AllPrincipalsRoleMapper, the default, maps principal names
+    // directly to role names.
+    this.principals = new Principal[] { new NamedPrincipal("role0"), new NamedPrincipal("role1") };
+
+    // The last bean assigned to role0 or role1 is scanned last by a
+    // linear search.
+    int bean = this.beans - 1;
+    while (bean % this.roles > 1) {
+      bean--;
+    }
+    final String methodName = "method" + (this.methodsPerBean - 1);
+    if (this.granted) {
+      this.permission = new EJBMethodPermission("Bean" + bean, methodName + ",Remote,java.lang.String");
+    } else {
+      this.permission = new EJBMethodPermission("Bean" + bean, methodName + ",Remote,java.lang.Integer");
+    }
+  }
+
+  @Benchmark
+  public boolean indexed() throws PolicyContextException {
+    return this.indexedPolicyContext.grants(this.permission, this.principals);
+  }
+
+  @Benchmark
+  public boolean linear() throws PolicyContextException {
+    final Lock lock = this.linearPolicyContext.getLock().readLock();
+    lock.lock();
+    try {
+      return this.linearPolicyContext.grants(this.permission, this.principals);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,167 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+
+import com.edugility.bauer.ConfigurablePolicyContext;
+import com.edugility.bauer.PolicyConfigurationFactory;
+
+/**
+ * Measures the heap taken up by many {@link ConfigurablePolicyContext}s
+ * configured with the same {@link SyntheticPolicy}, as when one
+ * application is deployed for many tenants, with neither, one or
+ * both of the two kinds of sharing that {@link
+ * ConfigurablePolicyContext} performs by default: the interning of
+ * permissions and role names, and the sharing of identical committed
+ * policies.
+ *
+ * <p>Each measurement runs in a fresh JVM, since both are switched
+ * on or off by the {@code
+ * com.edugility.bauer.ConfigurablePolicyContext.intern} and {@code
+ * com.edugility.bauer.ConfigurablePolicyContext.share} system
+ * properties when {@link ConfigurablePolicyContext} is loaded.  The
+ * child JVM generates and commits the policy contexts, keeps them
+ * registered, and reports the growth in used heap after garbage
+ * collection.</p>
+ *
+ * <p>The program prints the heap used per policy context in each
+ * mode and exits with a status of {@code 1} if interning does not
+ * reduce it, or if sharing committed policies does not reduce it
+ * further.</p>
+ *
+ * <p>Usage: {@code java -cp target/benchmarks.jar
+ * com.edugility.bauer.benchmarks.FootprintCheck [contexts [size]]}</p>
+ */
+public final class FootprintCheck {
+
+  private static final int DEFAULT_CONTEXTS = 500;
+
+  private static final String MEASURE = "--measure";
+
+  private FootprintCheck() {
+    super();
+  }
+
+  public static final void main(final String[] args) throws IOException, InterruptedException, PolicyContextException {
+    if (args.length > 0 && MEASURE.equals(args[0])) {
+      System.out.println(measure(Integer.parseInt(args[1]), SyntheticPolicy.Size.valueOf(args[2])));
+      return;
+    }
+    final int contexts = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CONTEXTS;
+    final SyntheticPolicy.Size size = args.length > 1 ? SyntheticPolicy.Size.valueOf(args[1]) : SyntheticPolicy.Size.MEDIUM;
+
+    final long plain = fork(contexts, size, false, false);
+    final long interned = fork(contexts, size, true, false);
+    final long shared = fork(contexts, size, true, true);
+    System.out.println(String.format("%d %s policy contexts:", contexts, size));
+    System.out.println(String.format("  %,12d bytes/context without sharing", plain / contexts));
+    System.out.println(String.format("  %,12d bytes/context interning permissions and role names (%.1f%% saved)", interned / contexts, 100.0 * (plain - interned) / plain));
+    System.out.println(String.format("  %,12d bytes/context also sharing committed policies (%.1f%% saved)", shared / contexts, 100.0 * (plain - shared) / plain));
+    if (interned >= plain || shared >= interned) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Runs {@link #measure(int, SyntheticPolicy.Size)} in a new JVM with
+   * interning and the sharing of committed policies each switched on
+   * or off and returns its result.
+   */
+  private static final long fork(final int contexts, final SyntheticPolicy.Size size, final boolean intern, final boolean share) throws IOException, InterruptedException {
+    final List<String> command = new ArrayList<String>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.add("-Dcom.edugility.bauer.ConfigurablePolicyContext.intern=" + intern);
+    command.add("-Dcom.edugility.bauer.ConfigurablePolicyContext.share=" + share);
+    command.add("-Dcom.edugility.bauer.PolicyConfigurationFactory.jmx=false");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(FootprintCheck.class.getName());
+    command.add(MEASURE);
+    command.add(String.valueOf(contexts));
+    command.add(size.name());
+    final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+    String last = null;
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        last = line;
+      }
+    } finally {
+      reader.close();
+    }
+    final int status = process.waitFor();
+    if (status != 0 || last == null) {
+      throw new IOException("Measurement failed with status " + status + ": " + last);
+    }
+    return Long.parseLong(last.trim());
+  }
+
+  /**
+   * Commits the supplied number of policy contexts, each generated
+   * afresh from a {@link SyntheticPolicy} of the supplied size, and
+   * returns the growth in used heap after garbage collection.
+   */
+  private static final long measure(final int contexts, final SyntheticPolicy.Size size) throws PolicyContextException {
+    final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    final PolicyConfigurationFactory factory = new PolicyConfigurationFactory();
+    final long before = usedHeap(memory);
+    for (int i = 0; i < contexts; i++) {
+      final PolicyConfiguration configuration = factory.getPolicyConfiguration("tenant" + i + "/app.war", true);
+      new SyntheticPolicy(size).generate(SyntheticPolicy.sink(configuration));
+      configuration.commit();
+    }
+    final long returnValue = usedHeap(memory) - before;
+    // Keep the policy contexts reachable until after the measurement.
+    if (PolicyConfigurationFactory.getRegistry().getPolicyContextCount() != contexts) {
+      throw new IllegalStateException();
+    }
+    return returnValue;
+  }
+
+  private static final long usedHeap(final MemoryMXBean memory) {
+    for (int i = 0; i < 4; i++) {
+      memory.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+}
@@ -0,0 +1,158 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.Principal;
+
+import java.util.Enumeration;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.locks.Lock;
+
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.edugility.bauer.ConfigurablePolicyContext;
+import com.edugility.bauer.PolicyConfigurationFactory;
+
+/**
+ * Measures {@link
+ * com.edugility.bauer.AbstractPolicyContext#getPermissions(PermissionCollection,
+ * PermissionCollection, Principal[])} at several {@link
+ * SyntheticPolicy} sizes, both against a committed {@link
+ * ConfigurablePolicyContext} and through the generic, read-locked
+ * implementation inherited by {@link LockingPolicyContext}.  The
+ * committed policy context's result is a lazy view, so it is also
+ * measured as a caller would use it: asking it whether it implies
+ * one of the {@linkplain SyntheticPolicy#getCheckedPermissions()
+ * checked permissions}, or enumerating its elements.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class GetPermissionsBenchmark {
+
+  private static final String CONTEXT_ID = GetPermissionsBenchmark.class.getName();
+
+  @Param({ "SMALL", "MEDIUM", "LARGE" })
+  public SyntheticPolicy.Size size;
+
+  @Param({ "4" })
+  public int callerRoles;
+
+  private ConfigurablePolicyContext committedPolicyContext;
+
+  private LockingPolicyContext lockingPolicyContext;
+
+  private Principal[] principals;
+
+  private Permission[] checkedPermissions;
+
+  @Setup(Level.Trial)
+  public void setUp() throws PolicyContextException {
+    final SyntheticPolicy syntheticPolicy = new SyntheticPolicy(this.size);
+    final PolicyConfiguration configuration = new PolicyConfigurationFactory().getPolicyConfiguration(CONTEXT_ID, true);
+    syntheticPolicy.generate(SyntheticPolicy.sink(configuration));
+    configuration.commit();
+    this.committedPolicyContext = (ConfigurablePolicyContext)configuration;
+
+    this.lockingPolicyContext = new LockingPolicyContext(CONTEXT_ID + ".locking");
+    syntheticPolicy.generate(SyntheticPolicy.sink(this.lockingPolicyContext));
+
+    this.principals = syntheticPolicy.newPrincipals(this.callerRoles);
+    this.checkedPermissions = syntheticPolicy.getCheckedPermissions();
+  }
+
+  /**
+   * Per-thread state that walks through the permissions to check.
+   */
+  @State(Scope.Thread)
+  public static class Caller {
+
+    private int next;
+
+    final Permission next(final Permission[] permissions) {
+      final Permission returnValue = permissions[this.next];
+      this.next = (this.next + 1) % permissions.length;
+      return returnValue;
+    }
+
+  }
+
+  @Benchmark
+  public PermissionCollection committed() throws PolicyContextException {
+    return this.committedPolicyContext.getPermissions(null, null, this.principals);
+  }
+
+  @Benchmark
+  public boolean committedImplies(final Caller caller) throws PolicyContextException {
+    return this.committedPolicyContext.getPermissions(null, null, this.principals).implies(caller.next(this.checkedPermissions));
+  }
+
+  @Benchmark
+  public int committedElements() throws PolicyContextException {
+    int returnValue = 0;
+    final Enumeration<Permission> elements = this.committedPolicyContext.getPermissions(null, null, this.principals).elements();
+    while (elements.hasMoreElements()) {
+      elements.nextElement();
+      returnValue++;
+    }
+    return returnValue;
+  }
+
+  @Benchmark
+  public PermissionCollection readLocked() throws PolicyContextException {
+    final Lock lock = this.lockingPolicyContext.getLock().readLock();
+    lock.lock();
+    try {
+      return this.lockingPolicyContext.getPermissions(null, null, this.principals);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
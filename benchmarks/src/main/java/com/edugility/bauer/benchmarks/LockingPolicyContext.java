@@ -0,0 +1,128 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.Permissions;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.edugility.bauer.AbstractPolicyContext;
+
+/**
+ * An {@link AbstractPolicyContext} that reproduces the read path
+ * {@link com.edugility.bauer.ConfigurablePolicyContext} used before
+ * committed policies were published as immutable snapshots: every
+ * accessor acquires the shared read lock, and {@link
+ * AbstractPolicyContext}'s own {@code excludes}, {@code mandates} and
+ * {@code grants} methods acquire it again.
+ *
+ * <p>This class exists only to serve as a baseline in
+ * benchmarks.</p>
+ */
+public class LockingPolicyContext extends AbstractPolicyContext {
+
+  private final Permissions excludedPolicy;
+
+  private final Permissions uncheckedPolicy;
+
+  private final Map<String, Permissions> perRolePolicy;
+
+  public LockingPolicyContext(final String id) {
+    super(id);
+    this.excludedPolicy = new Permissions();
+    this.uncheckedPolicy = new Permissions();
+    this.perRolePolicy = new HashMap<String, Permissions>();
+  }
+
+  public void addToExcludedPolicy(final Permission p) {
+    this.getLock().writeLock().lock();
+    try {
+      this.excludedPolicy.add(p);
+    } finally {
+      this.getLock().writeLock().unlock();
+    }
+  }
+
+  public void addToUncheckedPolicy(final Permission p) {
+    this.getLock().writeLock().lock();
+    try {
+      this.uncheckedPolicy.add(p);
+    } finally {
+      this.getLock().writeLock().unlock();
+    }
+  }
+
+  public void addToRole(final String roleName, final Permission p) {
+    this.getLock().writeLock().lock();
+    try {
+      Permissions permissions = this.perRolePolicy.get(roleName);
+      if (permissions == null) {
+        permissions = new Permissions();
+        this.perRolePolicy.put(roleName, permissions);
+      }
+      permissions.add(p);
+    } finally {
+      this.getLock().writeLock().unlock();
+    }
+  }
+
+  @Override
+  public PermissionCollection getExcludedPolicy() {
+    this.getLock().readLock().lock();
+    try {
+      return this.excludedPolicy;
+    } finally {
+      this.getLock().readLock().unlock();
+    }
+  }
+
+  @Override
+  public PermissionCollection getUncheckedPolicy() {
+    this.getLock().readLock().lock();
+    try {
+      return this.uncheckedPolicy;
+    } finally {
+      this.getLock().readLock().unlock();
+    }
+  }
+
+  @Override
+  public Map<? extends String, ? extends PermissionCollection> getRoles() {
+    this.getLock().readLock().lock();
+    try {
+      return Collections.unmodifiableMap(this.perRolePolicy);
+    } finally {
+      this.getLock().readLock().unlock();
+    }
+  }
+
+}
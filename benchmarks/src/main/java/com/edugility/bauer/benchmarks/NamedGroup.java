@@ -0,0 +1,97 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.security.Principal;
+
+import java.security.acl.Group;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A simple {@link Group} used by benchmarks, in the style of the
+ * {@code Roles} and {@code CallerPrincipal} groups of JAAS login
+ * modules.
+ */
+public final class NamedGroup implements Group {
+
+  private final String name;
+
+  private final Set<Principal> members;
+
+  public NamedGroup(final String name) {
+    super();
+    if (name == null) {
+      throw new IllegalArgumentException("name", new NullPointerException("name"));
+    }
+    this.name = name;
+    this.members = new LinkedHashSet<Principal>();
+  }
+
+  @Override
+  public final String getName() {
+    return this.name;
+  }
+
+  @Override
+  public final boolean addMember(final Principal member) {
+    return this.members.add(member);
+  }
+
+  @Override
+  public final boolean removeMember(final Principal member) {
+    return this.members.remove(member);
+  }
+
+  @Override
+  public final boolean isMember(final Principal member) {
+    if (this.members.contains(member)) {
+      return true;
+    }
+    for (final Principal p : this.members) {
+      if (p instanceof Group && ((Group)p).isMember(member)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public final Enumeration<? extends Principal> members() {
+    return Collections.enumeration(this.members);
+  }
+
+  @Override
+  public final String toString() {
+    return this.name;
+  }
+
+}
@@ -0,0 +1,71 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.io.Serializable;
+
+import java.security.Principal;
+
+/**
+ * A simple, immutable {@link Principal} used by benchmarks.
+ */
+public final class NamedPrincipal implements Principal, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String name;
+
+  public NamedPrincipal(final String name) {
+    super();
+    if (name == null) {
+      throw new IllegalArgumentException("name", new NullPointerException("name"));
+    }
+    this.name = name;
+  }
+
+  @Override
+  public final String getName() {
+    return this.name;
+  }
+
+  @Override
+  public final int hashCode() {
+    return this.name.hashCode();
+  }
+
+  @Override
+  public final boolean equals(final Object other) {
+    return other instanceof NamedPrincipal && this.name.equals(((NamedPrincipal)other).name);
+  }
+
+  @Override
+  public final String toString() {
+    return this.name;
+  }
+
+}
@@ -0,0 +1,156 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.security.Permission;
+import java.security.Principal;
+import java.security.ProtectionDomain;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.locks.Lock;
+
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+import javax.security.jacc.WebResourcePermission;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.edugility.bauer.DefaultPermissionEvaluator;
+import com.edugility.bauer.PermissionEvaluation;
+import com.edugility.bauer.PermissionEvaluator;
+import com.edugility.bauer.Policy;
+import com.edugility.bauer.PolicyConfigurationFactory;
+
+/**
+ * Compares lock-free evaluation against an immutable {@link
+ * com.edugility.bauer.CommittedPolicy} snapshot with the read-locked
+ * evaluation path it replaced.
+ *
+ * <p>Run it across thread counts with {@link ScalingBenchmarks}, or
+ * directly with, e.g., {@code java -jar target/benchmarks.jar
+ * PolicyImpliesScaling -t 32}.</p>
+ *
+ * @see ScalingBenchmarks
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class PolicyImpliesScalingBenchmark {
+
+  private static final String CONTEXT_ID = PolicyImpliesScalingBenchmark.class.getName();
+
+  @Param({ "16" })
+  public int roles;
+
+  @Param({ "32" })
+  public int permissionsPerRole;
+
+  private Policy policy;
+
+  private PermissionEvaluator evaluator;
+
+  private LockingPolicyContext lockingPolicyContext;
+
+  private ProtectionDomain protectionDomain;
+
+  private Permission permission;
+
+  @Setup(Level.Trial)
+  public void setUp() throws PolicyContextException {
+    final PolicyConfiguration configuration = new PolicyConfigurationFactory().getPolicyConfiguration(CONTEXT_ID, true);
+    this.lockingPolicyContext = new LockingPolicyContext(CONTEXT_ID + ".locking");
+    for (int r = 0; r < this.roles; r++) {
+      final String roleName = "role" + r;
+      for (int i = 0; i < this.permissionsPerRole; i++) {
+        final Permission p = new WebResourcePermission("/app" + r + "/resource" + i, "GET,POST");
+        configuration.addToRole(roleName, p);
+        this.lockingPolicyContext.addToRole(roleName, p);
+      }
+    }
+    final Permission excluded = new WebResourcePermission("/admin/*", (String)null);
+    configuration.addToExcludedPolicy(excluded);
+    this.lockingPolicyContext.addToExcludedPolicy(excluded);
+    configuration.commit();
+
+    // AllPrincipalsRoleMapper, the default, maps principal names
+    // directly to role names.
+    final int lastRole = this.roles - 1;
+    this.protectionDomain = new ProtectionDomain(null, null, null, new Principal[] { new NamedPrincipal("role0"), new NamedPrincipal("role" + lastRole) });
+    this.permission = new WebResourcePermission("/app" + lastRole + "/resource" + (this.permissionsPerRole - 1), "GET");
+
+    this.policy = new Policy();
+    this.evaluator = new DefaultPermissionEvaluator();
+  }
+
+  /**
+   * Per-thread state that binds the JACC policy context identifier to
+   * each benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class ContextBinding {
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      javax.security.jacc.PolicyContext.setContextID(CONTEXT_ID);
+    }
+
+  }
+
+  @Benchmark
+  public boolean snapshot(final ContextBinding binding) {
+    return this.policy.implies(this.protectionDomain, this.permission);
+  }
+
+  @Benchmark
+  public boolean readLocked() throws PolicyContextException {
+    final Lock lock = this.lockingPolicyContext.getLock().readLock();
+    lock.lock();
+    try {
+      final PermissionEvaluation evaluation = this.evaluator.evaluate(this.protectionDomain, this.lockingPolicyContext, this.permission);
+      return Boolean.TRUE.equals(evaluation.toBoolean());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
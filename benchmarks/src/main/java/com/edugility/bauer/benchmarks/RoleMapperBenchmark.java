@@ -0,0 +1,120 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.security.Principal;
+
+import java.util.Set;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.security.jacc.PolicyContextException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.edugility.bauer.AllPrincipalsRoleMapper;
+import com.edugility.bauer.CachingRoleMapper;
+import com.edugility.bauer.RoleMapper;
+
+/**
+ * Measures {@link AllPrincipalsRoleMapper} mapping a subject's
+ * principals, arranged in nested {@link NamedGroup}s as a JAAS login
+ * module would arrange them, to role names, with and without a
+ * {@link CachingRoleMapper} in front of it.
+ *
+ * <p>The subject has a user principal and a {@code Roles} group
+ * holding {@code width} role principals and a chain of {@code depth}
+ * nested groups, each of which holds another {@code width} role
+ * principals.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class RoleMapperBenchmark {
+
+  @Param({ "4", "32" })
+  public int width;
+
+  @Param({ "0", "3" })
+  public int depth;
+
+  private Principal[] principals;
+
+  private RoleMapper allPrincipalsRoleMapper;
+
+  private RoleMapper cachingRoleMapper;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final NamedGroup roles = new NamedGroup("Roles");
+    int role = 0;
+    for (int i = 0; i < this.width; i++) {
+      roles.addMember(new NamedPrincipal(SyntheticPolicy.roleName(role++)));
+    }
+    NamedGroup parent = roles;
+    for (int d = 0; d < this.depth; d++) {
+      final NamedGroup child = new NamedGroup("Nested" + d);
+      for (int i = 0; i < this.width; i++) {
+        child.addMember(new NamedPrincipal(SyntheticPolicy.roleName(role++)));
+      }
+      parent.addMember(child);
+      parent = child;
+    }
+    final NamedGroup callerPrincipal = new NamedGroup("CallerPrincipal");
+    callerPrincipal.addMember(new NamedPrincipal("jdoe"));
+    this.principals = new Principal[] { new NamedPrincipal("jdoe"), callerPrincipal, roles };
+
+    this.allPrincipalsRoleMapper = new AllPrincipalsRoleMapper();
+    this.cachingRoleMapper = new CachingRoleMapper(new AllPrincipalsRoleMapper(), CachingRoleMapper.DEFAULT_MAXIMUM_SIZE, CachingRoleMapper.DEFAULT_IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  @Benchmark
+  public Set<String> allPrincipals() throws PolicyContextException {
+    return this.allPrincipalsRoleMapper.getRoles(this.principals);
+  }
+
+  @Benchmark
+  public Set<String> caching() throws PolicyContextException {
+    return this.cachingRoleMapper.getRoles(this.principals);
+  }
+
+}
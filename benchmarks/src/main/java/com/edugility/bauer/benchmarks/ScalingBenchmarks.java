@@ -0,0 +1,122 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import org.openjdk.jmh.results.RunResult;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks matching a regular expression (by default {@link
+ * PolicyImpliesScalingBenchmark}) at each of several thread counts
+ * (by default 1, 2, 4, 8, 16, 32 and 64) and prints a table of the
+ * results for each benchmark method and parameter combination.
+ *
+ * <p>Usage: {@code java -cp target/benchmarks.jar
+ * com.edugility.bauer.benchmarks.ScalingBenchmarks [benchmarkRegex
+ * [threadCount,threadCount,...]]}</p>
+ */
+public final class ScalingBenchmarks {
+
+  private static final int[] DEFAULT_THREAD_COUNTS = { 1, 2, 4, 8, 16, 32, 64 };
+
+  private ScalingBenchmarks() {
+    super();
+  }
+
+  public static final void main(final String[] args) throws RunnerException {
+    final String include;
+    if (args == null || args.length <= 0) {
+      include = PolicyImpliesScalingBenchmark.class.getSimpleName();
+    } else {
+      include = args[0];
+    }
+    final int[] threadCounts;
+    if (args == null || args.length <= 1) {
+      threadCounts = DEFAULT_THREAD_COUNTS;
+    } else {
+      final String[] counts = args[1].split(",");
+      threadCounts = new int[counts.length];
+      for (int i = 0; i < counts.length; i++) {
+        threadCounts[i] = Integer.parseInt(counts[i].trim());
+      }
+    }
+    final List<String> rows = new ArrayList<String>();
+    for (final int threads : threadCounts) {
+      final Options options = new OptionsBuilder()
+        .include(include)
+        .threads(threads)
+        .build();
+      final Collection<RunResult> results = new Runner(options).run();
+      if (results != null) {
+        for (final RunResult result : results) {
+          rows.add(String.format("%-80s %4d %16.3f %s",
+                                 describe(result),
+                                 threads,
+                                 result.getPrimaryResult().getScore(),
+                                 result.getPrimaryResult().getScoreUnit()));
+        }
+      }
+    }
+    System.out.println();
+    System.out.println(String.format("%-80s %4s %16s", "Benchmark", "Thr", "Score"));
+    for (final String row : rows) {
+      System.out.println(row);
+    }
+  }
+
+  private static final String describe(final RunResult result) {
+    final BenchmarkParams params = result.getParams();
+    final StringBuilder sb = new StringBuilder(params.getBenchmark());
+    final Collection<String> keys = params.getParamsKeys();
+    if (keys != null && !keys.isEmpty()) {
+      sb.append(" (");
+      boolean first = true;
+      for (final String key : keys) {
+        if (!first) {
+          sb.append(", ");
+        }
+        sb.append(key).append('=').append(params.getParam(key));
+        first = false;
+      }
+      sb.append(')');
+    }
+    return sb.toString();
+  }
+
+}
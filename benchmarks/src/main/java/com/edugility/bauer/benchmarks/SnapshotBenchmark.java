@@ -0,0 +1,118 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.security.Permission;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.edugility.bauer.CommittedPolicy;
+import com.edugility.bauer.ConfigurablePolicyContext;
+import com.edugility.bauer.PolicyConfigurationFactory;
+import com.edugility.bauer.PolicySnapshot;
+
+/**
+ * Compares putting a {@link SyntheticPolicy} into service by
+ * configuring and committing a policy context, as a container does
+ * at deployment time, with loading it from a {@link PolicySnapshot},
+ * each followed by a first permission check.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+  @Param({ "SMALL", "MEDIUM", "LARGE" })
+  public SyntheticPolicy.Size size;
+
+  private PolicyConfigurationFactory factory;
+
+  private SyntheticPolicy syntheticPolicy;
+
+  private Permission permission;
+
+  private File file;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, PolicyContextException {
+    this.factory = new PolicyConfigurationFactory();
+    this.syntheticPolicy = new SyntheticPolicy(this.size);
+    this.permission = this.syntheticPolicy.getCheckedPermissions()[0];
+    final String contextId = SnapshotBenchmark.class.getName();
+    final PolicyConfiguration configuration = this.factory.getPolicyConfiguration(contextId, true);
+    this.syntheticPolicy.generate(SyntheticPolicy.sink(configuration));
+    configuration.commit();
+    this.file = File.createTempFile("bauer", ".snapshot");
+    PolicyConfigurationFactory.saveSnapshot(contextId, this.file);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (this.file != null) {
+      this.file.delete();
+    }
+  }
+
+  @Benchmark
+  public boolean configureAndCommit() throws PolicyContextException {
+    final ConfigurablePolicyContext policyContext = new ConfigurablePolicyContext("rebuild");
+    this.syntheticPolicy.generate(SyntheticPolicy.sink(policyContext));
+    policyContext.commit();
+    return policyContext.getCommittedPolicy().excludes(this.permission);
+  }
+
+  @Benchmark
+  public boolean readSnapshot() throws IOException {
+    final CommittedPolicy committedPolicy = PolicySnapshot.read(this.file).getCommittedPolicy();
+    return committedPolicy.excludes(this.permission);
+  }
+
+}
@@ -0,0 +1,349 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.security.Permission;
+import java.security.Principal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.security.jacc.EJBMethodPermission;
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+import javax.security.jacc.WebResourcePermission;
+import javax.security.jacc.WebUserDataPermission;
+
+import com.edugility.bauer.PolicyStatements;
+
+/**
+ * A generator of synthetic but deployment-descriptor-shaped JACC
+ * policy statements, together with a matching mix of permissions to
+ * check against them.
+ *
+ * <p>The web portion resembles what a container produces when it
+ * translates the security constraints of a {@code web.xml} that is
+ * divided into modules: each module has exact-pattern pages,
+ * path-prefix APIs and a few extension mappings, each granted to one
+ * or two roles for some HTTP methods; an excluded {@code /admin/*}
+ * area; an unchecked {@code /public/*} area; and user data
+ * constraints requiring a confidential transport for some
+ * resources.</p>
+ *
+ * <p>The EJB portion resembles the {@code method-permission}, {@code
+ * exclude-list} and {@code unchecked} elements of an {@code
+ * ejb-jar.xml}: most beans grant each business method individually,
+ * some grant all methods with a {@code *} method name, and some
+ * exclude or leave unchecked particular methods.</p>
+ *
+ * <p>Everything is derived from a fixed seed, so two {@link
+ * SyntheticPolicy} instances of the same {@link Size} generate
+ * identical statements.</p>
+ */
+public final class SyntheticPolicy {
+
+  /**
+   * Preset policy sizes.
+   */
+  public static enum Size {
+
+    SMALL(8, 4, 25, 10, 10),
+
+    MEDIUM(32, 16, 50, 100, 20),
+
+    LARGE(128, 64, 80, 1000, 20);
+
+    final int roles;
+
+    final int modules;
+
+    final int resourcesPerModule;
+
+    final int beans;
+
+    final int methodsPerBean;
+
+    private Size(final int roles, final int modules, final int resourcesPerModule, final int beans, final int methodsPerBean) {
+      this.roles = roles;
+      this.modules = modules;
+      this.resourcesPerModule = resourcesPerModule;
+      this.beans = beans;
+      this.methodsPerBean = methodsPerBean;
+    }
+
+  }
+
+  /**
+   * Something that accepts policy statements, such as a {@link
+   * PolicyConfiguration}.
+   */
+  public static interface Sink {
+
+    public void addToExcludedPolicy(final Permission permission) throws PolicyContextException;
+
+    public void addToUncheckedPolicy(final Permission permission) throws PolicyContextException;
+
+    public void addToRole(final String roleName, final Permission permission) throws PolicyContextException;
+
+  }
+
+  private static final String[] METHODS = { null, "GET", "GET,POST", "GET,POST,PUT,DELETE" };
+
+  private static final long SEED = 0x6261756572L;
+
+  private final Size size;
+
+  private final List<Permission> checkedPermissions;
+
+  public SyntheticPolicy(final Size size) {
+    super();
+    if (size == null) {
+      throw new IllegalArgumentException("size", new NullPointerException("size"));
+    }
+    this.size = size;
+    this.checkedPermissions = Collections.unmodifiableList(this.createCheckedPermissions());
+  }
+
+  public final Size getSize() {
+    return this.size;
+  }
+
+  /**
+   * Returns the name of the role with the supplied index.
+   */
+  public static final String roleName(final int index) {
+    return "role" + index;
+  }
+
+  /**
+   * Returns {@link Principal}s that {@link
+   * com.edugility.bauer.AllPrincipalsRoleMapper} maps to the first
+   * {@code count} roles.
+   */
+  public final Principal[] newPrincipals(final int count) {
+    final Principal[] returnValue = new Principal[Math.min(count, this.size.roles)];
+    for (int i = 0; i < returnValue.length; i++) {
+      returnValue[i] = new NamedPrincipal(roleName(i));
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a fixed, shuffled mix of permissions to check: some
+   * granted to the first few roles, some granted only to others, some
+   * excluded, some unchecked and some matching nothing.
+   */
+  public final Permission[] getCheckedPermissions() {
+    return this.checkedPermissions.toArray(new Permission[this.checkedPermissions.size()]);
+  }
+
+  /**
+   * Generates every policy statement into the supplied {@link Sink}.
+   */
+  public final void generate(final Sink sink) throws PolicyContextException {
+    if (sink == null) {
+      throw new IllegalArgumentException("sink", new NullPointerException("sink"));
+    }
+    final Random random = new Random(SEED);
+    final int roles = this.size.roles;
+
+    // web.xml
+    for (int m = 0; m < this.size.modules; m++) {
+      final String module = "/module" + m;
+      sink.addToExcludedPolicy(new WebResourcePermission(module + "/admin/*", (String)null));
+      sink.addToExcludedPolicy(new WebUserDataPermission(module + "/admin/*", (String)null));
+      sink.addToUncheckedPolicy(new WebResourcePermission(module + "/public/*", (String)null));
+      for (int r = 0; r < this.size.resourcesPerModule; r++) {
+        final String pattern;
+        switch (r % 5) {
+        case 0:
+          pattern = module + "/api" + r + "/*";
+          break;
+        case 1:
+          pattern = "*.do" + (m * this.size.resourcesPerModule + r) % 16;
+          break;
+        default:
+          pattern = module + "/page" + r + ".jsp";
+          break;
+        }
+        final String methods = METHODS[random.nextInt(METHODS.length)];
+        final WebResourcePermission permission = new WebResourcePermission(pattern, methods);
+        sink.addToRole(roleName((m + r) % roles), permission);
+        if (r % 3 == 0) {
+          sink.addToRole(roleName((m + r + 1) % roles), permission);
+        }
+        if (r % 4 == 0) {
+          sink.addToUncheckedPolicy(new WebUserDataPermission(pattern, methods == null ? ":CONFIDENTIAL" : methods + ":CONFIDENTIAL"));
+        }
+      }
+    }
+    sink.addToUncheckedPolicy(new WebUserDataPermission("/", (String)null));
+
+    // ejb-jar.xml
+    for (int b = 0; b < this.size.beans; b++) {
+      final String ejbName = "Bean" + b;
+      final String roleName = roleName(b % roles);
+      if (b % 5 == 0) {
+        sink.addToRole(roleName, new EJBMethodPermission(ejbName, ",Local"));
+      }
+      for (int i = 0; i < this.size.methodsPerBean; i++) {
+        sink.addToRole(roleName, new EJBMethodPermission(ejbName, "method" + i + ",Remote,java.lang.String"));
+      }
+      sink.addToUncheckedPolicy(new EJBMethodPermission(ejbName, "ping,Remote,"));
+      if (b % 10 == 0) {
+        sink.addToExcludedPolicy(new EJBMethodPermission(ejbName, "remove"));
+      }
+    }
+  }
+
+  private final List<Permission> createCheckedPermissions() {
+    final Random random = new Random(SEED + 1);
+    final List<Permission> returnValue = new ArrayList<Permission>();
+    for (int i = 0; i < 256; i++) {
+      final int m = random.nextInt(this.size.modules);
+      final int r = random.nextInt(this.size.resourcesPerModule);
+      final int b = random.nextInt(this.size.beans);
+      final String module = "/module" + m;
+      switch (i % 10) {
+      case 0:
+        returnValue.add(new WebResourcePermission(module + "/page" + (r - r % 5 + 2) + ".jsp", "GET"));
+        break;
+      case 1:
+        returnValue.add(new WebResourcePermission(module + "/api" + (r - r % 5) + "/items/" + i, "GET"));
+        break;
+      case 2:
+        returnValue.add(new WebResourcePermission(module + "/admin/users", "GET"));
+        break;
+      case 3:
+        returnValue.add(new WebResourcePermission(module + "/public/index.html", "GET"));
+        break;
+      case 4:
+        returnValue.add(new WebResourcePermission("/nowhere/" + i, "POST"));
+        break;
+      case 5:
+        returnValue.add(new WebUserDataPermission(module + "/page" + (r - r % 5 + 2) + ".jsp", "GET"));
+        break;
+      case 6:
+        returnValue.add(new EJBMethodPermission("Bean" + b, "method" + random.nextInt(this.size.methodsPerBean) + ",Remote,java.lang.String"));
+        break;
+      case 7:
+        returnValue.add(new EJBMethodPermission("Bean" + (b - b % 5), "anything,Local,"));
+        break;
+      case 8:
+        returnValue.add(new EJBMethodPermission("Bean" + (b - b % 10), "remove,Remote,"));
+        break;
+      default:
+        returnValue.add(new EJBMethodPermission("NoSuchBean", "method0,Remote,java.lang.String"));
+        break;
+      }
+    }
+    Collections.shuffle(returnValue, random);
+    return returnValue;
+  }
+
+  /**
+   * Returns a {@link Sink} that adds policy statements to the
+   * supplied {@link PolicyConfiguration}.
+   */
+  public static final Sink sink(final PolicyConfiguration configuration) {
+    if (configuration == null) {
+      throw new IllegalArgumentException("configuration", new NullPointerException("configuration"));
+    }
+    return new Sink() {
+      @Override
+      public final void addToExcludedPolicy(final Permission permission) throws PolicyContextException {
+        configuration.addToExcludedPolicy(permission);
+      }
+
+      @Override
+      public final void addToUncheckedPolicy(final Permission permission) throws PolicyContextException {
+        configuration.addToUncheckedPolicy(permission);
+      }
+
+      @Override
+      public final void addToRole(final String roleName, final Permission permission) throws PolicyContextException {
+        configuration.addToRole(roleName, permission);
+      }
+    };
+  }
+
+  /**
+   * Returns a {@link Sink} that adds policy statements to the
+   * supplied {@link LockingPolicyContext}.
+   */
+  public static final Sink sink(final LockingPolicyContext policyContext) {
+    if (policyContext == null) {
+      throw new IllegalArgumentException("policyContext", new NullPointerException("policyContext"));
+    }
+    return new Sink() {
+      @Override
+      public final void addToExcludedPolicy(final Permission permission) {
+        policyContext.addToExcludedPolicy(permission);
+      }
+
+      @Override
+      public final void addToUncheckedPolicy(final Permission permission) {
+        policyContext.addToUncheckedPolicy(permission);
+      }
+
+      @Override
+      public final void addToRole(final String roleName, final Permission permission) {
+        policyContext.addToRole(roleName, permission);
+      }
+    };
+  }
+
+  /**
+   * Returns a {@link Sink} that accumulates policy statements in the
+   * supplied {@link PolicyStatements}.
+   */
+  public static final Sink sink(final PolicyStatements statements) {
+    if (statements == null) {
+      throw new IllegalArgumentException("statements", new NullPointerException("statements"));
+    }
+    return new Sink() {
+      @Override
+      public final void addToExcludedPolicy(final Permission permission) {
+        statements.addToExcludedPolicy(permission);
+      }
+
+      @Override
+      public final void addToUncheckedPolicy(final Permission permission) {
+        statements.addToUncheckedPolicy(permission);
+      }
+
+      @Override
+      public final void addToRole(final String roleName, final Permission permission) {
+        statements.addToRole(roleName, permission);
+      }
+    };
+  }
+
+}
@@ -0,0 +1,189 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer.benchmarks;
+
+import java.security.Permission;
+import java.security.Principal;
+import java.security.ProtectionDomain;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+
+import com.edugility.bauer.CachingRoleMapper;
+import com.edugility.bauer.DecisionCache;
+import com.edugility.bauer.Policy;
+import com.edugility.bauer.PolicyConfigurationFactory;
+import com.edugility.bauer.RoleMapper;
+
+/**
+ * Runs {@link Policy#implies(ProtectionDomain, Permission)} on a
+ * large number of virtual threads at once and verifies that every
+ * decision matches the one made beforehand on the main thread.
+ *
+ * <p>Each virtual thread sets the JACC policy context identifier,
+ * checks a handful of permissions and {@linkplain Thread#yield()
+ * yields} between checks so that many virtual threads are alive and
+ * interleaved on the carrier threads at the same time.  Unless the
+ * {@code com.edugility.bauer.Policy.virtualThreads} system property
+ * is already set, it is set to {@code true} so that {@link Policy}
+ * keeps no per-thread state of its own.</p>
+ *
+ * <p>The program prints the elapsed time and throughput, and exits
+ * with a status of {@code 1} if any decision differed.  Add {@code
+ * -Djdk.tracePinnedThreads=full} to have the JDK report any virtual
+ * thread pinned to its carrier by a monitor.</p>
+ *
+ * <p>This class requires Java 21 and is compiled only by the {@code
+ * java21} profile.  Since {@code java.security.acl} no longer exists
+ * in Java 21, roles are mapped by {@link PrincipalNames} instead of
+ * {@link com.edugility.bauer.AllPrincipalsRoleMapper}.</p>
+ *
+ * <p>Usage: {@code java -cp target/benchmarks.jar
+ * com.edugility.bauer.benchmarks.VirtualThreadStress [threads
+ * [checksPerThread [decisionCacheSize]]]}</p>
+ */
+public final class VirtualThreadStress {
+
+  private static final String CONTEXT_ID = VirtualThreadStress.class.getName();
+
+  private static final int DEFAULT_THREADS = 1000000;
+
+  private static final int DEFAULT_CHECKS_PER_THREAD = 4;
+
+  private VirtualThreadStress() {
+    super();
+  }
+
+  public static final void main(final String[] args) throws PolicyContextException {
+    final int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+    final int checksPerThread = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CHECKS_PER_THREAD;
+    final int decisionCacheSize = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+    // Must happen before the Policy class is initialized.
+    if (System.getProperty("com.edugility.bauer.Policy.virtualThreads") == null) {
+      System.setProperty("com.edugility.bauer.Policy.virtualThreads", "true");
+    }
+    if (System.getProperty("com.edugility.bauer.RoleMapper") == null) {
+      System.setProperty("com.edugility.bauer.RoleMapper", CachingRoleMapper.class.getName());
+      System.setProperty("com.edugility.bauer.CachingRoleMapper.delegate", PrincipalNames.class.getName());
+    }
+
+    final SyntheticPolicy syntheticPolicy = new SyntheticPolicy(SyntheticPolicy.Size.MEDIUM);
+    final PolicyConfiguration configuration = new PolicyConfigurationFactory().getPolicyConfiguration(CONTEXT_ID, true);
+    syntheticPolicy.generate(SyntheticPolicy.sink(configuration));
+    configuration.commit();
+
+    final Policy policy = new Policy();
+    policy.setDecisionCache(decisionCacheSize > 0 ? new DecisionCache(decisionCacheSize) : null);
+
+    final List<ProtectionDomain> domains = new ArrayList<ProtectionDomain>();
+    for (int principalCount = 1; principalCount <= 8; principalCount *= 2) {
+      domains.add(new ProtectionDomain(null, null, null, syntheticPolicy.newPrincipals(principalCount)));
+    }
+    final Permission[] permissions = syntheticPolicy.getCheckedPermissions();
+
+    // Record the expected decisions on this (platform) thread.
+    javax.security.jacc.PolicyContext.setContextID(CONTEXT_ID);
+    final boolean[][] expected = new boolean[domains.size()][permissions.length];
+    for (int d = 0; d < expected.length; d++) {
+      for (int p = 0; p < permissions.length; p++) {
+        expected[d][p] = policy.implies(domains.get(d), permissions[p]);
+      }
+    }
+
+    final LongAdder checks = new LongAdder();
+    final LongAdder mismatches = new LongAdder();
+    final long start = System.nanoTime();
+    try (final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < threads; i++) {
+        final int task = i;
+        executor.execute(() -> {
+            javax.security.jacc.PolicyContext.setContextID(CONTEXT_ID);
+            final int d = task % expected.length;
+            final ProtectionDomain domain = domains.get(d);
+            for (int c = 0; c < checksPerThread; c++) {
+              final int p = (int)(((long)task * checksPerThread + c) % permissions.length);
+              if (policy.implies(domain, permissions[p]) != expected[d][p]) {
+                mismatches.increment();
+              }
+              checks.increment();
+              Thread.yield();
+            }
+          });
+      }
+    }
+    final long elapsedNanos = System.nanoTime() - start;
+
+    final long checkCount = checks.sum();
+    final long mismatchCount = mismatches.sum();
+    System.out.println(String.format("%d virtual threads, %d checks in %.1f ms (%.0f checks/s), decisionCache=%d, virtualThreads=%s: %d mismatches %s",
+                                     threads, checkCount, elapsedNanos / 1.0e6, checkCount / (elapsedNanos / 1.0e9), decisionCacheSize,
+                                     System.getProperty("com.edugility.bauer.Policy.virtualThreads"), mismatchCount, mismatchCount == 0 ? "ok" : "FAILED"));
+    if (mismatchCount != 0 || checkCount != (long)threads * checksPerThread) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * A {@link RoleMapper} that treats the {@linkplain
+   * Principal#getName() names} of all {@link Principal}s as role
+   * names, as {@link com.edugility.bauer.AllPrincipalsRoleMapper}
+   * does for {@link Principal}s that are not groups.
+   */
+  public static final class PrincipalNames implements RoleMapper {
+
+    public PrincipalNames() {
+      super();
+    }
+
+    @Override
+    public final Set<String> getRoles(final Principal[] principals) {
+      final Set<String> returnValue = new HashSet<String>();
+      if (principals != null) {
+        for (final Principal principal : principals) {
+          if (principal != null && principal.getName() != null) {
+            returnValue.add(principal.getName());
+          }
+        }
+      }
+      return returnValue;
+    }
+
+  }
+
+}
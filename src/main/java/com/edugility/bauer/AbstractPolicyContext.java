@@ -62,6 +62,14 @@ import javax.security.jacc.PolicyContextException;
  */
 public abstract class AbstractPolicyContext implements PolicyContext {
 
+  private static final String CLASS_NAME = AbstractPolicyContext.class.getName();
+
+  /**
+   * The {@link Logger} used by this class, looked up once rather than
+   * on every call.
+   */
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
   /**
    * The identifier for this {@link AbstractPolicyContext}.
    *
@@ -69,7 +77,12 @@ public abstract class AbstractPolicyContext implements PolicyContext {
    */
   private final String id;
 
-  private RoleMapper roleMapper;
+  /**
+   * The {@link RoleMapper} consulted by {@link #getRoles(Principal[])},
+   * or {@code null}; volatile so that a {@link LinkGroup} may install
+   * a shared one from another thread.
+   */
+  private volatile RoleMapper roleMapper;
 
   private final ReadWriteLock lock;
 
@@ -171,8 +184,8 @@ public abstract class AbstractPolicyContext implements PolicyContext {
 
   @Override
   public Set<? extends String> getRoles(final Principal[] principals) throws PolicyContextException {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "getRoles", java.util.Arrays.toString(principals));
     }
@@ -197,8 +210,8 @@ public abstract class AbstractPolicyContext implements PolicyContext {
 
  @Override
   public boolean mandates(final Permission p) throws PolicyContextException {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "mandates", p);
     }
@@ -222,8 +235,8 @@ public abstract class AbstractPolicyContext implements PolicyContext {
 
   @Override
   public boolean excludes(final Permission p) throws PolicyContextException {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "excludes", p);
     }
@@ -266,8 +279,8 @@ public abstract class AbstractPolicyContext implements PolicyContext {
 
   @Override
   public boolean grants(final Permission suppliedPermission, final Principal[] principals) throws PolicyContextException {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "grants", new Object[] { suppliedPermission, java.util.Arrays.asList(principals) });
     }
@@ -311,8 +324,8 @@ public abstract class AbstractPolicyContext implements PolicyContext {
 
   @Override
   public PermissionCollection getPermissions(final PermissionCollection delegatePolicyPermissions, final PermissionCollection protectionDomainPermissions, final Principal[] principals) throws PolicyContextException {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "getPermissions", new Object[] { delegatePolicyPermissions, protectionDomainPermissions, java.util.Arrays.toString(principals) });
     }
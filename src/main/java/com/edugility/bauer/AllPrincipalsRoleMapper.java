@@ -70,7 +70,9 @@ public class AllPrincipalsRoleMapper implements RoleMapper {
    * returned.  In systems where the <a
    * href="http://picketbox.jboss.org">PicketBox</a> project is
    * managing authorization, this approach should work (perhaps too
-   * generously in some outlying cases).</p>
+   * generously in some outlying cases).  On a JVM without the {@link
+   * Group} class, which was removed in Java 14, every {@link
+   * Principal}'s name is added.</p>
    *
    * @param principals an array of {@link Principal}s for which role
    * names should be returned; may be {@code null} in which case an
@@ -88,7 +90,7 @@ public class AllPrincipalsRoleMapper implements RoleMapper {
       returnValue = new HashSet<String>();
       for (final Principal p : principals) {
         if (p != null) {
-          if (p instanceof Group) {
+          if (PrincipalsKey.isGroup(p)) {
             final Enumeration<? extends Principal> members = ((Group)p).members();
             if (members != null) {
               while (members.hasMoreElements()) {
@@ -116,4 +118,37 @@ public class AllPrincipalsRoleMapper implements RoleMapper {
     return returnValue;
   }
 
+  /**
+   * Returns a hash code for this {@link AllPrincipalsRoleMapper}
+   * that is consistent with {@link #equals(Object)}.
+   *
+   * @return a hash code
+   */
+  @Override
+  public int hashCode() {
+    return this.getClass().hashCode();
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Object} is an
+   * instance of exactly the same class as this {@link
+   * AllPrincipalsRoleMapper}, since two such instances map roles
+   * identically.
+   *
+   * <p>{@link LinkGroup}s rely on this to let linked policy contexts,
+   * each of which {@linkplain AbstractPolicyContext#findRoleMapper()
+   * finds} its own instance, share one {@link CachingRoleMapper}.  A
+   * subclass with state that affects its roles must override this
+   * method.</p>
+   *
+   * @param other the {@link Object} to compare; may be {@code null}
+   *
+   * @return {@code true} if {@code other} is equal to this {@link
+   * AllPrincipalsRoleMapper}
+   */
+  @Override
+  public boolean equals(final Object other) {
+    return other != null && other.getClass() == this.getClass();
+  }
+
 }
@@ -0,0 +1,842 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.charset.Charset;
+
+import java.security.Permission;
+import java.security.Principal;
+import java.security.ProtectionDomain;
+
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import java.util.concurrent.locks.LockSupport;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An asynchronous log of authorization decisions, written to rotating
+ * files by a background thread.
+ *
+ * <p>A {@link Policy} hands each decision it makes to its {@link
+ * AuditLog}'s {@link #record(String, ProtectionDomain, Permission,
+ * PermissionEvaluation)} method.  Every {@link
+ * PermissionEvaluation#EXCLUDED EXCLUDED} and {@link
+ * PermissionEvaluation#DENIED DENIED} decision is recorded, and a
+ * pseudo-randomly chosen fraction of {@link PermissionEvaluation#GRANTED
+ * GRANTED} and {@link PermissionEvaluation#MANDATED MANDATED} decisions
+ * given by the {@linkplain #getGrantedSampleRate() granted sample
+ * rate}.  Decisions that were not made by the policy context, such as
+ * {@link PermissionEvaluation#INDETERMINATE INDETERMINATE} ones, are
+ * not recorded.</p>
+ *
+ * <h2>Buffering</h2>
+ *
+ * <p>Recorded decisions are placed in a bounded ring buffer that any
+ * number of threads may add to without locking.  The calling thread
+ * never waits: if the buffer is full, the decision is dropped and
+ * {@linkplain #getDroppedCount() counted}.  Nothing is formatted on
+ * the calling thread.</p>
+ *
+ * <h2>Files</h2>
+ *
+ * <p>A daemon thread takes decisions from the buffer in batches of up
+ * to {@value #BATCH_SIZE}, formats them, and appends each batch to
+ * the file {@value #FILE_NAME} in the {@linkplain #getDirectory()
+ * directory} with a single write, without forcing it to disk.  Each
+ * line holds these fields, separated by tabs:</p>
+ *
+ * <ol>
+ *
+ * <li>the UTC time of the decision, in ISO 8601 format;</li>
+ *
+ * <li>the {@link PermissionEvaluation};</li>
+ *
+ * <li>the policy context identifier;</li>
+ *
+ * <li>the {@link ProtectionDomain}'s {@link Principal}s, each as its
+ * class name, {@code =} and its name, separated by commas;</li>
+ *
+ * <li>the {@link Permission}'s class name, name and actions.</li>
+ *
+ * </ol>
+ *
+ * <p>A missing value is written as {@code -}, and backslashes, tabs
+ * and line breaks within a value are escaped with backslashes.</p>
+ *
+ * <p>Once the file reaches the {@linkplain #getMaxFileSize() maximum
+ * file size} it is renamed to {@value #FILE_NAME}{@code .1}, any
+ * earlier {@value #FILE_NAME}{@code .1} to {@value
+ * #FILE_NAME}{@code .2} and so on, and a new file is started.  At most
+ * {@linkplain #getMaxFiles() a fixed number} of files, including the
+ * current one, are kept.  If a batch cannot be written, it is
+ * {@linkplain #getFailedCount() counted}, a warning is logged and the
+ * file is reopened for the next batch.</p>
+ *
+ * <p>{@link #close()} stops the background thread once it has written
+ * every decision already in the buffer.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ *
+ * @see Policy#setAuditLog(AuditLog)
+ */
+public class AuditLog implements Closeable {
+
+  private static final String CLASS_NAME = AuditLog.class.getName();
+
+  /**
+   * The {@link Logger} used by this class, looked up once rather than
+   * on every call.
+   */
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  /**
+   * The default number of decisions the buffer holds.
+   */
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  /**
+   * The default fraction of {@link PermissionEvaluation#GRANTED
+   * GRANTED} and {@link PermissionEvaluation#MANDATED MANDATED}
+   * decisions recorded.
+   */
+  public static final double DEFAULT_GRANTED_SAMPLE_RATE = 0.01;
+
+  /**
+   * The default size, in bytes, at which a file is rotated.
+   */
+  public static final long DEFAULT_MAX_FILE_SIZE = 16L * 1024L * 1024L;
+
+  /**
+   * The default number of files kept, including the current one.
+   */
+  public static final int DEFAULT_MAX_FILES = 10;
+
+  /**
+   * The name of the file to which decisions are currently written.
+   */
+  public static final String FILE_NAME = "audit.log";
+
+  /**
+   * The maximum number of decisions written at once.
+   */
+  static final int BATCH_SIZE = 512;
+
+  /**
+   * How long the background thread waits before looking at an empty
+   * buffer again.
+   */
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10L);
+
+  /**
+   * The granted sample rate that corresponds to recording every
+   * decision, as compared with 53 pseudo-random bits.
+   */
+  private static final long ALWAYS = 1L << 53;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File directory;
+
+  private final double grantedSampleRate;
+
+  /**
+   * {@link #grantedSampleRate} scaled to {@link #ALWAYS}.
+   */
+  private final long grantedThreshold;
+
+  private final long maxFileSize;
+
+  private final int maxFiles;
+
+  /**
+   * The ring buffer; a slot is {@code null} until a decision has been
+   * placed in it, and again once it has been taken.
+   *
+   * <p>This field is never {@code null}.  Its length is a power of
+   * two.</p>
+   */
+  private final AtomicReferenceArray<Record> slots;
+
+  /**
+   * The number of slots ever claimed by {@link #offer(Record)}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicLong tail;
+
+  /**
+   * The number of slots ever emptied by the background thread, which
+   * alone writes it.
+   */
+  private volatile long head;
+
+  /**
+   * The number of decisions dropped because the buffer was full.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final StripedCounter droppedCount;
+
+  /**
+   * The number of decisions written; only written by the background
+   * thread.
+   */
+  private volatile long writtenCount;
+
+  /**
+   * The number of decisions that could not be written; only written
+   * by the background thread.
+   */
+  private volatile long failedCount;
+
+  private volatile boolean closed;
+
+  /**
+   * The background thread.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Thread writer;
+
+  /**
+   * The current file, or {@code null} if it is not open; only used by
+   * the background thread.
+   */
+  private FileOutputStream out;
+
+  /**
+   * The size of the current file; only used by the background
+   * thread.
+   */
+  private long fileSize;
+
+  /**
+   * Whether the last batch could not be written or rotated, so that a
+   * run of failures logs a single warning; only used by the
+   * background thread.
+   */
+  private boolean failing;
+
+  /**
+   * Creates a new {@link AuditLog} writing to the supplied directory,
+   * configured by system properties.
+   *
+   * <p>The {@code com.edugility.bauer.AuditLog.capacity}, {@code
+   * com.edugility.bauer.AuditLog.grantedSampleRate}, {@code
+   * com.edugility.bauer.AuditLog.maxFileSize} and {@code
+   * com.edugility.bauer.AuditLog.maxFiles} system properties, if set,
+   * override {@link #DEFAULT_CAPACITY}, {@link
+   * #DEFAULT_GRANTED_SAMPLE_RATE}, {@link #DEFAULT_MAX_FILE_SIZE} and
+   * {@link #DEFAULT_MAX_FILES} respectively.</p>
+   *
+   * @param directory the directory in which to write; must not be
+   * {@code null}; created if it does not exist
+   *
+   * @exception IllegalArgumentException if {@code directory} is
+   * {@code null} or a system property is invalid
+   *
+   * @see #AuditLog(File, int, double, long, int)
+   */
+  public AuditLog(final File directory) {
+    this(directory,
+         Integer.getInteger("com.edugility.bauer.AuditLog.capacity", DEFAULT_CAPACITY).intValue(),
+         grantedSampleRateProperty(),
+         Long.getLong("com.edugility.bauer.AuditLog.maxFileSize", DEFAULT_MAX_FILE_SIZE).longValue(),
+         Integer.getInteger("com.edugility.bauer.AuditLog.maxFiles", DEFAULT_MAX_FILES).intValue());
+  }
+
+  /**
+   * Creates a new {@link AuditLog} and starts its background thread.
+   *
+   * @param directory the directory in which to write; must not be
+   * {@code null}; created if it does not exist
+   *
+   * @param capacity the number of decisions the buffer holds; must be
+   * greater than {@code 0}; rounded up to a power of two
+   *
+   * @param grantedSampleRate the fraction of {@link
+   * PermissionEvaluation#GRANTED GRANTED} and {@link
+   * PermissionEvaluation#MANDATED MANDATED} decisions to record; must
+   * be between {@code 0} and {@code 1} inclusive
+   *
+   * @param maxFileSize the size, in bytes, at which a file is
+   * rotated; must be greater than {@code 0}
+   *
+   * @param maxFiles the number of files to keep, including the current
+   * one; must be greater than {@code 0}
+   *
+   * @exception IllegalArgumentException if any argument is invalid
+   */
+  public AuditLog(final File directory, final int capacity, final double grantedSampleRate, final long maxFileSize, final int maxFiles) {
+    super();
+    if (directory == null) {
+      throw new IllegalArgumentException("directory", new NullPointerException("directory"));
+    }
+    if (capacity <= 0 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("capacity: " + capacity);
+    }
+    if (!(grantedSampleRate >= 0.0 && grantedSampleRate <= 1.0)) {
+      throw new IllegalArgumentException("grantedSampleRate: " + grantedSampleRate);
+    }
+    if (maxFileSize <= 0L) {
+      throw new IllegalArgumentException("maxFileSize <= 0: " + maxFileSize);
+    }
+    if (maxFiles <= 0) {
+      throw new IllegalArgumentException("maxFiles <= 0: " + maxFiles);
+    }
+    this.directory = directory;
+    this.grantedSampleRate = grantedSampleRate;
+    this.grantedThreshold = (long)(grantedSampleRate * ALWAYS);
+    this.maxFileSize = maxFileSize;
+    this.maxFiles = maxFiles;
+    int length = 1;
+    while (length < capacity) {
+      length <<= 1;
+    }
+    this.slots = new AtomicReferenceArray<Record>(length);
+    this.tail = new AtomicLong();
+    this.droppedCount = new StripedCounter();
+    this.writer = new Thread(new Runnable() {
+        @Override
+        public final void run() {
+          drain();
+        }
+      }, CLASS_NAME + "-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  private static final double grantedSampleRateProperty() {
+    final String grantedSampleRate = System.getProperty("com.edugility.bauer.AuditLog.grantedSampleRate");
+    if (grantedSampleRate == null) {
+      return DEFAULT_GRANTED_SAMPLE_RATE;
+    }
+    try {
+      return Double.parseDouble(grantedSampleRate.trim());
+    } catch (final NumberFormatException badProperty) {
+      throw new IllegalArgumentException("com.edugility.bauer.AuditLog.grantedSampleRate: " + grantedSampleRate, badProperty);
+    }
+  }
+
+  /**
+   * Returns the directory in which this {@link AuditLog} writes.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} directory
+   */
+  public final File getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Returns the number of decisions the buffer holds.
+   *
+   * @return the capacity of the buffer; always a power of two
+   */
+  public final int getCapacity() {
+    return this.slots.length();
+  }
+
+  /**
+   * Returns the fraction of {@link PermissionEvaluation#GRANTED
+   * GRANTED} and {@link PermissionEvaluation#MANDATED MANDATED}
+   * decisions recorded.
+   *
+   * @return the granted sample rate, between {@code 0} and {@code 1}
+   * inclusive
+   */
+  public final double getGrantedSampleRate() {
+    return this.grantedSampleRate;
+  }
+
+  /**
+   * Returns the size, in bytes, at which a file is rotated.
+   *
+   * @return the maximum file size
+   */
+  public final long getMaxFileSize() {
+    return this.maxFileSize;
+  }
+
+  /**
+   * Returns the number of files kept, including the current one.
+   *
+   * @return the maximum number of files
+   */
+  public final int getMaxFiles() {
+    return this.maxFiles;
+  }
+
+  /**
+   * Returns the number of decisions dropped because the buffer was
+   * full.
+   *
+   * @return the number of dropped decisions
+   */
+  public final long getDroppedCount() {
+    return this.droppedCount.sum();
+  }
+
+  /**
+   * Returns the number of decisions written.
+   *
+   * @return the number of written decisions
+   */
+  public final long getWrittenCount() {
+    return this.writtenCount;
+  }
+
+  /**
+   * Returns the number of decisions taken from the buffer that could
+   * not be written.
+   *
+   * @return the number of decisions lost to write failures
+   */
+  public final long getFailedCount() {
+    return this.failedCount;
+  }
+
+  /**
+   * Records the supplied decision, if it is one this {@link AuditLog}
+   * records, without waiting.
+   *
+   * <p>This method never blocks and never throws an exception.  It
+   * allocates memory only for a decision that is recorded.</p>
+   *
+   * @param contextId the identifier of the policy context that made
+   * the decision; may be {@code null}
+   *
+   * @param domain the {@link ProtectionDomain} whose permission was
+   * checked; may be {@code null}
+   *
+   * @param permission the {@link Permission} that was checked; may be
+   * {@code null}
+   *
+   * @param evaluation the decision; may be {@code null} in which case
+   * nothing is recorded
+   *
+   * @return {@code true} if the decision was placed in the buffer;
+   * {@code false} if it was not sampled, was not one this {@link
+   * AuditLog} records, or was dropped, or if this {@link AuditLog} is
+   * closed
+   */
+  public final boolean record(final String contextId, final ProtectionDomain domain, final Permission permission, final PermissionEvaluation evaluation) {
+    if (evaluation == null || this.closed) {
+      return false;
+    }
+    switch (evaluation) {
+    case EXCLUDED:
+    case DENIED:
+      break;
+    case GRANTED:
+    case MANDATED:
+      if (!this.sampleGranted()) {
+        return false;
+      }
+      break;
+    default:
+      return false;
+    }
+    return this.offer(new Record(System.currentTimeMillis(), contextId, domain, permission, evaluation));
+  }
+
+  /**
+   * Returns {@code true} if a granted decision should be recorded,
+   * with a probability of approximately {@link #grantedSampleRate}.
+   *
+   * <p>The decision is made from a mix of the current time in
+   * nanoseconds and the current thread's identifier, so that no state
+   * is shared between threads.</p>
+   */
+  private final boolean sampleGranted() {
+    final long threshold = this.grantedThreshold;
+    if (threshold <= 0L) {
+      return false;
+    } else if (threshold >= ALWAYS) {
+      return true;
+    }
+    long x = System.nanoTime() ^ (Thread.currentThread().getId() * 0x9e3779b97f4a7c15L);
+    x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+    x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+    x ^= x >>> 31;
+    return (x >>> 11) < threshold;
+  }
+
+  /**
+   * Places the supplied {@link Record} in the buffer unless it is
+   * full.
+   *
+   * <p>A slot is claimed by advancing {@link #tail}, which is only
+   * possible while fewer than {@link #getCapacity()} slots are
+   * claimed but not yet emptied, and then filled.  The background
+   * thread stops at a claimed slot that has not yet been filled.</p>
+   *
+   * @return {@code true} if the {@link Record} was placed in the
+   * buffer
+   */
+  private final boolean offer(final Record record) {
+    assert record != null;
+    final AtomicReferenceArray<Record> slots = this.slots;
+    final int capacity = slots.length();
+    final AtomicLong tail = this.tail;
+    while (true) {
+      final long t = tail.get();
+      if (t - this.head >= capacity) {
+        this.droppedCount.increment();
+        return false;
+      }
+      if (tail.compareAndSet(t, t + 1L)) {
+        slots.lazySet((int)t & (capacity - 1), record);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Moves up to {@link #BATCH_SIZE} {@link Record}s from the buffer to
+   * the supplied {@link List}, emptying their slots; only called by
+   * the background thread.
+   */
+  private final void poll(final List<? super Record> batch) {
+    final AtomicReferenceArray<Record> slots = this.slots;
+    final int mask = slots.length() - 1;
+    long head = this.head;
+    while (batch.size() < BATCH_SIZE) {
+      final int index = (int)head & mask;
+      final Record record = slots.get(index);
+      if (record == null) {
+        break;
+      }
+      slots.lazySet(index, null);
+      batch.add(record);
+      head++;
+    }
+    // Publishing the new head also publishes the emptied slots to
+    // the threads that will fill them.
+    this.head = head;
+  }
+
+  /**
+   * The body of the background thread: takes batches from the buffer
+   * and writes them until this {@link AuditLog} is closed and the
+   * buffer is empty.
+   */
+  private final void drain() {
+    final List<Record> batch = new ArrayList<Record>(BATCH_SIZE);
+    final StringBuilder sb = new StringBuilder();
+    final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    final Date date = new Date();
+    long lastTime = Long.MIN_VALUE;
+    String time = null;
+    while (true) {
+      // Read before polling, so that everything placed in the buffer
+      // before close() is written.
+      final boolean closed = this.closed;
+      this.poll(batch);
+      if (!batch.isEmpty()) {
+        sb.setLength(0);
+        for (final Record record : batch) {
+          if (record.time != lastTime) {
+            lastTime = record.time;
+            date.setTime(lastTime);
+            time = format.format(date);
+          }
+          record.appendTo(sb, time);
+        }
+        this.write(sb.toString().getBytes(UTF_8), batch.size());
+        batch.clear();
+      } else if (closed) {
+        break;
+      } else {
+        LockSupport.parkNanos(this, IDLE_NANOS);
+      }
+    }
+    this.closeFile();
+  }
+
+  /**
+   * Appends the supplied formatted batch to the current file,
+   * rotating it if it has reached the maximum file size; only called
+   * by the background thread.
+   */
+  private final void write(final byte[] bytes, final int count) {
+    try {
+      if (this.out == null) {
+        this.openFile();
+      }
+      this.out.write(bytes);
+    } catch (final IOException kaboom) {
+      this.failedCount += count;
+      this.closeFile();
+      this.warn("write", "Could not write audit records to " + this.directory, kaboom);
+      return;
+    }
+    this.fileSize += bytes.length;
+    this.writtenCount += count;
+    if (this.fileSize >= this.maxFileSize) {
+      try {
+        this.rotate();
+      } catch (final IOException kaboom) {
+        // The current file is reopened and rotation tried again
+        // after the next batch.
+        this.warn("rotate", "Could not rotate audit files in " + this.directory, kaboom);
+        return;
+      }
+    }
+    this.failing = false;
+  }
+
+  /**
+   * Logs a warning, unless one has been logged since the last batch
+   * was written and rotated without trouble.
+   */
+  private final void warn(final String methodName, final String message, final IOException kaboom) {
+    if (!this.failing) {
+      this.failing = true;
+      final Logger logger = LOGGER;
+      if (logger != null && logger.isLoggable(Level.WARNING)) {
+        logger.logp(Level.WARNING, CLASS_NAME, methodName, message, kaboom);
+      }
+    }
+  }
+
+  private final void openFile() throws IOException {
+    if (!this.directory.isDirectory() && !this.directory.mkdirs() && !this.directory.isDirectory()) {
+      throw new IOException("Could not create directory " + this.directory);
+    }
+    final File file = new File(this.directory, FILE_NAME);
+    this.out = new FileOutputStream(file, true);
+    this.fileSize = file.length();
+  }
+
+  /**
+   * Closes the current file and renames it, and its predecessors, so
+   * that the next batch starts a new one.
+   */
+  private final void rotate() throws IOException {
+    this.closeFile();
+    final File oldest = new File(this.directory, FILE_NAME + "." + (this.maxFiles - 1));
+    if (oldest.exists() && !oldest.delete()) {
+      throw new IOException("Could not delete " + oldest);
+    }
+    for (int i = this.maxFiles - 2; i > 0; i--) {
+      final File file = new File(this.directory, FILE_NAME + "." + i);
+      if (file.exists() && !file.renameTo(new File(this.directory, FILE_NAME + "." + (i + 1)))) {
+        throw new IOException("Could not rename " + file);
+      }
+    }
+    final File current = new File(this.directory, FILE_NAME);
+    if (this.maxFiles > 1) {
+      if (!current.renameTo(new File(this.directory, FILE_NAME + ".1"))) {
+        throw new IOException("Could not rename " + current);
+      }
+    } else if (!current.delete()) {
+      throw new IOException("Could not delete " + current);
+    }
+  }
+
+  private final void closeFile() {
+    final FileOutputStream out = this.out;
+    if (out != null) {
+      this.out = null;
+      try {
+        out.close();
+      } catch (final IOException ignore) {
+        // Nothing more can be done.
+      }
+    }
+  }
+
+  /**
+   * Stops recording decisions and waits for the background thread to
+   * write every decision already in the buffer and close the current
+   * file.
+   *
+   * <p>Decisions recorded while this method is running may or may not
+   * be written.  Calling this method more than once has no further
+   * effect.</p>
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    LockSupport.unpark(this.writer);
+    if (Thread.currentThread() != this.writer) {
+      boolean interrupted = false;
+      while (this.writer.isAlive()) {
+        try {
+          this.writer.join();
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return new StringBuilder(this.getClass().getName())
+      .append("[directory=").append(this.getDirectory())
+      .append(", capacity=").append(this.getCapacity())
+      .append(", grantedSampleRate=").append(this.getGrantedSampleRate())
+      .append(", written=").append(this.getWrittenCount())
+      .append(", dropped=").append(this.getDroppedCount())
+      .append(", failed=").append(this.getFailedCount())
+      .append("]")
+      .toString();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A decision waiting in the buffer.
+   *
+   * <p>It holds references rather than strings so that nothing is
+   * formatted until the background thread writes it.</p>
+   */
+  private static final class Record {
+
+    private final long time;
+
+    private final String contextId;
+
+    private final ProtectionDomain domain;
+
+    private final Permission permission;
+
+    private final PermissionEvaluation evaluation;
+
+    private Record(final long time, final String contextId, final ProtectionDomain domain, final Permission permission, final PermissionEvaluation evaluation) {
+      super();
+      this.time = time;
+      this.contextId = contextId;
+      this.domain = domain;
+      this.permission = permission;
+      this.evaluation = evaluation;
+    }
+
+    /**
+     * Appends this {@link Record} to the supplied {@link
+     * StringBuilder} as a line of tab-separated fields.
+     */
+    private final void appendTo(final StringBuilder sb, final String time) {
+      sb.append(time).append('\t').append(this.evaluation.name()).append('\t');
+      append(sb, this.contextId);
+      sb.append('\t');
+      final Principal[] principals = this.domain == null ? null : this.domain.getPrincipals();
+      if (principals == null || principals.length <= 0) {
+        sb.append('-');
+      } else {
+        for (int i = 0; i < principals.length; i++) {
+          if (i > 0) {
+            sb.append(',');
+          }
+          final Principal principal = principals[i];
+          if (principal == null) {
+            sb.append('-');
+          } else {
+            append(sb, principal.getClass().getName());
+            sb.append('=');
+            append(sb, principal.getName());
+          }
+        }
+      }
+      sb.append('\t');
+      final Permission permission = this.permission;
+      if (permission == null) {
+        sb.append("-\t-\t-");
+      } else {
+        append(sb, permission.getClass().getName());
+        sb.append('\t');
+        append(sb, permission.getName());
+        sb.append('\t');
+        append(sb, permission.getActions());
+      }
+      sb.append('\n');
+    }
+
+    /**
+     * Appends the supplied value, escaping backslashes, tabs and line
+     * breaks, or {@code -} if it is {@code null} or empty.
+     */
+    private static final void append(final StringBuilder sb, final String value) {
+      if (value == null || value.length() <= 0) {
+        sb.append('-');
+        return;
+      }
+      for (int i = 0; i < value.length(); i++) {
+        final char c = value.charAt(i);
+        switch (c) {
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        default:
+          sb.append(c);
+          break;
+        }
+      }
+    }
+
+  }
+
+}
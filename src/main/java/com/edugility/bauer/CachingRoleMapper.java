@@ -0,0 +1,452 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Principal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.security.jacc.PolicyContextException;
+
+/**
+ * A {@link RoleMapper} that remembers the role names another {@link
+ * RoleMapper} computed for a given set of {@link Principal}s.
+ *
+ * <p>A logged-in user's {@link Principal}s normally stay the same for
+ * the whole of their session, so there is usually no need to
+ * recompute the role names they map to on every authorization
+ * check.  A {@link CachingRoleMapper} keys its cache on a canonical,
+ * order-insensitive fingerprint of the {@link Principal} array, and
+ * returns the same unmodifiable {@link Set} to every caller
+ * presenting an equivalent array.  Two arrays are equivalent if they
+ * hold {@linkplain Principal#equals(Object) equal} {@link
+ * Principal}s and every {@link java.security.acl.Group} among them
+ * has equivalent members, at every level of nesting.  That {@link
+ * Set} also remembers the {@linkplain RoleTable role bitset} it is
+ * converted to when a {@link CommittedPolicy} checks its grants, so
+ * the conversion, too, happens only once per subject.  Looking up a
+ * cached entry allocates no memory unless the array contains a {@link
+ * java.security.acl.Group}, whose members are read afresh on every
+ * lookup.</p>
+ *
+ * <p>Entries are evicted when they have not been used for a
+ * configurable idle time, and the least recently used entries are
+ * evicted when the cache grows beyond a configurable size.  A change
+ * to a {@link java.security.acl.Group}'s members changes the
+ * fingerprint, so it is noticed on the next lookup.  But a change to
+ * a user's group membership made during their session and not
+ * reflected in the {@link Principal}s they present, such as one made
+ * in a directory the delegate consults, is not noticed until their
+ * entry has gone unused for the idle time and been evicted.</p>
+ *
+ * <h2>Enabling</h2>
+ *
+ * <p>To install a {@link CachingRoleMapper}, either set the {@code
+ * com.edugility.bauer.RoleMapper} system property to {@code
+ * com.edugility.bauer.CachingRoleMapper}, or list this class in a
+ * {@code META-INF/services/com.edugility.bauer.RoleMapper} file that
+ * precedes Bauer's own.  When created with its zero-argument
+ * constructor, a {@link CachingRoleMapper} wraps:</p>
+ *
+ * <ol>
+ *
+ * <li>the {@link RoleMapper} named by the {@code
+ * com.edugility.bauer.CachingRoleMapper.delegate} system property, if
+ * set; otherwise</li>
+ *
+ * <li>the first {@link RoleMapper} found by the {@link ServiceLoader}
+ * that is not itself a {@link CachingRoleMapper}; otherwise</li>
+ *
+ * <li>an {@link AllPrincipalsRoleMapper}.</li>
+ *
+ * </ol>
+ *
+ * <p>The {@code com.edugility.bauer.CachingRoleMapper.maximumSize}
+ * and {@code com.edugility.bauer.CachingRoleMapper.idleTimeoutMillis}
+ * system properties, if set, override the default size bound of
+ * {@value #DEFAULT_MAXIMUM_SIZE} entries and the default idle time of
+ * {@value #DEFAULT_IDLE_TIMEOUT_MILLIS} milliseconds.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ *
+ * @see RoleMapper
+ *
+ * @see AbstractPolicyContext#findRoleMapper()
+ */
+public class CachingRoleMapper implements RoleMapper {
+
+  /**
+   * The default maximum number of entries: {@value}.
+   */
+  public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+  /**
+   * The default idle time, in milliseconds, after which an unused
+   * entry is evicted: {@value} (30 minutes).
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30L * 60L * 1000L;
+
+  /**
+   * Per-thread {@link PrincipalsKey.Probe}s used to look up entries
+   * without building a {@link PrincipalsKey}.
+   *
+   * <p>Not used if {@link Policy#VIRTUAL_THREADS} is {@code true}; a
+   * short-lived {@link PrincipalsKey.Probe} is allocated instead.</p>
+   */
+  private static final ThreadLocal<PrincipalsKey.Probe> probes = new ThreadLocal<PrincipalsKey.Probe>() {
+    @Override
+    protected final PrincipalsKey.Probe initialValue() {
+      return new PrincipalsKey.Probe();
+    }
+  };
+
+  private final RoleMapper delegate;
+
+  private final int maximumSize;
+
+  private final long idleTimeoutNanos;
+
+  private final ConcurrentMap<PrincipalsKey, Entry> entries;
+
+  /**
+   * Guards against more than one thread trimming {@link #entries} at
+   * the same time.
+   */
+  private final AtomicBoolean trimming;
+
+  /**
+   * Creates a new {@link CachingRoleMapper} that wraps a {@linkplain
+   * CachingRoleMapper discovered} {@link RoleMapper} and is sized
+   * according to system properties.
+   *
+   * @exception IllegalArgumentException if a system property has an
+   * invalid value
+   *
+   * @see CachingRoleMapper
+   */
+  public CachingRoleMapper() {
+    this(findDelegate());
+  }
+
+  /**
+   * Creates a new {@link CachingRoleMapper} that wraps the supplied
+   * {@link RoleMapper} and is sized according to system properties.
+   *
+   * @param delegate the {@link RoleMapper} whose results will be
+   * cached; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code delegate} is {@code
+   * null} or a system property has an invalid value
+   *
+   * @see CachingRoleMapper
+   */
+  public CachingRoleMapper(final RoleMapper delegate) {
+    this(delegate,
+         Integer.getInteger("com.edugility.bauer.CachingRoleMapper.maximumSize", DEFAULT_MAXIMUM_SIZE).intValue(),
+         Long.getLong("com.edugility.bauer.CachingRoleMapper.idleTimeoutMillis", DEFAULT_IDLE_TIMEOUT_MILLIS).longValue(),
+         TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Creates a new {@link CachingRoleMapper}.
+   *
+   * @param delegate the {@link RoleMapper} whose results will be
+   * cached; must not be {@code null}
+   *
+   * @param maximumSize the maximum number of entries to retain; must
+   * be greater than {@code 0}
+   *
+   * @param idleTimeout the amount of time after which an entry that
+   * has not been used will be evicted; must be greater than {@code 0}
+   *
+   * @param idleTimeoutUnit the {@link TimeUnit} in which {@code
+   * idleTimeout} is expressed; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if any parameter is invalid
+   */
+  public CachingRoleMapper(final RoleMapper delegate, final int maximumSize, final long idleTimeout, final TimeUnit idleTimeoutUnit) {
+    super();
+    if (delegate == null) {
+      throw new IllegalArgumentException("delegate", new NullPointerException("delegate"));
+    }
+    if (delegate == this) {
+      throw new IllegalArgumentException("delegate == this");
+    }
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize <= 0: " + maximumSize);
+    }
+    if (idleTimeout <= 0L) {
+      throw new IllegalArgumentException("idleTimeout <= 0: " + idleTimeout);
+    }
+    if (idleTimeoutUnit == null) {
+      throw new IllegalArgumentException("idleTimeoutUnit", new NullPointerException("idleTimeoutUnit"));
+    }
+    this.delegate = delegate;
+    this.maximumSize = maximumSize;
+    this.idleTimeoutNanos = idleTimeoutUnit.toNanos(idleTimeout);
+    this.entries = new ConcurrentHashMap<PrincipalsKey, Entry>(Math.min(maximumSize, 1 << 12));
+    this.trimming = new AtomicBoolean();
+  }
+
+  /**
+   * Returns the {@link RoleMapper} whose results this {@link
+   * CachingRoleMapper} caches.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} delegate {@link RoleMapper}
+   */
+  public final RoleMapper getDelegate() {
+    return this.delegate;
+  }
+
+  /**
+   * Returns the number of entries currently cached.
+   *
+   * @return the number of entries currently cached
+   */
+  public int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * Removes all cached entries.
+   */
+  public void clear() {
+    this.entries.clear();
+  }
+
+  /**
+   * Returns a non-{@code null}, unmodifiable {@link Set} of role names
+   * appropriate for the supplied {@link Principal} array, consulting
+   * the {@linkplain #getDelegate() delegate} only if no live cached
+   * entry exists.
+   *
+   * <p>This method never returns {@code null}.  Callers presenting
+   * equivalent {@link Principal} arrays will receive the same {@link
+   * Set} instance.</p>
+   *
+   * @param principals the {@link Principal}s to map; may be {@code
+   * null}
+   *
+   * @return a non-{@code null}, unmodifiable {@link Set} of role
+   * names
+   *
+   * @exception PolicyContextException if the delegate {@link
+   * RoleMapper} throws it
+   */
+  @Override
+  public Set<String> getRoles(final Principal[] principals) throws PolicyContextException {
+    final long now = System.nanoTime();
+    final PrincipalsKey.Probe probe = (Policy.VIRTUAL_THREADS ? new PrincipalsKey.Probe() : probes.get()).reset(principals);
+    final PrincipalsKey key;
+    Entry entry;
+    try {
+      entry = this.entries.get(probe);
+      if (entry != null && now - entry.lastAccess <= this.idleTimeoutNanos) {
+        entry.lastAccess = now;
+        return entry.roles;
+      }
+      key = probe.toKey();
+    } finally {
+      // Don't hold on to the caller's Principals.
+      probe.reset(null);
+    }
+    if (entry != null) {
+      this.entries.remove(key, entry);
+    }
+
+    final Set<String> roles = this.delegate.getRoles(principals);
+    final Set<String> sharedRoles;
+    if (roles == null || roles.isEmpty()) {
+      sharedRoles = Collections.emptySet();
+    } else {
+      sharedRoles = new RoleSet(new HashSet<String>(roles));
+    }
+    entry = new Entry(sharedRoles, now);
+    final Entry existingEntry = this.entries.putIfAbsent(key, entry);
+    if (existingEntry != null) {
+      // Another thread beat us to it; share its result instead.
+      existingEntry.lastAccess = now;
+      return existingEntry.roles;
+    }
+    if (this.entries.size() > this.maximumSize) {
+      this.trim(now);
+    }
+    return sharedRoles;
+  }
+
+  /**
+   * Removes idle entries and, if that is not enough, the least
+   * recently used entries until this {@link CachingRoleMapper} holds
+   * no more than approximately 90% of its maximum size.
+   *
+   * <p>Only one thread at a time trims; other threads return
+   * immediately.</p>
+   *
+   * @param now the current value of {@link System#nanoTime()}
+   */
+  private final void trim(final long now) {
+    if (this.trimming.compareAndSet(false, true)) {
+      try {
+        final List<EvictionCandidate> live = new ArrayList<EvictionCandidate>(this.entries.size());
+        final Iterator<Map.Entry<PrincipalsKey, Entry>> iterator = this.entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+          final Map.Entry<PrincipalsKey, Entry> mapEntry = iterator.next();
+          final Entry entry = mapEntry.getValue();
+          final long lastAccess = entry.lastAccess;
+          if (now - lastAccess > this.idleTimeoutNanos) {
+            iterator.remove();
+          } else {
+            live.add(new EvictionCandidate(mapEntry.getKey(), entry, lastAccess));
+          }
+        }
+        final int target = Math.max(1, this.maximumSize - this.maximumSize / 10);
+        final int excess = live.size() - target;
+        if (excess > 0) {
+          Collections.sort(live);
+          for (int i = 0; i < excess; i++) {
+            final EvictionCandidate candidate = live.get(i);
+            this.entries.remove(candidate.key, candidate.entry);
+          }
+        }
+      } finally {
+        this.trimming.set(false);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getName() + "[delegate=" + this.delegate + ", size=" + this.size() + "]";
+  }
+
+  private static final RoleMapper findDelegate() {
+    final String cn = CachingRoleMapper.class.getName();
+    final Logger logger = Logger.getLogger(cn);
+    RoleMapper returnValue = null;
+    final String name = System.getProperty("com.edugility.bauer.CachingRoleMapper.delegate");
+    if (name != null) {
+      try {
+        returnValue = (RoleMapper)Class.forName(name, true, Thread.currentThread().getContextClassLoader()).newInstance();
+      } catch (final RuntimeException throwMe) {
+        throw throwMe;
+      } catch (final Exception everythingElse) {
+        throw new IllegalArgumentException("com.edugility.bauer.CachingRoleMapper.delegate: " + name, everythingElse);
+      }
+    }
+    if (returnValue == null) {
+      final ServiceLoader<RoleMapper> sl = ServiceLoader.load(RoleMapper.class);
+      if (sl != null) {
+        for (final RoleMapper rm : sl) {
+          if (rm != null && !(rm instanceof CachingRoleMapper)) {
+            returnValue = rm;
+            break;
+          }
+        }
+      }
+    }
+    if (returnValue == null) {
+      returnValue = new AllPrincipalsRoleMapper();
+    }
+    if (logger != null && logger.isLoggable(Level.FINE)) {
+      logger.logp(Level.FINE, cn, "findDelegate", "Caching roles computed by {0}", returnValue);
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  private static final class Entry {
+
+    private final Set<String> roles;
+
+    /**
+     * The value of {@link System#nanoTime()} when this {@link Entry}
+     * was last used.  Updates may race; any recent value will do.
+     */
+    private volatile long lastAccess;
+
+    private Entry(final Set<String> roles, final long lastAccess) {
+      super();
+      this.roles = roles;
+      this.lastAccess = lastAccess;
+    }
+
+  }
+
+  /**
+   * An {@link Entry} considered for eviction, together with the time
+   * it was last used as of the moment it was considered, so that
+   * sorting is stable even while other threads keep using it.
+   */
+  private static final class EvictionCandidate implements Comparable<EvictionCandidate> {
+
+    private final PrincipalsKey key;
+
+    private final Entry entry;
+
+    private final long lastAccess;
+
+    private EvictionCandidate(final PrincipalsKey key, final Entry entry, final long lastAccess) {
+      super();
+      this.key = key;
+      this.entry = entry;
+      this.lastAccess = lastAccess;
+    }
+
+    @Override
+    public final int compareTo(final EvictionCandidate her) {
+      final long difference = this.lastAccess - her.lastAccess;
+      return difference < 0L ? -1 : (difference > 0L ? 1 : 0);
+    }
+
+  }
+
+}
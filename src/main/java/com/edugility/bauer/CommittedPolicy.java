@@ -0,0 +1,1189 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+import java.security.PermissionCollection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An immutable, frozen copy of the excluded, unchecked and per-role
+ * policy statements of a {@link PolicyContext} as they stood at the
+ * moment it was {@linkplain ConfigurablePolicyContext#commit()
+ * committed}.
+ *
+ * <p>Because a {@link CommittedPolicy} can never change, none of its
+ * methods acquire any locks.  A {@link ConfigurablePolicyContext}
+ * publishes a new {@link CommittedPolicy} through a single {@code
+ * volatile} reference each time it is committed, so readers always
+ * see a complete and consistent set of policy statements.</p>
+ *
+ * <p>A {@link CommittedPolicy} may also be {@linkplain
+ * PolicySnapshot#getCommittedPolicy() read from a
+ * <code>PolicySnapshot</code>}, in which case its parts are decoded
+ * from the snapshot only as they are first consulted.</p>
+ *
+ * <p>The part of {@link #getPermissions(PermissionCollection,
+ * PermissionCollection, Collection)}'s result that depends only on
+ * the roles supplied is computed once per distinct set of roles and
+ * cached.  When more role sets than the {@code
+ * com.edugility.bauer.CommittedPolicy.permissionsCacheSize} system
+ * property allows ({@value #DEFAULT_PERMISSIONS_CACHE_SIZE} by
+ * default) are cached, the least recently used are evicted.  Since a
+ * new {@link CommittedPolicy} is published on every commit, the cache
+ * never outlives the policy it was computed from.</p>
+ *
+ * <p>{@link ConfigurablePolicyContext}s that commit the same
+ * statements from scratch share a single {@linkplain #getCanonical()
+ * canonical} {@link CommittedPolicy}: each publishes its own {@link
+ * CommittedPolicy}, with its own {@linkplain #getVersion() version
+ * number}, but all of them share the canonical one's parts, indexes
+ * and cache.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ *
+ * @see ConfigurablePolicyContext#getCommittedPolicy()
+ */
+public final class CommittedPolicy {
+
+  /**
+   * The default maximum number of role sets whose permissions each
+   * {@link CommittedPolicy} caches.
+   */
+  public static final int DEFAULT_PERMISSIONS_CACHE_SIZE = 256;
+
+  /**
+   * The maximum number of role sets whose permissions each {@link
+   * CommittedPolicy} caches.
+   */
+  private static final int PERMISSIONS_CACHE_SIZE = Integer.getInteger("com.edugility.bauer.CommittedPolicy.permissionsCacheSize", DEFAULT_PERMISSIONS_CACHE_SIZE).intValue();
+
+  /**
+   * The approximate number of bytes {@link #estimatedSize()} charges
+   * for each object, covering its header, fields and the entry that
+   * refers to it.
+   */
+  private static final long OBJECT_OVERHEAD = 48L;
+
+  /**
+   * The excluded policy.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ImmutablePermissions excludedPolicy;
+
+  /**
+   * A negative pre-filter for {@link #excludes(Permission)} built from
+   * the excluded policy.
+   *
+   * <p>This field may be {@code null} if the excluded policy is empty
+   * or cannot be filtered.</p>
+   */
+  private final ExclusionFilter exclusionFilter;
+
+  /**
+   * The unchecked policy.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ImmutablePermissions uncheckedPolicy;
+
+  /**
+   * An unmodifiable {@link Map} of {@link ImmutablePermissions}
+   * indexed by the role names to which they apply.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<String, ImmutablePermissions> perRolePolicy;
+
+  /**
+   * The {@link RoleTable} assigning an identifier to each key of
+   * {@link #perRolePolicy}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final RoleTable roleTable;
+
+  /**
+   * A {@link RoleGrantIndex} over the values of {@link
+   * #perRolePolicy}, or {@code null} if there are none.
+   */
+  private final RoleGrantIndex roleGrantIndex;
+
+  /**
+   * The {@link PolicyVersion} from which this {@link CommittedPolicy}
+   * was built, or {@code null} if it was built some other way.
+   */
+  private final PolicyVersion version;
+
+  /**
+   * The non-{@linkplain #excludes(Permission) excluded} {@link
+   * Permission}s of the unchecked policy and of the policies of each
+   * set of roles for which they have been {@linkplain
+   * #grantedPermissions(Collection) computed}, indexed by the role
+   * set's {@linkplain #roleBits(Collection) bitset}, or {@code null}
+   * until they are first computed.
+   *
+   * <p>This field is initialized lazily; if two threads race to do
+   * so, one thread's entries are simply lost.</p>
+   */
+  private volatile PermissionsCache grantedPermissions;
+
+  /**
+   * The value returned by {@link #estimatedSize()}, or {@code 0} until
+   * it is first computed.
+   */
+  private volatile long estimatedSize;
+
+  /**
+   * The {@link CommittedPolicy} whose parts and caches this one
+   * shares, which is this one unless it was built from a {@link
+   * PolicyDigest}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final CommittedPolicy canonical;
+
+  /**
+   * The {@link PolicyDigest} from which this {@link CommittedPolicy}
+   * was built, kept so that it stays {@linkplain Interner interned}
+   * for as long as any {@link CommittedPolicy} shares its parts, or
+   * {@code null}.
+   */
+  private final PolicyDigest digest;
+
+  /**
+   * Creates a new {@link CommittedPolicy} by copying the supplied
+   * policy statements.
+   *
+   * @param excludedPolicy the excluded policy; may be {@code null}
+   *
+   * @param uncheckedPolicy the unchecked policy; may be {@code null}
+   *
+   * @param perRolePolicy a {@link Map} of {@link
+   * PermissionCollection}s indexed by role name; may be {@code null}
+   */
+  CommittedPolicy(final PermissionCollection excludedPolicy, final PermissionCollection uncheckedPolicy, final Map<? extends String, ? extends PermissionCollection> perRolePolicy) {
+    super();
+    this.excludedPolicy = new ImmutablePermissions(excludedPolicy);
+    this.exclusionFilter = this.excludedPolicy.isEmpty() ? null : ExclusionFilter.of(this.excludedPolicy);
+    this.uncheckedPolicy = new ImmutablePermissions(uncheckedPolicy);
+    if (perRolePolicy == null || perRolePolicy.isEmpty()) {
+      this.perRolePolicy = Collections.emptyMap();
+    } else {
+      final Map<String, ImmutablePermissions> map = new HashMap<String, ImmutablePermissions>();
+      for (final Map.Entry<? extends String, ? extends PermissionCollection> entry : perRolePolicy.entrySet()) {
+        final String roleName = entry.getKey();
+        if (roleName != null) {
+          map.put(roleName, new ImmutablePermissions(entry.getValue()));
+        }
+      }
+      this.perRolePolicy = Collections.unmodifiableMap(map);
+    }
+    this.roleTable = new RoleTable(this.perRolePolicy.keySet());
+    if (this.perRolePolicy.isEmpty()) {
+      this.roleGrantIndex = null;
+    } else {
+      this.roleGrantIndex = new RoleGrantIndex(this.roleTable, this.perRolePolicy);
+    }
+    this.version = null;
+    this.canonical = this;
+    this.digest = null;
+  }
+
+  /**
+   * Creates a new {@link CommittedPolicy} from the supplied {@link
+   * PolicyVersion}, reusing every part of the supplied previous
+   * {@link CommittedPolicy} whose policy statements did not change.
+   *
+   * <p>Because a {@link PolicyVersion} shares every persistent map it
+   * did not change with the version it was derived from, an unchanged
+   * part is recognized by reference equality.  The excluded and
+   * unchecked policies, each per-role policy, the {@link RoleTable}
+   * and the {@link PermissionIndex} of the grants of each permission
+   * class are each rebuilt only if they changed.  Grants merely added
+   * to a permission class are laid over its existing {@link
+   * PermissionIndex} as a {@link PermissionIndex.Overlay}, found by
+   * {@linkplain PersistentHashMap#changesSince(PersistentHashMap, Map,
+   * int) comparing} the two versions' grants, until there are enough
+   * of them to warrant rebuilding.  The cost of a commit that only
+   * adds role grants is therefore proportional to what was added,
+   * plus a pass over the role names and permission classes.</p>
+   *
+   * <p>If a {@link LinkGroup} assigns {@code version}'s role
+   * identifiers, its current {@link RoleTable} is adopted whenever
+   * the role identifiers changed, so that {@linkplain
+   * ConfigurablePolicyContext#linkConfiguration(javax.security.jacc.PolicyConfiguration)
+   * linked} policy contexts share role bitsets.</p>
+   *
+   * @param version the {@link PolicyVersion} to publish; must not be
+   * {@code null}
+   *
+   * @param previous the {@link CommittedPolicy} published before; may
+   * be {@code null}
+   */
+  CommittedPolicy(final PolicyVersion version, final CommittedPolicy previous) {
+    super();
+    assert version != null;
+    final PolicyVersion prior = previous == null ? null : previous.version;
+    this.version = version;
+
+    final Collection<Permission> excludedAdditions;
+    if (prior == null) {
+      excludedAdditions = null;
+      this.excludedPolicy = new ImmutablePermissions(version.getExcludedPolicy().keys());
+    } else {
+      excludedAdditions = additions(previous.excludedPolicy, prior.getExcludedPolicy(), version.getExcludedPolicy());
+      if (excludedAdditions == null) {
+        this.excludedPolicy = new ImmutablePermissions(version.getExcludedPolicy().keys());
+      } else {
+        this.excludedPolicy = previous.excludedPolicy.plus(excludedAdditions);
+      }
+    }
+    if (this.excludedPolicy.isEmpty()) {
+      this.exclusionFilter = null;
+    } else if (excludedAdditions == null || previous.exclusionFilter == null) {
+      this.exclusionFilter = ExclusionFilter.of(this.excludedPolicy);
+    } else if (excludedAdditions.isEmpty()) {
+      this.exclusionFilter = previous.exclusionFilter;
+    } else {
+      this.exclusionFilter = previous.exclusionFilter.plus(this.excludedPolicy, excludedAdditions);
+    }
+
+    this.uncheckedPolicy = permissions(previous == null ? null : previous.uncheckedPolicy, prior == null ? null : prior.getUncheckedPolicy(), version.getUncheckedPolicy());
+
+    final PersistentHashMap<String, PersistentHashMap<Permission, Permission>> roles = version.getRoles();
+    if (prior != null && prior.getRoles() == roles && prior.getRoleIds() == version.getRoleIds()) {
+      this.perRolePolicy = previous.perRolePolicy;
+      this.roleTable = previous.roleTable;
+      this.roleGrantIndex = previous.roleGrantIndex;
+    } else if (roles.isEmpty()) {
+      this.perRolePolicy = Collections.emptyMap();
+      this.roleTable = roleTable(version);
+      this.roleGrantIndex = null;
+    } else {
+      final Map<String, ImmutablePermissions> map = new HashMap<String, ImmutablePermissions>(roles.size() * 4 / 3 + 1);
+      for (final Map.Entry<String, PersistentHashMap<Permission, Permission>> entry : roles.entries()) {
+        final String roleName = entry.getKey();
+        final PersistentHashMap<Permission, Permission> rolePolicy = entry.getValue();
+        if (prior == null) {
+          map.put(roleName, new ImmutablePermissions(rolePolicy.keys()));
+        } else {
+          map.put(roleName, permissions(previous.perRolePolicy.get(roleName), prior.getRoles().get(roleName), rolePolicy));
+        }
+      }
+      this.perRolePolicy = Collections.unmodifiableMap(map);
+
+      if (prior != null && prior.getRoleIds() == version.getRoleIds()) {
+        this.roleTable = previous.roleTable;
+      } else {
+        this.roleTable = roleTable(version);
+      }
+
+      final PermissionCollection[] rolePolicies = new PermissionCollection[this.roleTable.size()];
+      for (final Map.Entry<String, ImmutablePermissions> entry : map.entrySet()) {
+        rolePolicies[this.roleTable.idOf(entry.getKey())] = entry.getValue();
+      }
+      final PersistentHashMap<Class<?>, PersistentHashMap<Permission, long[]>> grants = version.getGrants();
+      final Map<Class<?>, PermissionIndex> indexes = new HashMap<Class<?>, PermissionIndex>(grants.size() * 4 / 3 + 1);
+      for (final Map.Entry<Class<?>, PersistentHashMap<Permission, long[]>> entry : grants.entries()) {
+        final Class<?> c = entry.getKey();
+        final PersistentHashMap<Permission, long[]> permissions = entry.getValue();
+        PermissionIndex index = null;
+        if (prior != null && previous.roleGrantIndex != null) {
+          final PersistentHashMap<Permission, long[]> priorPermissions = prior.getGrants().get(c);
+          if (priorPermissions != null) {
+            final PermissionIndex priorIndex = previous.roleGrantIndex.getIndex(c);
+            if (priorIndex != null) {
+              if (priorPermissions == permissions) {
+                index = priorIndex;
+              } else {
+                index = overlay(priorIndex, priorPermissions, permissions);
+              }
+            }
+          }
+        }
+        if (index == null) {
+          final List<Map.Entry<Permission, long[]>> grantEntries = permissions.entries();
+          final Permission[] keys = new Permission[grantEntries.size()];
+          final long[][] grantingRoles = new long[keys.length][];
+          for (int i = 0; i < keys.length; i++) {
+            final Map.Entry<Permission, long[]> grantEntry = grantEntries.get(i);
+            keys[i] = grantEntry.getKey();
+            grantingRoles[i] = grantEntry.getValue();
+          }
+          index = PermissionIndex.of(keys, grantingRoles);
+        }
+        indexes.put(c, index);
+      }
+      this.roleGrantIndex = new RoleGrantIndex(rolePolicies, version.getUnindexedRoles(), indexes);
+    }
+    this.canonical = this;
+    this.digest = null;
+  }
+
+  /**
+   * Creates a new {@link CommittedPolicy} that shares the parts,
+   * indexes and {@linkplain #getPermissions(PermissionCollection,
+   * PermissionCollection, Collection) permission cache} of the {@link
+   * CommittedPolicy} {@linkplain PolicyDigest#getCommittedPolicy()
+   * built} from the supplied {@link PolicyDigest}, but has its own
+   * version number.
+   *
+   * <p>Its {@link PolicyVersion} is the {@link PolicyDigest}'s, so a
+   * {@link ConfigurablePolicyContext} that adopts it as its draft
+   * holds no persistent maps of its own until it is changed, and a
+   * later commit can reuse the shared parts as it would reuse its
+   * own.</p>
+   *
+   * @param digest the {@link PolicyDigest}; must not be {@code null}
+   *
+   * @param number the version number
+   */
+  CommittedPolicy(final PolicyDigest digest, final long number) {
+    super();
+    assert digest != null;
+    final CommittedPolicy canonical = digest.getCommittedPolicy();
+    this.excludedPolicy = canonical.excludedPolicy;
+    this.exclusionFilter = canonical.exclusionFilter;
+    this.uncheckedPolicy = canonical.uncheckedPolicy;
+    this.perRolePolicy = canonical.perRolePolicy;
+    this.roleTable = canonical.roleTable;
+    this.roleGrantIndex = canonical.roleGrantIndex;
+    this.version = digest.getPolicyVersion().withNumber(number);
+    this.canonical = canonical;
+    this.digest = digest;
+  }
+
+  /**
+   * Creates a new {@link CommittedPolicy} from already-built parts,
+   * such as those read from a {@link PolicySnapshot}.
+   *
+   * @param excludedPolicy the excluded policy; must not be {@code
+   * null}
+   *
+   * @param exclusionFilter a filter over {@code excludedPolicy}; may
+   * be {@code null}
+   *
+   * @param uncheckedPolicy the unchecked policy; must not be {@code
+   * null}
+   *
+   * @param perRolePolicy an unmodifiable {@link Map} of per-role
+   * policies; must not be {@code null}
+   *
+   * @param roleTable a {@link RoleTable} over the keys of {@code
+   * perRolePolicy}; must not be {@code null}
+   *
+   * @param roleGrantIndex a {@link RoleGrantIndex} over the values of
+   * {@code perRolePolicy}; must be {@code null} if and only if {@code
+   * perRolePolicy} is empty
+   */
+  CommittedPolicy(final ImmutablePermissions excludedPolicy, final ExclusionFilter exclusionFilter, final ImmutablePermissions uncheckedPolicy, final Map<String, ImmutablePermissions> perRolePolicy, final RoleTable roleTable, final RoleGrantIndex roleGrantIndex) {
+    super();
+    assert excludedPolicy != null;
+    assert uncheckedPolicy != null;
+    assert perRolePolicy != null;
+    assert roleTable != null;
+    assert perRolePolicy.isEmpty() == (roleGrantIndex == null);
+    this.excludedPolicy = excludedPolicy;
+    this.exclusionFilter = exclusionFilter;
+    this.uncheckedPolicy = uncheckedPolicy;
+    this.perRolePolicy = perRolePolicy;
+    this.roleTable = roleTable;
+    this.roleGrantIndex = roleGrantIndex;
+    this.version = null;
+    this.canonical = this;
+    this.digest = null;
+  }
+
+  /**
+   * Returns a {@link RoleTable} over the role identifiers of the
+   * supplied {@link PolicyVersion}: its {@link LinkGroup}'s, if it has
+   * one, or otherwise a new one.
+   */
+  private static final RoleTable roleTable(final PolicyVersion version) {
+    final LinkGroup linkGroup = version.getLinkGroup();
+    return linkGroup == null ? new RoleTable(version.getRoleNames()) : linkGroup.getRoleTable();
+  }
+
+  /**
+   * Returns an {@link ImmutablePermissions} over the keys of the
+   * supplied persistent map, derived from the supplied earlier {@link
+   * ImmutablePermissions} if that map merely added to the earlier
+   * one.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param prior the earlier {@link ImmutablePermissions}; may be
+   * {@code null}
+   *
+   * @param priorPermissions the persistent map from which {@code
+   * prior} was built; may be {@code null}
+   *
+   * @param permissions the current persistent map; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link ImmutablePermissions}
+   */
+  private static final ImmutablePermissions permissions(final ImmutablePermissions prior, final PersistentHashMap<Permission, Permission> priorPermissions, final PersistentHashMap<Permission, Permission> permissions) {
+    assert permissions != null;
+    if (prior != null) {
+      final Collection<Permission> additions = additions(prior, priorPermissions, permissions);
+      if (additions != null) {
+        return prior.plus(additions);
+      }
+    }
+    return new ImmutablePermissions(permissions.keys());
+  }
+
+  /**
+   * Returns the {@link Permission}s in {@code permissions} but not in
+   * {@code priorPermissions}, or {@code null} if any of the latter is
+   * missing from the former or there are too many additions for
+   * {@link ImmutablePermissions#plus(Collection)} to be worthwhile.
+   */
+  private static final Collection<Permission> additions(final ImmutablePermissions prior, final PersistentHashMap<Permission, Permission> priorPermissions, final PersistentHashMap<Permission, Permission> permissions) {
+    assert prior != null;
+    assert permissions != null;
+    if (priorPermissions == null) {
+      return null;
+    }
+    if (priorPermissions == permissions) {
+      return Collections.emptySet();
+    }
+    final Map<Permission, Permission> additions = new LinkedHashMap<Permission, Permission>();
+    if (!permissions.changesSince(priorPermissions, additions, PermissionIndex.Overlay.capacity(prior.size()))) {
+      return null;
+    }
+    return additions.keySet();
+  }
+
+  /**
+   * Returns a {@link PermissionIndex.Overlay} adding to the supplied
+   * {@link PermissionIndex} of the grants of a permission class the
+   * grants made since, or {@code null} if any grant has been withdrawn
+   * or there are too many additions to make an {@link
+   * PermissionIndex.Overlay} worthwhile.
+   *
+   * @param priorIndex the {@link PermissionIndex} over {@code
+   * priorPermissions}; must not be {@code null}
+   *
+   * @param priorPermissions the earlier grants; must not be {@code
+   * null}
+   *
+   * @param permissions the current grants; must not be {@code null}
+   *
+   * @return a new {@link PermissionIndex.Overlay}, or {@code null}
+   */
+  private static final PermissionIndex overlay(final PermissionIndex priorIndex, final PersistentHashMap<Permission, long[]> priorPermissions, final PersistentHashMap<Permission, long[]> permissions) {
+    assert priorIndex != null;
+    assert priorPermissions != null;
+    assert permissions != null;
+    final PermissionIndex base;
+    final int baseSize;
+    final Map<Permission, long[]> additions = new LinkedHashMap<Permission, long[]>();
+    if (priorIndex instanceof PermissionIndex.Overlay) {
+      final PermissionIndex.Overlay overlay = (PermissionIndex.Overlay)priorIndex;
+      base = overlay.getBase();
+      baseSize = overlay.getBaseSize();
+      for (int i = 0; i < overlay.size(); i++) {
+        additions.put(overlay.getPermission(i), overlay.getRoles(i));
+      }
+    } else {
+      base = priorIndex;
+      baseSize = priorPermissions.size();
+    }
+    if (!permissions.changesSince(priorPermissions, additions, PermissionIndex.Overlay.capacity(baseSize))) {
+      return null;
+    }
+    // A grant may only gain roles, never lose them.
+    for (final Map.Entry<Permission, long[]> entry : additions.entrySet()) {
+      final long[] priorRoles = priorPermissions.get(entry.getKey());
+      if (priorRoles != null && !containsAll(entry.getValue(), priorRoles)) {
+        return null;
+      }
+    }
+    final Permission[] keys = additions.keySet().toArray(new Permission[additions.size()]);
+    final long[][] grantingRoles = additions.values().toArray(new long[additions.size()][]);
+    return new PermissionIndex.Overlay(base, baseSize, keys, grantingRoles);
+  }
+
+  /**
+   * Returns {@code true} if every bit set in {@code b} is also set in
+   * {@code a}.
+   */
+  private static final boolean containsAll(final long[] a, final long[] b) {
+    for (int i = 0; i < b.length; i++) {
+      if ((b[i] & ~(i < a.length ? a[i] : 0L)) != 0L) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a read-only {@link PermissionCollection} representing
+   * permissions that should not be authorized regardless of
+   * environmental factors.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, read-only {@link
+   * PermissionCollection}
+   */
+  public final PermissionCollection getExcludedPolicy() {
+    return this.excludedPolicy;
+  }
+
+  /**
+   * Returns a read-only {@link PermissionCollection} representing
+   * permissions that should be authorized regardless of environmental
+   * factors.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, read-only {@link
+   * PermissionCollection}
+   */
+  public final PermissionCollection getUncheckedPolicy() {
+    return this.uncheckedPolicy;
+  }
+
+  /**
+   * Returns an unmodifiable {@link Map} of read-only {@link
+   * PermissionCollection}s indexed by the role names to which they
+   * apply.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link Map}
+   */
+  public final Map<String, ? extends PermissionCollection> getRoles() {
+    return this.perRolePolicy;
+  }
+
+  /**
+   * Returns the {@link RoleTable} that assigns an integer identifier
+   * to each of the role names in this {@link CommittedPolicy}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link RoleTable}
+   */
+  final RoleTable getRoleTable() {
+    return this.roleTable;
+  }
+
+  /**
+   * Returns the number of the version of its {@link
+   * ConfigurablePolicyContext}'s policy statements that this {@link
+   * CommittedPolicy} publishes, or {@code 0} if it was not built from
+   * a versioned policy context, for example because it was {@linkplain
+   * PolicySnapshot#getCommittedPolicy() read from a
+   * <code>PolicySnapshot</code>}.
+   *
+   * <p>Version numbers increase by one with each {@linkplain
+   * ConfigurablePolicyContext#commit() commit}.</p>
+   *
+   * @return the version number, or {@code 0}
+   */
+  public final long getVersion() {
+    return this.version == null ? 0L : this.version.getNumber();
+  }
+
+  /**
+   * Returns the {@link PolicyVersion} from which this {@link
+   * CommittedPolicy} was built, or {@code null} if it was built some
+   * other way.
+   *
+   * @return the {@link PolicyVersion}, or {@code null}
+   */
+  final PolicyVersion getPolicyVersion() {
+    return this.version;
+  }
+
+  /**
+   * Returns the {@link CommittedPolicy} whose parts and caches this
+   * one shares, which is this one unless several {@link
+   * ConfigurablePolicyContext}s committed the same statements.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link CommittedPolicy}
+   */
+  final CommittedPolicy getCanonical() {
+    return this.canonical;
+  }
+
+  /**
+   * Returns the {@link ExclusionFilter} over the excluded policy, or
+   * {@code null} if there is none.
+   *
+   * @return the {@link ExclusionFilter}, or {@code null}
+   */
+  final ExclusionFilter getExclusionFilter() {
+    return this.exclusionFilter;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission} is
+   * excluded by this {@link CommittedPolicy}.
+   *
+   * <p>A {@link Permission} is excluded if it is {@code null}, if it
+   * is implied by the excluded policy, or if it implies any element of
+   * the excluded policy.</p>
+   *
+   * <p>Both tests are answered from indexes built at commit time, and
+   * most permissions that are not excluded are dismissed by a {@link
+   * ExclusionFilter} before either index is consulted.</p>
+   *
+   * @param p the {@link Permission} to check; may be {@code null}
+   *
+   * @return {@code true} if {@code p} is excluded
+   *
+   * @see PolicyContext#excludes(Permission)
+   */
+  public final boolean excludes(final Permission p) {
+    if (p == null) {
+      return true;
+    }
+    final ImmutablePermissions excludedPolicy = this.excludedPolicy;
+    if (excludedPolicy.isEmpty()) {
+      return false;
+    }
+    final ExclusionFilter exclusionFilter = this.exclusionFilter;
+    if (exclusionFilter != null && !exclusionFilter.mightExclude(p)) {
+      return false;
+    }
+    return excludedPolicy.implies(p) || excludedPolicy.anyImpliedBy(p);
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission} is not
+   * {@linkplain #excludes(Permission) excluded} and is implied by the
+   * unchecked policy.
+   *
+   * @param p the {@link Permission} to check; may be {@code null} in
+   * which case {@code false} will be returned
+   *
+   * @return {@code true} if {@code p} is mandated
+   *
+   * @see PolicyContext#mandates(Permission)
+   */
+  public final boolean mandates(final Permission p) {
+    return p != null && !this.excludes(p) && this.uncheckedPolicy.implies(p);
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission}, which the
+   * caller has already established is not {@linkplain
+   * #excludes(Permission) excluded}, is implied by the unchecked
+   * policy.
+   *
+   * @param p the {@link Permission} to check; must not be {@code
+   * null}
+   *
+   * @return {@code true} if {@code p} is mandated
+   *
+   * @see DefaultPermissionEvaluator
+   */
+  final boolean mandatesUnexcluded(final Permission p) {
+    assert p != null;
+    return this.uncheckedPolicy.implies(p);
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission} is not
+   * {@linkplain #excludes(Permission) excluded} and is implied by the
+   * policy of at least one of the supplied roles.
+   *
+   * @param p the {@link Permission} to check; may be {@code null} in
+   * which case {@code false} will be returned
+   *
+   * @param roles the names of the roles to consult; may be {@code
+   * null}
+   *
+   * @return {@code true} if {@code p} is granted to any of the
+   * supplied roles
+   *
+   * @see PolicyContext#grants(Permission, java.security.Principal[])
+   */
+  public final boolean grants(final Permission p, final Collection<? extends String> roles) {
+    if (p == null || roles == null || roles.isEmpty() || this.perRolePolicy.isEmpty()) {
+      return false;
+    }
+    return !this.excludes(p) && this.grantsUnexcluded(p, roles);
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission}, which the
+   * caller has already established is not {@linkplain
+   * #excludes(Permission) excluded}, is implied by the policy of at
+   * least one of the supplied roles.
+   *
+   * @param p the {@link Permission} to check; must not be {@code
+   * null}
+   *
+   * @param roles the names of the roles to consult; may be {@code
+   * null}
+   *
+   * @return {@code true} if {@code p} is granted to any of the
+   * supplied roles
+   *
+   * @see DefaultPermissionEvaluator
+   */
+  final boolean grantsUnexcluded(final Permission p, final Collection<? extends String> roles) {
+    assert p != null;
+    if (roles == null || roles.isEmpty() || this.roleGrantIndex == null) {
+      return false;
+    }
+    final long[] roleBits = this.roleTable.bitsOf(roles);
+    return roleBits.length > 0 && this.roleGrantIndex.implies(p, roleBits);
+  }
+
+  /**
+   * Returns a new, mutable {@link PermissionCollection} containing
+   * every non-{@linkplain #excludes(Permission) excluded} {@link
+   * Permission} from the supplied delegate and protection domain
+   * {@link PermissionCollection}s, from the unchecked policy, and
+   * from the policies of the supplied roles.
+   *
+   * <p>The returned {@link PermissionCollection} is a view: nothing
+   * is copied until its {@link PermissionCollection#elements()
+   * elements()} are first enumerated or a {@link Permission} is first
+   * {@linkplain PermissionCollection#add(Permission) added} to it,
+   * and until then most calls to its {@link
+   * PermissionCollection#implies(Permission) implies(Permission)}
+   * method consult the underlying collections directly.  It therefore
+   * reflects later changes to the supplied {@link
+   * PermissionCollection}s until it is copied, but never later
+   * commits.  Each call returns a new view, which accepts {@link
+   * Permission}s of any class, as {@link
+   * java.security.Policy#getPermissions(java.security.ProtectionDomain)}
+   * requires.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param delegatePolicyPermissions permissions from a delegate
+   * {@link java.security.Policy}; may be {@code null}
+   *
+   * @param protectionDomainPermissions permissions from a {@link
+   * java.security.ProtectionDomain}; may be {@code null}
+   *
+   * @param roles the names of the roles whose permissions should be
+   * included; may be {@code null}
+   *
+   * @return a new, mutable, non-{@code null} {@link
+   * PermissionCollection}
+   *
+   * @see PolicyContext#getPermissions(PermissionCollection,
+   * PermissionCollection, java.security.Principal[])
+   *
+   * @see PermissionCollectionView
+   */
+  public final PermissionCollection getPermissions(final PermissionCollection delegatePolicyPermissions, final PermissionCollection protectionDomainPermissions, final Collection<? extends String> roles) {
+    return new PermissionCollectionView(this, delegatePolicyPermissions, protectionDomainPermissions, this.grantedPermissions(roles));
+  }
+
+  /**
+   * Returns the distinct, non-{@linkplain #excludes(Permission)
+   * excluded} {@link Permission}s of the unchecked policy and of the
+   * policies of the supplied roles, computing them only if they have
+   * not already been computed for the same set of roles and are still
+   * cached.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param roles the names of the roles whose permissions should be
+   * included; may be {@code null}
+   *
+   * @return a non-{@code null} {@link ImmutablePermissions}
+   */
+  final ImmutablePermissions grantedPermissions(final Collection<? extends String> roles) {
+    if (this.canonical != this) {
+      return this.canonical.grantedPermissions(roles);
+    }
+    final RoleBits key = new RoleBits(this.roleBits(roles));
+    if (PERMISSIONS_CACHE_SIZE <= 0) {
+      return this.computeGrantedPermissions(key.bits);
+    }
+    PermissionsCache grantedPermissions = this.grantedPermissions;
+    if (grantedPermissions == null) {
+      grantedPermissions = new PermissionsCache(PERMISSIONS_CACHE_SIZE);
+      this.grantedPermissions = grantedPermissions;
+    }
+    final long now = System.nanoTime();
+    ImmutablePermissions returnValue = grantedPermissions.get(key, now);
+    if (returnValue == null) {
+      returnValue = grantedPermissions.putIfAbsent(key, this.computeGrantedPermissions(key.bits), now);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if the excluded policy is not empty.
+   *
+   * @return {@code true} if this {@link CommittedPolicy} {@linkplain
+   * #excludes(Permission) excludes} anything
+   */
+  final boolean hasExclusions() {
+    return !this.excludedPolicy.isEmpty();
+  }
+
+  /**
+   * Returns a rough estimate, in bytes, of the memory taken up by the
+   * {@link Permission}s and role names of this {@link
+   * CommittedPolicy}.
+   *
+   * <p>The estimate counts a fixed overhead for each {@link
+   * Permission} and role, plus two bytes per character of each name
+   * and actions string.  It ignores indexes, caches and any sharing
+   * of {@link Permission}s with other {@link CommittedPolicy}
+   * instances, so it is meant for watching trends rather than for
+   * accounting.  It is computed once, on first use; doing so decodes
+   * any parts of a {@linkplain PolicySnapshot snapshot} not yet
+   * decoded.</p>
+   *
+   * @return an estimate of the bytes held, greater than {@code 0}
+   */
+  final long estimatedSize() {
+    if (this.canonical != this) {
+      return this.canonical.estimatedSize();
+    }
+    long returnValue = this.estimatedSize;
+    if (returnValue == 0L) {
+      returnValue = OBJECT_OVERHEAD + estimatedSize(this.excludedPolicy) + estimatedSize(this.uncheckedPolicy);
+      for (final Map.Entry<String, ImmutablePermissions> entry : this.perRolePolicy.entrySet()) {
+        returnValue += OBJECT_OVERHEAD + estimatedSize(entry.getKey()) + estimatedSize(entry.getValue());
+      }
+      this.estimatedSize = returnValue;
+    }
+    return returnValue;
+  }
+
+  private static final long estimatedSize(final ImmutablePermissions permissions) {
+    long returnValue = OBJECT_OVERHEAD;
+    final Enumeration<Permission> elements = permissions.elements();
+    while (elements.hasMoreElements()) {
+      final Permission permission = elements.nextElement();
+      returnValue += OBJECT_OVERHEAD + estimatedSize(permission.getName()) + estimatedSize(permission.getActions());
+    }
+    return returnValue;
+  }
+
+  private static final long estimatedSize(final String s) {
+    return s == null ? 0L : OBJECT_OVERHEAD + 2L * s.length();
+  }
+
+  /**
+   * Returns the bitset of the supplied roles that have policies in
+   * this {@link CommittedPolicy}, with no trailing zero words, so that
+   * equal sets of roles always yield equal bitsets.
+   *
+   * <p>This method never returns {@code null}.  The returned array
+   * must not be modified.</p>
+   */
+  private final long[] roleBits(final Collection<? extends String> roles) {
+    if (roles == null || roles.isEmpty() || this.perRolePolicy.isEmpty()) {
+      return RoleTable.EMPTY_BITS;
+    }
+    final long[] bits = this.roleTable.bitsOf(roles);
+    // The bitset may have been computed against a larger, linked
+    // RoleTable; ignore the roles this one does not know.
+    final int size = this.roleTable.size();
+    int length = Math.min(bits.length, (size + 63) >>> 6);
+    long lastWord = 0L;
+    while (length > 0) {
+      lastWord = bits[length - 1];
+      if (length - 1 == size >>> 6) {
+        lastWord &= (1L << (size & 63)) - 1L;
+      }
+      if (lastWord != 0L) {
+        break;
+      }
+      length--;
+    }
+    if (length == bits.length && (length == 0 || lastWord == bits[length - 1])) {
+      return bits;
+    }
+    final long[] returnValue = Arrays.copyOf(bits, length);
+    if (length > 0) {
+      returnValue[length - 1] = lastWord;
+    }
+    return returnValue;
+  }
+
+  private final ImmutablePermissions computeGrantedPermissions(final long[] roleBits) {
+    assert roleBits != null;
+    final Set<Permission> permissions = new LinkedHashSet<Permission>();
+    this.addUnexcluded(this.uncheckedPolicy, permissions);
+    for (int word = 0; word < roleBits.length; word++) {
+      long bits = roleBits[word];
+      while (bits != 0L) {
+        final int id = (word << 6) + Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1L;
+        final String role = this.roleTable.nameOf(id);
+        if (role != null) {
+          final PermissionCollection rolePermissions = this.perRolePolicy.get(role);
+          if (rolePermissions != null) {
+            this.addUnexcluded(rolePermissions, permissions);
+          }
+        }
+      }
+    }
+    return new ImmutablePermissions(permissions);
+  }
+
+  private final void addUnexcluded(final PermissionCollection source, final Collection<? super Permission> target) {
+    assert source != null;
+    assert target != null;
+    final Enumeration<Permission> elements = source.elements();
+    if (elements != null) {
+      while (elements.hasMoreElements()) {
+        final Permission p = elements.nextElement();
+        if (p != null && !this.excludes(p)) {
+          target.add(p);
+        }
+      }
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A bounded cache of {@linkplain #grantedPermissions(Collection)
+   * granted permissions} that evicts the least recently used role
+   * sets when it grows beyond its maximum size.
+   *
+   * <p>Instances of this class are safe for use by concurrent
+   * threads.</p>
+   */
+  private static final class PermissionsCache {
+
+    private final int maximumSize;
+
+    private final ConcurrentMap<RoleBits, Entry> entries;
+
+    /**
+     * Guards against more than one thread trimming {@link #entries} at
+     * once.
+     */
+    private final AtomicBoolean trimming;
+
+    private PermissionsCache(final int maximumSize) {
+      super();
+      assert maximumSize > 0;
+      this.maximumSize = maximumSize;
+      this.entries = new ConcurrentHashMap<RoleBits, Entry>(Math.min(maximumSize, 1 << 12));
+      this.trimming = new AtomicBoolean();
+    }
+
+    /**
+     * Returns the {@link ImmutablePermissions} cached for the supplied
+     * role set, or {@code null} if there are none.
+     *
+     * @param key the role set; must not be {@code null}
+     *
+     * @param now the current value of {@link System#nanoTime()}
+     *
+     * @return the cached {@link ImmutablePermissions}, or {@code null}
+     */
+    private final ImmutablePermissions get(final RoleBits key, final long now) {
+      final Entry entry = this.entries.get(key);
+      if (entry == null) {
+        return null;
+      }
+      entry.lastAccess = now;
+      return entry.permissions;
+    }
+
+    /**
+     * Caches the supplied {@link ImmutablePermissions} for the supplied
+     * role set unless another thread has already done so, and returns
+     * whichever is cached.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @param key the role set; must not be {@code null}
+     *
+     * @param permissions the {@link ImmutablePermissions} to cache;
+     * must not be {@code null}
+     *
+     * @param now the current value of {@link System#nanoTime()}
+     *
+     * @return the non-{@code null} cached {@link ImmutablePermissions}
+     */
+    private final ImmutablePermissions putIfAbsent(final RoleBits key, final ImmutablePermissions permissions, final long now) {
+      final Entry existingEntry = this.entries.putIfAbsent(key, new Entry(permissions, now));
+      if (existingEntry != null) {
+        // Another thread beat us to it; share its result instead.
+        existingEntry.lastAccess = now;
+        return existingEntry.permissions;
+      }
+      if (this.entries.size() > this.maximumSize) {
+        this.trim();
+      }
+      return permissions;
+    }
+
+    /**
+     * Removes the least recently used entries until this {@link
+     * PermissionsCache} holds no more than approximately 90% of its
+     * maximum size.
+     *
+     * <p>Only one thread at a time trims; other threads return
+     * immediately.</p>
+     */
+    private final void trim() {
+      if (this.trimming.compareAndSet(false, true)) {
+        try {
+          final List<EvictionCandidate> candidates = new ArrayList<EvictionCandidate>(this.entries.size());
+          for (final Map.Entry<RoleBits, Entry> mapEntry : this.entries.entrySet()) {
+            final Entry entry = mapEntry.getValue();
+            candidates.add(new EvictionCandidate(mapEntry.getKey(), entry, entry.lastAccess));
+          }
+          final int target = Math.max(1, this.maximumSize - this.maximumSize / 10);
+          final int excess = candidates.size() - target;
+          if (excess > 0) {
+            Collections.sort(candidates);
+            for (int i = 0; i < excess; i++) {
+              final EvictionCandidate candidate = candidates.get(i);
+              this.entries.remove(candidate.key, candidate.entry);
+            }
+          }
+        } finally {
+          this.trimming.set(false);
+        }
+      }
+    }
+
+    private static final class Entry {
+
+      private final ImmutablePermissions permissions;
+
+      /**
+       * The value of {@link System#nanoTime()} when this {@link Entry}
+       * was last used.  Updates may race; any recent value will do.
+       */
+      private volatile long lastAccess;
+
+      private Entry(final ImmutablePermissions permissions, final long lastAccess) {
+        super();
+        this.permissions = permissions;
+        this.lastAccess = lastAccess;
+      }
+
+    }
+
+    /**
+     * An {@link Entry} considered for eviction, together with the
+     * time it was last used as of the moment it was considered, so
+     * that sorting is stable even while other threads keep using it.
+     */
+    private static final class EvictionCandidate implements Comparable<EvictionCandidate> {
+
+      private final RoleBits key;
+
+      private final Entry entry;
+
+      private final long lastAccess;
+
+      private EvictionCandidate(final RoleBits key, final Entry entry, final long lastAccess) {
+        super();
+        this.key = key;
+        this.entry = entry;
+        this.lastAccess = lastAccess;
+      }
+
+      @Override
+      public final int compareTo(final EvictionCandidate her) {
+        final long difference = this.lastAccess - her.lastAccess;
+        return difference < 0L ? -1 : (difference > 0L ? 1 : 0);
+      }
+
+    }
+
+  }
+
+  /**
+   * A role bitset usable as a {@link Map} key.
+   */
+  private static final class RoleBits {
+
+    private final long[] bits;
+
+    private final int hashCode;
+
+    private RoleBits(final long[] bits) {
+      super();
+      assert bits != null;
+      this.bits = bits;
+      this.hashCode = Arrays.hashCode(bits);
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hashCode;
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof RoleBits) {
+        final RoleBits her = (RoleBits)other;
+        return this.hashCode == her.hashCode && Arrays.equals(this.bits, her.bits);
+      } else {
+        return false;
+      }
+    }
+
+  }
+
+}
@@ -27,12 +27,32 @@
  */
 package com.edugility.bauer;
 
-import java.util.Collection;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -42,13 +62,156 @@ import java.security.ProtectionDomain;
 
 import javax.security.jacc.PolicyContextException;
 
+/**
+ * A {@link PermissionEvaluator} that asks a number of delegate {@link
+ * PermissionEvaluator}s to evaluate a {@link Permission} and
+ * {@linkplain #consolidate(Set) consolidates} their answers.
+ *
+ * <h2>Short-circuiting</h2>
+ *
+ * <p>Once the answers gathered so far are <em>conclusive</em>&mdash;that
+ * is, once no answer any remaining delegate could give would change
+ * the result of {@link #consolidate(Set)}&mdash;the remaining
+ * delegates are not asked.  With the default {@link
+ * #consolidate(Set)} implementation that happens as soon as any
+ * delegate returns {@link PermissionEvaluation#EXCLUDED}.  Which sets
+ * of answers are conclusive is worked out once, on first use, by
+ * calling {@link #consolidate(Set)} on every possible set, so
+ * subclasses that override it get short-circuiting that matches
+ * their own rules as long as {@link #consolidate(Set)} depends only
+ * on its argument.</p>
+ *
+ * <h2>Adaptive ordering</h2>
+ *
+ * <p>By default delegates are asked in the order in which they were
+ * {@linkplain #add(PermissionEvaluator) added}.  When {@linkplain
+ * #setAdaptive(boolean) adaptive ordering} is on, this {@link
+ * CompositePermissionEvaluator} measures how long each delegate takes
+ * and how often its answer is conclusive on its own, and at most once
+ * per interval (one second by default; see the {@code
+ * com.edugility.bauer.CompositePermissionEvaluator.reorderIntervalMillis}
+ * system property) {@linkplain #reorder() reorders} its delegates so
+ * that those with the lowest expected cost per conclusive answer run
+ * first.  The current order and the measurements behind it are
+ * available from {@link #getDelegates()} and {@link
+ * #getStatistics()}.  Setting the {@code
+ * com.edugility.bauer.CompositePermissionEvaluator.adaptive} system
+ * property to {@code true} turns adaptive ordering on in every new
+ * {@link CompositePermissionEvaluator}.</p>
+ *
+ * <h2>Parallel evaluation</h2>
+ *
+ * <p>By default delegates are asked one after another on the calling
+ * thread.  If an {@link Executor} has been {@linkplain
+ * #setExecutor(Executor) installed}, they are instead all submitted to
+ * it at once, so a slow delegate no longer adds its full latency to
+ * the others'.  Results are collected as they complete; as soon as
+ * they are conclusive the delegates still running are cancelled
+ * (interrupted) and the consolidated result is returned.  Delegates
+ * run in parallel are not measured for adaptive ordering.</p>
+ *
+ * <p>{@link #newDefaultExecutor()} returns a virtual-thread-per-task
+ * {@link ExecutorService} when running on a JVM that supports virtual
+ * threads, and otherwise a cached pool of daemon threads.  Setting the
+ * {@code com.edugility.bauer.CompositePermissionEvaluator.parallel}
+ * system property to {@code true} installs a shared such {@link
+ * Executor} in every new {@link CompositePermissionEvaluator}.</p>
+ *
+ * <p>Each delegate running on another thread sees the caller's JACC
+ * {@linkplain javax.security.jacc.PolicyContext#getContextID() policy
+ * context identifier}, and any permission check it triggers is
+ * treated by {@link Policy} as reentrant, exactly as it would be on
+ * the calling thread.  Other thread-bound state, such as {@linkplain
+ * javax.security.jacc.PolicyContext#setHandlerData(Object) handler
+ * data}, is not propagated.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ */
 public class CompositePermissionEvaluator implements PermissionEvaluator {
 
-  private final Collection<PermissionEvaluator> delegates;
+  private static final String CLASS_NAME = CompositePermissionEvaluator.class.getName();
+
+  /**
+   * The {@link Logger} used by this class, looked up once rather than
+   * on every call.
+   */
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  private static final Delegate[] EMPTY_DELEGATE_ARRAY = new Delegate[0];
+
+  /**
+   * The minimum number of nanoseconds between {@linkplain #reorder()
+   * reorderings} of delegates when adaptive ordering is on.
+   */
+  private static final long REORDER_INTERVAL_NANOS = Long.getLong("com.edugility.bauer.CompositePermissionEvaluator.reorderIntervalMillis", 1000L).longValue() * 1000000L;
+
+  /**
+   * Unmodifiable {@link Set}s of {@link PermissionEvaluation}s indexed
+   * by a bitmask of the {@linkplain Enum#ordinal() ordinals} of their
+   * elements.
+   *
+   * <p>The {@link #evaluate(ProtectionDomain, PolicyContext,
+   * Permission)} method accumulates the evaluations of its delegates
+   * in a bitmask and hands the corresponding element of this array to
+   * {@link #consolidate(Set)}, so no {@link Set} is created per
+   * call.</p>
+   */
+  private static final Set<PermissionEvaluation>[] EVALUATION_SETS = evaluationSets();
+
+  /**
+   * The delegate {@link PermissionEvaluator}s, in the order in which
+   * they are asked, replaced wholesale whenever one is added or
+   * removed or they are {@linkplain #reorder() reordered}.
+   *
+   * <p>This field is never {@code null} and the array it refers to is
+   * never modified.</p>
+   */
+  private volatile Delegate[] delegates;
+
+  private final Object delegatesLock;
+
+  /**
+   * Whether delegates are measured and periodically {@linkplain
+   * #reorder() reordered}.
+   */
+  private volatile boolean adaptive;
+
+  /**
+   * The value of {@link System#nanoTime()} when delegates were last
+   * considered for {@linkplain #reorder() reordering}.
+   */
+  private final AtomicLong lastReordered;
+
+  /**
+   * Whether each possible set of {@link PermissionEvaluation}s,
+   * indexed as {@link #EVALUATION_SETS} is, is conclusive: whether
+   * {@link #consolidate(Set)} returns the same result for it and for
+   * every one of its supersets.
+   *
+   * <p>This field is {@code null} until first needed; computing it
+   * more than once is harmless.</p>
+   *
+   * @see #conclusive()
+   */
+  private volatile boolean[] conclusive;
+
+  /**
+   * The {@link Executor} on which delegates are run in parallel, or
+   * {@code null} if they are run one after another on the calling
+   * thread.
+   */
+  private volatile Executor executor;
 
   public CompositePermissionEvaluator() {
     super();
-    this.delegates = new CopyOnWriteArrayList<PermissionEvaluator>();
+    this.delegatesLock = new byte[0];
+    this.delegates = EMPTY_DELEGATE_ARRAY;
+    this.lastReordered = new AtomicLong(System.nanoTime());
+    this.adaptive = Boolean.getBoolean("com.edugility.bauer.CompositePermissionEvaluator.adaptive");
+    if (Boolean.getBoolean("com.edugility.bauer.CompositePermissionEvaluator.parallel")) {
+      this.executor = DefaultExecutorHolder.EXECUTOR;
+    }
   }
 
   public CompositePermissionEvaluator(final PermissionEvaluator delegate) {
@@ -58,40 +221,240 @@ public class CompositePermissionEvaluator implements PermissionEvaluator {
 
   public void add(final PermissionEvaluator delegate) {
     if (delegate != null && delegate != this) {
-      this.delegates.add(delegate);
+      synchronized (this.delegatesLock) {
+        final Delegate[] delegates = this.delegates;
+        final Delegate[] newDelegates = new Delegate[delegates.length + 1];
+        System.arraycopy(delegates, 0, newDelegates, 0, delegates.length);
+        newDelegates[delegates.length] = new Delegate(delegate);
+        this.delegates = newDelegates;
+      }
+    }
+  }
+
+  /**
+   * Returns the delegate {@link PermissionEvaluator}s of this {@link
+   * CompositePermissionEvaluator} in the order in which they are
+   * currently asked.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable snapshot of the delegates
+   */
+  public List<PermissionEvaluator> getDelegates() {
+    final Delegate[] delegates = this.delegates;
+    final List<PermissionEvaluator> returnValue = new ArrayList<PermissionEvaluator>(delegates.length);
+    for (final Delegate delegate : delegates) {
+      returnValue.add(delegate.evaluator);
+    }
+    return Collections.unmodifiableList(returnValue);
+  }
+
+  /**
+   * Returns the measurements gathered for each delegate while
+   * {@linkplain #setAdaptive(boolean) adaptive ordering} was on, in
+   * the order in which the delegates are currently asked.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable snapshot of {@link
+   * DelegateStatistics}
+   */
+  public List<DelegateStatistics> getStatistics() {
+    final Delegate[] delegates = this.delegates;
+    final List<DelegateStatistics> returnValue = new ArrayList<DelegateStatistics>(delegates.length);
+    for (final Delegate delegate : delegates) {
+      returnValue.add(delegate.getStatistics());
+    }
+    return Collections.unmodifiableList(returnValue);
+  }
+
+  /**
+   * Discards the measurements gathered so far for every delegate.
+   *
+   * <p>The current order of the delegates is kept.</p>
+   */
+  public void resetStatistics() {
+    for (final Delegate delegate : this.delegates) {
+      delegate.reset();
+    }
+  }
+
+  /**
+   * Returns whether delegates are measured and periodically
+   * {@linkplain #reorder() reordered}.
+   *
+   * @return whether adaptive ordering is on
+   *
+   * @see #setAdaptive(boolean)
+   */
+  public boolean isAdaptive() {
+    return this.adaptive;
+  }
+
+  /**
+   * Sets whether delegates are measured and periodically {@linkplain
+   * #reorder() reordered} so that those with the lowest expected cost
+   * per conclusive answer are asked first.
+   *
+   * <p>Turning adaptive ordering off keeps the current order.</p>
+   *
+   * @param adaptive whether adaptive ordering is to be on
+   */
+  public void setAdaptive(final boolean adaptive) {
+    this.adaptive = adaptive;
+  }
+
+  /**
+   * Reorders the delegates of this {@link CompositePermissionEvaluator}
+   * by ascending {@linkplain DelegateStatistics#getExpectedCostNanos()
+   * expected cost per conclusive answer}, keeping the current relative
+   * order of delegates whose costs are equal.
+   *
+   * <p>When {@linkplain #setAdaptive(boolean) adaptive ordering} is on
+   * this method is called automatically; it may also be called at any
+   * time to apply the measurements gathered so far.</p>
+   */
+  public void reorder() {
+    synchronized (this.delegatesLock) {
+      final Delegate[] delegates = this.delegates;
+      final Delegate[] newDelegates = delegates.clone();
+      final double[] costs = new double[newDelegates.length];
+      boolean changed = false;
+      for (int i = 0; i < newDelegates.length; i++) {
+        final Delegate delegate = newDelegates[i];
+        final double cost = delegate.getStatistics().getExpectedCostNanos();
+        int j = i;
+        while (j > 0 && costs[j - 1] > cost) {
+          newDelegates[j] = newDelegates[j - 1];
+          costs[j] = costs[j - 1];
+          j--;
+        }
+        newDelegates[j] = delegate;
+        costs[j] = cost;
+        changed = changed || j != i;
+      }
+      if (changed) {
+        this.delegates = newDelegates;
+        final Logger logger = LOGGER;
+        if (logger != null && logger.isLoggable(Level.FINE)) {
+          logger.logp(Level.FINE, CLASS_NAME, "reorder", "Delegates reordered: {0}", Arrays.asList(newDelegates));
+        }
+      }
+    }
+  }
+
+  /**
+   * {@linkplain #reorder() Reorders} the delegates if adaptive
+   * ordering is on and they have not been considered for reordering
+   * within the last {@link #REORDER_INTERVAL_NANOS} nanoseconds.
+   *
+   * <p>Only one of any number of threads calling this method at once
+   * will reorder.</p>
+   *
+   * @param now the current value of {@link System#nanoTime()}
+   */
+  private final void maybeReorder(final long now) {
+    final long lastReordered = this.lastReordered.get();
+    if (now - lastReordered >= REORDER_INTERVAL_NANOS && this.lastReordered.compareAndSet(lastReordered, now)) {
+      this.reorder();
+    }
+  }
+
+  /**
+   * Returns the {@link Executor} on which delegates are run in
+   * parallel, or {@code null} if they are run one after another on the
+   * calling thread.
+   *
+   * @return the {@link Executor} in effect, or {@code null}
+   *
+   * @see #setExecutor(Executor)
+   */
+  public Executor getExecutor() {
+    return this.executor;
+  }
+
+  /**
+   * Installs the {@link Executor} on which delegates will be run in
+   * parallel.
+   *
+   * <p>The {@link Executor} should not run tasks on the calling
+   * thread, and should not be bounded so tightly that evaluations
+   * queue behind each other.  This {@link
+   * CompositePermissionEvaluator} never shuts it down.</p>
+   *
+   * @param executor the {@link Executor} to use; may be {@code null}
+   * in which case delegates will be run one after another on the
+   * calling thread
+   *
+   * @see #newDefaultExecutor()
+   */
+  public void setExecutor(final Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Removes the first occurrence of the supplied {@link
+   * PermissionEvaluator} from the delegates of this {@link
+   * CompositePermissionEvaluator}, if present.
+   */
+  private final void remove(final Delegate delegate) {
+    synchronized (this.delegatesLock) {
+      final Delegate[] delegates = this.delegates;
+      for (int i = 0; i < delegates.length; i++) {
+        if (delegates[i] == delegate) {
+          final Delegate[] newDelegates = new Delegate[delegates.length - 1];
+          System.arraycopy(delegates, 0, newDelegates, 0, i);
+          System.arraycopy(delegates, i + 1, newDelegates, i, newDelegates.length - i);
+          this.delegates = newDelegates;
+          break;
+        }
+      }
     }
   }
 
   @Override
   public PermissionEvaluation evaluate(final ProtectionDomain protectionDomain, final PolicyContext policyContext, final Permission permission) throws PolicyContextException {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "evaluate", new Object[] { "(protection domain)", policyContext, permission });
     }
     PermissionEvaluation returnValue = PermissionEvaluation.INDETERMINATE;
 
-    if (!this.delegates.isEmpty()) {
-
-      final Set<PermissionEvaluation> evaluations = EnumSet.noneOf(PermissionEvaluation.class);
-      final Iterator<PermissionEvaluator> iterator = this.delegates.iterator();
-      if (iterator != null) {
-        while (iterator.hasNext()) {
-          final PermissionEvaluator delegate = iterator.next();
-          if (delegate != null) {
-            final PermissionEvaluation evaluation = delegate.evaluate(protectionDomain, policyContext, permission);
-            if (evaluation != null) {
-              if (evaluation.equals(PermissionEvaluation.EVALUATOR_OUT_OF_SERVICE)) {
-                iterator.remove();
-              } else {
-                evaluations.add(evaluation);
-              }
+    final Delegate[] delegates = this.delegates;
+    final Executor executor = this.executor;
+    if (executor != null && delegates.length > 1) {
+      returnValue = this.consolidate(EVALUATION_SETS[this.evaluateConcurrently(executor, delegates, protectionDomain, policyContext, permission)]);
+
+    } else if (delegates.length > 0) {
+
+      final boolean[] conclusive = this.conclusive();
+      final boolean adaptive = this.adaptive;
+      long now = adaptive ? System.nanoTime() : 0L;
+      int evaluations = 0;
+      for (final Delegate delegate : delegates) {
+        final PermissionEvaluation evaluation = delegate.evaluator.evaluate(protectionDomain, policyContext, permission);
+        if (adaptive) {
+          final long start = now;
+          now = System.nanoTime();
+          delegate.record(now - start, evaluation != null && conclusive[1 << evaluation.ordinal()]);
+        }
+        if (evaluation != null) {
+          if (evaluation.equals(PermissionEvaluation.EVALUATOR_OUT_OF_SERVICE)) {
+            this.remove(delegate);
+          } else {
+            evaluations |= 1 << evaluation.ordinal();
+            if (conclusive[evaluations]) {
+              break;
             }
           }
         }
       }
-      
-      returnValue = this.consolidate(evaluations);
+
+      returnValue = this.consolidate(EVALUATION_SETS[evaluations]);
+      if (adaptive) {
+        this.maybeReorder(now);
+      }
     }
 
     if (logger != null && logger.isLoggable(Level.FINER)) {
@@ -101,8 +464,8 @@ public class CompositePermissionEvaluator implements PermissionEvaluator {
   }
 
   protected PermissionEvaluation consolidate(final Set<? extends PermissionEvaluation> evaluations) {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "consolidate", evaluations);
     }
@@ -132,4 +495,399 @@ public class CompositePermissionEvaluator implements PermissionEvaluator {
     return returnValue;
   }
 
+  /**
+   * Returns an array indicating, for each possible set of {@link
+   * PermissionEvaluation}s indexed as {@link #EVALUATION_SETS} is,
+   * whether that set is conclusive: whether {@link #consolidate(Set)}
+   * returns the same result for it as for every one of its supersets,
+   * so that no further evaluation could change the outcome.
+   *
+   * <p>The array is computed on first use and must not be
+   * modified.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} array of {@code boolean}s
+   */
+  private final boolean[] conclusive() {
+    boolean[] returnValue = this.conclusive;
+    if (returnValue == null) {
+      final PermissionEvaluation[] results = new PermissionEvaluation[EVALUATION_SETS.length];
+      for (int mask = 0; mask < results.length; mask++) {
+        results[mask] = this.consolidate(EVALUATION_SETS[mask]);
+      }
+      returnValue = new boolean[results.length];
+      for (int mask = 0; mask < results.length; mask++) {
+        boolean conclusive = true;
+        for (int superset = mask; conclusive && superset < results.length; superset++) {
+          if ((superset & mask) == mask && results[superset] != results[mask]) {
+            conclusive = false;
+          }
+        }
+        returnValue[mask] = conclusive;
+      }
+      this.conclusive = returnValue;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Submits every delegate to the supplied {@link Executor} and
+   * collects their {@link PermissionEvaluation}s as they complete,
+   * cancelling the remainder as soon as those collected are
+   * {@linkplain #conclusive() conclusive}.
+   *
+   * @return a bitmask of the {@linkplain Enum#ordinal() ordinals} of
+   * the {@link PermissionEvaluation}s collected, suitable for indexing
+   * {@link #EVALUATION_SETS}
+   *
+   * @exception PolicyContextException if a delegate throws it, if the
+   * {@link Executor} rejects a delegate, or if the calling thread is
+   * interrupted while waiting
+   */
+  private final int evaluateConcurrently(final Executor executor, final Delegate[] delegates, final ProtectionDomain protectionDomain, final PolicyContext policyContext, final Permission permission) throws PolicyContextException {
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
+    final CompletionService<PermissionEvaluation> completionService = new ExecutorCompletionService<PermissionEvaluation>(executor);
+    final List<Future<PermissionEvaluation>> futures = new ArrayList<Future<PermissionEvaluation>>(delegates.length);
+    final String contextId = javax.security.jacc.PolicyContext.getContextID();
+    final boolean[] conclusive = this.conclusive();
+    int evaluations = 0;
+    try {
+      for (final Delegate delegate : delegates) {
+        futures.add(completionService.submit(new Evaluation(delegate.evaluator, contextId, protectionDomain, policyContext, permission)));
+      }
+      for (int i = 0; i < delegates.length; i++) {
+        final Future<PermissionEvaluation> future = completionService.take();
+        final PermissionEvaluation evaluation = future.get();
+        if (evaluation != null) {
+          if (evaluation.equals(PermissionEvaluation.EVALUATOR_OUT_OF_SERVICE)) {
+            this.remove(delegates[futures.indexOf(future)]);
+          } else {
+            evaluations |= 1 << evaluation.ordinal();
+            if (conclusive[evaluations]) {
+              if (logger != null && logger.isLoggable(Level.FINE)) {
+                logger.logp(Level.FINE, cn, "evaluateConcurrently", "Evaluation of permission {0} conclusive; cancelling {1} outstanding evaluations", new Object[] { permission, Integer.valueOf(delegates.length - i - 1) });
+              }
+              break;
+            }
+          }
+        }
+      }
+    } catch (final RejectedExecutionException kaboom) {
+      throw new PolicyContextException(kaboom);
+    } catch (final InterruptedException kaboom) {
+      Thread.currentThread().interrupt();
+      throw new PolicyContextException(kaboom);
+    } catch (final ExecutionException kaboom) {
+      final Throwable cause = kaboom.getCause();
+      if (cause instanceof PolicyContextException) {
+        throw (PolicyContextException)cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new PolicyContextException(cause);
+    } finally {
+      for (final Future<PermissionEvaluation> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return evaluations;
+  }
+
+  /**
+   * Returns a new {@link ExecutorService} suitable for {@linkplain
+   * #setExecutor(Executor) running delegates in parallel}.
+   *
+   * <p>On a JVM that supports virtual threads the {@link
+   * ExecutorService} starts a new virtual thread for each delegate;
+   * otherwise it is a cached pool of daemon threads.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link ExecutorService}
+   */
+  public static final ExecutorService newDefaultExecutor() {
+    ExecutorService returnValue = null;
+    try {
+      final Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      returnValue = (ExecutorService)newVirtualThreadPerTaskExecutor.invoke(null);
+    } catch (final NoSuchMethodException noVirtualThreads) {
+      returnValue = null;
+    } catch (final IllegalAccessException noVirtualThreads) {
+      returnValue = null;
+    } catch (final InvocationTargetException noVirtualThreads) {
+      returnValue = null;
+    }
+    if (returnValue == null) {
+      returnValue = Executors.newCachedThreadPool(new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public final Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, CLASS_NAME + "-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    }
+    return returnValue;
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private static final Set<PermissionEvaluation>[] evaluationSets() {
+    final PermissionEvaluation[] values = PermissionEvaluation.values();
+    final Set<PermissionEvaluation>[] returnValue = new Set[1 << values.length];
+    for (int mask = 0; mask < returnValue.length; mask++) {
+      final Set<PermissionEvaluation> set = EnumSet.noneOf(PermissionEvaluation.class);
+      for (final PermissionEvaluation value : values) {
+        if ((mask & (1 << value.ordinal())) != 0) {
+          set.add(value);
+        }
+      }
+      returnValue[mask] = Collections.unmodifiableSet(set);
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A snapshot of the measurements gathered for one delegate {@link
+   * PermissionEvaluator} of a {@link CompositePermissionEvaluator}
+   * while {@linkplain #setAdaptive(boolean) adaptive ordering} was on.
+   *
+   * @see CompositePermissionEvaluator#getStatistics()
+   */
+  public static final class DelegateStatistics {
+
+    private final PermissionEvaluator permissionEvaluator;
+
+    private final long evaluationCount;
+
+    private final long conclusiveCount;
+
+    private final long totalNanos;
+
+    private DelegateStatistics(final PermissionEvaluator permissionEvaluator, final long evaluationCount, final long conclusiveCount, final long totalNanos) {
+      super();
+      this.permissionEvaluator = permissionEvaluator;
+      this.evaluationCount = evaluationCount;
+      this.conclusiveCount = conclusiveCount;
+      this.totalNanos = totalNanos;
+    }
+
+    /**
+     * Returns the {@link PermissionEvaluator} these statistics
+     * describe.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the non-{@code null} {@link PermissionEvaluator}
+     */
+    public final PermissionEvaluator getPermissionEvaluator() {
+      return this.permissionEvaluator;
+    }
+
+    /**
+     * Returns the number of times the {@link PermissionEvaluator} was
+     * measured.
+     *
+     * @return the number of measured evaluations
+     */
+    public final long getEvaluationCount() {
+      return this.evaluationCount;
+    }
+
+    /**
+     * Returns the number of measured evaluations whose answer was
+     * conclusive on its own.
+     *
+     * @return the number of conclusive evaluations
+     */
+    public final long getConclusiveCount() {
+      return this.conclusiveCount;
+    }
+
+    /**
+     * Returns the total number of nanoseconds spent in measured
+     * evaluations.
+     *
+     * @return the total time spent, in nanoseconds
+     */
+    public final long getTotalNanos() {
+      return this.totalNanos;
+    }
+
+    /**
+     * Returns the mean number of nanoseconds a measured evaluation
+     * took, or {@code 0} if there were none.
+     *
+     * @return the mean time per evaluation, in nanoseconds
+     */
+    public final double getAverageNanos() {
+      if (this.evaluationCount <= 0L) {
+        return 0.0;
+      }
+      return (double)this.totalNanos / (double)this.evaluationCount;
+    }
+
+    /**
+     * Returns the estimated probability that an evaluation is
+     * conclusive on its own.
+     *
+     * <p>The estimate is {@code (conclusive + 1) / (evaluations + 2)},
+     * so that it is never {@code 0} and starts at {@code 0.5} before
+     * any evaluations are measured.</p>
+     *
+     * @return a number greater than {@code 0} and less than {@code 1}
+     */
+    public final double getConclusiveRate() {
+      return (this.conclusiveCount + 1.0) / (this.evaluationCount + 2.0);
+    }
+
+    /**
+     * Returns the expected number of nanoseconds spent in the {@link
+     * PermissionEvaluator} per conclusive answer it gives: its
+     * {@linkplain #getAverageNanos() mean time per evaluation}
+     * divided by its {@linkplain #getConclusiveRate() conclusive
+     * rate}.
+     *
+     * <p>Asking delegates in ascending order of this figure minimizes
+     * the expected time to reach a conclusive answer.</p>
+     *
+     * @return the expected cost per conclusive answer, in nanoseconds
+     */
+    public final double getExpectedCostNanos() {
+      return this.getAverageNanos() / this.getConclusiveRate();
+    }
+
+    @Override
+    public final String toString() {
+      return this.permissionEvaluator + "[evaluations=" + this.evaluationCount + ", conclusive=" + this.conclusiveCount + ", averageNanos=" + this.getAverageNanos() + ", expectedCostNanos=" + this.getExpectedCostNanos() + "]";
+    }
+
+  }
+
+  /**
+   * A delegate {@link PermissionEvaluator} together with the
+   * measurements gathered for it.
+   */
+  private static final class Delegate {
+
+    private final PermissionEvaluator evaluator;
+
+    private final StripedCounter evaluations;
+
+    private final StripedCounter conclusiveEvaluations;
+
+    private final StripedCounter nanos;
+
+    private Delegate(final PermissionEvaluator evaluator) {
+      super();
+      this.evaluator = evaluator;
+      this.evaluations = new StripedCounter();
+      this.conclusiveEvaluations = new StripedCounter();
+      this.nanos = new StripedCounter();
+    }
+
+    private final void record(final long nanos, final boolean conclusive) {
+      this.evaluations.increment();
+      if (conclusive) {
+        this.conclusiveEvaluations.increment();
+      }
+      this.nanos.add(nanos);
+    }
+
+    private final void reset() {
+      this.evaluations.reset();
+      this.conclusiveEvaluations.reset();
+      this.nanos.reset();
+    }
+
+    private final DelegateStatistics getStatistics() {
+      return new DelegateStatistics(this.evaluator, this.evaluations.sum(), this.conclusiveEvaluations.sum(), this.nanos.sum());
+    }
+
+    @Override
+    public final String toString() {
+      return String.valueOf(this.evaluator);
+    }
+
+  }
+
+
+  /**
+   * Holds the shared {@link Executor} installed when the {@code
+   * com.edugility.bauer.CompositePermissionEvaluator.parallel} system
+   * property is {@code true}, creating it only on first use.
+   */
+  private static final class DefaultExecutorHolder {
+
+    private static final ExecutorService EXECUTOR = newDefaultExecutor();
+
+  }
+
+  /**
+   * A single delegate's evaluation of a {@link Permission}, run on
+   * another thread with the caller's policy context identifier and
+   * with {@link Policy}'s reentrancy guard engaged.
+   */
+  private static final class Evaluation implements Callable<PermissionEvaluation> {
+
+    private final PermissionEvaluator delegate;
+
+    private final String contextId;
+
+    private final ProtectionDomain protectionDomain;
+
+    private final PolicyContext policyContext;
+
+    private final Permission permission;
+
+    private Evaluation(final PermissionEvaluator delegate, final String contextId, final ProtectionDomain protectionDomain, final PolicyContext policyContext, final Permission permission) {
+      super();
+      this.delegate = delegate;
+      this.contextId = contextId;
+      this.protectionDomain = protectionDomain;
+      this.policyContext = policyContext;
+      this.permission = permission;
+    }
+
+    @Override
+    public final PermissionEvaluation call() throws PolicyContextException {
+      final boolean wasInImplies = Policy.setInImplies(true);
+      final String oldContextId = javax.security.jacc.PolicyContext.getContextID();
+      final boolean switchContext = oldContextId == null ? this.contextId != null : !oldContextId.equals(this.contextId);
+      if (switchContext) {
+        setContextID(this.contextId);
+      }
+      try {
+        return this.delegate.evaluate(this.protectionDomain, this.policyContext, this.permission);
+      } finally {
+        if (switchContext) {
+          setContextID(oldContextId);
+        }
+        Policy.setInImplies(wasInImplies);
+      }
+    }
+
+    private static final void setContextID(final String contextId) {
+      AccessController.doPrivileged(new PrivilegedAction<Void>() {
+          @Override
+          public final Void run() {
+            javax.security.jacc.PolicyContext.setContextID(contextId);
+            return null;
+          }
+        });
+    }
+
+  }
+
 }
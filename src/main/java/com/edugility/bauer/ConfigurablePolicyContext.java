@@ -29,13 +29,11 @@ package com.edugility.bauer;
 
 import java.security.Permission;
 import java.security.PermissionCollection;
-import java.security.Permissions;
 import java.security.Principal;
 
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -56,23 +54,134 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
     OPEN, IN_SERVICE, DELETED
   }
 
-  private volatile Permissions excludedPolicy;
-
-  private volatile Permissions uncheckedPolicy;
-
-  private volatile Map<String, Permissions> perRolePolicy;
+  /**
+   * Whether {@link Permission}s and role names added to a {@link
+   * ConfigurablePolicyContext} are {@linkplain Interner interned}, so
+   * that policy contexts configured with equal statements, such as
+   * copies of one application deployed for many tenants, share them.
+   *
+   * <p>This is {@code true} unless the {@code
+   * com.edugility.bauer.ConfigurablePolicyContext.intern} system
+   * property is set to {@code false}.</p>
+   */
+  private static final boolean INTERN = Boolean.parseBoolean(System.getProperty("com.edugility.bauer.ConfigurablePolicyContext.intern", "true"));
+
+  /**
+   * The {@link Interner} shared by all {@link
+   * ConfigurablePolicyContext}s for {@link Permission}s.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Interner<Permission> permissionPool = new Interner<Permission>();
+
+  /**
+   * The {@link Interner} shared by all {@link
+   * ConfigurablePolicyContext}s for role names.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Interner<String> roleNamePool = new Interner<String>();
+
+  /**
+   * Whether {@link ConfigurablePolicyContext}s that commit the same
+   * policy statements from scratch share a single {@link
+   * CommittedPolicy}.
+   *
+   * <p>This is {@code true} unless the {@code
+   * com.edugility.bauer.ConfigurablePolicyContext.share} system
+   * property is set to {@code false}.</p>
+   */
+  private static final boolean SHARE = Boolean.parseBoolean(System.getProperty("com.edugility.bauer.ConfigurablePolicyContext.share", "true"));
+
+  /**
+   * The {@link Interner} shared by all {@link
+   * ConfigurablePolicyContext}s for the {@link PolicyDigest}s of
+   * their committed policy statements.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Interner<PolicyDigest> policyPool = new Interner<PolicyDigest>();
+
+  /**
+   * The {@link PolicyVersion} holding the policy statements as
+   * configured so far; only modified while the write lock is held.
+   *
+   * <p>Each change replaces this field with a new {@link
+   * PolicyVersion} that shares everything it did not touch with the
+   * one before.  The draft is {@linkplain PolicyVersion#editable()
+   * editable} while this {@link ConfigurablePolicyContext} is open
+   * and is {@linkplain PolicyVersion#withNumber(long) frozen} when it
+   * is committed, so the {@link PolicyVersion} most recently committed
+   * is never disturbed.</p>
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private volatile PolicyVersion draft;
+
+  /**
+   * The {@link CommittedPolicy} most recently built by the {@link
+   * #commit()} method, kept while this {@link
+   * ConfigurablePolicyContext} is {@linkplain #open() open} so that
+   * the next commit can reuse its unchanged parts, or {@code null};
+   * only modified while the write lock is held.
+   */
+  private CommittedPolicy lastCommittedPolicy;
 
   private volatile State state;
 
+  /**
+   * The immutable {@link CommittedPolicy} published by the most
+   * recent invocation of the {@link #commit()} method, or {@code null}
+   * if this {@link ConfigurablePolicyContext} is not {@linkplain
+   * #inService() in service}.
+   *
+   * <p>Evaluation methods read this field exactly once and never
+   * acquire any locks.</p>
+   */
+  private volatile CommittedPolicy committedPolicy;
+
+  /**
+   * The number of times the {@link #commit()} method has completed;
+   * only modified while the write lock is held.
+   */
+  private volatile long commitCount;
+
+  /**
+   * Whether {@link #committedPolicy} was {@linkplain
+   * #commit(CommittedPolicy) installed} directly, so that the mutable
+   * policy statements have not yet been filled in from it; only
+   * modified while the write lock is held.
+   */
+  private boolean restored;
+
+  /**
+   * The {@link LinkGroup} this {@link ConfigurablePolicyContext}
+   * belongs to, or {@code null} if it is not {@linkplain
+   * #linkConfiguration(PolicyConfiguration) linked}; only modified
+   * while the {@link LinkGroup} class's monitor is held.
+   *
+   * <p>The {@link #draft} adopts a new value of this field the next
+   * time a role is added or the draft is committed.</p>
+   */
+  private volatile LinkGroup linkGroup;
+
+  /**
+   * Whether this {@link ConfigurablePolicyContext} has been
+   * {@linkplain PolicyConfigurationFactory#purge(ConfigurablePolicyContext)
+   * purged}, and so will never be registered again; only modified
+   * while the write lock is held.
+   */
+  private volatile boolean purged;
+
   public ConfigurablePolicyContext(final String id) {
     super(id);
+    this.draft = PolicyVersion.EMPTY;
     this.open();
   }
 
   @Override
   public final PermissionCollection getExcludedPolicy() {
-    checkInService();
-    return this.excludedPolicy;
+    return this.getCommittedPolicy().getExcludedPolicy();
   }
 
   @Override
@@ -87,10 +196,7 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
     try {
       checkOpen();
       if (p != null) {
-        if (this.excludedPolicy == null) {
-          this.excludedPolicy = new Permissions();
-        }
-        this.excludedPolicy.add(p);
+        this.draft = this.draft.plusExcluded(intern(p));
       }
     } finally {
       this.getLock().writeLock().unlock();
@@ -114,15 +220,14 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
           this.getLock().writeLock().lock();
           try {
             checkOpen();
-            if (this.excludedPolicy == null) {
-              this.excludedPolicy = new Permissions();
-            }
+            PolicyVersion draft = this.draft;
             while (permissions.hasMoreElements()) {
               final Permission permission = permissions.nextElement();
               if (permission != null) {
-                this.excludedPolicy.add(permission);
+                draft = draft.plusExcluded(intern(permission));
               }
             }
+            this.draft = draft;
           } finally {
             this.getLock().writeLock().unlock();
           }
@@ -136,8 +241,7 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
 
   @Override
   public final PermissionCollection getUncheckedPolicy() {
-    checkInService();
-    return this.uncheckedPolicy;
+    return this.getCommittedPolicy().getUncheckedPolicy();
   }
 
   @Override
@@ -154,15 +258,14 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
           this.getLock().writeLock().lock();
           try {
             checkOpen();
-            if (this.uncheckedPolicy == null) {
-              this.uncheckedPolicy = new Permissions();
-            }
+            PolicyVersion draft = this.draft;
             while (permissions.hasMoreElements()) {
               final Permission permission = permissions.nextElement();
               if (permission != null) {
-                this.uncheckedPolicy.add(permission);
+                draft = draft.plusUnchecked(intern(permission));
               }
             }
+            this.draft = draft;
           } finally {
             this.getLock().writeLock().unlock();
           }
@@ -185,10 +288,7 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
       this.getLock().writeLock().lock();
       try {
         checkOpen();
-        if (this.uncheckedPolicy == null) {
-          this.uncheckedPolicy = new Permissions();
-        }
-        this.uncheckedPolicy.add(p);
+        this.draft = this.draft.plusUnchecked(intern(p));
       } finally {
         this.getLock().writeLock().unlock();
       }
@@ -200,8 +300,40 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
 
   @Override
   public final Map<? extends String, ? extends PermissionCollection> getRoles() {
-    checkInService();
-    return this.perRolePolicy;
+    return this.getCommittedPolicy().getRoles();
+  }
+
+  /**
+   * Returns the immutable {@link CommittedPolicy} that was published
+   * by the most recent invocation of the {@link #commit()} method.
+   *
+   * <p>This method never returns {@code null} and never acquires any
+   * locks.</p>
+   *
+   * @return the current, non-{@code null} {@link CommittedPolicy}
+   *
+   * @exception IllegalStateException if this {@link
+   * ConfigurablePolicyContext} is not {@linkplain #inService() in
+   * service}
+   */
+  public final CommittedPolicy getCommittedPolicy() {
+    final CommittedPolicy returnValue = this.committedPolicy;
+    if (returnValue == null) {
+      throw new IllegalStateException(String.valueOf(this.state));
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the immutable {@link CommittedPolicy} that was published
+   * by the most recent invocation of the {@link #commit()} method, or
+   * {@code null} if this {@link ConfigurablePolicyContext} is not
+   * {@linkplain #inService() in service}.
+   *
+   * @return the current {@link CommittedPolicy}, or {@code null}
+   */
+  final CommittedPolicy getCommittedPolicyOrNull() {
+    return this.committedPolicy;
   }
 
   @Override
@@ -215,15 +347,7 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
       this.getLock().writeLock().lock();
       try {
         checkOpen();
-        if (this.perRolePolicy == null) {
-          this.perRolePolicy = new HashMap<String, Permissions>();
-        }
-        Permissions permissions = this.perRolePolicy.get(roleName);
-        if (permissions == null) {
-          permissions = new Permissions();
-          this.perRolePolicy.put(roleName, permissions);
-        }
-        permissions.add(p);
+        this.draft = this.draft().plusRole(intern(roleName), intern(p));
       } finally {
         this.getLock().writeLock().unlock();
       }
@@ -247,12 +371,15 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
           this.getLock().writeLock().lock();
           try {
             checkOpen();
+            PolicyVersion draft = this.draft();
+            final String internedRoleName = intern(roleName);
             while (permissions.hasMoreElements()) {
               final Permission permission = permissions.nextElement();
               if (permission != null) {
-                this.addToRole(roleName, permission);
+                draft = draft.plusRole(internedRoleName, intern(permission));
               }
             }
+            this.draft = draft;
           } finally {
             this.getLock().writeLock().unlock();
           }
@@ -264,12 +391,52 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
     }
   }
 
+  /**
+   * Adds every statement in the supplied {@link PolicyStatements} to
+   * this {@link ConfigurablePolicyContext}.
+   *
+   * <p>This is equivalent to adding each statement with {@link
+   * #addToExcludedPolicy(Permission)}, {@link
+   * #addToUncheckedPolicy(Permission)} or {@link #addToRole(String,
+   * Permission)} in turn, but the write lock is acquired and the
+   * state of this {@link ConfigurablePolicyContext} is checked only
+   * once, and the statements are {@linkplain
+   * PolicyVersion#plusAll(PolicyStatements, Interner, Interner) added
+   * to the draft in a single pass}.  The supplied {@link
+   * PolicyStatements} is not modified and may be reused.</p>
+   *
+   * @param statements the {@link PolicyStatements} to add; may be
+   * {@code null} in which case no action is taken
+   *
+   * @exception IllegalStateException if this {@link
+   * ConfigurablePolicyContext} is not {@linkplain #isOpen() open}
+   */
+  public void addAll(final PolicyStatements statements) {
+    final String cn = this.getClass().getName();
+    final Logger logger = Logger.getLogger(cn);
+    if (logger != null && logger.isLoggable(Level.FINER)) {
+      logger.entering(cn, "addAll", statements);
+    }
+    if (statements != null && !statements.isEmpty()) {
+      this.getLock().writeLock().lock();
+      try {
+        checkOpen();
+        this.draft = INTERN ? this.draft().plusAll(statements, permissionPool, roleNamePool) : this.draft().plusAll(statements, null, null);
+      } finally {
+        this.getLock().writeLock().unlock();
+      }
+    }
+    if (logger != null && logger.isLoggable(Level.FINER)) {
+      logger.exiting(cn, "addAll");
+    }
+  }
+
   @Override
   public void removeExcludedPolicy() {
     this.getLock().writeLock().lock();
     try {
       checkOpen();
-      this.excludedPolicy = null;
+      this.draft = this.draft.withoutExcluded();
     } finally {
       this.getLock().writeLock().unlock();
     }
@@ -280,7 +447,7 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
     this.getLock().writeLock().lock();
     try {
       checkOpen();
-      this.uncheckedPolicy = null;
+      this.draft = this.draft.withoutUnchecked();
     } finally {
       this.getLock().writeLock().unlock();
     }
@@ -292,12 +459,11 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
       this.getLock().writeLock().lock();
       try {
         checkOpen();
-        if (this.perRolePolicy != null) {
-          if (this.perRolePolicy.remove(roleName) == null) {
-            if (roleName.equals("*")) {
-              this.perRolePolicy.clear();
-            }
-          }
+        final PolicyVersion draft = this.draft;
+        if (draft.getRoles().get(roleName) != null) {
+          this.draft = draft.withoutRole(roleName);
+        } else if (roleName.equals("*")) {
+          this.draft = draft.withoutRoles();
         }
       } finally {
         this.getLock().writeLock().unlock();
@@ -305,6 +471,40 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
     }
   }
 
+  /**
+   * Links this {@link ConfigurablePolicyContext} with the supplied
+   * {@link PolicyConfiguration}, so that they, and any policy
+   * contexts either was already linked with, share one principal-to-role
+   * mapping.
+   *
+   * <p>Linked policy contexts configured with {@linkplain
+   * Object#equals(Object) equal} {@linkplain #getRoleMapper() role
+   * mappers} share one {@link CachingRoleMapper}, which is installed
+   * as each one's role mapper, and all linked policy contexts share
+   * one table of role identifiers, so that the roles of a subject are
+   * mapped, and converted to a role bitset, once for all of them.  A
+   * policy context with a role mapper unlike the others' keeps it,
+   * wrapped in a {@link CachingRoleMapper} of its own; see {@link
+   * LinkGroup}.  A linked policy context that was already in service
+   * adopts the shared role identifiers when it is next committed.
+   * Links are removed when a policy context is {@linkplain #delete()
+   * deleted}, including when it is obtained from {@link
+   * PolicyConfigurationFactory#getPolicyConfiguration(String,
+   * boolean)} with a {@code remove} argument of {@code true}.</p>
+   *
+   * @param configuration the {@link PolicyConfiguration} to link with;
+   * must be a {@link ConfigurablePolicyContext} other than this one
+   * that has not been deleted
+   *
+   * @exception IllegalArgumentException if {@code configuration} is
+   * {@code null}, this {@link ConfigurablePolicyContext}, not a {@link
+   * ConfigurablePolicyContext}, or deleted
+   *
+   * @exception IllegalStateException if this {@link
+   * ConfigurablePolicyContext} is not {@linkplain #isOpen() open}
+   *
+   * @see #getLinkedContextIDs()
+   */
   @Override
   public void linkConfiguration(final PolicyConfiguration configuration) {
     final String cn = this.getClass().getName();
@@ -312,9 +512,20 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "linkConfiguration", configuration);
     }
+    if (configuration == null) {
+      throw new IllegalArgumentException("configuration", new NullPointerException("configuration"));
+    }
+    if (configuration == this) {
+      throw new IllegalArgumentException("configuration == this");
+    }
+    if (!(configuration instanceof ConfigurablePolicyContext)) {
+      throw new IllegalArgumentException("!(configuration instanceof ConfigurablePolicyContext): " + configuration);
+    }
     this.getLock().writeLock().lock();
     try {
       checkOpen();
+      LinkGroup.link(this, (ConfigurablePolicyContext)configuration);
+      this.draft = this.draft();
     } finally {
       this.getLock().writeLock().unlock();
     }
@@ -327,6 +538,16 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
   public void open() {
     this.getLock().writeLock().lock();
     try {
+      if (this.restored) {
+        // Statements installed from a snapshot are copied back so
+        // that further configuration builds on them.
+        this.draft = versionOf(this.committedPolicy);
+        this.restored = false;
+      }
+      // Nodes created from here until the next commit may be updated
+      // in place; those of committed versions never are.
+      this.draft = this.draft.editable();
+      this.committedPolicy = null;
       this.state = State.OPEN;
     } finally {
       this.getLock().writeLock().unlock();
@@ -337,21 +558,16 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
   public void openAndClear() {
     this.getLock().writeLock().lock();
     try {
-      this.delete();
+      this.clear();
       this.open();
     } finally {
-      this.getLock().writeLock().lock();
+      this.getLock().writeLock().unlock();
     }
   }
 
   @Override
   public boolean isOpen() {
-    this.getLock().readLock().lock();
-    try {
-      return this.state == State.OPEN;
-    } finally {
-      this.getLock().readLock().unlock();
-    }
+    return this.state == State.OPEN;
   }
 
   @Override
@@ -361,18 +577,33 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "delete");
     }
+    this.clear();
+    com.edugility.bauer.PolicyConfigurationFactory.purge(this);
+    if (logger != null && logger.isLoggable(Level.FINER)) {
+      logger.exiting(cn, "delete");
+    }
+  }
+
+  /**
+   * Discards all policy statements and puts this {@link
+   * ConfigurablePolicyContext} in the {@link State#DELETED} state
+   * without removing it from {@link
+   * com.edugility.bauer.PolicyConfigurationFactory}'s
+   * registry, so that {@link #openAndClear()} can reuse it.
+   */
+  private final void clear() {
     this.getLock().writeLock().lock();
     try {
-      this.removeExcludedPolicy();
-      this.removeUncheckedPolicy();
-      this.removeRole("*");
+      this.committedPolicy = null;
+      this.lastCommittedPolicy = null;
+      this.restored = false;
+      this.draft = this.draft.cleared();
       this.state = State.DELETED;
+      LinkGroup.unlink(this);
     } finally {
       this.getLock().writeLock().unlock();
     }
-    if (logger != null && logger.isLoggable(Level.FINER)) {
-      logger.exiting(cn, "delete");
-    }
+    DecisionCache.invalidateAll(this.getContextID());
   }
 
   @Override
@@ -385,39 +616,269 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
     this.getLock().writeLock().lock();
     try {
       checkNotDeleted();
+      if (!this.restored) {
+        final PolicyVersion version = this.draft().withNumber(this.commitCount + 1L);
+        final CommittedPolicy committedPolicy;
+        if (SHARE && this.lastCommittedPolicy == null && version.getLinkGroup() == null) {
+          // A policy built from scratch is shared with every other
+          // policy context that commits the same statements, and so
+          // is its draft.
+          committedPolicy = new CommittedPolicy(policyPool.intern(new PolicyDigest(version)), version.getNumber());
+          this.draft = committedPolicy.getPolicyVersion();
+        } else {
+          // Only the parts of the policy changed since the last
+          // commit are rebuilt.
+          committedPolicy = new CommittedPolicy(version, this.lastCommittedPolicy);
+          this.draft = version;
+        }
+        this.lastCommittedPolicy = committedPolicy;
+        this.committedPolicy = committedPolicy;
+      }
       this.state = State.IN_SERVICE;
+      this.commitCount++;
       if (logger != null && logger.isLoggable(Level.FINE)) {
         logger.logp(Level.FINE, cn, "commit", "Excluded policy: {0}", this.getExcludedPolicy());
-        logger.logp(Level.FINE, cn, "commit", "Unchecked policy: {0}", this.getExcludedPolicy());
+        logger.logp(Level.FINE, cn, "commit", "Unchecked policy: {0}", this.getUncheckedPolicy());
         logger.logp(Level.FINE, cn, "commit", "Role policies: {0}", this.getRoles());
         logger.logp(Level.FINE, cn, "commit", "Supported policy context handler keys: {0}", javax.security.jacc.PolicyContext.getHandlerKeys());
       }
     } finally {
       this.getLock().writeLock().unlock();
     }
+    DecisionCache.invalidateAll(this.getContextID());
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.exiting(cn, "commit");
     }
   }
 
-  @Override
-  public boolean inService() {
-    this.getLock().readLock().lock();
+  /**
+   * Puts this {@link ConfigurablePolicyContext} in service with the
+   * supplied {@link CommittedPolicy}, such as one {@linkplain
+   * PolicySnapshot#getCommittedPolicy() read from a
+   * <code>PolicySnapshot</code>}, in place of any policy statements
+   * it held.
+   *
+   * <p>No policy statements are copied out of {@code committedPolicy}
+   * unless this {@link ConfigurablePolicyContext} is later {@linkplain
+   * #open() opened} without being cleared, so a {@link
+   * CommittedPolicy} whose parts are decoded lazily stays that
+   * way.</p>
+   *
+   * @param committedPolicy the {@link CommittedPolicy} to install;
+   * must not be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code committedPolicy} is
+   * {@code null}
+   *
+   * @exception IllegalStateException if this {@link
+   * ConfigurablePolicyContext} has been {@linkplain #delete() deleted}
+   */
+  final void commit(final CommittedPolicy committedPolicy) {
+    if (committedPolicy == null) {
+      throw new IllegalArgumentException("committedPolicy", new NullPointerException("committedPolicy"));
+    }
+    final String cn = this.getClass().getName();
+    final Logger logger = Logger.getLogger(cn);
+    if (logger != null && logger.isLoggable(Level.FINER)) {
+      logger.entering(cn, "commit", committedPolicy);
+    }
+    this.getLock().writeLock().lock();
     try {
-      return this.state == State.IN_SERVICE;
+      checkNotDeleted();
+      this.draft = this.draft.cleared();
+      this.lastCommittedPolicy = null;
+      this.committedPolicy = committedPolicy;
+      this.restored = true;
+      this.state = State.IN_SERVICE;
+      this.commitCount++;
     } finally {
-      this.getLock().readLock().unlock();
+      this.getLock().writeLock().unlock();
+    }
+    DecisionCache.invalidateAll(this.getContextID());
+    if (logger != null && logger.isLoggable(Level.FINER)) {
+      logger.exiting(cn, "commit");
     }
   }
 
-  private final void checkOpen() {
-    if (!this.isOpen()) {
-      throw new IllegalStateException(String.valueOf(this.state));
+  /**
+   * Returns a new {@link PolicyVersion} containing the policy
+   * statements of the supplied {@link CommittedPolicy}.
+   */
+  private final PolicyVersion versionOf(final CommittedPolicy committedPolicy) {
+    PolicyVersion returnValue = PolicyVersion.EMPTY.editable();
+    Enumeration<Permission> elements = committedPolicy.getExcludedPolicy().elements();
+    while (elements.hasMoreElements()) {
+      returnValue = returnValue.plusExcluded(intern(elements.nextElement()));
+    }
+    elements = committedPolicy.getUncheckedPolicy().elements();
+    while (elements.hasMoreElements()) {
+      returnValue = returnValue.plusUnchecked(intern(elements.nextElement()));
+    }
+    for (final Map.Entry<String, ? extends PermissionCollection> entry : committedPolicy.getRoles().entrySet()) {
+      final String roleName = intern(entry.getKey());
+      elements = entry.getValue().elements();
+      while (elements.hasMoreElements()) {
+        returnValue = returnValue.plusRole(roleName, intern(elements.nextElement()));
+      }
     }
+    return returnValue;
+  }
+
+  /**
+   * Returns the pooled {@link Permission} equal to the supplied one,
+   * or the supplied {@link Permission} if interning is disabled.
+   */
+  private static final Permission intern(final Permission permission) {
+    return INTERN ? permissionPool.intern(permission) : permission;
+  }
+
+  /**
+   * Returns the pooled role name equal to the supplied one, or the
+   * supplied role name if interning is disabled.
+   */
+  private static final String intern(final String roleName) {
+    return INTERN ? roleNamePool.intern(roleName) : roleName;
   }
 
-  private final void checkInService() {
-    if (!this.inService()) {
+  /**
+   * Returns the number of {@link Permission}s in the pool shared by
+   * all {@link ConfigurablePolicyContext}s.
+   *
+   * @return the number of pooled {@link Permission}s
+   */
+  static final int getInternedPermissionCount() {
+    return permissionPool.size();
+  }
+
+  /**
+   * Returns the number of role names in the pool shared by all {@link
+   * ConfigurablePolicyContext}s.
+   *
+   * @return the number of pooled role names
+   */
+  static final int getInternedRoleNameCount() {
+    return roleNamePool.size();
+  }
+
+  /**
+   * Returns the number of distinct committed policies shared, or
+   * available to be shared, by {@link ConfigurablePolicyContext}s.
+   *
+   * @return the number of shared committed policies
+   */
+  static final int getSharedPolicyCount() {
+    return policyPool.size();
+  }
+
+  @Override
+  public boolean inService() {
+    return this.state == State.IN_SERVICE;
+  }
+
+  /**
+   * Returns the number of times this {@link ConfigurablePolicyContext}
+   * has been {@linkplain #commit() committed}.
+   *
+   * @return the number of commits
+   */
+  public final long getCommitCount() {
+    return this.commitCount;
+  }
+
+  /**
+   * Returns the context identifiers of the policy contexts this {@link
+   * ConfigurablePolicyContext} is {@linkplain
+   * #linkConfiguration(PolicyConfiguration) linked} with, including its
+   * own, or an empty {@link Set} if it is not linked.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link Set} of context
+   * identifiers
+   */
+  public final Set<String> getLinkedContextIDs() {
+    final LinkGroup linkGroup = this.linkGroup;
+    if (linkGroup == null) {
+      return Collections.emptySet();
+    }
+    return Collections.unmodifiableSet(linkGroup.getContextIDs());
+  }
+
+  /**
+   * Returns the {@link LinkGroup} this {@link ConfigurablePolicyContext}
+   * belongs to, or {@code null}.
+   *
+   * @return the {@link LinkGroup}, or {@code null}
+   */
+  final LinkGroup getLinkGroup() {
+    return this.linkGroup;
+  }
+
+  /**
+   * Sets the {@link LinkGroup} this {@link ConfigurablePolicyContext}
+   * belongs to; must only be called while the {@link LinkGroup}
+   * class's monitor is held.
+   *
+   * @param linkGroup the {@link LinkGroup}; may be {@code null}
+   */
+  final void setLinkGroup(final LinkGroup linkGroup) {
+    this.linkGroup = linkGroup;
+  }
+
+  /**
+   * Returns the {@link State} of this {@link ConfigurablePolicyContext}.
+   *
+   * @return the non-{@code null} {@link State}
+   */
+  final State getState() {
+    return this.state;
+  }
+
+  /**
+   * Returns {@code true} if this {@link ConfigurablePolicyContext} has
+   * been {@linkplain
+   * PolicyConfigurationFactory#purge(ConfigurablePolicyContext)
+   * purged}, in which case it will never be registered again, even if
+   * it is reopened.
+   *
+   * @return {@code true} if this {@link ConfigurablePolicyContext} has
+   * been purged
+   */
+  final boolean isPurged() {
+    return this.purged;
+  }
+
+  /**
+   * Records that this {@link ConfigurablePolicyContext} has been
+   * {@linkplain
+   * PolicyConfigurationFactory#purge(ConfigurablePolicyContext)
+   * purged}; must only be called while the write lock is held.
+   */
+  final void setPurged() {
+    this.purged = true;
+  }
+
+  /**
+   * Returns the {@link #draft}, first renumbering its roles if it is
+   * not numbered by the current {@link #linkGroup}; must only be called
+   * while the write lock is held.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} draft
+   */
+  private final PolicyVersion draft() {
+    PolicyVersion returnValue = this.draft;
+    final LinkGroup linkGroup = this.linkGroup;
+    if (returnValue.getLinkGroup() != linkGroup) {
+      returnValue = returnValue.withLinkGroup(linkGroup);
+      this.draft = returnValue;
+    }
+    return returnValue;
+  }
+
+  private final void checkOpen() {
+    if (!this.isOpen()) {
       throw new IllegalStateException(String.valueOf(this.state));
     }
   }
@@ -428,17 +889,89 @@ public class ConfigurablePolicyContext extends AbstractPolicyContext implements
     }
   }
 
+  /**
+   * Returns {@code true} if the supplied {@link Permission} is
+   * excluded by the current {@link CommittedPolicy}.
+   *
+   * <p>This method does not acquire any locks.</p>
+   *
+   * @param p the {@link Permission} to check; may be {@code null}
+   *
+   * @return {@code true} if {@code p} is excluded
+   *
+   * @exception IllegalStateException if this {@link
+   * ConfigurablePolicyContext} is not {@linkplain #inService() in
+   * service}
+   *
+   * @see CommittedPolicy#excludes(Permission)
+   */
   @Override
-  public PermissionCollection getPermissions(final PermissionCollection delegatePolicyPermissions, final PermissionCollection protectionDomainPermissions, final Principal[] principals) throws PolicyContextException {
-    PermissionCollection returnValue = null;
-    this.getLock().readLock().lock();
-    try {
-      checkInService();
-      returnValue = super.getPermissions(delegatePolicyPermissions, protectionDomainPermissions, principals);
-    } finally {
-      this.getLock().readLock().unlock();
+  public boolean excludes(final Permission p) throws PolicyContextException {
+    return this.getCommittedPolicy().excludes(p);
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission} is
+   * mandated by the current {@link CommittedPolicy}.
+   *
+   * <p>This method does not acquire any locks.</p>
+   *
+   * @param p the {@link Permission} to check; may be {@code null}
+   *
+   * @return {@code true} if {@code p} is mandated
+   *
+   * @exception IllegalStateException if this {@link
+   * ConfigurablePolicyContext} is not {@linkplain #inService() in
+   * service}
+   *
+   * @see CommittedPolicy#mandates(Permission)
+   */
+  @Override
+  public boolean mandates(final Permission p) throws PolicyContextException {
+    return this.getCommittedPolicy().mandates(p);
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission} is
+   * granted by the current {@link CommittedPolicy} to any of the
+   * roles to which the supplied {@link Principal}s are mapped.
+   *
+   * <p>This method does not acquire any locks.</p>
+   *
+   * @param p the {@link Permission} to check; may be {@code null}
+   *
+   * @param principals the {@link Principal}s whose roles should be
+   * consulted; may be {@code null}
+   *
+   * @return {@code true} if {@code p} is granted
+   *
+   * @exception PolicyContextException if role mapping fails
+   *
+   * @exception IllegalStateException if this {@link
+   * ConfigurablePolicyContext} is not {@linkplain #inService() in
+   * service}
+   *
+   * @see CommittedPolicy#grants(Permission, Collection)
+   */
+  @Override
+  public boolean grants(final Permission p, final Principal[] principals) throws PolicyContextException {
+    final CommittedPolicy committedPolicy = this.getCommittedPolicy();
+    if (p == null || committedPolicy.getRoles().isEmpty()) {
+      return false;
     }
-    return returnValue;
+    return committedPolicy.grants(p, this.getRoles(principals));
+  }
+
+  @Override
+  public PermissionCollection getPermissions(final PermissionCollection delegatePolicyPermissions, final PermissionCollection protectionDomainPermissions, final Principal[] principals) throws PolicyContextException {
+    final CommittedPolicy committedPolicy = this.getCommittedPolicy();
+    final Collection<? extends String> roles;
+    if (principals == null || principals.length <= 0) {
+      roles = null;
+    } else {
+      roles = this.getRoles(principals);
+    }
+    return committedPolicy.getPermissions(delegatePolicyPermissions, protectionDomainPermissions, roles);
   }
 
 
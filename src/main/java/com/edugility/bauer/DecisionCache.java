@@ -0,0 +1,638 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+import java.security.Principal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded, concurrent cache of {@link PermissionEvaluation}s keyed
+ * by policy context identifier, canonicalized {@link Principal}s and
+ * {@link Permission}.
+ *
+ * <p>A {@link Policy} may consult a {@link DecisionCache} before
+ * asking its {@link PermissionEvaluator} to evaluate a {@link
+ * Permission}.  Because the cached {@link PermissionEvaluation} is
+ * keyed only by the {@link Principal}s of the {@link
+ * java.security.ProtectionDomain} in question, a {@link
+ * DecisionCache} must only be used with {@link PermissionEvaluator}s
+ * whose results do not depend on any other aspect of the {@link
+ * java.security.ProtectionDomain}.  {@link DefaultPermissionEvaluator}
+ * is such a {@link PermissionEvaluator}.  {@link Principal}s are
+ * compared as {@link CachingRoleMapper} compares them: by their own
+ * {@link Principal#equals(Object) equals} methods, together with the
+ * members of any {@link java.security.acl.Group}s among them.</p>
+ *
+ * <h2>Eviction</h2>
+ *
+ * <p>A {@link DecisionCache} holds approximately {@linkplain
+ * #getMaximumSize() a fixed maximum number} of entries.  Once it is
+ * full, a newly computed entry is admitted only if it has been
+ * requested more often recently than the oldest entry in the cache,
+ * which is then evicted; otherwise the new entry is discarded and the
+ * oldest entry is given another chance.  Access frequencies are
+ * tracked approximately by a small count-min sketch whose counters
+ * are periodically halved so that the cache adapts to changing
+ * workloads.  Only about one lookup in {@value #SAMPLE_RATE} is
+ * recorded in the sketch, so that threads looking up the same popular
+ * entries seldom write to the same memory.</p>
+ *
+ * <h2>Invalidation</h2>
+ *
+ * <p>Each entry records the {@link CommittedPolicy} that was in
+ * effect when it was computed, so an entry can never be returned once
+ * a new policy has been committed.  Decisions made against any other
+ * kind of {@link PolicyContext} are not cached.  In addition, {@link
+ * ConfigurablePolicyContext} eagerly {@linkplain #invalidate(String)
+ * invalidates} the entries belonging to its identifier in every
+ * {@link DecisionCache} whenever it is committed or deleted.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ *
+ * @see Policy#setDecisionCache(DecisionCache)
+ */
+public class DecisionCache {
+
+  /**
+   * Approximately one in this many lookups is recorded in the
+   * frequency sketch: {@value}.
+   */
+  static final int SAMPLE_RATE = 8;
+
+  /**
+   * Every {@link DecisionCache} that has been created and not yet
+   * garbage collected, so that {@linkplain #invalidateAll(String)
+   * invalidations} can be broadcast to them.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Set<DecisionCache> instances = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<DecisionCache, Boolean>()));
+
+  /**
+   * Per-thread {@link Lookup}s used by {@link #get(String,
+   * CommittedPolicy, Principal[], Permission)} so that a lookup
+   * allocates no memory.
+   *
+   * <p>Not used if {@link Policy#VIRTUAL_THREADS} is {@code true}; a
+   * short-lived {@link Lookup} is allocated instead.</p>
+   */
+  private static final ThreadLocal<Lookup> lookups = new ThreadLocal<Lookup>() {
+    @Override
+    protected final Lookup initialValue() {
+      return new Lookup();
+    }
+  };
+
+  private final int maximumSize;
+
+  private final ConcurrentMap<Key, PermissionEvaluation> entries;
+
+  /**
+   * The keys of {@link #entries} in approximate insertion order;
+   * eviction candidates are taken from its head.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ConcurrentLinkedQueue<Key> order;
+
+  private final FrequencySketch frequencies;
+
+  private final StripedCounter hitCount;
+
+  private final StripedCounter missCount;
+
+  private final StripedCounter evictionCount;
+
+  /**
+   * Creates a new {@link DecisionCache}.
+   *
+   * @param maximumSize the approximate maximum number of entries the
+   * new {@link DecisionCache} will hold; must be greater than {@code
+   * 0}
+   *
+   * @exception IllegalArgumentException if {@code maximumSize} is
+   * less than or equal to {@code 0}
+   */
+  public DecisionCache(final int maximumSize) {
+    super();
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize <= 0: " + maximumSize);
+    }
+    this.maximumSize = maximumSize;
+    this.entries = new ConcurrentHashMap<Key, PermissionEvaluation>(Math.min(maximumSize, 1 << 16));
+    this.order = new ConcurrentLinkedQueue<Key>();
+    this.frequencies = new FrequencySketch(maximumSize);
+    this.hitCount = new StripedCounter();
+    this.missCount = new StripedCounter();
+    this.evictionCount = new StripedCounter();
+    instances.add(this);
+  }
+
+  /**
+   * Returns the approximate maximum number of entries this {@link
+   * DecisionCache} will hold.
+   *
+   * @return the approximate maximum size of this {@link
+   * DecisionCache}; always greater than {@code 0}
+   */
+  public final int getMaximumSize() {
+    return this.maximumSize;
+  }
+
+  /**
+   * Returns the number of entries currently held by this {@link
+   * DecisionCache}.
+   *
+   * @return the current size of this {@link DecisionCache}
+   */
+  public int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * Returns the number of lookups that found a cached {@link
+   * PermissionEvaluation}.
+   *
+   * @return the number of cache hits
+   */
+  public final long getHitCount() {
+    return this.hitCount.sum();
+  }
+
+  /**
+   * Returns the number of lookups that did not find a cached {@link
+   * PermissionEvaluation}.
+   *
+   * @return the number of cache misses
+   */
+  public final long getMissCount() {
+    return this.missCount.sum();
+  }
+
+  /**
+   * Returns the number of entries that have been removed from this
+   * {@link DecisionCache} to keep it within its {@linkplain
+   * #getMaximumSize() size bound}.
+   *
+   * <p>Entries removed by {@link #invalidate(String)} or {@link
+   * #clear()} are not counted.</p>
+   *
+   * @return the number of evictions
+   */
+  public final long getEvictionCount() {
+    return this.evictionCount.sum();
+  }
+
+  /**
+   * Returns the {@link PermissionEvaluation} cached for the supplied
+   * decision, or {@code null} if there is no such entry.
+   *
+   * <p>This method allocates no memory unless {@code principals}
+   * contains a {@link java.security.acl.Group} or {@link
+   * Policy#VIRTUAL_THREADS} is {@code true}.</p>
+   *
+   * @param contextId the policy context identifier; must not be
+   * {@code null}
+   *
+   * @param policy the {@link CommittedPolicy} against which the
+   * decision is made; compared by identity; must not be {@code null}
+   *
+   * @param principals the {@link Principal}s of the subject; may be
+   * {@code null}
+   *
+   * @param permission the {@link Permission} being checked; must not
+   * be {@code null}
+   *
+   * @return the cached {@link PermissionEvaluation}, or {@code null}
+   */
+  final PermissionEvaluation get(final String contextId, final CommittedPolicy policy, final Principal[] principals, final Permission permission) {
+    final Lookup lookup = (Policy.VIRTUAL_THREADS ? new Lookup() : lookups.get()).reset(contextId, policy, principals, permission);
+    final PermissionEvaluation returnValue;
+    try {
+      if (lookup.sample()) {
+        this.frequencies.increment(lookup.hashCode());
+      }
+      returnValue = this.entries.get(lookup);
+    } finally {
+      // Don't hold on to the caller's objects.
+      lookup.reset(null, null, null, null);
+    }
+    if (returnValue == null) {
+      this.missCount.increment();
+    } else {
+      this.hitCount.increment();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Caches the supplied {@link PermissionEvaluation} for the supplied
+   * decision, subject to this {@link DecisionCache}'s admission and
+   * eviction policy.
+   *
+   * @param contextId the policy context identifier; must not be
+   * {@code null}
+   *
+   * @param policy the {@link CommittedPolicy} against which the
+   * decision was made; compared by identity; must not be {@code null}
+   *
+   * @param principals the {@link Principal}s of the subject; may be
+   * {@code null}
+   *
+   * @param permission the {@link Permission} that was checked; must
+   * not be {@code null}
+   *
+   * @param evaluation the {@link PermissionEvaluation} to cache; if
+   * {@code null} then no action is taken
+   */
+  final void put(final String contextId, final CommittedPolicy policy, final Principal[] principals, final Permission permission, final PermissionEvaluation evaluation) {
+    if (evaluation != null) {
+      this.put(new Key(contextId, policy, PrincipalsKey.of(principals), permission), evaluation);
+    }
+  }
+
+  private final void put(final Key key, final PermissionEvaluation evaluation) {
+    assert key != null;
+    assert evaluation != null;
+    if (!this.entries.containsKey(key)) {
+      if (this.entries.size() >= this.maximumSize) {
+        final Key victim = this.pollVictim();
+        if (victim != null) {
+          if (this.frequencies.frequency(key.hashCode()) <= this.frequencies.frequency(victim.hashCode())) {
+            // The candidate is not popular enough to displace the
+            // victim; give the victim another chance and drop the
+            // candidate.
+            this.order.offer(victim);
+            return;
+          }
+          if (this.entries.remove(victim) != null) {
+            this.evictionCount.increment();
+          }
+        }
+      }
+      if (this.entries.putIfAbsent(key, evaluation) == null) {
+        this.order.offer(key);
+      }
+    }
+  }
+
+  /**
+   * Removes and returns the oldest {@link Key} that is still present
+   * in this {@link DecisionCache}, or {@code null} if there is none.
+   *
+   * @return the oldest live {@link Key}, or {@code null}
+   */
+  private final Key pollVictim() {
+    Key key;
+    while ((key = this.order.poll()) != null) {
+      if (this.entries.containsKey(key)) {
+        return key;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes all entries belonging to the policy context identified by
+   * the supplied identifier.
+   *
+   * @param contextId the policy context identifier; if {@code null}
+   * then no action is taken
+   */
+  public void invalidate(final String contextId) {
+    if (contextId != null) {
+      final Iterator<Key> keys = this.entries.keySet().iterator();
+      while (keys.hasNext()) {
+        if (contextId.equals(keys.next().contextId)) {
+          keys.remove();
+        }
+      }
+      final Iterator<Key> orderedKeys = this.order.iterator();
+      while (orderedKeys.hasNext()) {
+        if (contextId.equals(orderedKeys.next().contextId)) {
+          orderedKeys.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes all entries from this {@link DecisionCache}.
+   *
+   * <p>Hit, miss and eviction counts are not reset.</p>
+   */
+  public void clear() {
+    this.entries.clear();
+    this.order.clear();
+  }
+
+  @Override
+  public String toString() {
+    return new StringBuilder(this.getClass().getName())
+      .append("[size=").append(this.size())
+      .append(", maximumSize=").append(this.getMaximumSize())
+      .append(", hits=").append(this.getHitCount())
+      .append(", misses=").append(this.getMissCount())
+      .append(", evictions=").append(this.getEvictionCount())
+      .append("]")
+      .toString();
+  }
+
+  /**
+   * {@linkplain #invalidate(String) Invalidates} the entries
+   * belonging to the policy context identified by the supplied
+   * identifier in every live {@link DecisionCache}.
+   *
+   * @param contextId the policy context identifier; if {@code null}
+   * then no action is taken
+   */
+  static final void invalidateAll(final String contextId) {
+    if (contextId != null) {
+      final List<DecisionCache> caches;
+      synchronized (instances) {
+        if (instances.isEmpty()) {
+          return;
+        }
+        caches = new ArrayList<DecisionCache>(instances);
+      }
+      for (final DecisionCache cache : caches) {
+        if (cache != null) {
+          cache.invalidate(contextId);
+        }
+      }
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The key under which a {@link PermissionEvaluation} is cached.
+   *
+   * <p>Instances of this class are immutable and safe for use by
+   * concurrent threads.</p>
+   */
+  static final class Key {
+
+    private final String contextId;
+
+    /**
+     * The {@link CommittedPolicy} in effect when this {@link Key} was
+     * created; compared by identity.
+     */
+    private final CommittedPolicy policy;
+
+    private final PrincipalsKey principals;
+
+    private final Permission permission;
+
+    private final int hashCode;
+
+    private Key(final String contextId, final CommittedPolicy policy, final PrincipalsKey principals, final Permission permission) {
+      super();
+      assert contextId != null;
+      assert policy != null;
+      assert principals != null;
+      assert permission != null;
+      this.contextId = contextId;
+      this.policy = policy;
+      this.principals = principals;
+      this.permission = permission;
+      this.hashCode = hash(contextId, policy, principals.hashCode(), permission);
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hashCode;
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof Key) {
+        final Key her = (Key)other;
+        return
+          this.hashCode == her.hashCode &&
+          this.policy == her.policy &&
+          this.contextId.equals(her.contextId) &&
+          this.permission.equals(her.permission) &&
+          this.principals.equals(her.principals);
+      } else {
+        return false;
+      }
+    }
+
+    @Override
+    public final String toString() {
+      return this.contextId + " " + this.principals + " " + this.permission;
+    }
+
+    private static final int hash(final String contextId, final CommittedPolicy policy, final int principalsHashCode, final Permission permission) {
+      int hashCode = 17;
+      hashCode = 37 * hashCode + contextId.hashCode();
+      hashCode = 37 * hashCode + System.identityHashCode(policy);
+      hashCode = 37 * hashCode + principalsHashCode;
+      hashCode = 37 * hashCode + permission.hashCode();
+      return hashCode;
+    }
+
+  }
+
+  /**
+   * A mutable stand-in for a {@link Key} that can be passed to {@link
+   * java.util.Map#get(Object)} without building a {@link Key}.
+   *
+   * <p>A {@link Lookup} has the same {@linkplain #hashCode() hash
+   * code} as, and is {@linkplain #equals(Object) equal} to, the
+   * {@link Key} that would be built from the values it was last
+   * {@linkplain #reset(String, CommittedPolicy, Principal[],
+   * Permission) reset} with.  It is never stored in {@link
+   * DecisionCache#entries}.</p>
+   *
+   * <p>Instances of this class are not safe for use by concurrent
+   * threads; each thread uses its own.</p>
+   */
+  private static final class Lookup {
+
+    private final PrincipalsKey.Probe principals;
+
+    private String contextId;
+
+    private CommittedPolicy policy;
+
+    private Permission permission;
+
+    private int hashCode;
+
+    /**
+     * The number of lookups made with this {@link Lookup}, starting
+     * from an arbitrary value so that short-lived {@link Lookup}s are
+     * sampled too.
+     */
+    private int count;
+
+    private Lookup() {
+      super();
+      this.principals = new PrincipalsKey.Probe();
+      this.count = (int)System.nanoTime();
+    }
+
+    /**
+     * Returns {@code true} if the current lookup is one of the roughly
+     * one in {@link DecisionCache#SAMPLE_RATE} to be recorded in the
+     * frequency sketch.
+     */
+    private final boolean sample() {
+      return ++this.count % SAMPLE_RATE == 0;
+    }
+
+    private final Lookup reset(final String contextId, final CommittedPolicy policy, final Principal[] principals, final Permission permission) {
+      this.contextId = contextId;
+      this.policy = policy;
+      this.principals.reset(principals);
+      this.permission = permission;
+      if (contextId == null) {
+        this.hashCode = 0;
+      } else {
+        this.hashCode = Key.hash(contextId, policy, this.principals.hashCode(), permission);
+      }
+      return this;
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hashCode;
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof Key) {
+        final Key her = (Key)other;
+        return
+          this.hashCode == her.hashCode &&
+          this.policy == her.policy &&
+          this.contextId.equals(her.contextId) &&
+          this.permission.equals(her.permission) &&
+          this.principals.equals(her.principals);
+      } else {
+        return false;
+      }
+    }
+
+  }
+
+  /**
+   * An approximate, lossy record of how often keys with particular
+   * hash codes have been requested, implemented as a count-min sketch
+   * of small saturating counters.
+   *
+   * <p>Updates are deliberately unsynchronized: a lost increment only
+   * makes the estimate slightly less accurate.</p>
+   */
+  private static final class FrequencySketch {
+
+    private static final int[] SEEDS = { 0x97cb3127, 0xc3a5c85c, 0x9e3779b9, 0x85ebca6b };
+
+    private static final int MAXIMUM_COUNT = 15;
+
+    private final int[] table;
+
+    private final int mask;
+
+    private final int sampleSize;
+
+    private int additions;
+
+    private FrequencySketch(final int maximumSize) {
+      super();
+      final int width = Integer.highestOneBit(Math.max(16, Math.min(maximumSize, 1 << 20) * 4 - 1) << 1);
+      this.table = new int[width];
+      this.mask = width - 1;
+      this.sampleSize = Math.max(10 * maximumSize, 10 * 16);
+    }
+
+    private final int index(final int hash, final int row) {
+      int h = (hash + SEEDS[row]) * SEEDS[row];
+      h ^= h >>> 16;
+      return h & this.mask;
+    }
+
+    private final int frequency(final int hash) {
+      int returnValue = MAXIMUM_COUNT;
+      for (int row = 0; row < SEEDS.length; row++) {
+        returnValue = Math.min(returnValue, this.table[this.index(hash, row)]);
+      }
+      return returnValue;
+    }
+
+    private final void increment(final int hash) {
+      boolean added = false;
+      for (int row = 0; row < SEEDS.length; row++) {
+        final int index = this.index(hash, row);
+        if (this.table[index] < MAXIMUM_COUNT) {
+          this.table[index]++;
+          added = true;
+        }
+      }
+      if (added && ++this.additions >= this.sampleSize) {
+        this.age();
+      }
+    }
+
+    /**
+     * Halves every counter so that old activity gradually stops
+     * influencing admission decisions.
+     */
+    private final void age() {
+      this.additions = 0;
+      for (int i = 0; i < this.table.length; i++) {
+        this.table[i] >>>= 1;
+      }
+    }
+
+  }
+
+}
@@ -37,29 +37,49 @@ import javax.security.jacc.PolicyContextException;
 
 public class DefaultPermissionEvaluator implements PermissionEvaluator {
 
+  private static final String CLASS_NAME = DefaultPermissionEvaluator.class.getName();
+
+  /**
+   * The {@link Logger} used by this class, looked up once rather than
+   * on every call.
+   */
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
   public DefaultPermissionEvaluator() {
     super();
   }
 
   @Override
   public PermissionEvaluation evaluate(final ProtectionDomain protectionDomain, final PolicyContext policyContext, final Permission permission) throws PolicyContextException {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "evaluate", new Object[] { "(protection domain)", policyContext, permission });
     }
 
     final PermissionEvaluation returnValue;
+    final CommittedPolicy committedPolicy;
+    if (policyContext instanceof ConfigurablePolicyContext) {
+      committedPolicy = ((ConfigurablePolicyContext)policyContext).getCommittedPolicyOrNull();
+    } else {
+      committedPolicy = null;
+    }
     if (policyContext == null) {
       returnValue = PermissionEvaluation.INDETERMINATE;
 
+    } else if (committedPolicy != null) {
+      // Evaluate against a single snapshot, deciding exclusion only
+      // once rather than once each in excludes(), mandates() and
+      // grants().
+      returnValue = this.evaluate(protectionDomain, policyContext, committedPolicy, permission);
+
     } else if (policyContext.excludes(permission)) {
       returnValue = PermissionEvaluation.EXCLUDED;
 
     } else if (policyContext.mandates(permission)) {
       returnValue = PermissionEvaluation.MANDATED;
 
-    } else if (policyContext.grants(permission, protectionDomain.getPrincipals())) {
+    } else if (policyContext.grants(permission, DomainPrincipals.of(protectionDomain))) {
       // Role-based permissions are granted explicitly to certain roles.
       returnValue = PermissionEvaluation.GRANTED; // non-authoritative response
 
@@ -76,4 +96,24 @@ public class DefaultPermissionEvaluator implements PermissionEvaluator {
     return returnValue;
   }
 
+  private final PermissionEvaluation evaluate(final ProtectionDomain protectionDomain, final PolicyContext policyContext, final CommittedPolicy committedPolicy, final Permission permission) throws PolicyContextException {
+    assert policyContext != null;
+    assert committedPolicy != null;
+    final PermissionEvaluation returnValue;
+    if (committedPolicy.excludes(permission)) {
+      returnValue = PermissionEvaluation.EXCLUDED;
+
+    } else if (committedPolicy.mandatesUnexcluded(permission)) {
+      returnValue = PermissionEvaluation.MANDATED;
+
+    } else if (!committedPolicy.getRoles().isEmpty() && committedPolicy.grantsUnexcluded(permission, policyContext.getRoles(DomainPrincipals.of(protectionDomain)))) {
+      returnValue = PermissionEvaluation.GRANTED; // non-authoritative response
+
+    } else {
+      returnValue = PermissionEvaluation.INDETERMINATE;
+
+    }
+    return returnValue;
+  }
+
 }
@@ -0,0 +1,99 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.lang.ref.WeakReference;
+
+import java.security.Principal;
+import java.security.ProtectionDomain;
+
+/**
+ * A per-thread memo of the {@link Principal}s of the {@link
+ * ProtectionDomain} most recently checked on that thread.
+ *
+ * <p>{@link ProtectionDomain#getPrincipals()} returns a new copy of
+ * its {@link Principal} array on every call.  A thread serving one
+ * request usually checks several permissions against the same {@link
+ * ProtectionDomain} in a row, so {@link #of(ProtectionDomain)} hands
+ * back the copy it made last time instead of asking for another.  The
+ * {@link ProtectionDomain} itself is only weakly referenced.</p>
+ *
+ * <p>Arrays returned by {@link #of(ProtectionDomain)} are shared and
+ * must not be modified by callers.</p>
+ *
+ * <p>If {@link Policy#VIRTUAL_THREADS} is {@code true} nothing is
+ * memoized, since a virtual thread seldom lives long enough to
+ * repay its {@link ThreadLocal} entry.</p>
+ */
+final class DomainPrincipals {
+
+  private static final ThreadLocal<DomainPrincipals> memos = new ThreadLocal<DomainPrincipals>() {
+    @Override
+    protected final DomainPrincipals initialValue() {
+      return new DomainPrincipals();
+    }
+  };
+
+  private WeakReference<ProtectionDomain> domain;
+
+  private Principal[] principals;
+
+  private DomainPrincipals() {
+    super();
+  }
+
+  /**
+   * Returns the {@link Principal}s of the supplied {@link
+   * ProtectionDomain}, reusing the array returned the last time this
+   * method was invoked on the current thread with the same {@link
+   * ProtectionDomain}.
+   *
+   * <p>The returned array must not be modified.</p>
+   *
+   * @param domain the {@link ProtectionDomain}; may be {@code null}
+   * in which case {@code null} will be returned
+   *
+   * @return the {@link Principal}s of {@code domain}, or {@code null}
+   */
+  static final Principal[] of(final ProtectionDomain domain) {
+    if (domain == null) {
+      return null;
+    }
+    if (Policy.VIRTUAL_THREADS) {
+      return domain.getPrincipals();
+    }
+    final DomainPrincipals memo = memos.get();
+    final WeakReference<ProtectionDomain> reference = memo.domain;
+    if (reference == null || reference.get() != domain) {
+      memo.principals = domain.getPrincipals();
+      memo.domain = new WeakReference<ProtectionDomain>(domain);
+    }
+    return memo.principals;
+  }
+
+}
@@ -0,0 +1,331 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link PermissionIndex} for {@link
+ * javax.security.jacc.EJBMethodPermission}s that finds candidate
+ * permissions by EJB name and method name.
+ *
+ * <p>An {@link javax.security.jacc.EJBMethodPermission} can only
+ * imply another with the same EJB name, and only if its method name
+ * is either absent (a wildcard) or equal to the other's.  Permissions
+ * are therefore indexed first by EJB name and then by method name,
+ * with permissions that name no method kept in a separate wildcard
+ * bucket.  Checking a permission for a particular method invocation
+ * costs two hash probes plus a scan of the (usually tiny) exact and
+ * wildcard buckets.</p>
+ *
+ * <p>Each entry also carries its method interface so that entries
+ * bound to a different interface are rejected without calling {@link
+ * Permission#implies(Permission)}.  Surviving candidates are always
+ * confirmed with {@link Permission#implies(Permission)}, so this
+ * index never changes the outcome of a check, only its cost.</p>
+ *
+ * <p>The method name and method interface of the permission being
+ * checked are located within its actions string and compared in
+ * place (see {@link StringTable}), so a check allocates no
+ * memory.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * concurrent threads.</p>
+ */
+final class EJBMethodPermissionIndex extends PermissionIndex {
+
+  private static final Entry[] EMPTY_ENTRY_ARRAY = new Entry[0];
+
+  private final StringTable<Bean> beans;
+
+  /**
+   * Creates a new {@link EJBMethodPermissionIndex}.
+   *
+   * @param permissions the {@link Permission}s to index; must not be
+   * {@code null}, must not contain {@code null} elements and must all
+   * be {@link javax.security.jacc.EJBMethodPermission}s
+   *
+   * @param roles the {@linkplain RoleTable role bitsets} granting
+   * each of the {@code permissions}, in the same order; may be {@code
+   * null}
+   */
+  EJBMethodPermissionIndex(final Permission[] permissions, final long[][] roles) {
+    super();
+    assert permissions != null;
+    final Map<String, Bean.Builder> builders = new HashMap<String, Bean.Builder>();
+    for (int i = 0; i < permissions.length; i++) {
+      final Permission permission = permissions[i];
+      final String ejbName = permission.getName();
+      Bean.Builder builder = builders.get(ejbName);
+      if (builder == null) {
+        builder = new Bean.Builder();
+        builders.put(ejbName, builder);
+      }
+      builder.add(new Entry(permission, roles == null ? null : roles[i]));
+    }
+    final Map<String, Bean> beans = new HashMap<String, Bean>(builders.size() * 4 / 3 + 1);
+    for (final Map.Entry<String, Bean.Builder> mapEntry : builders.entrySet()) {
+      beans.put(mapEntry.getKey(), mapEntry.getValue().build());
+    }
+    this.beans = StringTable.of(beans);
+  }
+
+  @Override
+  final boolean implies(final Permission permission, final long[] roles) {
+    final Bean bean = this.beans.get(permission.getName());
+    if (bean == null) {
+      return false;
+    }
+    String actions = permission.getActions();
+    if (actions == null) {
+      actions = "";
+    }
+    // The method name is actions[0, nameEnd) and the method interface
+    // is actions[interfaceStart, interfaceEnd); neither is extracted.
+    final int nameEnd = fieldEnd(actions, 0);
+    final int interfaceStart = nameEnd < actions.length() ? nameEnd + 1 : nameEnd;
+    final int interfaceEnd = fieldEnd(actions, interfaceStart);
+    if (bean.anyMethod.length > 0 && implies(bean.anyMethod, actions, interfaceStart, interfaceEnd, roles, permission)) {
+      return true;
+    }
+    if (nameEnd > 0 && bean.byMethod != null) {
+      // A permission naming a method can never imply one that names
+      // none, so there is nothing more to check in that case.
+      final Entry[] entries = bean.byMethod.get(actions, 0, nameEnd);
+      if (entries != null && implies(entries, actions, interfaceStart, interfaceEnd, roles, permission)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  final boolean anyImpliedBy(final Permission permission) {
+    final Bean bean = this.beans.get(permission.getName());
+    if (bean == null) {
+      return false;
+    }
+    String actions = permission.getActions();
+    if (actions == null) {
+      actions = "";
+    }
+    final int nameEnd = fieldEnd(actions, 0);
+    final int interfaceStart = nameEnd < actions.length() ? nameEnd + 1 : nameEnd;
+    final int interfaceEnd = fieldEnd(actions, interfaceStart);
+    final Entry[] candidates;
+    if (nameEnd <= 0) {
+      candidates = bean.all;
+    } else if (bean.byMethod == null) {
+      return false;
+    } else {
+      // A permission naming a method implies only permissions naming
+      // the same method.
+      candidates = bean.byMethod.get(actions, 0, nameEnd);
+      if (candidates == null) {
+        return false;
+      }
+    }
+    for (final Entry candidate : candidates) {
+      if ((interfaceEnd <= interfaceStart || candidate.hasInterface(actions, interfaceStart, interfaceEnd)) && permission.implies(candidate.permission)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static final boolean implies(final Entry[] entries, final String actions, final int interfaceStart, final int interfaceEnd, final long[] roles, final Permission permission) {
+    for (final Entry entry : entries) {
+      if (admits(entry.roles, roles) && (entry.methodInterface.length() <= 0 || entry.hasInterface(actions, interfaceStart, interfaceEnd)) && entry.permission.implies(permission)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the index of the first {@code ,} in {@code actions} at or
+   * after {@code start}, or the length of {@code actions} if there is
+   * none.
+   */
+  private static final int fieldEnd(final String actions, final int start) {
+    final int comma = actions.indexOf(',', start);
+    return comma < 0 ? actions.length() : comma;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The indexed permissions for a single EJB name.
+   */
+  private static final class Bean {
+
+    /**
+     * Entries that name no method; never {@code null}.
+     */
+    private final Entry[] anyMethod;
+
+    /**
+     * All entries; never {@code null}.
+     */
+    private final Entry[] all;
+
+    /**
+     * Entries indexed by method name, or {@code null} if there are
+     * none.
+     */
+    private final StringTable<Entry[]> byMethod;
+
+    private Bean(final Entry[] anyMethod, final StringTable<Entry[]> byMethod, final Entry[] all) {
+      super();
+      this.anyMethod = anyMethod;
+      this.byMethod = byMethod;
+      this.all = all;
+    }
+
+    private static final class Builder {
+
+      private final List<Entry> anyMethod;
+
+      private final Map<String, List<Entry>> byMethod;
+
+      private final List<Entry> all;
+
+      private Builder() {
+        super();
+        this.anyMethod = new ArrayList<Entry>(1);
+        this.byMethod = new HashMap<String, List<Entry>>();
+        this.all = new ArrayList<Entry>();
+      }
+
+      private final void add(final Entry entry) {
+        this.all.add(entry);
+        if (entry.methodName.length() <= 0) {
+          this.anyMethod.add(entry);
+        } else {
+          List<Entry> list = this.byMethod.get(entry.methodName);
+          if (list == null) {
+            list = new ArrayList<Entry>(2);
+            this.byMethod.put(entry.methodName, list);
+          }
+          list.add(entry);
+        }
+      }
+
+      private final Bean build() {
+        final Entry[] anyMethod;
+        if (this.anyMethod.isEmpty()) {
+          anyMethod = EMPTY_ENTRY_ARRAY;
+        } else {
+          anyMethod = this.anyMethod.toArray(new Entry[this.anyMethod.size()]);
+        }
+        final StringTable<Entry[]> byMethod;
+        if (this.byMethod.isEmpty()) {
+          byMethod = null;
+        } else {
+          final Map<String, Entry[]> map = new HashMap<String, Entry[]>(this.byMethod.size() * 4 / 3 + 1);
+          for (final Map.Entry<String, List<Entry>> mapEntry : this.byMethod.entrySet()) {
+            final List<Entry> list = mapEntry.getValue();
+            map.put(mapEntry.getKey(), list.toArray(new Entry[list.size()]));
+          }
+          byMethod = StringTable.of(map);
+        }
+        return new Bean(anyMethod, byMethod, this.all.toArray(new Entry[this.all.size()]));
+      }
+
+    }
+
+  }
+
+  /**
+   * An indexed {@link javax.security.jacc.EJBMethodPermission}
+   * together with its pre-parsed method name and method interface.
+   */
+  private static final class Entry {
+
+    private final Permission permission;
+
+    /**
+     * The method name; empty if the permission applies to all
+     * methods.
+     */
+    private final String methodName;
+
+    /**
+     * The method interface; empty if the permission applies to all
+     * interfaces.
+     */
+    private final String methodInterface;
+
+    /**
+     * The {@linkplain RoleTable bitset} of roles granting {@link
+     * #permission}, or {@code null}.
+     */
+    private final long[] roles;
+
+    private Entry(final Permission permission, final long[] roles) {
+      super();
+      this.permission = permission;
+      this.roles = roles;
+      final String actions = permission.getActions();
+      if (actions == null || actions.length() <= 0) {
+        this.methodName = "";
+        this.methodInterface = "";
+      } else {
+        final int comma = actions.indexOf(',');
+        if (comma < 0) {
+          this.methodName = actions;
+          this.methodInterface = "";
+        } else {
+          this.methodName = actions.substring(0, comma);
+          final int nextComma = actions.indexOf(',', comma + 1);
+          this.methodInterface = nextComma < 0 ? actions.substring(comma + 1) : actions.substring(comma + 1, nextComma);
+        }
+      }
+    }
+
+    /**
+     * Returns {@code true} if this {@link Entry}'s method interface is
+     * equal to {@code actions[start, end)}.
+     */
+    private final boolean hasInterface(final String actions, final int start, final int end) {
+      final int length = end - start;
+      return this.methodInterface.length() == length && actions.regionMatches(start, this.methodInterface, 0, length);
+    }
+
+  }
+
+}
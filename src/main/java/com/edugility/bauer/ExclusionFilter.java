@@ -0,0 +1,366 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.AllPermission;
+import java.security.Permission;
+import java.security.UnresolvedPermission;
+
+import java.util.Collection;
+import java.util.Enumeration;
+
+import javax.security.jacc.EJBMethodPermission;
+import javax.security.jacc.WebResourcePermission;
+import javax.security.jacc.WebUserDataPermission;
+
+/**
+ * A Bloom filter over an excluded policy that answers, without any
+ * false negatives, whether a {@link Permission} <em>might</em> be
+ * excluded by it.
+ *
+ * <p>Most permissions checked at runtime are not excluded, and most
+ * of those have nothing in common with any excluded permission.  An
+ * {@link ExclusionFilter} records, for each excluded JACC permission,
+ * its {@link Class} together with a short prefix of its name (the
+ * first path segment and any extension of a web permission's first
+ * URL pattern, or an EJB name).  A permission being checked whose
+ * own keys are all absent from the filter can neither imply nor be
+ * implied by any excluded permission, so {@link
+ * CommittedPolicy#excludes(Permission)} can return {@code false}
+ * after a handful of bit tests.</p>
+ *
+ * <p>Keys are hashed directly from the characters of a permission's
+ * name, so {@link #mightExclude(Permission)} allocates nothing.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * concurrent threads.</p>
+ *
+ * @see CommittedPolicy#excludes(Permission)
+ */
+final class ExclusionFilter {
+
+  /**
+   * The key kind shared by every permission of a given class whose
+   * name cannot be narrowed further, and probed by every check of
+   * that class.
+   */
+  private static final int WILDCARD = 1;
+
+  /**
+   * The key kind shared by every permission of a given class.
+   */
+  private static final int ANY = 2;
+
+  /**
+   * The key kind of the first path segment of a web URL pattern.
+   */
+  private static final int SEGMENT = 3;
+
+  /**
+   * The key kind of the extension of a web URL pattern.
+   */
+  private static final int EXTENSION = 4;
+
+  /**
+   * The key kind of an entire permission name.
+   */
+  private static final int NAME = 5;
+
+  /**
+   * The number of bits set per key.
+   */
+  private static final int HASHES = 3;
+
+  /**
+   * The bits of this filter; never {@code null}.
+   */
+  private final long[] bits;
+
+  /**
+   * {@link #bits bits.length * 64 - 1}; the bit count is always a
+   * power of two.
+   */
+  private final int mask;
+
+  private ExclusionFilter(final int keyCount) {
+    super();
+    // About ten bits per key keeps false positives near one percent
+    // with three hashes.
+    int bitCount = 64;
+    while (bitCount < keyCount * 10 && bitCount < (1 << 24)) {
+      bitCount <<= 1;
+    }
+    this.bits = new long[bitCount >>> 6];
+    this.mask = bitCount - 1;
+  }
+
+  /**
+   * Creates a new {@link ExclusionFilter} with the supplied bits, as
+   * {@linkplain #getBits() returned} by an {@link ExclusionFilter}
+   * built by {@link #of(ImmutablePermissions)}, possibly in another
+   * virtual machine.
+   *
+   * @param bits the bits; must not be {@code null} and its length
+   * must be a power of two
+   *
+   * @exception IllegalArgumentException if {@code bits} is {@code
+   * null} or its length is not a power of two
+   */
+  ExclusionFilter(final long[] bits) {
+    super();
+    if (bits == null) {
+      throw new IllegalArgumentException("bits", new NullPointerException("bits"));
+    }
+    if (bits.length == 0 || (bits.length & (bits.length - 1)) != 0) {
+      throw new IllegalArgumentException("bits.length: " + bits.length);
+    }
+    this.bits = bits.clone();
+    this.mask = (bits.length << 6) - 1;
+  }
+
+  /**
+   * Returns a copy of the bits of this {@link ExclusionFilter}, from
+   * which an equivalent one can be {@linkplain
+   * #ExclusionFilter(long[]) recreated}.
+   *
+   * <p>Keys are hashed from class names and characters only, so the
+   * bits mean the same thing in any virtual machine.  This method
+   * never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} copy of the bits
+   */
+  final long[] getBits() {
+    return this.bits.clone();
+  }
+
+  /**
+   * Returns a new {@link ExclusionFilter} for the supplied excluded
+   * policy, or {@code null} if the excluded policy contains a {@link
+   * Permission} (such as an {@link AllPermission}) that might imply
+   * permissions of other classes, in which case no filter can help.
+   *
+   * @param excludedPolicy the excluded policy; must not be {@code
+   * null}
+   *
+   * @return a new {@link ExclusionFilter}, or {@code null}
+   */
+  static final ExclusionFilter of(final ImmutablePermissions excludedPolicy) {
+    assert excludedPolicy != null;
+    final ExclusionFilter returnValue = new ExclusionFilter(excludedPolicy.size() * 3);
+    final Enumeration<Permission> elements = excludedPolicy.elements();
+    while (elements.hasMoreElements()) {
+      if (!returnValue.add(elements.nextElement())) {
+        return null;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns an {@link ExclusionFilter} over the supplied excluded
+   * policy, which must consist of the policy this {@link
+   * ExclusionFilter} was built from together with the supplied
+   * additions.
+   *
+   * <p>This {@link ExclusionFilter}'s bits are copied and only the
+   * additions are recorded, unless it has too few bits for the
+   * enlarged policy, in which case a new {@link ExclusionFilter} is
+   * {@linkplain #of(ImmutablePermissions) built} from scratch.</p>
+   *
+   * @param excludedPolicy the enlarged excluded policy; must not be
+   * {@code null}
+   *
+   * @param additions the {@link Permission}s added to the excluded
+   * policy; must not be {@code null} and must not contain {@code
+   * null} elements
+   *
+   * @return a new {@link ExclusionFilter}, or {@code null} if the
+   * enlarged excluded policy cannot be filtered
+   */
+  final ExclusionFilter plus(final ImmutablePermissions excludedPolicy, final Collection<? extends Permission> additions) {
+    assert excludedPolicy != null;
+    assert additions != null;
+    final int bitCount = this.mask + 1;
+    if (bitCount < excludedPolicy.size() * 30L && bitCount < (1 << 24)) {
+      return of(excludedPolicy);
+    }
+    final ExclusionFilter returnValue = new ExclusionFilter(this.bits);
+    for (final Permission p : additions) {
+      if (!returnValue.add(p)) {
+        return null;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Records the supplied excluded {@link Permission}, returning
+   * {@code false} if it is of a kind that cannot be filtered.
+   */
+  private final boolean add(final Permission p) {
+    if (p instanceof AllPermission || p instanceof UnresolvedPermission) {
+      return false;
+    }
+    final Class<?> c = p.getClass();
+    if (PermissionIndex.impliesOnlyItsOwnClass(c)) {
+      // Permissions of other classes are never involved in checking
+      // a JACC permission, and checks of other classes bypass the
+      // filter altogether, so only JACC permissions are recorded.
+      this.add(c, ANY, "", 0, 0);
+      final String name = p.getName();
+      if (isWeb(c)) {
+        final int end = firstPatternEnd(name);
+        if (end == 1 && name.charAt(0) == '/' || end == 2 && name.startsWith("/*") || name.startsWith("*.")) {
+          if (name.startsWith("*.")) {
+            final int dot = name.lastIndexOf('.', end - 1);
+            this.add(c, EXTENSION, name, dot + 1, end);
+          } else {
+            // The default and "/*" patterns match everything.
+            this.add(c, WILDCARD, "", 0, 0);
+          }
+        } else {
+          this.add(c, SEGMENT, name, 0, segmentEnd(name, end));
+          final int dot = name.lastIndexOf('.', end - 1);
+          if (dot >= 0) {
+            this.add(c, EXTENSION, name, dot + 1, end);
+          }
+        }
+      } else if (c == EJBMethodPermission.class) {
+        this.add(c, NAME, name, 0, name.length());
+      } else {
+        this.add(c, WILDCARD, "", 0, 0);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns {@code false} if the supplied {@link Permission} can
+   * neither imply nor be implied by any {@link Permission} in the
+   * excluded policy from which this {@link ExclusionFilter} was
+   * built; {@code true} if it might.
+   *
+   * @param p the {@link Permission} to check; must not be {@code
+   * null}
+   *
+   * @return {@code false} if {@code p} is definitely not excluded
+   */
+  final boolean mightExclude(final Permission p) {
+    assert p != null;
+    final Class<?> c = p.getClass();
+    if (!PermissionIndex.impliesOnlyItsOwnClass(c)) {
+      return true;
+    }
+    if (this.contains(c, WILDCARD, "", 0, 0)) {
+      return true;
+    }
+    final String name = p.getName();
+    if (isWeb(c)) {
+      final int end = firstPatternEnd(name);
+      if (end == 1 && name.charAt(0) == '/' || end == 2 && name.startsWith("/*")) {
+        // The default and "/*" patterns imply every web permission of
+        // their class.
+        return this.contains(c, ANY, "", 0, 0);
+      }
+      final int dot = name.lastIndexOf('.', end - 1);
+      if (dot >= 0 && this.contains(c, EXTENSION, name, dot + 1, end)) {
+        return true;
+      }
+      return !name.startsWith("*.") && this.contains(c, SEGMENT, name, 0, segmentEnd(name, end));
+    } else if (c == EJBMethodPermission.class) {
+      return this.contains(c, NAME, name, 0, name.length());
+    }
+    return false;
+  }
+
+  private final void add(final Class<?> c, final int kind, final String s, final int start, final int end) {
+    final int hash = hash(c, kind, s, start, end);
+    final int step = (hash >>> 16) | 1;
+    int h = hash;
+    for (int i = 0; i < HASHES; i++) {
+      final int bit = h & this.mask;
+      this.bits[bit >>> 6] |= 1L << bit;
+      h += step;
+    }
+  }
+
+  private final boolean contains(final Class<?> c, final int kind, final String s, final int start, final int end) {
+    final int hash = hash(c, kind, s, start, end);
+    final int step = (hash >>> 16) | 1;
+    int h = hash;
+    for (int i = 0; i < HASHES; i++) {
+      final int bit = h & this.mask;
+      if ((this.bits[bit >>> 6] & (1L << bit)) == 0L) {
+        return false;
+      }
+      h += step;
+    }
+    return true;
+  }
+
+  private static final int hash(final Class<?> c, final int kind, final String s, final int start, final int end) {
+    int h = c.getName().hashCode() * 31 + kind;
+    for (int i = start; i < end; i++) {
+      h = h * 31 + s.charAt(i);
+    }
+    // Spread the bits (MurmurHash3 finalizer).
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private static final boolean isWeb(final Class<?> c) {
+    return c == WebResourcePermission.class || c == WebUserDataPermission.class;
+  }
+
+  /**
+   * Returns the index just past the first URL pattern in the supplied
+   * web permission name.
+   */
+  private static final int firstPatternEnd(final String name) {
+    final int colon = name.indexOf(':');
+    return colon < 0 ? name.length() : colon;
+  }
+
+  /**
+   * Returns the index just past the first path segment of the URL
+   * pattern occupying {@code name[0, end)}, including its leading
+   * {@code /}, or {@code end} if the pattern is not a path.
+   */
+  private static final int segmentEnd(final String name, final int end) {
+    if (end <= 0 || name.charAt(0) != '/') {
+      return end;
+    }
+    final int slash = name.indexOf('/', 1);
+    return slash < 0 || slash > end ? end : slash;
+  }
+
+}
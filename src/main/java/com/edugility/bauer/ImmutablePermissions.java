@@ -0,0 +1,669 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.AllPermission;
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.Permissions;
+import java.security.UnresolvedPermission;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only {@link PermissionCollection} whose contents are fixed
+ * at construction time and whose {@link #implies(Permission)} method
+ * therefore requires no synchronization.
+ *
+ * <p>Unlike {@link Permissions}, which synchronizes on its internal
+ * heterogeneous collections, an {@link ImmutablePermissions} stores
+ * {@link Permission}s that do not supply their own {@linkplain
+ * Permission#newPermissionCollection() homogeneous
+ * <code>PermissionCollection</code>} (such as all of the JACC
+ * permission types) in immutable {@linkplain PermissionIndex indexes}
+ * grouped by {@link Class}.  Web permissions, for example, are
+ * indexed by URL pattern so that checking one costs roughly a single
+ * walk down a trie of path segments, and EJB method permissions are
+ * indexed by EJB and method name, rather than one {@link
+ * Permission#implies(Permission)} call per element.  Each index is
+ * built the first time a {@link Permission} of its class is
+ * checked.</p>
+ *
+ * <p>An {@link ImmutablePermissions} may also be created over a
+ * section of a {@link PolicySnapshot}, in which case its {@link
+ * Permission}s are decoded and indexed only when first consulted.
+ * Its {@linkplain #size() size} is known without decoding
+ * anything.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ *
+ * @see CommittedPolicy
+ */
+final class ImmutablePermissions extends PermissionCollection {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The number of {@link Permission}s in this {@link
+   * ImmutablePermissions}.
+   */
+  private final transient int size;
+
+  /**
+   * The {@link PolicySnapshot.Section} from which the {@link
+   * Contents} of this {@link ImmutablePermissions} are decoded on
+   * first use, or {@code null} if they were supplied at construction
+   * time.
+   */
+  private final transient PolicySnapshot.Section section;
+
+  /**
+   * The {@link Contents} of this {@link ImmutablePermissions}, or
+   * {@code null} if they have yet to be decoded from {@link
+   * #section}.
+   *
+   * <p>Decoding more than once is harmless, so no lock is taken.</p>
+   */
+  private transient volatile Contents contents;
+
+  /**
+   * Creates a new {@link ImmutablePermissions} containing the
+   * elements of the supplied {@link PermissionCollection}.
+   *
+   * @param source the {@link PermissionCollection} to copy; may be
+   * {@code null} in which case the new {@link ImmutablePermissions}
+   * will be empty
+   */
+  ImmutablePermissions(final PermissionCollection source) {
+    super();
+    final List<Permission> all = new ArrayList<Permission>();
+    if (source != null) {
+      synchronized (source) {
+        final Enumeration<Permission> elements = source.elements();
+        if (elements != null) {
+          while (elements.hasMoreElements()) {
+            final Permission p = elements.nextElement();
+            if (p != null) {
+              all.add(p);
+            }
+          }
+        }
+      }
+    }
+    this.contents = new Contents(all.toArray(new Permission[all.size()]));
+    this.size = all.size();
+    this.section = null;
+    this.setReadOnly();
+  }
+
+  /**
+   * Creates a new {@link ImmutablePermissions} containing the
+   * elements of the supplied {@link Collection}.
+   *
+   * @param source the {@link Permission}s; must not be {@code null}
+   * and must not contain {@code null} elements
+   */
+  ImmutablePermissions(final Collection<? extends Permission> source) {
+    super();
+    assert source != null;
+    final Permission[] elements = source.toArray(new Permission[source.size()]);
+    this.contents = new Contents(elements);
+    this.size = elements.length;
+    this.section = null;
+    this.setReadOnly();
+  }
+
+  private ImmutablePermissions(final Contents contents) {
+    super();
+    assert contents != null;
+    this.contents = contents;
+    this.size = contents.elements.length;
+    this.section = null;
+    this.setReadOnly();
+  }
+
+  /**
+   * Creates a new {@link ImmutablePermissions} whose {@link
+   * Permission}s will be decoded from the supplied {@link
+   * PolicySnapshot.Section} when first needed.
+   *
+   * @param section the {@link PolicySnapshot.Section} to decode; must
+   * not be {@code null}
+   */
+  ImmutablePermissions(final PolicySnapshot.Section section) {
+    super();
+    assert section != null;
+    this.size = section.size();
+    this.section = section;
+    if (this.size == 0) {
+      this.contents = new Contents(new Permission[0]);
+    }
+    this.setReadOnly();
+  }
+
+  /**
+   * Returns the {@link Contents} of this {@link
+   * ImmutablePermissions}, decoding them first if necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} {@link Contents}
+   */
+  private final Contents contents() {
+    Contents returnValue = this.contents;
+    if (returnValue == null) {
+      returnValue = new Contents(this.section.permissions());
+      this.contents = returnValue;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a new {@link ImmutablePermissions} containing the {@link
+   * Permission}s of this one together with the supplied additions.
+   *
+   * <p>The indexes of permission classes to which nothing is added
+   * are shared with this {@link ImmutablePermissions}.  A class
+   * gaining only a few {@link Permission}s has them laid over its
+   * existing {@link PermissionIndex} as a {@link
+   * PermissionIndex.Overlay}; other classes are rebuilt.  This method
+   * never returns {@code null}.</p>
+   *
+   * @param additions the {@link Permission}s to add; must not be
+   * {@code null}, must not contain {@code null} elements and should
+   * not contain any {@link Permission} already present
+   *
+   * @return a non-{@code null} {@link ImmutablePermissions}
+   */
+  final ImmutablePermissions plus(final Collection<? extends Permission> additions) {
+    assert additions != null;
+    if (additions.isEmpty()) {
+      return this;
+    }
+    final Contents contents = this.contents();
+    final Permission[] elements = new Permission[contents.elements.length + additions.size()];
+    System.arraycopy(contents.elements, 0, elements, 0, contents.elements.length);
+    int i = contents.elements.length;
+    for (final Permission p : additions) {
+      elements[i++] = p;
+    }
+    return new ImmutablePermissions(contents.plus(elements, additions));
+  }
+
+  /**
+   * Throws a {@link SecurityException} since {@link
+   * ImmutablePermissions} instances are always read-only.
+   *
+   * @param permission ignored
+   *
+   * @exception SecurityException when invoked
+   */
+  @Override
+  public final void add(final Permission permission) {
+    throw new SecurityException("attempt to add a Permission to a readonly PermissionCollection");
+  }
+
+  /**
+   * Returns {@code true} if this {@link ImmutablePermissions} contains
+   * no {@link Permission}s.
+   *
+   * @return {@code true} if this {@link ImmutablePermissions} is
+   * empty
+   */
+  final boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * Returns the number of {@link Permission}s contained by this
+   * {@link ImmutablePermissions}.
+   *
+   * @return the number of {@link Permission}s in this {@link
+   * ImmutablePermissions}
+   */
+  final int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission} is
+   * implied by any {@link Permission} contained in this {@link
+   * ImmutablePermissions}.
+   *
+   * <p>This method does not acquire any locks unless the source
+   * collection contained {@link UnresolvedPermission}s.</p>
+   *
+   * @param permission the {@link Permission} to check; may be {@code
+   * null} in which case {@code false} will be returned
+   *
+   * @return {@code true} if {@code permission} is implied
+   */
+  @Override
+  public final boolean implies(final Permission permission) {
+    if (permission == null || this.size == 0) {
+      return false;
+    }
+    final Contents contents = this.contents();
+    if (contents.allPermission) {
+      return true;
+    }
+    if (contents.unresolvedFallback != null) {
+      return contents.unresolvedFallback.implies(permission);
+    }
+    final Class<?> c = permission.getClass();
+    final Index index = contents.heterogeneous.get(c);
+    if (index != null) {
+      return index.get().implies(permission);
+    }
+    final PermissionCollection pc = contents.homogeneous.get(c);
+    return pc != null && pc.implies(permission);
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission} {@linkplain
+   * Permission#implies(Permission) implies} any {@link Permission}
+   * contained by this {@link ImmutablePermissions}.
+   *
+   * <p>This is the reverse of the {@link #implies(Permission)}
+   * test.  When {@code permission} is one of the JACC permission
+   * types only the {@linkplain PermissionIndex#anyImpliedBy(Permission)
+   * index} for its own class is consulted; otherwise every element is
+   * asked in turn.</p>
+   *
+   * @param permission the {@link Permission} to check; may be {@code
+   * null} in which case {@code false} will be returned
+   *
+   * @return {@code true} if {@code permission} implies any element of
+   * this {@link ImmutablePermissions}
+   */
+  final boolean anyImpliedBy(final Permission permission) {
+    if (permission != null && this.size > 0) {
+      final Contents contents = this.contents();
+      final Class<?> c = permission.getClass();
+      if (PermissionIndex.impliesOnlyItsOwnClass(c)) {
+        final Index index = contents.heterogeneous.get(c);
+        if (index != null) {
+          return index.get().anyImpliedBy(permission);
+        } else if (!contents.homogeneous.containsKey(c)) {
+          return false;
+        }
+      }
+      for (final Permission element : contents.elements) {
+        if (permission.implies(element)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns an {@link Enumeration} over all of the {@link
+   * Permission}s in this {@link ImmutablePermissions}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Enumeration}
+   */
+  @Override
+  public final Enumeration<Permission> elements() {
+    if (this.size == 0) {
+      return Collections.enumeration(Collections.<Permission>emptyList());
+    }
+    return Collections.enumeration(java.util.Arrays.asList(this.contents().elements));
+  }
+
+  /**
+   * Returns a new, mutable {@link Permissions} containing the same
+   * {@link Permission}s as this {@link ImmutablePermissions}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link Permissions}
+   */
+  final Permissions toPermissions() {
+    final Permissions returnValue = new Permissions();
+    for (final Permission p : this.contents().elements) {
+      returnValue.add(p);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a read-only {@link Permissions} equivalent to this {@link
+   * ImmutablePermissions} for serialization purposes.
+   *
+   * @return a read-only {@link Permissions}; never {@code null}
+   */
+  private final Object writeReplace() {
+    final Permissions returnValue = this.toPermissions();
+    returnValue.setReadOnly();
+    return returnValue;
+  }
+
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The {@link Permission}s of an {@link ImmutablePermissions} and the
+   * indexes built over them.
+   *
+   * <p>Instances of this class are immutable and safe for use by
+   * concurrent threads.</p>
+   */
+  private static final class Contents {
+
+    /**
+     * All {@link Permission}s, in the order in which they were
+     * encountered.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Permission[] elements;
+
+    /**
+     * {@link Index}es of {@link Permission}s whose classes do not
+     * supply a homogeneous {@link PermissionCollection}, indexed by
+     * that class.
+     *
+     * <p>This field is never {@code null} and is never modified after
+     * construction.</p>
+     */
+    private final Map<Class<?>, Index> heterogeneous;
+
+    /**
+     * Read-only homogeneous {@link PermissionCollection}s indexed by
+     * the {@link Class} of the {@link Permission}s they contain.
+     *
+     * <p>This field is never {@code null} and is never modified after
+     * construction.</p>
+     */
+    private final Map<Class<?>, PermissionCollection> homogeneous;
+
+    /**
+     * Whether an {@link AllPermission} is present.
+     */
+    private final boolean allPermission;
+
+    /**
+     * A read-only {@link Permissions} to defer to if any {@link
+     * UnresolvedPermission}s are present, or {@code null}.
+     */
+    private final Permissions unresolvedFallback;
+
+    /**
+     * Creates a new {@link Contents} indexing the supplied {@link
+     * Permission}s.
+     *
+     * @param elements the {@link Permission}s; must not be {@code
+     * null} and must not contain {@code null} elements
+     */
+    private Contents(final Permission[] elements) {
+      super();
+      assert elements != null;
+      this.elements = elements;
+      final Map<Class<?>, List<Permission>> byClass = new LinkedHashMap<Class<?>, List<Permission>>();
+      boolean allPermission = false;
+      boolean unresolved = false;
+      for (final Permission p : elements) {
+        if (p instanceof AllPermission) {
+          allPermission = true;
+        } else if (p instanceof UnresolvedPermission) {
+          unresolved = true;
+        }
+        add(byClass, p);
+      }
+      this.allPermission = allPermission;
+
+      final Map<Class<?>, Index> heterogeneous = new HashMap<Class<?>, Index>();
+      final Map<Class<?>, PermissionCollection> homogeneous = new HashMap<Class<?>, PermissionCollection>();
+      for (final Map.Entry<Class<?>, List<Permission>> entry : byClass.entrySet()) {
+        final List<Permission> permissions = entry.getValue();
+        assert permissions != null;
+        assert !permissions.isEmpty();
+        final PermissionCollection pc = permissions.get(0).newPermissionCollection();
+        if (pc == null) {
+          heterogeneous.put(entry.getKey(), new Index(permissions.toArray(new Permission[permissions.size()])));
+        } else {
+          for (final Permission p : permissions) {
+            pc.add(p);
+          }
+          pc.setReadOnly();
+          homogeneous.put(entry.getKey(), pc);
+        }
+      }
+      this.heterogeneous = heterogeneous;
+      this.homogeneous = homogeneous;
+
+      if (unresolved) {
+        final Permissions fallback = new Permissions();
+        for (final Permission p : elements) {
+          fallback.add(p);
+        }
+        fallback.setReadOnly();
+        this.unresolvedFallback = fallback;
+      } else {
+        this.unresolvedFallback = null;
+      }
+    }
+
+    private Contents(final Permission[] elements, final Map<Class<?>, Index> heterogeneous, final Map<Class<?>, PermissionCollection> homogeneous) {
+      super();
+      this.elements = elements;
+      this.heterogeneous = heterogeneous;
+      this.homogeneous = homogeneous;
+      this.allPermission = false;
+      this.unresolvedFallback = null;
+    }
+
+    /**
+     * Returns new {@link Contents} for the supplied elements, which
+     * must be those of these {@link Contents} followed by the
+     * supplied additions, reusing whatever indexes of these {@link
+     * Contents} the additions leave untouched.
+     *
+     * @param elements all of the {@link Permission}s; must not be
+     * {@code null}
+     *
+     * @param additions the final {@link Permission}s of {@code
+     * elements}; must not be {@code null}
+     *
+     * @return new {@link Contents}; never {@code null}
+     */
+    private final Contents plus(final Permission[] elements, final Collection<? extends Permission> additions) {
+      if (this.allPermission || this.unresolvedFallback != null) {
+        return new Contents(elements);
+      }
+      final Map<Class<?>, List<Permission>> byClass = new LinkedHashMap<Class<?>, List<Permission>>();
+      for (final Permission p : additions) {
+        if (p instanceof AllPermission || p instanceof UnresolvedPermission) {
+          return new Contents(elements);
+        }
+        add(byClass, p);
+      }
+      final int baseSize = elements.length - additions.size();
+      final Map<Class<?>, Index> heterogeneous = new HashMap<Class<?>, Index>(this.heterogeneous);
+      final Map<Class<?>, PermissionCollection> homogeneous = new HashMap<Class<?>, PermissionCollection>(this.homogeneous);
+      for (final Map.Entry<Class<?>, List<Permission>> entry : byClass.entrySet()) {
+        final Class<?> c = entry.getKey();
+        final List<Permission> added = entry.getValue();
+        final Index index = heterogeneous.get(c);
+        if (index != null) {
+          heterogeneous.put(c, index.plus(added));
+        } else if (homogeneous.containsKey(c)) {
+          final PermissionCollection pc = added.get(0).newPermissionCollection();
+          for (final Permission p : elements) {
+            if (p.getClass() == c) {
+              pc.add(p);
+            }
+          }
+          pc.setReadOnly();
+          homogeneous.put(c, pc);
+        } else {
+          final PermissionCollection pc = added.get(0).newPermissionCollection();
+          if (pc == null) {
+            heterogeneous.put(c, new Index(added.toArray(new Permission[added.size()])));
+          } else {
+            for (final Permission p : added) {
+              pc.add(p);
+            }
+            pc.setReadOnly();
+            homogeneous.put(c, pc);
+          }
+        }
+      }
+      return new Contents(elements, heterogeneous, homogeneous);
+    }
+
+    private static final void add(final Map<Class<?>, List<Permission>> byClass, final Permission p) {
+      List<Permission> list = byClass.get(p.getClass());
+      if (list == null) {
+        list = new ArrayList<Permission>();
+        byClass.put(p.getClass(), list);
+      }
+      list.add(p);
+    }
+
+  }
+
+  /**
+   * The {@link Permission}s of one class held by {@link Contents},
+   * and the {@link PermissionIndex} over them, which is built only
+   * when first consulted.
+   *
+   * <p>Most {@link ImmutablePermissions} of a {@link CommittedPolicy}
+   * are per-role policies whose JACC permissions are checked through
+   * its {@link RoleGrantIndex} instead, so building their indexes
+   * eagerly would mostly be wasted effort.  Building one more than
+   * once is harmless, so no lock is taken.</p>
+   *
+   * <p>Instances of this class are safe for use by concurrent
+   * threads.</p>
+   */
+  private static final class Index {
+
+    /**
+     * The {@link Permission}s, all of the same class.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Permission[] permissions;
+
+    /**
+     * The {@link PermissionIndex} over {@link #permissions}, or {@code
+     * null} if it has yet to be built.
+     */
+    private volatile PermissionIndex index;
+
+    private Index(final Permission[] permissions) {
+      this(permissions, null);
+    }
+
+    private Index(final Permission[] permissions, final PermissionIndex index) {
+      super();
+      assert permissions != null;
+      this.permissions = permissions;
+      this.index = index;
+    }
+
+    /**
+     * Returns the {@link PermissionIndex}, building it if necessary.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link PermissionIndex}
+     */
+    private final PermissionIndex get() {
+      PermissionIndex index = this.index;
+      if (index == null) {
+        index = PermissionIndex.of(this.permissions);
+        this.index = index;
+      }
+      return index;
+    }
+
+    /**
+     * Returns a new {@link Index} over these {@link Permission}s
+     * followed by the supplied ones.
+     *
+     * <p>If the {@link PermissionIndex} has been built, the additions
+     * are laid over it as a {@link PermissionIndex.Overlay} until
+     * there are too many of them, when a new {@link PermissionIndex}
+     * is built instead; otherwise it is left to be built on first
+     * use.  This method never returns {@code null}.</p>
+     *
+     * @param added the {@link Permission}s to add, all of the same
+     * class as these; must not be {@code null}
+     *
+     * @return a new, non-{@code null} {@link Index}
+     */
+    private final Index plus(final List<Permission> added) {
+      assert added != null;
+      final Permission[] permissions = new Permission[this.permissions.length + added.size()];
+      System.arraycopy(this.permissions, 0, permissions, 0, this.permissions.length);
+      for (int i = 0; i < added.size(); i++) {
+        permissions[this.permissions.length + i] = added.get(i);
+      }
+      final PermissionIndex index = this.index;
+      if (index == null) {
+        return new Index(permissions);
+      }
+      final PermissionIndex base;
+      final int baseSize;
+      if (index instanceof PermissionIndex.Overlay) {
+        final PermissionIndex.Overlay overlay = (PermissionIndex.Overlay)index;
+        base = overlay.getBase();
+        baseSize = overlay.getBaseSize();
+      } else {
+        base = index;
+        baseSize = this.permissions.length;
+      }
+      final int additions = permissions.length - baseSize;
+      if (additions > PermissionIndex.Overlay.capacity(baseSize)) {
+        return new Index(permissions, PermissionIndex.of(permissions));
+      }
+      final Permission[] overlaid = new Permission[additions];
+      System.arraycopy(permissions, baseSize, overlaid, 0, additions);
+      return new Index(permissions, new PermissionIndex.Overlay(base, baseSize, overlaid, null));
+    }
+
+  }
+
+}
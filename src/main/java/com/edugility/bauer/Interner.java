@@ -0,0 +1,169 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A pool of weakly referenced canonical instances, so that equal
+ * immutable objects held by many policy contexts are stored once.
+ *
+ * <p>{@link #intern(Object)} returns the instance already in the pool
+ * that is {@linkplain Object#equals(Object) equal} to, and of the same
+ * class as, the supplied object, adding the supplied object if there
+ * is none.  The pool does not keep its instances alive: once nothing
+ * else refers to an instance it is garbage collected and its entry is
+ * removed the next time the pool is used.</p>
+ *
+ * <p>Only immutable objects whose {@link Object#equals(Object)} method
+ * means that one may stand in for the other, such as {@link String}s
+ * and {@link java.security.Permission}s, should be interned.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ *
+ * @param <T> the type of object interned
+ *
+ * @see ConfigurablePolicyContext
+ */
+final class Interner<T> {
+
+  /**
+   * The canonical instances, each keyed by its own {@link Entry}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ConcurrentMap<Entry<T>, Entry<T>> entries;
+
+  /**
+   * The queue to which the garbage collector appends {@link Entry}s
+   * whose instances have been collected.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ReferenceQueue<T> queue;
+
+  Interner() {
+    super();
+    this.entries = new ConcurrentHashMap<Entry<T>, Entry<T>>();
+    this.queue = new ReferenceQueue<T>();
+  }
+
+  /**
+   * Returns the canonical instance equal to the supplied object.
+   *
+   * @param object the object to intern; may be {@code null} in which
+   * case {@code null} will be returned
+   *
+   * @return the canonical instance, which is {@code object} itself if
+   * no equal instance of the same class was pooled
+   */
+  final T intern(final T object) {
+    if (object == null) {
+      return null;
+    }
+    this.expunge();
+    final Entry<T> entry = new Entry<T>(object, this.queue);
+    while (true) {
+      final Entry<T> existing = this.entries.putIfAbsent(entry, entry);
+      if (existing == null) {
+        return object;
+      }
+      final T returnValue = existing.get();
+      if (returnValue != null) {
+        return returnValue.getClass() == object.getClass() ? returnValue : object;
+      }
+      // Collected since it was found; make room and try again.
+      this.entries.remove(existing, existing);
+    }
+  }
+
+  /**
+   * Returns the number of entries in this {@link Interner}, including
+   * any whose instances have been collected but not yet removed.
+   *
+   * @return the number of entries
+   */
+  final int size() {
+    this.expunge();
+    return this.entries.size();
+  }
+
+  private final void expunge() {
+    Reference<? extends T> reference;
+    while ((reference = this.queue.poll()) != null) {
+      this.entries.remove(reference, reference);
+    }
+  }
+
+  /**
+   * A weak reference to a pooled instance that is {@linkplain
+   * #equals(Object) equal} to another {@link Entry} if their instances
+   * are equal.
+   *
+   * <p>An {@link Entry} whose instance has been collected is equal
+   * only to itself, so that it can still be removed.</p>
+   */
+  private static final class Entry<T> extends WeakReference<T> {
+
+    private final int hashCode;
+
+    private Entry(final T object, final ReferenceQueue<T> queue) {
+      super(object, queue);
+      this.hashCode = object.hashCode();
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hashCode;
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof Entry) {
+        final Entry<?> her = (Entry<?>)other;
+        if (this.hashCode != her.hashCode) {
+          return false;
+        }
+        final T object = this.get();
+        return object != null && object.equals(her.get());
+      } else {
+        return false;
+      }
+    }
+
+  }
+
+}
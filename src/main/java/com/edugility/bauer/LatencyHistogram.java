@@ -0,0 +1,209 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.Arrays;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with one bucket per power
+ * of two, cheap enough to update on every authorization decision.
+ *
+ * <p>Bucket {@code 0} counts durations of {@code 0} nanoseconds and
+ * bucket <var>i</var> (for <var>i</var> &gt; 0) counts durations of
+ * at least 2<sup><var>i</var>-1</sup> and less than
+ * 2<sup><var>i</var></sup> nanoseconds.  Recording a duration is a
+ * leading-zero count and a single atomic increment of a counter in a
+ * row of buckets chosen by the recording thread's {@linkplain
+ * StripedCounter#stripe() stripe}.  Like a {@link StripedCounter} a
+ * {@link LatencyHistogram} holds no rows until the first duration is
+ * recorded, then a single row, and doubles its rows only when
+ * recorders collide, up to {@link StripedCounter#STRIPES} of them, so
+ * that a histogram nobody records into, or only one thread at a time
+ * does, stays small on any host.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ */
+final class LatencyHistogram {
+
+  /**
+   * The number of buckets: {@value}.
+   */
+  static final int BUCKETS = 64;
+
+  /**
+   * Rows of {@link #BUCKETS} counts, or {@code null} if nothing has
+   * been recorded; its length is a power of two no larger than {@link
+   * StripedCounter#STRIPES}, and any element may be {@code null}.
+   */
+  private volatile AtomicLongArray[] rows;
+
+  /**
+   * Creates a new, empty {@link LatencyHistogram}.
+   */
+  LatencyHistogram() {
+    super();
+  }
+
+  /**
+   * Records a duration.
+   *
+   * @param nanos the duration in nanoseconds; negative durations are
+   * recorded as {@code 0}
+   */
+  final void record(final long nanos) {
+    final int bucket = nanos <= 0L ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    final int stripe = StripedCounter.stripe();
+    AtomicLongArray[] rows = this.rows;
+    if (rows == null) {
+      rows = this.expand(null, false);
+    }
+    while (true) {
+      final AtomicLongArray row = rows[stripe & (rows.length - 1)];
+      if (row == null) {
+        rows = this.expand(rows, false);
+      } else {
+        final long count = row.get(bucket);
+        if (row.compareAndSet(bucket, count, count + 1L)) {
+          return;
+        }
+        if (rows.length >= StripedCounter.STRIPES) {
+          // Nowhere left to spread to.
+          row.incrementAndGet(bucket);
+          return;
+        }
+        rows = this.expand(rows, true);
+      }
+    }
+  }
+
+  /**
+   * Makes sure the current thread has a row, doubling the rows first
+   * if they have not grown since {@code seen} was read and the
+   * current thread collided on its row.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param seen the rows the caller last read; may be {@code null}
+   *
+   * @param collided whether the caller collided with another thread
+   * on its row in {@code seen}
+   *
+   * @return the current rows, among which the current thread's row
+   * exists
+   */
+  private final synchronized AtomicLongArray[] expand(final AtomicLongArray[] seen, final boolean collided) {
+    AtomicLongArray[] rows = this.rows;
+    if (rows == null) {
+      rows = new AtomicLongArray[1];
+    } else if (rows == seen && collided && rows.length < StripedCounter.STRIPES) {
+      rows = Arrays.copyOf(rows, rows.length * 2);
+    }
+    final int index = StripedCounter.stripe() & (rows.length - 1);
+    if (rows[index] == null) {
+      rows[index] = new AtomicLongArray(BUCKETS);
+    }
+    this.rows = rows;
+    return rows;
+  }
+
+  /**
+   * Returns the counts in each bucket.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new array of {@link #BUCKETS} counts
+   */
+  final long[] getCounts() {
+    final long[] returnValue = new long[BUCKETS];
+    final AtomicLongArray[] rows = this.rows;
+    if (rows != null) {
+      for (final AtomicLongArray row : rows) {
+        if (row != null) {
+          for (int i = 0; i < BUCKETS; i++) {
+            returnValue[i] += row.get(i);
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns an upper bound, in nanoseconds, on the duration below
+   * which the supplied fraction of recorded durations fall, or {@code
+   * 0} if nothing has been recorded.
+   *
+   * @param fraction a number between {@code 0} and {@code 1}, such as
+   * {@code 0.99}
+   *
+   * @return the exclusive upper bound of the bucket containing the
+   * requested quantile, or {@code 0}
+   */
+  final long getQuantileNanos(final double fraction) {
+    final long[] counts = this.getCounts();
+    long total = 0L;
+    for (final long count : counts) {
+      total += count;
+    }
+    if (total <= 0L) {
+      return 0L;
+    }
+    final long rank = (long)Math.ceil(Math.max(0.0, Math.min(1.0, fraction)) * total);
+    long seen = 0L;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0L) {
+        return i == 0 ? 1L : (i >= 63 ? Long.MAX_VALUE : 1L << i);
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Discards all recorded durations.
+   *
+   * <p>Durations recorded concurrently with this method may or may
+   * not be lost.</p>
+   */
+  final void reset() {
+    final AtomicLongArray[] rows = this.rows;
+    if (rows != null) {
+      for (final AtomicLongArray row : rows) {
+        if (row != null) {
+          for (int i = 0; i < BUCKETS; i++) {
+            row.set(i, 0L);
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,336 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The principal-to-role mapping shared by a set of {@linkplain
+ * ConfigurablePolicyContext#linkConfiguration(javax.security.jacc.PolicyConfiguration)
+ * linked} {@link ConfigurablePolicyContext}s, such as those of the
+ * modules of one application.
+ *
+ * <p>A {@link LinkGroup} holds one {@link CachingRoleMapper} for each
+ * distinct {@link RoleMapper} its members were configured with, and
+ * installs it in every member configured with that {@link
+ * RoleMapper}, so that a subject's roles are mapped once for the
+ * whole application rather than once per module.  Two {@link
+ * RoleMapper}s are the same for this purpose if they are {@linkplain
+ * Object#equals(Object) equal}; a {@link CachingRoleMapper} stands
+ * for its {@linkplain CachingRoleMapper#getDelegate() delegate}.  A
+ * member whose {@link RoleMapper} differs from every other member's
+ * therefore keeps mapping roles exactly as it was configured to, at
+ * the cost of a cache of its own, and a member with no {@link
+ * RoleMapper} is left without one.  It also assigns every role name
+ * any member uses a single identifier, never reused, and publishes a
+ * {@link RoleTable} of them that each member's {@link
+ * CommittedPolicy} adopts.  Because each such {@link RoleTable}
+ * extends its predecessors, the {@linkplain
+ * RoleTable#bitsOf(java.util.Collection) bitset} a {@link RoleSet}
+ * remembers for one member serves every other member as well.</p>
+ *
+ * <p>Links are symmetric and transitive: linking two members of
+ * different {@link LinkGroup}s merges them.  Members of the smaller
+ * group renumber their roles the next time they are configured or
+ * committed.  A member is removed from its {@link LinkGroup} when it
+ * is {@linkplain ConfigurablePolicyContext#delete() deleted}.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.  Membership is guarded by the {@link LinkGroup} class
+ * itself, whose monitor is never held while any policy context's lock
+ * is acquired.</p>
+ *
+ * @see ConfigurablePolicyContext#linkConfiguration(javax.security.jacc.PolicyConfiguration)
+ */
+final class LinkGroup {
+
+  /**
+   * The members of this {@link LinkGroup}; guarded by the {@link
+   * LinkGroup} class.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Set<ConfigurablePolicyContext> members;
+
+  /**
+   * The {@link CachingRoleMapper}s installed in the members, no two
+   * of which have equal {@linkplain CachingRoleMapper#getDelegate()
+   * delegates}; guarded by the {@link LinkGroup} class.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<CachingRoleMapper> roleMappers;
+
+  /**
+   * Role identifiers indexed by role name; guarded by {@code this}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<String, Integer> ids;
+
+  /**
+   * Role names indexed by role identifier; only the first {@code
+   * ids.size()} elements are used; guarded by {@code this}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private String[] names;
+
+  /**
+   * The {@link RoleTable} most recently built from {@link #names}, or
+   * {@code null}; guarded by {@code this}.
+   */
+  private RoleTable roleTable;
+
+  private LinkGroup() {
+    super();
+    this.members = new LinkedHashSet<ConfigurablePolicyContext>();
+    this.roleMappers = new ArrayList<CachingRoleMapper>();
+    this.ids = new HashMap<String, Integer>();
+    this.names = new String[16];
+  }
+
+  /**
+   * Returns the identifier of the supplied role name, assigning the
+   * next one if it has none.
+   *
+   * @param roleName the role name; must not be {@code null}
+   *
+   * @return the role identifier, never negative
+   */
+  final synchronized int idOf(final String roleName) {
+    assert roleName != null;
+    final Integer id = this.ids.get(roleName);
+    if (id != null) {
+      return id.intValue();
+    }
+    final int returnValue = this.ids.size();
+    if (returnValue >= this.names.length) {
+      this.names = Arrays.copyOf(this.names, returnValue * 2);
+    }
+    this.names[returnValue] = roleName;
+    this.ids.put(roleName, Integer.valueOf(returnValue));
+    return returnValue;
+  }
+
+  /**
+   * Returns a {@link RoleTable} of every role name assigned an
+   * identifier so far.
+   *
+   * <p>Every {@link RoleTable} returned by this method has this
+   * {@link LinkGroup} as its {@linkplain RoleTable#covers(RoleTable)
+   * lineage}, and a new one is built only when new role names have
+   * been assigned identifiers.  This method never returns {@code
+   * null}.</p>
+   *
+   * @return a non-{@code null} {@link RoleTable}
+   */
+  final synchronized RoleTable getRoleTable() {
+    final int size = this.ids.size();
+    if (this.roleTable == null || this.roleTable.size() != size) {
+      this.roleTable = new RoleTable(Arrays.copyOf(this.names, size), this);
+    }
+    return this.roleTable;
+  }
+
+  /**
+   * Returns the {@link CachingRoleMapper}s shared by the members of
+   * this {@link LinkGroup}, one for each distinct {@link RoleMapper}
+   * they were configured with.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link List} of {@link
+   * CachingRoleMapper}s
+   */
+  final List<CachingRoleMapper> getRoleMappers() {
+    synchronized (LinkGroup.class) {
+      return new ArrayList<CachingRoleMapper>(this.roleMappers);
+    }
+  }
+
+  /**
+   * Returns the context identifiers of the members of this {@link
+   * LinkGroup}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link Set} of context
+   * identifiers
+   */
+  final Set<String> getContextIDs() {
+    synchronized (LinkGroup.class) {
+      final Set<String> returnValue = new LinkedHashSet<String>(this.members.size() * 4 / 3 + 1);
+      for (final ConfigurablePolicyContext member : this.members) {
+        returnValue.add(member.getContextID());
+      }
+      return returnValue;
+    }
+  }
+
+  /**
+   * Links the supplied {@link ConfigurablePolicyContext}s, creating a
+   * {@link LinkGroup} for them or merging theirs, and returns the
+   * {@link LinkGroup} they now share.
+   *
+   * <p>Each member's {@link RoleMapper} is replaced by the {@link
+   * CachingRoleMapper} of the resulting {@link LinkGroup} whose
+   * delegate is equal to it, or to its delegate if it is a {@link
+   * CachingRoleMapper} itself.  If there is none, the member's own
+   * {@link CachingRoleMapper}, or a new one wrapping its {@link
+   * RoleMapper}, joins the group.  No member's roles are therefore
+   * ever mapped by a {@link RoleMapper} it was not configured with.
+   * This method never returns {@code null}.</p>
+   *
+   * @param a a {@link ConfigurablePolicyContext}; must not be {@code
+   * null}
+   *
+   * @param b another {@link ConfigurablePolicyContext}; must not be
+   * {@code null} or {@code a}
+   *
+   * @return the non-{@code null} {@link LinkGroup} of {@code a} and
+   * {@code b}
+   *
+   * @exception IllegalArgumentException if {@code b} has been
+   * {@linkplain ConfigurablePolicyContext#delete() deleted}
+   */
+  static final LinkGroup link(final ConfigurablePolicyContext a, final ConfigurablePolicyContext b) {
+    assert a != null;
+    assert b != null;
+    assert a != b;
+    synchronized (LinkGroup.class) {
+      // A context that is deleted concurrently is either seen as
+      // deleted here or unlinked again as soon as this returns.
+      if (b.getState() == ConfigurablePolicyContext.State.DELETED) {
+        throw new IllegalArgumentException("b.getState() == DELETED: " + b);
+      }
+      final LinkGroup ga = a.getLinkGroup();
+      final LinkGroup gb = b.getLinkGroup();
+      if (ga != null && ga == gb) {
+        return ga;
+      }
+      final LinkGroup survivor;
+      final LinkGroup absorbed;
+      if (ga != null && (gb == null || ga.members.size() >= gb.members.size())) {
+        survivor = ga;
+        absorbed = gb;
+      } else if (gb != null) {
+        survivor = gb;
+        absorbed = ga;
+      } else {
+        survivor = new LinkGroup();
+        absorbed = null;
+      }
+      if (absorbed != null) {
+        survivor.members.addAll(absorbed.members);
+        absorbed.members.clear();
+        absorbed.roleMappers.clear();
+      }
+      survivor.members.add(a);
+      survivor.members.add(b);
+      for (final ConfigurablePolicyContext member : survivor.members) {
+        member.setLinkGroup(survivor);
+        final RoleMapper roleMapper = member.getRoleMapper();
+        if (roleMapper != null) {
+          member.setRoleMapper(survivor.share(roleMapper));
+        }
+      }
+      return survivor;
+    }
+  }
+
+  /**
+   * Removes the supplied {@link ConfigurablePolicyContext} from its
+   * {@link LinkGroup}, if it has one.
+   *
+   * <p>The shared {@link RoleMapper} is left installed in the
+   * context.</p>
+   *
+   * @param context the {@link ConfigurablePolicyContext} to unlink;
+   * must not be {@code null}
+   */
+  static final void unlink(final ConfigurablePolicyContext context) {
+    assert context != null;
+    synchronized (LinkGroup.class) {
+      final LinkGroup linkGroup = context.getLinkGroup();
+      if (linkGroup != null) {
+        linkGroup.members.remove(context);
+        context.setLinkGroup(null);
+      }
+    }
+  }
+
+  /**
+   * Returns the {@link CachingRoleMapper} of this {@link LinkGroup}
+   * that maps roles as the supplied {@link RoleMapper} does, adding
+   * one if there is none.
+   *
+   * <p>The caller must hold the monitor of the {@link LinkGroup}
+   * class.  This method never returns {@code null}.</p>
+   *
+   * @param roleMapper a member's {@link RoleMapper}; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link CachingRoleMapper}
+   */
+  private final CachingRoleMapper share(final RoleMapper roleMapper) {
+    assert roleMapper != null;
+    assert Thread.holdsLock(LinkGroup.class);
+    final RoleMapper delegate;
+    if (roleMapper instanceof CachingRoleMapper) {
+      delegate = ((CachingRoleMapper)roleMapper).getDelegate();
+    } else {
+      delegate = roleMapper;
+    }
+    for (final CachingRoleMapper candidate : this.roleMappers) {
+      if (candidate == roleMapper || candidate.getDelegate().equals(delegate)) {
+        return candidate;
+      }
+    }
+    final CachingRoleMapper returnValue;
+    if (roleMapper instanceof CachingRoleMapper) {
+      returnValue = (CachingRoleMapper)roleMapper;
+    } else {
+      returnValue = new CachingRoleMapper(roleMapper);
+    }
+    this.roleMappers.add(returnValue);
+    return returnValue;
+  }
+
+  @Override
+  public final String toString() {
+    return this.getContextIDs().toString();
+  }
+
+}
@@ -0,0 +1,318 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.AllPermission;
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.Permissions;
+
+import java.util.Enumeration;
+
+/**
+ * A {@link PermissionCollection} presenting the
+ * non-{@linkplain CommittedPolicy#excludes(Permission) excluded}
+ * {@link Permission}s of a delegate policy's and a protection
+ * domain's {@link PermissionCollection}s together with those a
+ * {@link CommittedPolicy} grants to a set of roles, without copying
+ * any of them until it has to.
+ *
+ * <p>{@link #implies(Permission)} first consults the granted {@link
+ * ImmutablePermissions}, whose elements have already been filtered,
+ * and then the other two {@link PermissionCollection}s, checking the
+ * implying elements against the excluded policy only if one of them
+ * implies the {@link Permission} in question.  Only {@link
+ * #elements()}, and {@link #implies(Permission)} for {@link
+ * Permission}s that supply their own {@linkplain
+ * Permission#newPermissionCollection() homogeneous
+ * <code>PermissionCollection</code>} (which may combine several
+ * elements to imply one {@link Permission}), copy everything into a
+ * {@link Permissions}, and then only once.</p>
+ *
+ * <p>As {@link java.security.Policy#getPermissions(java.security.ProtectionDomain)}
+ * requires, a {@link PermissionCollectionView} is mutable and accepts
+ * {@link Permission}s of any class: the first call to {@link
+ * #add(Permission)} copies everything into a {@link Permissions} of
+ * its own, which it consults from then on.  The view can be made
+ * read-only with {@link #setReadOnly()} like any other {@link
+ * PermissionCollection}.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ *
+ * @see CommittedPolicy#getPermissions(PermissionCollection,
+ * PermissionCollection, java.util.Collection)
+ */
+final class PermissionCollectionView extends PermissionCollection {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The {@link CommittedPolicy} whose excluded policy filters {@link
+   * #delegatePolicyPermissions} and {@link
+   * #protectionDomainPermissions}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final transient CommittedPolicy committedPolicy;
+
+  /**
+   * Permissions from a delegate {@link java.security.Policy}, or
+   * {@code null}.
+   */
+  private final transient PermissionCollection delegatePolicyPermissions;
+
+  /**
+   * Permissions from a {@link java.security.ProtectionDomain}, or
+   * {@code null}.
+   */
+  private final transient PermissionCollection protectionDomainPermissions;
+
+  /**
+   * The already filtered {@link Permission}s of the unchecked policy
+   * and of the policies of the caller's roles.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final transient ImmutablePermissions grantedPermissions;
+
+  /**
+   * Every {@link Permission} in this {@link PermissionCollectionView},
+   * or {@code null} if they have yet to be {@linkplain #permissions()
+   * copied}.
+   *
+   * <p>Once set, this field never changes, and {@link
+   * #add(Permission)} adds to the {@link Permissions} it refers to.
+   * It is set while holding the monitor of this {@link
+   * PermissionCollectionView}, so that a {@link Permission} added
+   * concurrently is never added to a copy that is then
+   * discarded.</p>
+   */
+  private transient volatile Permissions permissions;
+
+  /**
+   * Creates a new {@link PermissionCollectionView}.
+   *
+   * @param committedPolicy the {@link CommittedPolicy} whose excluded
+   * policy applies; must not be {@code null}
+   *
+   * @param delegatePolicyPermissions permissions from a delegate
+   * {@link java.security.Policy}; may be {@code null}
+   *
+   * @param protectionDomainPermissions permissions from a {@link
+   * java.security.ProtectionDomain}; may be {@code null}
+   *
+   * @param grantedPermissions the {@linkplain
+   * CommittedPolicy#grantedPermissions(java.util.Collection)
+   * permissions granted} by {@code committedPolicy}; must not be
+   * {@code null}
+   */
+  PermissionCollectionView(final CommittedPolicy committedPolicy, final PermissionCollection delegatePolicyPermissions, final PermissionCollection protectionDomainPermissions, final ImmutablePermissions grantedPermissions) {
+    super();
+    assert committedPolicy != null;
+    assert grantedPermissions != null;
+    this.committedPolicy = committedPolicy;
+    this.delegatePolicyPermissions = delegatePolicyPermissions;
+    this.protectionDomainPermissions = protectionDomainPermissions;
+    this.grantedPermissions = grantedPermissions;
+  }
+
+  /**
+   * Adds the supplied {@link Permission} to this {@link
+   * PermissionCollectionView}, first copying its contents into a
+   * {@link Permissions} of its own if that has not already happened.
+   *
+   * @param permission the {@link Permission} to add; must not be
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if {@code permission} is
+   * {@code null}
+   *
+   * @exception SecurityException if this {@link
+   * PermissionCollectionView} has been {@linkplain #setReadOnly() made
+   * read-only}
+   */
+  @Override
+  public final void add(final Permission permission) {
+    if (permission == null) {
+      throw new IllegalArgumentException("permission", new NullPointerException("permission"));
+    }
+    if (this.isReadOnly()) {
+      throw new SecurityException("attempt to add a Permission to a readonly PermissionCollection");
+    }
+    this.permissions().add(permission);
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission} is
+   * implied by this {@link PermissionCollectionView}.
+   *
+   * @param permission the {@link Permission} to check; may be {@code
+   * null} in which case {@code false} will be returned
+   *
+   * @return {@code true} if {@code permission} is implied
+   */
+  @Override
+  public final boolean implies(final Permission permission) {
+    if (permission == null) {
+      return false;
+    }
+    if (this.grantedPermissions.implies(permission)) {
+      return true;
+    }
+    final Permissions permissions = this.permissions;
+    if (permissions != null) {
+      return permissions.implies(permission);
+    }
+    if (this.delegatePolicyPermissions == null && this.protectionDomainPermissions == null) {
+      return false;
+    }
+    if (permission.newPermissionCollection() != null) {
+      // Elements from different sources might together imply
+      // permission, so ask a collection holding all of them.
+      return this.permissions().implies(permission);
+    }
+    return
+      this.impliesUnexcluded(this.delegatePolicyPermissions, permission) ||
+      this.impliesUnexcluded(this.protectionDomainPermissions, permission);
+  }
+
+  /**
+   * Returns {@code true} if a non-excluded element of the supplied
+   * {@link PermissionCollection} implies the supplied {@link
+   * Permission}, which does not supply its own homogeneous {@link
+   * PermissionCollection}.
+   */
+  private final boolean impliesUnexcluded(final PermissionCollection source, final Permission permission) {
+    assert permission != null;
+    if (source == null) {
+      return false;
+    }
+    synchronized (source) {
+      if (!source.implies(permission)) {
+        return false;
+      }
+      if (!this.committedPolicy.hasExclusions()) {
+        return true;
+      }
+      // Only elements of the same class, or AllPermission, would
+      // have implied permission had they been copied into a
+      // Permissions.
+      final Class<?> c = permission.getClass();
+      final Enumeration<Permission> elements = source.elements();
+      if (elements != null) {
+        while (elements.hasMoreElements()) {
+          final Permission p = elements.nextElement();
+          if (p != null && (p.getClass() == c || p instanceof AllPermission) && p.implies(permission) && !this.committedPolicy.excludes(p)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns an {@link Enumeration} over all of the {@link
+   * Permission}s in this {@link PermissionCollectionView}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Enumeration}
+   */
+  @Override
+  public final Enumeration<Permission> elements() {
+    return this.permissions().elements();
+  }
+
+  /**
+   * Returns a {@link Permissions} holding every {@link Permission} in
+   * this {@link PermissionCollectionView}, copying them first if
+   * necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Permissions}
+   */
+  private final Permissions permissions() {
+    Permissions returnValue = this.permissions;
+    if (returnValue == null) {
+      synchronized (this) {
+        returnValue = this.permissions;
+        if (returnValue == null) {
+          returnValue = new Permissions();
+          this.addUnexcluded(this.delegatePolicyPermissions, returnValue);
+          this.addUnexcluded(this.protectionDomainPermissions, returnValue);
+          final Enumeration<Permission> elements = this.grantedPermissions.elements();
+          while (elements.hasMoreElements()) {
+            returnValue.add(elements.nextElement());
+          }
+          this.permissions = returnValue;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private final void addUnexcluded(final PermissionCollection source, final Permissions target) {
+    assert target != null;
+    if (source != null) {
+      synchronized (source) {
+        final Enumeration<Permission> elements = source.elements();
+        if (elements != null) {
+          while (elements.hasMoreElements()) {
+            final Permission p = elements.nextElement();
+            if (p != null && !this.committedPolicy.excludes(p)) {
+              target.add(p);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a {@link Permissions} holding every {@link Permission} in
+   * this {@link PermissionCollectionView}, read-only if this {@link
+   * PermissionCollectionView} is, for serialization purposes.
+   *
+   * @return a non-{@code null} {@link Permissions}
+   */
+  private final Object writeReplace() {
+    final Permissions returnValue = new Permissions();
+    final Enumeration<Permission> elements = this.permissions().elements();
+    while (elements.hasMoreElements()) {
+      returnValue.add(elements.nextElement());
+    }
+    if (this.isReadOnly()) {
+      returnValue.setReadOnly();
+    }
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,381 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+
+import javax.security.jacc.EJBMethodPermission;
+import javax.security.jacc.EJBRoleRefPermission;
+import javax.security.jacc.WebResourcePermission;
+import javax.security.jacc.WebRoleRefPermission;
+import javax.security.jacc.WebUserDataPermission;
+
+/**
+ * An immutable structure that answers whether any of a fixed set of
+ * {@link Permission}s of a single class {@linkplain
+ * Permission#implies(Permission) implies} a given {@link
+ * Permission}, and whether a given {@link Permission} implies any of
+ * them.
+ *
+ * <p>Implementations narrow the set of {@link Permission}s that could
+ * possibly imply a given {@link Permission} to a small number of
+ * candidates and then call {@link Permission#implies(Permission)} on
+ * each candidate, so the answer is always exactly the same as a
+ * linear scan would give.</p>
+ *
+ * <p>A {@link PermissionIndex} may also be built over the permissions
+ * granted to many roles at once, in which case every indexed {@link
+ * Permission} carries a {@linkplain RoleTable bitset} of the roles
+ * that grant it and {@link #implies(Permission, long[])} skips those
+ * not granted to any of the caller's roles with a bitwise AND.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * concurrent threads.</p>
+ *
+ * @see ImmutablePermissions
+ */
+abstract class PermissionIndex {
+
+  /**
+   * Creates a new {@link PermissionIndex}.
+   */
+  PermissionIndex() {
+    super();
+  }
+
+  /**
+   * Returns {@code true} if any {@link Permission} indexed by this
+   * {@link PermissionIndex} implies the supplied {@link Permission}.
+   *
+   * @param permission the {@link Permission} to check; must not be
+   * {@code null} and must be of the class this {@link
+   * PermissionIndex} indexes
+   *
+   * @return {@code true} if {@code permission} is implied
+   */
+  final boolean implies(final Permission permission) {
+    return this.implies(permission, null);
+  }
+
+  /**
+   * Returns {@code true} if any {@link Permission} indexed by this
+   * {@link PermissionIndex} that is granted to at least one of the
+   * supplied roles implies the supplied {@link Permission}.
+   *
+   * @param permission the {@link Permission} to check; must not be
+   * {@code null} and must be of the class this {@link
+   * PermissionIndex} indexes
+   *
+   * @param roles a {@linkplain RoleTable bitset} of roles; may be
+   * {@code null} in which case role membership is not considered
+   *
+   * @return {@code true} if {@code permission} is implied
+   */
+  abstract boolean implies(final Permission permission, final long[] roles);
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission} implies
+   * any {@link Permission} indexed by this {@link PermissionIndex}.
+   *
+   * <p>This is the reverse of the {@link #implies(Permission)}
+   * test.</p>
+   *
+   * @param permission the {@link Permission} to check; must not be
+   * {@code null} and must be of the class this {@link
+   * PermissionIndex} indexes
+   *
+   * @return {@code true} if {@code permission} implies any indexed
+   * {@link Permission}
+   */
+  abstract boolean anyImpliedBy(final Permission permission);
+
+  /**
+   * Returns {@code true} if instances of the supplied {@link Class}
+   * are known to imply only other instances of exactly the same
+   * {@link Class}.
+   *
+   * <p>This is true of the (final) JACC permission classes, and lets
+   * callers skip every {@link Permission} of any other class when
+   * asking whether an instance of one of them implies something.</p>
+   *
+   * @param c the {@link Class} to test; may be {@code null}
+   *
+   * @return {@code true} if instances of {@code c} imply only
+   * instances of {@code c}
+   */
+  static final boolean impliesOnlyItsOwnClass(final Class<?> c) {
+    return
+      c == WebResourcePermission.class ||
+      c == WebUserDataPermission.class ||
+      c == EJBMethodPermission.class ||
+      c == WebRoleRefPermission.class ||
+      c == EJBRoleRefPermission.class;
+  }
+
+  /**
+   * Returns a new {@link PermissionIndex} suitable for the supplied
+   * {@link Permission}s, all of which must be of the same class.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param permissions the {@link Permission}s to index; must not be
+   * {@code null} and must not contain {@code null} elements
+   *
+   * @return a new, non-{@code null} {@link PermissionIndex}
+   */
+  static final PermissionIndex of(final Permission[] permissions) {
+    return of(permissions, null);
+  }
+
+  /**
+   * Returns a new {@link PermissionIndex} suitable for the supplied
+   * {@link Permission}s, all of which must be of the same class, each
+   * of which is granted to the roles in the corresponding element of
+   * the supplied array of {@linkplain RoleTable bitsets}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param permissions the {@link Permission}s to index; must not be
+   * {@code null} and must not contain {@code null} elements
+   *
+   * @param roles the role bitsets, parallel to {@code permissions};
+   * may be {@code null} if role membership is not to be considered
+   *
+   * @return a new, non-{@code null} {@link PermissionIndex}
+   */
+  static final PermissionIndex of(final Permission[] permissions, final long[][] roles) {
+    assert permissions != null;
+    assert roles == null || roles.length == permissions.length;
+    if (permissions.length > 1) {
+      final Class<?> c = permissions[0].getClass();
+      if (c == WebResourcePermission.class || c == WebUserDataPermission.class) {
+        return new WebPermissionIndex(permissions, roles);
+      } else if (c == EJBMethodPermission.class) {
+        return new EJBMethodPermissionIndex(permissions, roles);
+      }
+    }
+    return new Linear(permissions, roles);
+  }
+
+  /**
+   * Returns {@code true} if a {@link Permission} granted to the roles
+   * in {@code grantingRoles} is of interest to a caller in the roles
+   * in {@code roles}.
+   *
+   * @param grantingRoles the bitset of roles granting the {@link
+   * Permission}, or {@code null} if roles are not being considered
+   *
+   * @param roles the bitset of the caller's roles, or {@code null} if
+   * roles are not being considered
+   *
+   * @return {@code true} if either bitset is {@code null} or they
+   * intersect
+   */
+  static final boolean admits(final long[] grantingRoles, final long[] roles) {
+    return roles == null || grantingRoles == null || RoleTable.intersects(grantingRoles, roles);
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A {@link PermissionIndex} that adds a small number of {@link
+   * Permission}s, or roles granting them, to another, so that a
+   * handful of additions need not rebuild a large index.
+   *
+   * <p>Because an {@link Overlay} can only add, it must not be used
+   * if any {@link Permission} indexed by its base, or any role
+   * granting one, has since been removed.</p>
+   *
+   * @see CommittedPolicy#CommittedPolicy(PolicyVersion, CommittedPolicy)
+   */
+  static final class Overlay extends PermissionIndex {
+
+    /**
+     * The smallest number of additions an {@link Overlay} may hold,
+     * however small its base.
+     */
+    private static final int MINIMUM_CAPACITY = 32;
+
+    private final PermissionIndex base;
+
+    private final int baseSize;
+
+    private final Permission[] permissions;
+
+    private final long[][] roles;
+
+    /**
+     * A {@link PermissionIndex} over {@link #permissions}.
+     */
+    private final PermissionIndex additions;
+
+    /**
+     * Creates a new {@link Overlay}.
+     *
+     * @param base the {@link PermissionIndex} to add to; must not be
+     * {@code null} and must not itself be an {@link Overlay}
+     *
+     * @param baseSize the number of {@link Permission}s indexed by
+     * {@code base}, or in the collection to which it belongs, which
+     * bounds the number of additions worth holding
+     *
+     * @param permissions the added {@link Permission}s, all of the
+     * class indexed by {@code base}; must not be {@code null}
+     *
+     * @param roles the role bitsets, parallel to {@code permissions};
+     * may be {@code null} if role membership is not to be considered
+     */
+    Overlay(final PermissionIndex base, final int baseSize, final Permission[] permissions, final long[][] roles) {
+      super();
+      assert base != null;
+      assert !(base instanceof Overlay);
+      assert permissions != null;
+      this.base = base;
+      this.baseSize = baseSize;
+      this.permissions = permissions;
+      this.roles = roles;
+      this.additions = of(permissions, roles);
+    }
+
+    /**
+     * Returns the greatest number of additions that an {@link
+     * Overlay} over a base of the supplied size should hold before
+     * the whole should be rebuilt instead.
+     *
+     * @param baseSize the number of {@link Permission}s in the base
+     *
+     * @return the capacity
+     */
+    static final int capacity(final int baseSize) {
+      return Math.max(MINIMUM_CAPACITY, baseSize >>> 4);
+    }
+
+    final PermissionIndex getBase() {
+      return this.base;
+    }
+
+    final int getBaseSize() {
+      return this.baseSize;
+    }
+
+    /**
+     * Returns the number of added {@link Permission}s.
+     *
+     * @return the number of added {@link Permission}s
+     */
+    final int size() {
+      return this.permissions.length;
+    }
+
+    /**
+     * Returns the added {@link Permission} at the supplied index.
+     *
+     * @param i an index in the range {@code [0, }{@link
+     * #size()}{@code )}
+     *
+     * @return the {@link Permission}
+     */
+    final Permission getPermission(final int i) {
+      return this.permissions[i];
+    }
+
+    /**
+     * Returns the bitset of roles granting the added {@link
+     * Permission} at the supplied index, or {@code null} if role
+     * membership is not considered.
+     *
+     * @param i an index in the range {@code [0, }{@link
+     * #size()}{@code )}
+     *
+     * @return the bitset, or {@code null}
+     */
+    final long[] getRoles(final int i) {
+      return this.roles == null ? null : this.roles[i];
+    }
+
+    @Override
+    final boolean implies(final Permission permission, final long[] roles) {
+      return this.base.implies(permission, roles) || this.additions.implies(permission, roles);
+    }
+
+    @Override
+    final boolean anyImpliedBy(final Permission permission) {
+      return this.base.anyImpliedBy(permission) || this.additions.anyImpliedBy(permission);
+    }
+
+  }
+
+  /**
+   * A {@link PermissionIndex} that simply asks every {@link
+   * Permission} in turn.
+   */
+  static final class Linear extends PermissionIndex {
+
+    private final Permission[] permissions;
+
+    private final long[][] roles;
+
+    Linear(final Permission[] permissions) {
+      this(permissions, null);
+    }
+
+    Linear(final Permission[] permissions, final long[][] roles) {
+      super();
+      assert permissions != null;
+      this.permissions = permissions;
+      this.roles = roles;
+    }
+
+    @Override
+    final boolean implies(final Permission permission, final long[] roles) {
+      final Permission[] permissions = this.permissions;
+      for (int i = 0; i < permissions.length; i++) {
+        if ((this.roles == null || admits(this.roles[i], roles)) && permissions[i].implies(permission)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    final boolean anyImpliedBy(final Permission permission) {
+      for (final Permission candidate : this.permissions) {
+        if (permission.implies(candidate)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+  }
+
+}
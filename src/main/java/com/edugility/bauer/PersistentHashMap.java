@@ -0,0 +1,810 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable hash map that is "changed" by returning a new map
+ * sharing all but the changed path with the old one.
+ *
+ * <p>A {@link PersistentHashMap} is a hash array mapped trie: a tree
+ * of nodes of up to 32 entries, each level indexed by the next five
+ * bits of a key's hash.  {@link #plus(Object, Object)} and {@link
+ * #minus(Object)} copy only the nodes on the path to the affected
+ * key, at most seven of them, so they cost {@code O(log32 n)} in time
+ * and space however large the map is, and every earlier map remains
+ * valid and unchanged.  Because nothing reachable from a {@link
+ * PersistentHashMap} is ever modified, two maps that share a node
+ * share everything below it, and a part of a map that has not been
+ * changed can be recognized by reference equality.</p>
+ *
+ * <p>A caller building up a map with many successive calls may
+ * supply an <em>edit token</em>, any object of its own, to {@link
+ * #plus(Object, Object, Object)}.  Nodes created under a token are
+ * then updated in place by later calls supplying the same token,
+ * rather than copied again, so that only the first change to each
+ * path allocates.  Maps returned under a token must be treated as
+ * drafts: once the token is supplied again, only the most recently
+ * returned map is valid.  A caller that stops using a token, and
+ * never supplies it again, freezes every map built with it.</p>
+ *
+ * <p>Neither keys nor values may be {@code null}.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * concurrent threads.</p>
+ *
+ * @param <K> the type of the keys
+ *
+ * @param <V> the type of the values
+ *
+ * @see PolicyVersion
+ */
+final class PersistentHashMap<K, V> {
+
+  @SuppressWarnings("rawtypes")
+  private static final PersistentHashMap EMPTY = new PersistentHashMap(null, 0);
+
+  private static final Object[] EMPTY_ARRAY = new Object[0];
+
+  /**
+   * The index of the flag, in the array passed to {@link
+   * Node#plus(Object, int, int, Object, Object, boolean[])}, that is
+   * set if a key was added.
+   */
+  private static final int ADDED = 0;
+
+  /**
+   * The index of the flag, in the array passed to {@link
+   * Node#plus(Object, int, int, Object, Object, boolean[])}, that is
+   * set if anything changed.
+   */
+  private static final int CHANGED = 1;
+
+  /**
+   * The root {@link Node}, or {@code null} if this map is empty.
+   */
+  private final Node root;
+
+  private final int size;
+
+  private PersistentHashMap(final Node root, final int size) {
+    super();
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Returns the empty {@link PersistentHashMap}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param <K> the type of the keys
+   *
+   * @param <V> the type of the values
+   *
+   * @return the non-{@code null} empty {@link PersistentHashMap}
+   */
+  @SuppressWarnings("unchecked")
+  static final <K, V> PersistentHashMap<K, V> empty() {
+    return (PersistentHashMap<K, V>)EMPTY;
+  }
+
+  /**
+   * Returns the number of entries in this {@link PersistentHashMap}.
+   *
+   * @return the number of entries
+   */
+  final int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns {@code true} if this {@link PersistentHashMap} has no
+   * entries.
+   *
+   * @return {@code true} if this map is empty
+   */
+  final boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * Returns the value associated with the supplied key, or {@code
+   * null} if there is none.
+   *
+   * @param key the key; may be {@code null} in which case {@code
+   * null} will be returned
+   *
+   * @return the value, or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  final V get(final Object key) {
+    if (key == null || this.root == null) {
+      return null;
+    }
+    return (V)this.root.find(0, hash(key), key);
+  }
+
+  /**
+   * Returns a {@link PersistentHashMap} in which the supplied key is
+   * associated with the supplied value and every other entry is as
+   * in this one.
+   *
+   * <p>If the key is already associated with the very same value,
+   * this {@link PersistentHashMap} itself is returned.  This method
+   * never returns {@code null}.</p>
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @param value the value; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link PersistentHashMap}
+   *
+   * @exception IllegalArgumentException if {@code key} or {@code
+   * value} is {@code null}
+   */
+  final PersistentHashMap<K, V> plus(final K key, final V value) {
+    return this.plus(key, value, null);
+  }
+
+  /**
+   * Returns a {@link PersistentHashMap} in which the supplied key is
+   * associated with the supplied value and every other entry is as
+   * in this one, updating in place any nodes created under the
+   * supplied edit token.
+   *
+   * <p>If the key is already associated with the very same value,
+   * this {@link PersistentHashMap} itself is returned.  This method
+   * never returns {@code null}.</p>
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @param value the value; must not be {@code null}
+   *
+   * @param edit the edit token; may be {@code null} in which case no
+   * node is updated in place
+   *
+   * @return a non-{@code null} {@link PersistentHashMap}
+   *
+   * @exception IllegalArgumentException if {@code key} or {@code
+   * value} is {@code null}
+   */
+  final PersistentHashMap<K, V> plus(final K key, final V value, final Object edit) {
+    if (key == null) {
+      throw new IllegalArgumentException("key", new NullPointerException("key"));
+    }
+    if (value == null) {
+      throw new IllegalArgumentException("value", new NullPointerException("value"));
+    }
+    final boolean[] result = new boolean[2];
+    final Node root = (this.root == null ? BitmapNode.EMPTY : this.root).plus(edit, 0, hash(key), key, value, true, result);
+    if (!result[CHANGED]) {
+      return this;
+    }
+    return new PersistentHashMap<K, V>(root, result[ADDED] ? this.size + 1 : this.size);
+  }
+
+  /**
+   * Returns a {@link PersistentHashMap} in which the supplied key is
+   * associated with the supplied value, unless it is already
+   * associated with any value, updating in place any nodes created
+   * under the supplied edit token.
+   *
+   * <p>Unlike calling {@link #get(Object)} and then {@link
+   * #plus(Object, Object, Object)}, this looks the key up only once.
+   * If the key is already present, this {@link PersistentHashMap}
+   * itself is returned, so a caller can tell whether the entry was
+   * added by comparing {@linkplain #size() sizes}.  This method never
+   * returns {@code null}.</p>
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @param value the value; must not be {@code null}
+   *
+   * @param edit the edit token; may be {@code null} in which case no
+   * node is updated in place
+   *
+   * @return a non-{@code null} {@link PersistentHashMap}
+   *
+   * @exception IllegalArgumentException if {@code key} or {@code
+   * value} is {@code null}
+   */
+  final PersistentHashMap<K, V> plusIfAbsent(final K key, final V value, final Object edit) {
+    if (key == null) {
+      throw new IllegalArgumentException("key", new NullPointerException("key"));
+    }
+    if (value == null) {
+      throw new IllegalArgumentException("value", new NullPointerException("value"));
+    }
+    final boolean[] result = new boolean[2];
+    final Node root = (this.root == null ? BitmapNode.EMPTY : this.root).plus(edit, 0, hash(key), key, value, false, result);
+    if (!result[CHANGED]) {
+      return this;
+    }
+    return new PersistentHashMap<K, V>(root, result[ADDED] ? this.size + 1 : this.size);
+  }
+
+  /**
+   * Returns a {@link PersistentHashMap} without any entry for the
+   * supplied key and with every other entry as in this one.
+   *
+   * <p>If there is no entry for the key, this {@link
+   * PersistentHashMap} itself is returned.  This method never returns
+   * {@code null}.</p>
+   *
+   * @param key the key; may be {@code null}
+   *
+   * @return a non-{@code null} {@link PersistentHashMap}
+   */
+  final PersistentHashMap<K, V> minus(final Object key) {
+    if (key == null || this.root == null) {
+      return this;
+    }
+    final Node root = this.root.minus(0, hash(key), key);
+    if (root == this.root) {
+      return this;
+    }
+    if (root == null) {
+      return empty();
+    }
+    return new PersistentHashMap<K, V>(root, this.size - 1);
+  }
+
+  /**
+   * Returns a new {@link List} of the keys of this {@link
+   * PersistentHashMap}, in no particular order.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link List}
+   */
+  @SuppressWarnings("unchecked")
+  final List<K> keys() {
+    final List<Object> returnValue = new ArrayList<Object>(this.size);
+    if (this.root != null) {
+      this.root.collect(returnValue, true, false);
+    }
+    return (List<K>)returnValue;
+  }
+
+  /**
+   * Returns a new {@link List} of the values of this {@link
+   * PersistentHashMap}, in the same order as the {@linkplain #keys()
+   * keys}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link List}
+   */
+  @SuppressWarnings("unchecked")
+  final List<V> values() {
+    final List<Object> returnValue = new ArrayList<Object>(this.size);
+    if (this.root != null) {
+      this.root.collect(returnValue, false, true);
+    }
+    return (List<V>)returnValue;
+  }
+
+  /**
+   * Returns a new {@link List} of the entries of this {@link
+   * PersistentHashMap}, in the same order as the {@linkplain #keys()
+   * keys}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link List} of immutable {@link
+   * Map.Entry} instances
+   */
+  @SuppressWarnings("unchecked")
+  final List<Map.Entry<K, V>> entries() {
+    final List<Object> keysAndValues = new ArrayList<Object>(this.size * 2);
+    if (this.root != null) {
+      this.root.collect(keysAndValues, true, true);
+    }
+    final List<Map.Entry<K, V>> returnValue = new ArrayList<Map.Entry<K, V>>(this.size);
+    for (int i = 0; i < keysAndValues.size(); i += 2) {
+      returnValue.add(new AbstractMap.SimpleImmutableEntry<K, V>((K)keysAndValues.get(i), (V)keysAndValues.get(i + 1)));
+    }
+    return returnValue;
+  }
+
+  /**
+   * Adds to the supplied {@link Map} each entry of this {@link
+   * PersistentHashMap} whose key is absent from the supplied older
+   * one or is associated there with a different (non-identical)
+   * value, and returns {@code true} if this {@link PersistentHashMap}
+   * has every key of the older one.
+   *
+   * <p>Nodes shared by both maps are skipped without being examined,
+   * so if this {@link PersistentHashMap} was derived from {@code
+   * older} the cost is proportional to the number of changes, not to
+   * the size of either map.</p>
+   *
+   * <p>This method gives up and returns {@code false} as soon as
+   * {@code changes} holds more than {@code limit} entries.</p>
+   *
+   * @param older the older {@link PersistentHashMap}; must not be
+   * {@code null}
+   *
+   * @param changes the {@link Map} to which changed entries are
+   * added; must not be {@code null}
+   *
+   * @param limit the greatest number of entries {@code changes} may
+   * hold
+   *
+   * @return {@code true} if no key of {@code older} is missing and
+   * {@code changes} holds no more than {@code limit} entries
+   */
+  final boolean changesSince(final PersistentHashMap<K, V> older, final Map<? super K, ? super V> changes, final int limit) {
+    assert older != null;
+    assert changes != null;
+    if (older.root == this.root) {
+      return changes.size() <= limit;
+    }
+    if (older.size > this.size) {
+      return false;
+    }
+    if (older.root == null) {
+      return addAll(null, this.root, changes, limit);
+    }
+    return diff(this.root, older.root, changes, limit);
+  }
+
+  private static final boolean diff(final Node newer, final Node older, final Map<?, ?> changes, final int limit) {
+    if (newer == older) {
+      return true;
+    }
+    if (!(newer instanceof BitmapNode) || !(older instanceof BitmapNode)) {
+      return compare(null, newer, null, older, changes, limit);
+    }
+    final BitmapNode n = (BitmapNode)newer;
+    final BitmapNode o = (BitmapNode)older;
+    if ((o.bitmap & ~n.bitmap) != 0) {
+      return false;
+    }
+    int bitmap = n.bitmap;
+    while (bitmap != 0) {
+      final int bit = Integer.lowestOneBit(bitmap);
+      bitmap ^= bit;
+      final int ni = n.index(bit);
+      final Object newKey = n.array[2 * ni];
+      final Object newValue = n.array[2 * ni + 1];
+      if ((o.bitmap & bit) == 0) {
+        if (!addAll(newKey, newValue, changes, limit)) {
+          return false;
+        }
+      } else {
+        final int oi = o.index(bit);
+        final Object oldKey = o.array[2 * oi];
+        final Object oldValue = o.array[2 * oi + 1];
+        final boolean ok;
+        if (newKey == null && oldKey == null) {
+          ok = diff((Node)newValue, (Node)oldValue, changes, limit);
+        } else {
+          ok = compare(newKey, newValue, oldKey, oldValue, changes, limit);
+        }
+        if (!ok) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compares two slots by brute force; each is either a key and its
+   * value or {@code null} and a {@link Node}.
+   */
+  @SuppressWarnings("unchecked")
+  private static final boolean compare(final Object newKey, final Object newValueOrNode, final Object oldKey, final Object oldValueOrNode, final Map<?, ?> changes, final int limit) {
+    final Map<Object, Object> newer = toMap(newKey, newValueOrNode);
+    final Map<Object, Object> older = toMap(oldKey, oldValueOrNode);
+    if (!newer.keySet().containsAll(older.keySet())) {
+      return false;
+    }
+    for (final Map.Entry<Object, Object> entry : newer.entrySet()) {
+      if (older.get(entry.getKey()) != entry.getValue()) {
+        ((Map<Object, Object>)changes).put(entry.getKey(), entry.getValue());
+        if (changes.size() > limit) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static final boolean addAll(final Object key, final Object valueOrNode, final Map<?, ?> changes, final int limit) {
+    ((Map<Object, Object>)changes).putAll(toMap(key, valueOrNode));
+    return changes.size() <= limit;
+  }
+
+  private static final Map<Object, Object> toMap(final Object key, final Object valueOrNode) {
+    final Map<Object, Object> returnValue = new HashMap<Object, Object>();
+    if (key != null) {
+      returnValue.put(key, valueOrNode);
+    } else if (valueOrNode != null) {
+      final List<Object> keysAndValues = new ArrayList<Object>();
+      ((Node)valueOrNode).collect(keysAndValues, true, true);
+      for (int i = 0; i < keysAndValues.size(); i += 2) {
+        returnValue.put(keysAndValues.get(i), keysAndValues.get(i + 1));
+      }
+    }
+    return returnValue;
+  }
+
+  @Override
+  public final String toString() {
+    return this.entries().toString();
+  }
+
+  /**
+   * Returns the hash code of the supplied key with its high bits
+   * spread into the low ones, which index the first levels of the
+   * trie.
+   */
+  private static final int hash(final Object key) {
+    final int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A node of the trie.
+   */
+  private static abstract class Node {
+
+    /**
+     * The edit token under which this {@link Node} was created and
+     * may be updated in place, or {@code null}.
+     */
+    final Object edit;
+
+    private Node(final Object edit) {
+      super();
+      this.edit = edit;
+    }
+
+    /**
+     * Returns {@code true} if this {@link Node} may be updated in
+     * place under the supplied edit token.
+     */
+    final boolean isEditable(final Object edit) {
+      return edit != null && edit == this.edit;
+    }
+
+    /**
+     * Returns the value associated with {@code key}, or {@code
+     * null}.
+     */
+    abstract Object find(final int shift, final int hash, final Object key);
+
+    /**
+     * Returns this node, or a copy of it, with {@code key}
+     * associated with {@code value}, unless {@code key} is present and
+     * {@code replace} is {@code false}; sets {@code result[ADDED]} if
+     * {@code key} was not present and {@code result[CHANGED]} if
+     * anything changed.
+     */
+    abstract Node plus(final Object edit, final int shift, final int hash, final Object key, final Object value, final boolean replace, final boolean[] result);
+
+    /**
+     * Returns this node without {@code key}, this node itself if it
+     * has no such key, or {@code null} if the result is empty.
+     */
+    abstract Node minus(final int shift, final int hash, final Object key);
+
+    /**
+     * Adds the keys, values, or alternating keys and values of this
+     * node and its descendants to {@code target}.
+     */
+    abstract void collect(final List<Object> target, final boolean keys, final boolean values);
+
+  }
+
+  /**
+   * A node holding up to 32 slots, present ones flagged in a bitmap,
+   * each holding either an entry or a child {@link Node}.
+   *
+   * <p>Slot {@code i} occupies elements {@code 2 * i} and {@code 2 *
+   * i + 1} of {@link #array}: a key and its value, or {@code null} and
+   * a child {@link Node}.  An editable node's {@link #array} may have
+   * room to spare beyond its last slot.</p>
+   */
+  private static final class BitmapNode extends Node {
+
+    private static final BitmapNode EMPTY = new BitmapNode(null, 0, EMPTY_ARRAY);
+
+    /**
+     * Modified only while this node is editable.
+     */
+    private int bitmap;
+
+    /**
+     * Modified only while this node is editable.
+     */
+    private Object[] array;
+
+    private BitmapNode(final Object edit, final int bitmap, final Object[] array) {
+      super(edit);
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    private static final int bit(final int hash, final int shift) {
+      return 1 << ((hash >>> shift) & 0x1f);
+    }
+
+    private final int index(final int bit) {
+      return Integer.bitCount(this.bitmap & (bit - 1));
+    }
+
+    /**
+     * Returns this node if it is editable under {@code edit} or
+     * otherwise a copy of it that is, with room for {@code extra}
+     * more slots.
+     */
+    private final BitmapNode editable(final Object edit, final int extra) {
+      final int count = Integer.bitCount(this.bitmap);
+      if (this.isEditable(edit) && this.array.length >= 2 * (count + extra)) {
+        return this;
+      }
+      final Object[] array = new Object[2 * (count + extra + (edit == null ? 0 : Math.min(count, 4)))];
+      System.arraycopy(this.array, 0, array, 0, 2 * count);
+      return new BitmapNode(edit, this.bitmap, array);
+    }
+
+    @Override
+    final Object find(final int shift, final int hash, final Object key) {
+      final int bit = bit(hash, shift);
+      if ((this.bitmap & bit) == 0) {
+        return null;
+      }
+      final int index = this.index(bit);
+      final Object keyOrNull = this.array[2 * index];
+      final Object valueOrNode = this.array[2 * index + 1];
+      if (keyOrNull == null) {
+        return ((Node)valueOrNode).find(shift + 5, hash, key);
+      }
+      return key.equals(keyOrNull) ? valueOrNode : null;
+    }
+
+    @Override
+    final Node plus(final Object edit, final int shift, final int hash, final Object key, final Object value, final boolean replace, final boolean[] result) {
+      final int bit = bit(hash, shift);
+      final int index = this.index(bit);
+      if ((this.bitmap & bit) != 0) {
+        final Object keyOrNull = this.array[2 * index];
+        final Object valueOrNode = this.array[2 * index + 1];
+        if (keyOrNull == null) {
+          final Node child = ((Node)valueOrNode).plus(edit, shift + 5, hash, key, value, replace, result);
+          if (child == valueOrNode) {
+            return this;
+          }
+          final BitmapNode returnValue = this.editable(edit, 0);
+          returnValue.array[2 * index + 1] = child;
+          return returnValue;
+        }
+        if (key.equals(keyOrNull)) {
+          if (value == valueOrNode || !replace) {
+            return this;
+          }
+          result[CHANGED] = true;
+          final BitmapNode returnValue = this.editable(edit, 0);
+          returnValue.array[2 * index + 1] = value;
+          return returnValue;
+        }
+        result[ADDED] = true;
+        result[CHANGED] = true;
+        final BitmapNode returnValue = this.editable(edit, 0);
+        returnValue.array[2 * index] = null;
+        returnValue.array[2 * index + 1] = pair(edit, shift + 5, keyOrNull, valueOrNode, hash, key, value);
+        return returnValue;
+      }
+      result[ADDED] = true;
+      result[CHANGED] = true;
+      final int count = Integer.bitCount(this.bitmap);
+      final BitmapNode returnValue = this.editable(edit, 1);
+      final Object[] array = returnValue.array;
+      System.arraycopy(array, 2 * index, array, 2 * (index + 1), 2 * (count - index));
+      array[2 * index] = key;
+      array[2 * index + 1] = value;
+      returnValue.bitmap |= bit;
+      return returnValue;
+    }
+
+    @Override
+    final Node minus(final int shift, final int hash, final Object key) {
+      final int bit = bit(hash, shift);
+      if ((this.bitmap & bit) == 0) {
+        return this;
+      }
+      final int index = this.index(bit);
+      final Object keyOrNull = this.array[2 * index];
+      final Object valueOrNode = this.array[2 * index + 1];
+      if (keyOrNull == null) {
+        final Node child = ((Node)valueOrNode).minus(shift + 5, hash, key);
+        if (child == valueOrNode) {
+          return this;
+        }
+        if (child != null) {
+          final Object[] array = new Object[2 * Integer.bitCount(this.bitmap)];
+          System.arraycopy(this.array, 0, array, 0, array.length);
+          array[2 * index + 1] = child;
+          return new BitmapNode(null, this.bitmap, array);
+        }
+      } else if (!key.equals(keyOrNull)) {
+        return this;
+      }
+      if (this.bitmap == bit) {
+        return null;
+      }
+      final Object[] array = new Object[2 * (Integer.bitCount(this.bitmap) - 1)];
+      System.arraycopy(this.array, 0, array, 0, 2 * index);
+      System.arraycopy(this.array, 2 * (index + 1), array, 2 * index, array.length - 2 * index);
+      return new BitmapNode(null, this.bitmap ^ bit, array);
+    }
+
+    @Override
+    final void collect(final List<Object> target, final boolean keys, final boolean values) {
+      final int length = 2 * Integer.bitCount(this.bitmap);
+      for (int i = 0; i < length; i += 2) {
+        final Object keyOrNull = this.array[i];
+        if (keyOrNull == null) {
+          ((Node)this.array[i + 1]).collect(target, keys, values);
+        } else {
+          if (keys) {
+            target.add(keyOrNull);
+          }
+          if (values) {
+            target.add(this.array[i + 1]);
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns a new {@link Node} holding two entries whose keys
+     * collide at the level above {@code shift}.
+     */
+    private static final Node pair(final Object edit, final int shift, final Object key1, final Object value1, final int hash2, final Object key2, final Object value2) {
+      final int hash1 = hash(key1);
+      if (hash1 == hash2) {
+        return new CollisionNode(edit, hash1, new Object[] { key1, value1, key2, value2 });
+      }
+      final boolean[] result = new boolean[2];
+      return EMPTY.plus(edit, shift, hash1, key1, value1, true, result).plus(edit, shift, hash2, key2, value2, true, result);
+    }
+
+  }
+
+  /**
+   * A leaf {@link Node} holding entries whose keys have identical
+   * hashes.
+   */
+  private static final class CollisionNode extends Node {
+
+    private final int hash;
+
+    /**
+     * Alternating keys and values; modified only while this node is
+     * editable.
+     */
+    private Object[] array;
+
+    private CollisionNode(final Object edit, final int hash, final Object[] array) {
+      super(edit);
+      this.hash = hash;
+      this.array = array;
+    }
+
+    private final int indexOf(final Object key) {
+      for (int i = 0; i < this.array.length; i += 2) {
+        if (key.equals(this.array[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    final Object find(final int shift, final int hash, final Object key) {
+      final int index = this.indexOf(key);
+      return index < 0 ? null : this.array[index + 1];
+    }
+
+    @Override
+    final Node plus(final Object edit, final int shift, final int hash, final Object key, final Object value, final boolean replace, final boolean[] result) {
+      if (hash == this.hash) {
+        final int index = this.indexOf(key);
+        final Object[] array;
+        if (index >= 0) {
+          if (this.array[index + 1] == value || !replace) {
+            return this;
+          }
+          array = this.array.clone();
+          array[index + 1] = value;
+        } else {
+          result[ADDED] = true;
+          array = new Object[this.array.length + 2];
+          System.arraycopy(this.array, 0, array, 0, this.array.length);
+          array[this.array.length] = key;
+          array[this.array.length + 1] = value;
+        }
+        result[CHANGED] = true;
+        if (this.isEditable(edit)) {
+          this.array = array;
+          return this;
+        }
+        return new CollisionNode(edit, hash, array);
+      }
+      // Push this node down a level beneath a BitmapNode and try
+      // again.
+      return new BitmapNode(edit, BitmapNode.bit(this.hash, shift), new Object[] { null, this }).plus(edit, shift, hash, key, value, replace, result);
+    }
+
+    @Override
+    final Node minus(final int shift, final int hash, final Object key) {
+      final int index = this.indexOf(key);
+      if (index < 0) {
+        return this;
+      }
+      if (this.array.length == 2) {
+        return null;
+      }
+      final Object[] array = new Object[this.array.length - 2];
+      System.arraycopy(this.array, 0, array, 0, index);
+      System.arraycopy(this.array, index + 2, array, index, array.length - index);
+      return new CollisionNode(null, this.hash, array);
+    }
+
+    @Override
+    final void collect(final List<Object> target, final boolean keys, final boolean values) {
+      for (int i = 0; i < this.array.length; i += 2) {
+        if (keys) {
+          target.add(this.array[i]);
+        }
+        if (values) {
+          target.add(this.array[i + 1]);
+        }
+      }
+    }
+
+  }
+
+}
@@ -27,6 +27,8 @@
  */
 package com.edugility.bauer;
 
+import java.io.File;
+
 import java.security.CodeSource;
 import java.security.Principal;
 import java.security.Permission;
@@ -36,8 +38,6 @@ import java.security.ProtectionDomain;
 import java.util.Iterator;
 import java.util.ServiceLoader;
 
-import java.util.concurrent.locks.ReadWriteLock;
-
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,46 +45,208 @@ import javax.security.jacc.PolicyContextException;
 
 public class Policy extends java.security.Policy {
 
-  private static final ThreadLocal<Boolean> inImplies = new ThreadLocal<Boolean>() {
-    @Override
-    protected final Boolean initialValue() {
-      return Boolean.FALSE;
-    }
-  };
+  private static final String CLASS_NAME = Policy.class.getName();
+
+  /**
+   * The {@link Logger} used by this class, looked up once rather than
+   * on every call.
+   */
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  /**
+   * Whether this class and the classes it uses are to avoid keeping
+   * state in {@link ThreadLocal}s, as is best when each request runs
+   * on its own virtual thread.
+   *
+   * <p>This is {@code true} if the {@code
+   * com.edugility.bauer.Policy.virtualThreads} system property is set
+   * to {@code true} when this class is loaded.  In that mode a warm
+   * {@link #implies(ProtectionDomain, Permission)} call is not
+   * allocation-free: the {@linkplain ReentrancyGuard#newSharedGuard()
+   * shared reentrancy guard} allocates a map node on every call, and
+   * the decision cache and role lookups allocate short-lived keys
+   * instead of reusing per-thread ones.</p>
+   */
+  static final boolean VIRTUAL_THREADS = Boolean.parseBoolean(System.getProperty("com.edugility.bauer.Policy.virtualThreads"));
+
+  /**
+   * Records the threads on which {@link #implies(ProtectionDomain,
+   * Permission)} is already executing.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ReentrancyGuard reentrancyGuard = VIRTUAL_THREADS ? ReentrancyGuard.newSharedGuard() : ReentrancyGuard.newThreadLocalGuard();
 
   private final java.security.Policy delegate;
 
+  /**
+   * Held only while the {@link PermissionEvaluator} is {@linkplain
+   * #createPermissionEvaluator() created}; once {@link #evaluator} is
+   * set it is read without locking.
+   */
   private final Object evaluatorLock;
 
   private volatile PermissionEvaluator evaluator;
 
+  /**
+   * The {@link DecisionCache} consulted before the {@link
+   * PermissionEvaluator}, or {@code null} if decisions are not
+   * cached.
+   */
+  private volatile DecisionCache decisionCache;
+
+  /**
+   * The {@link AuditLog} to which decisions are handed, or {@code
+   * null} if decisions are not audited.
+   */
+  private volatile AuditLog auditLog;
+
+  /**
+   * Sets whether the current thread is to be treated as already
+   * executing {@link #implies(ProtectionDomain, Permission)}, so that
+   * any permission check made on it returns {@code true} immediately.
+   *
+   * <p>{@link CompositePermissionEvaluator} uses this to give
+   * delegates running on other threads the same protection against
+   * recursion they would have on the calling thread.</p>
+   *
+   * @param inImplies whether the current thread is to be treated as
+   * already executing {@link #implies(ProtectionDomain, Permission)}
+   *
+   * @return the previous setting, which callers should restore
+   */
+  static final boolean setInImplies(final boolean inImplies) {
+    return reentrancyGuard.set(inImplies);
+  }
+
   public Policy() {
     super();
     this.evaluatorLock = new byte[0];
     this.delegate = java.security.Policy.getPolicy();
+    final String decisionCacheSize = System.getProperty("com.edugility.bauer.Policy.decisionCacheSize");
+    if (decisionCacheSize != null) {
+      final int maximumSize;
+      try {
+        maximumSize = Integer.parseInt(decisionCacheSize.trim());
+      } catch (final NumberFormatException badProperty) {
+        throw new IllegalArgumentException("com.edugility.bauer.Policy.decisionCacheSize: " + decisionCacheSize, badProperty);
+      }
+      if (maximumSize > 0) {
+        this.decisionCache = new DecisionCache(maximumSize);
+      }
+    }
+    final String auditDirectory = System.getProperty("com.edugility.bauer.Policy.auditDirectory");
+    if (auditDirectory != null && !auditDirectory.trim().isEmpty()) {
+      this.auditLog = new AuditLog(new File(auditDirectory.trim()));
+    }
+  }
+
+  /**
+   * Returns the {@link DecisionCache} this {@link Policy} consults
+   * before asking its {@link PermissionEvaluator} to evaluate a
+   * {@link Permission}, or {@code null} if decisions are not cached.
+   *
+   * <p>A {@link DecisionCache} is installed at construction time if
+   * the {@code com.edugility.bauer.Policy.decisionCacheSize} system
+   * property is set to a positive integer.</p>
+   *
+   * @return the {@link DecisionCache} in effect, or {@code null}
+   *
+   * @see #setDecisionCache(DecisionCache)
+   */
+  public DecisionCache getDecisionCache() {
+    return this.decisionCache;
+  }
+
+  /**
+   * Installs the {@link DecisionCache} this {@link Policy} will
+   * consult before asking its {@link PermissionEvaluator} to evaluate
+   * a {@link Permission}.
+   *
+   * <p>Only install a {@link DecisionCache} if the {@linkplain
+   * #getPermissionEvaluator() <code>PermissionEvaluator</code> in
+   * effect} bases its decisions solely on the policy context, the
+   * {@link Principal}s of the {@link ProtectionDomain} and the {@link
+   * Permission} being checked.  Decisions are cached only for {@link
+   * ConfigurablePolicyContext}s with a committed policy; others are
+   * always evaluated afresh.</p>
+   *
+   * @param decisionCache the {@link DecisionCache} to use; may be
+   * {@code null} in which case decisions will not be cached
+   *
+   * @see DecisionCache
+   */
+  public void setDecisionCache(final DecisionCache decisionCache) {
+    this.decisionCache = decisionCache;
+  }
+
+  /**
+   * Returns the {@link AuditLog} to which this {@link Policy} hands
+   * each decision it makes, or {@code null} if decisions are not
+   * audited.
+   *
+   * <p>An {@link AuditLog} is installed at construction time if the
+   * {@code com.edugility.bauer.Policy.auditDirectory} system property
+   * names a directory.</p>
+   *
+   * @return the {@link AuditLog} in effect, or {@code null}
+   *
+   * @see #setAuditLog(AuditLog)
+   */
+  public AuditLog getAuditLog() {
+    return this.auditLog;
+  }
+
+  /**
+   * Installs the {@link AuditLog} to which this {@link Policy} will
+   * hand each decision it makes.
+   *
+   * <p>Decisions are handed over after they are made, whether by the
+   * {@linkplain #getPermissionEvaluator()
+   * <code>PermissionEvaluator</code>} or by the {@linkplain
+   * #getDecisionCache() <code>DecisionCache</code>}.  A permission
+   * the policy context neither grants nor denies, and which the
+   * delegate {@link java.security.Policy} therefore decides, is
+   * handed over as {@link PermissionEvaluation#GRANTED GRANTED} or
+   * {@link PermissionEvaluation#DENIED DENIED} according to the
+   * outcome.  The {@link AuditLog} decides which decisions to record,
+   * and never makes the caller wait.  The {@link AuditLog} previously
+   * installed, if any, is not {@linkplain AuditLog#close()
+   * closed}.</p>
+   *
+   * @param auditLog the {@link AuditLog} to use; may be {@code null}
+   * in which case decisions will not be audited
+   *
+   * @see AuditLog
+   */
+  public void setAuditLog(final AuditLog auditLog) {
+    this.auditLog = auditLog;
   }
 
   public PermissionEvaluator getPermissionEvaluator() {
-    synchronized (this.evaluatorLock) {
-      if (this.evaluator == null) {
-        this.evaluator = this.createPermissionEvaluator();
+    PermissionEvaluator evaluator = this.evaluator;
+    if (evaluator == null) {
+      synchronized (this.evaluatorLock) {
+        evaluator = this.evaluator;
+        if (evaluator == null) {
+          evaluator = this.createPermissionEvaluator();
+          this.evaluator = evaluator;
+        }
       }
-      return this.evaluator;
     }
+    return evaluator;
   }
 
   public void setPermissionEvaluator(final PermissionEvaluator permissionEvaluator) {
     if (permissionEvaluator == null) {
       throw new IllegalArgumentException("permissionEvaluator", new NullPointerException("permissionEvaluator"));
     }
-    synchronized (this.evaluatorLock) {
-      this.evaluator = permissionEvaluator;
-    }
+    this.evaluator = permissionEvaluator;
   }
 
   private final PermissionEvaluator createPermissionEvaluator() {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "createPermissionEvaluator");
     }
@@ -122,15 +284,19 @@ public class Policy extends java.security.Policy {
 
   @Override
   public boolean implies(final ProtectionDomain domain, final Permission permission) {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "implies", new Object[] { "(protection domain)", permission });
     }
 
-    final Boolean reentrant = inImplies.get();
+    final ReentrancyGuard reentrancyGuard = Policy.reentrancyGuard;
 
-    if (Boolean.TRUE.equals(reentrant)) {
+    if (!reentrancyGuard.enter()) {
+      final PolicyContextMetrics metrics = PolicyConfigurationFactory.getMetrics(javax.security.jacc.PolicyContext.getContextID());
+      if (metrics != null) {
+        metrics.recordReentrantCall();
+      }
       if (logger != null) {
         if (logger.isLoggable(Level.FINE)) {
           logger.logp(Level.FINE, cn, "implies", "Reentrant; returning true");
@@ -142,10 +308,10 @@ public class Policy extends java.security.Policy {
       return true;
 
     } else {
-      inImplies.set(Boolean.TRUE);
-
       try {
-        PolicyContext policyContext = PolicyConfigurationFactory.getPolicyContext();
+        final String policyContextId = javax.security.jacc.PolicyContext.getContextID();
+        final PolicyContextBinding binding = PolicyContextBinding.current(policyContextId);
+        PolicyContext policyContext = binding == null ? PolicyConfigurationFactory.getPolicyContext(policyContextId) : binding.getPolicyContext();
         if (logger != null && logger.isLoggable(Level.FINE)) {
           if (policyContext == null) {
             logger.logp(Level.FINE, cn, "implies", "Using default policy context");
@@ -154,28 +320,59 @@ public class Policy extends java.security.Policy {
           }
         }
 
-        final PermissionEvaluator evaluator;
-        synchronized (this.evaluatorLock) {
-          evaluator = this.getPermissionEvaluator();
+        final PolicyContextMetrics metrics;
+        if (binding != null) {
+          metrics = binding.getMetrics();
+        } else if (policyContext == null) {
+          metrics = null;
+        } else {
+          metrics = PolicyConfigurationFactory.getMetrics(policyContext.getContextID());
         }
+        final long start = metrics == null ? 0L : System.nanoTime();
+
+        final PermissionEvaluator evaluator = this.getPermissionEvaluator();
         if (evaluator == null) {
           throw new SecurityException(new IllegalStateException("getPermissionEvaluator() == null", new NullPointerException("getPermissionEvaluator()")));
         }
 
-        final ReadWriteLock lock = policyContext.getLock();
+        // No lock is acquired here.  PolicyContext implementations
+        // are required to be safe for use by concurrent threads, and
+        // ConfigurablePolicyContext answers from an immutable
+        // CommittedPolicy snapshot.
+        //
+        // Decisions are cached only against a CommittedPolicy, which
+        // never changes; any other PolicyContext could change without
+        // invalidating them.
+        final DecisionCache decisionCache = this.getDecisionCache();
+        final CommittedPolicy policy;
+        if (decisionCache == null || permission == null || !(policyContext instanceof ConfigurablePolicyContext)) {
+          policy = null;
+        } else {
+          policy = ((ConfigurablePolicyContext)policyContext).getCommittedPolicyOrNull();
+        }
+
         PermissionEvaluation evaluation = null;
-        try {
-          if (lock != null) {
-            lock.readLock().lock();
+        final Principal[] principals;
+        if (policy == null) {
+          principals = null;
+        } else {
+          principals = DomainPrincipals.of(domain);
+          evaluation = decisionCache.get(policyContext.getContextID(), policy, principals, permission);
+        }
+        if (evaluation == null) {
+          try {
+            evaluation = evaluator.evaluate(domain, policyContext, permission);
+          } catch (final PolicyContextException wrapMe) {
+            throw new SecurityException(wrapMe);
           }
-          evaluation = evaluator.evaluate(domain, policyContext, permission);
-        } catch (final PolicyContextException wrapMe) {
-          throw new SecurityException(wrapMe);
-        } finally {
-          if (lock != null) {
-            lock.readLock().unlock();
+          if (policy != null) {
+            decisionCache.put(policyContext.getContextID(), policy, principals, permission, evaluation);
           }
         }
+        if (metrics != null) {
+          metrics.recordEvaluation(evaluation, System.nanoTime() - start);
+        }
+        final AuditLog auditLog = this.auditLog;
 
         if (logger != null && logger.isLoggable(Level.FINE)) {
           logger.logp(Level.FINE, cn, "implies", "Evaluation for permission {0}: {1}", new Object[] { permission, evaluation });
@@ -183,6 +380,9 @@ public class Policy extends java.security.Policy {
         if (evaluation != null && !evaluation.equals(PermissionEvaluation.INDETERMINATE)) {
           final Boolean implies = evaluation.toBoolean();
           if (implies != null) {
+            if (auditLog != null) {
+              auditLog.record(policyContextId, domain, permission, evaluation);
+            }
             if (logger != null && logger.isLoggable(Level.FINER)) {
               logger.exiting(cn, "implies", implies);
             }
@@ -197,7 +397,13 @@ public class Policy extends java.security.Policy {
           if (logger != null && logger.isLoggable(Level.FINE)) {
             logger.logp(Level.FINE, cn, "implies", "Indeterminate evaluation; consulting delegate Policy");
           }
+          if (metrics != null) {
+            metrics.recordDelegateFallback();
+          }
           final boolean delegateImplication = this.delegate.implies(domain, permission);
+          if (auditLog != null) {
+            auditLog.record(policyContextId, domain, permission, delegateImplication ? PermissionEvaluation.GRANTED : PermissionEvaluation.DENIED);
+          }
           if (logger != null) {
             if (logger.isLoggable(Level.FINE)) {
               logger.logp(Level.FINE, cn, "implies", "Delegate policy {2} returned {0} from its implies() method for permission {1}", new Object[] { delegateImplication, permission, this.delegate });
@@ -216,21 +422,24 @@ public class Policy extends java.security.Policy {
         // We tried everything we could think of, including delegation.
         // Simply do what our superclass does.
         final boolean superImplication = super.implies(domain, permission);
+        if (auditLog != null) {
+          auditLog.record(policyContextId, domain, permission, superImplication ? PermissionEvaluation.GRANTED : PermissionEvaluation.DENIED);
+        }
         if (logger != null && logger.isLoggable(Level.FINER)) {
           logger.exiting(cn, "implies", superImplication);
         }
         return superImplication;
 
       } finally {
-        inImplies.set(Boolean.FALSE);
+        reentrancyGuard.exit();
       }
     }
   }
 
   @Override
   public PermissionCollection getPermissions(final ProtectionDomain domain) {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "getPermissions", "(protection domain)");
     }
@@ -279,8 +488,8 @@ public class Policy extends java.security.Policy {
 
   @Override
   public PermissionCollection getPermissions(final CodeSource codeSource) {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "getPermissions", "(code source)");
     }
@@ -321,14 +530,18 @@ public class Policy extends java.security.Policy {
 
   @Override
   public void refresh() {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "refresh");
     }
     if (this.delegate != null) {
       this.delegate.refresh();
     }
+    final DecisionCache decisionCache = this.getDecisionCache();
+    if (decisionCache != null) {
+      decisionCache.clear();
+    }
     if (Boolean.parseBoolean(System.getProperty("java.security.Policy.supportsReuse", "true")) &&
         javax.security.jacc.PolicyContext.getHandlerKeys().contains("java.security.Policy.supportsReuse")) {
       try {
@@ -27,15 +27,29 @@
  */
 package com.edugility.bauer;
 
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+
+import java.lang.management.ManagementFactory;
+
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.concurrent.locks.Lock;
+
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import javax.security.jacc.PolicyConfiguration;
 import javax.security.jacc.PolicyContextException;
 
@@ -43,10 +57,48 @@ import javax.security.jacc.PolicyContextException;
  * A {@link javax.security.jacc.PolicyConfigurationFactory}
  * implementation.
  *
+ * <p>Each {@link PolicyContext} created by a {@link
+ * PolicyConfigurationFactory} is given a {@link PolicyContextMetrics}
+ * that records the authorization decisions made against it.  Unless
+ * the {@code com.edugility.bauer.PolicyConfigurationFactory.jmx}
+ * system property is set to {@code false}, that {@link
+ * PolicyContextMetrics} is also registered with the platform {@link
+ * MBeanServer} under the name {@code
+ * com.edugility.bauer:type=PolicyContext,name=}<var>quoted context
+ * identifier</var>.</p>
+ *
+ * <p>A {@link ConfigurablePolicyContext} is removed from this class's
+ * registry, and its {@link PolicyContextMetrics} unregistered, as
+ * soon as it is {@linkplain ConfigurablePolicyContext#delete()
+ * deleted}.  Evaluations already under way keep using it; it becomes
+ * garbage once they finish.  A later request for a policy
+ * configuration with the same identifier creates a new policy
+ * context.  The {@linkplain #getRegistry() registry}'s size and
+ * approximate memory use are reported over JMX under the name
+ * {@code com.edugility.bauer:type=PolicyContextRegistry}.</p>
+ *
+ * <p>A committed policy context can be {@linkplain #saveSnapshot(String,
+ * File) saved} as a {@link PolicySnapshot} and {@linkplain
+ * #loadSnapshot(File) loaded} again, typically at startup, straight
+ * into service.  If the {@code
+ * com.edugility.bauer.PolicyConfigurationFactory.snapshotDirectory}
+ * system property names a directory, every file in it whose name
+ * ends with {@code .snapshot} is loaded when a {@link
+ * PolicyConfigurationFactory} is created, unless a policy context
+ * with the same identifier already exists.</p>
+ *
  * @see javax.security.jacc.PolicyConfigurationFactory
  */
 public class PolicyConfigurationFactory extends javax.security.jacc.PolicyConfigurationFactory {
 
+  private static final String CLASS_NAME = PolicyConfigurationFactory.class.getName();
+
+  /**
+   * The {@link Logger} used by this class, looked up once rather than
+   * on every call.
+   */
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
   /**
    * A {@link ConcurrentMap} of {@link PolicyContext}s indexed by
    * their {@linkplain PolicyContext#getContextID() identifier}s.
@@ -55,11 +107,56 @@ public class PolicyConfigurationFactory extends javax.security.jacc.PolicyConfig
    */
   private static final ConcurrentMap<String, PolicyContext> policyContexts = new ConcurrentHashMap<String, PolicyContext>();
 
+  /**
+   * A {@link ConcurrentMap} of {@link PolicyContextMetrics} indexed by
+   * the {@linkplain PolicyContext#getContextID() identifier}s of the
+   * {@link PolicyContext}s they describe.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final ConcurrentMap<String, PolicyContextMetrics> metrics = new ConcurrentHashMap<String, PolicyContextMetrics>();
+
+  /**
+   * The number of deleted {@link PolicyContext}s {@linkplain
+   * #purge(ConfigurablePolicyContext) removed} from {@link
+   * #policyContexts}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final AtomicLong purgedCount = new AtomicLong();
+
+  /**
+   * The {@link PolicyContextRegistry} describing {@link
+   * #policyContexts}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final PolicyContextRegistry registry = new PolicyContextRegistry(policyContexts.values(), purgedCount);
+
+  /**
+   * Held while {@link PolicyContextMetrics} are put into or taken out
+   * of {@link #metrics} and the platform {@link MBeanServer}, so that
+   * the metrics of a purged policy context cannot replace or remove
+   * those of a new one with the same identifier.
+   */
+  private static final Object registrationLock = new byte[0];
+
+  /**
+   * Whether {@link #registry} has been registered with the platform
+   * {@link MBeanServer}; only accessed while {@link
+   * #registrationLock} is held.
+   */
+  private static boolean registryRegistered;
+
   /**
    * Creates a new {@link PolicyConfigurationFactory}.
    */
   public PolicyConfigurationFactory() {
     super();
+    final String snapshotDirectory = System.getProperty("com.edugility.bauer.PolicyConfigurationFactory.snapshotDirectory");
+    if (snapshotDirectory != null) {
+      this.loadSnapshots(new File(snapshotDirectory));
+    }
   }
 
   /**
@@ -91,8 +188,8 @@ public class PolicyConfigurationFactory extends javax.security.jacc.PolicyConfig
    */
   @Override
   public PolicyConfiguration getPolicyConfiguration(final String policyContextId, final boolean remove) throws PolicyContextException {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "getPolicyConfiguration", new Object[] { policyContextId, remove });
     }
@@ -101,6 +198,60 @@ public class PolicyConfigurationFactory extends javax.security.jacc.PolicyConfig
       throw new PolicyContextException(new IllegalArgumentException("policyContextId", new NullPointerException("policyContextId")));
     }
 
+    PolicyContext policyContext;
+    PolicyConfiguration policyConfiguration;
+    do {
+      policyContext = this.getOrCreatePolicyContext(policyContextId);
+      assert policyContext != null;
+
+      policyConfiguration = this.getPolicyConfigurationFor(policyContext);
+      if (policyConfiguration == null) {
+        throw new PolicyContextException(new IllegalStateException("getPolicyConfigurationFor(com.edugility.bauer.PolicyContext)", new NullPointerException("getPolicyConfigurationFor(com.edugility.bauer.PolicyContext)")));
+      }
+      assert policyConfiguration instanceof Openable;
+      final Openable openable = (Openable)policyConfiguration;
+
+      if (remove) {
+        openable.openAndClear();
+      } else {
+        openable.open();
+      }
+      if (!openable.isOpen()) {
+        throw new PolicyContextException(new IllegalStateException("!policyConfiguration.isOpen()"));
+      }
+
+      // A deleted policy context may have been purged after it was
+      // looked up and before it was opened.  If so, it is no longer
+      // registered, so start again with a new one.
+    } while (policyContexts.get(policyContextId) != policyContext);
+
+    if (logger != null && logger.isLoggable(Level.FINER)) {
+      logger.exiting(cn, "getPolicyConfiguration", policyConfiguration);
+    }
+    return policyConfiguration;
+  }
+
+  protected PolicyContext createPolicyContext(final String policyContextId) {
+    return new ConfigurablePolicyContext(policyContextId);
+  }
+
+  /**
+   * Returns the {@link PolicyContext} with the supplied identifier,
+   * {@linkplain #createPolicyContext(String) creating} and recording
+   * it first if there is none.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param policyContextId the policy context identifier; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link PolicyContext}
+   *
+   * @exception PolicyContextException if {@link
+   * #createPolicyContext(String)} returns {@code null}
+   */
+  private final PolicyContext getOrCreatePolicyContext(final String policyContextId) throws PolicyContextException {
+    assert policyContextId != null;
     PolicyContext policyContext = policyContexts.get(policyContextId);
     if (policyContext == null) {
 
@@ -113,35 +264,325 @@ public class PolicyConfigurationFactory extends javax.security.jacc.PolicyConfig
       if (oldPolicyContext != null) {
         // Race condition; someone beat us to it; use their value instead
         policyContext = oldPolicyContext;
+      } else {
+        this.installMetrics(policyContext);
       }
 
     }
-    assert policyContext != null;
+    return policyContext;
+  }
 
-    final PolicyConfiguration policyConfiguration = this.getPolicyConfigurationFor(policyContext);
-    if (policyConfiguration == null) {
-      throw new PolicyContextException(new IllegalStateException("getPolicyConfigurationFor(com.edugility.bauer.PolicyContext)", new NullPointerException("getPolicyConfigurationFor(com.edugility.bauer.PolicyContext)")));
+  /**
+   * Reads the {@link PolicySnapshot} in the supplied file and puts
+   * the policy context it was written from into service with its
+   * contents, creating the policy context if necessary and replacing
+   * any policy statements it held.
+   *
+   * <p>The snapshot is memory-mapped and its contents are decoded
+   * only as authorization decisions need them, so the returned {@link
+   * PolicyContext} is usable immediately.  If it is later obtained
+   * through {@link #getPolicyConfiguration(String, boolean)} without
+   * being cleared, its statements are copied out of the snapshot in
+   * full so that further configuration builds on them.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param file the snapshot file; must not be {@code null}
+   *
+   * @return the non-{@code null}, in-service {@link PolicyContext}
+   *
+   * @exception PolicyContextException if {@code file} is {@code
+   * null}, if it cannot be read or is not a valid snapshot, or if
+   * the policy context is not a {@link ConfigurablePolicyContext}
+   *
+   * @see #saveSnapshot(String, File)
+   */
+  public PolicyContext loadSnapshot(final File file) throws PolicyContextException {
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
+    if (logger != null && logger.isLoggable(Level.FINER)) {
+      logger.entering(cn, "loadSnapshot", file);
+    }
+    if (file == null) {
+      throw new PolicyContextException(new IllegalArgumentException("file", new NullPointerException("file")));
     }
-    assert policyConfiguration instanceof Openable;
-    final Openable openable = (Openable)policyConfiguration;
+    final PolicyContext returnValue;
+    try {
+      returnValue = this.load(PolicySnapshot.read(file));
+    } catch (final IOException kaboom) {
+      throw new PolicyContextException(kaboom);
+    }
+    if (logger != null && logger.isLoggable(Level.FINER)) {
+      logger.exiting(cn, "loadSnapshot", returnValue);
+    }
+    return returnValue;
+  }
 
-    if (remove) {
-      openable.openAndClear();
-    } else {
-      openable.open();
+  private final PolicyContext load(final PolicySnapshot snapshot) throws PolicyContextException {
+    assert snapshot != null;
+    PolicyContext returnValue;
+    do {
+      returnValue = this.getOrCreatePolicyContext(snapshot.getContextID());
+      if (!(returnValue instanceof ConfigurablePolicyContext)) {
+        throw new PolicyContextException(new IllegalStateException("!(policyContext instanceof ConfigurablePolicyContext): " + returnValue));
+      }
+      try {
+        ((ConfigurablePolicyContext)returnValue).commit(snapshot.getCommittedPolicy());
+      } catch (final IllegalStateException kaboom) {
+        throw new PolicyContextException(kaboom);
+      }
+      // As in getPolicyConfiguration(String, boolean), a purged
+      // policy context must not be put into service.
+    } while (policyContexts.get(snapshot.getContextID()) != returnValue);
+    return returnValue;
+  }
+
+  /**
+   * {@linkplain #loadSnapshot(File) Loads} every file in the supplied
+   * directory whose name ends with {@code .snapshot}, skipping any
+   * whose policy context already exists.
+   *
+   * <p>A file that cannot be loaded, for whatever reason, is logged
+   * and otherwise ignored.</p>
+   *
+   * @param directory the directory; must not be {@code null}
+   */
+  private final void loadSnapshots(final File directory) {
+    assert directory != null;
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
+    final File[] files = directory.listFiles(new FileFilter() {
+        @Override
+        public final boolean accept(final File file) {
+          return file.isFile() && file.getName().endsWith(".snapshot");
+        }
+      });
+    if (files == null) {
+      if (logger != null && logger.isLoggable(Level.WARNING)) {
+        logger.logp(Level.WARNING, cn, "loadSnapshots", "Could not list policy snapshot directory {0}", directory);
+      }
+      return;
     }
-    if (!openable.isOpen()) {
-      throw new PolicyContextException(new IllegalStateException("!policyConfiguration.isOpen()"));
+    for (final File file : files) {
+      try {
+        final PolicySnapshot snapshot = PolicySnapshot.read(file);
+        if (policyContexts.containsKey(snapshot.getContextID())) {
+          if (logger != null && logger.isLoggable(Level.FINE)) {
+            logger.logp(Level.FINE, cn, "loadSnapshots", "Policy context {0} already exists; not loading {1}", new Object[] { snapshot.getContextID(), file });
+          }
+        } else {
+          this.load(snapshot);
+        }
+      } catch (final IOException kaboom) {
+        if (logger != null && logger.isLoggable(Level.WARNING)) {
+          logger.logp(Level.WARNING, cn, "loadSnapshots", "Could not load policy snapshot " + file, kaboom);
+        }
+      } catch (final PolicyContextException kaboom) {
+        if (logger != null && logger.isLoggable(Level.WARNING)) {
+          logger.logp(Level.WARNING, cn, "loadSnapshots", "Could not load policy snapshot " + file, kaboom);
+        }
+      } catch (final RuntimeException kaboom) {
+        // One bad file must not keep the factory, and so every other
+        // policy context, from being created.
+        if (logger != null && logger.isLoggable(Level.WARNING)) {
+          logger.logp(Level.WARNING, cn, "loadSnapshots", "Could not load policy snapshot " + file, kaboom);
+        }
+      }
     }
+  }
 
-    if (logger != null && logger.isLoggable(Level.FINER)) {
-      logger.exiting(cn, "getPolicyConfiguration", policyConfiguration);
+  /**
+   * Writes a {@link PolicySnapshot} of the committed policy of the
+   * in-service policy context with the supplied identifier to the
+   * supplied file, replacing it if it exists.
+   *
+   * @param policyContextId the policy context identifier; must not be
+   * {@code null}
+   *
+   * @param file the file to write; must not be {@code null}
+   *
+   * @exception PolicyContextException if either parameter is {@code
+   * null}, if there is no such policy context, if it is not an
+   * in-service {@link ConfigurablePolicyContext}, or if the file
+   * cannot be written
+   *
+   * @see #loadSnapshot(File)
+   */
+  public static final void saveSnapshot(final String policyContextId, final File file) throws PolicyContextException {
+    if (policyContextId == null) {
+      throw new PolicyContextException(new IllegalArgumentException("policyContextId", new NullPointerException("policyContextId")));
+    }
+    if (file == null) {
+      throw new PolicyContextException(new IllegalArgumentException("file", new NullPointerException("file")));
+    }
+    final PolicyContext policyContext = policyContexts.get(policyContextId);
+    if (!(policyContext instanceof ConfigurablePolicyContext)) {
+      throw new PolicyContextException(new IllegalStateException("!(policyContext instanceof ConfigurablePolicyContext): " + policyContext));
+    }
+    try {
+      PolicySnapshot.write(policyContextId, ((ConfigurablePolicyContext)policyContext).getCommittedPolicy(), file);
+    } catch (final IllegalStateException kaboom) {
+      throw new PolicyContextException(kaboom);
+    } catch (final IOException kaboom) {
+      throw new PolicyContextException(kaboom);
     }
-    return policyConfiguration;
   }
 
-  protected PolicyContext createPolicyContext(final String policyContextId) {
-    return new ConfigurablePolicyContext(policyContextId);
+  /**
+   * Creates a {@link PolicyContextMetrics} for a newly created {@link
+   * PolicyContext} and, unless disabled, registers it with the
+   * platform {@link MBeanServer}.
+   *
+   * <p>A failure to register is logged and otherwise ignored.</p>
+   *
+   * @param policyContext the new {@link PolicyContext}; must not be
+   * {@code null}
+   */
+  private final void installMetrics(final PolicyContext policyContext) {
+    assert policyContext != null;
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
+    final String policyContextId = policyContext.getContextID();
+    final PolicyContextMetrics policyContextMetrics = new PolicyContextMetrics(policyContext);
+    synchronized (registrationLock) {
+      metrics.put(policyContextId, policyContextMetrics);
+      if (Boolean.parseBoolean(System.getProperty("com.edugility.bauer.PolicyConfigurationFactory.jmx", "true"))) {
+        try {
+          final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+          if (!registryRegistered) {
+            final ObjectName registryName = new ObjectName("com.edugility.bauer:type=PolicyContextRegistry");
+            if (!mbeanServer.isRegistered(registryName)) {
+              mbeanServer.registerMBean(registry, registryName);
+            }
+            registryRegistered = true;
+          }
+          final ObjectName name = getObjectName(policyContextId);
+          if (mbeanServer.isRegistered(name)) {
+            mbeanServer.unregisterMBean(name);
+          }
+          mbeanServer.registerMBean(policyContextMetrics, name);
+        } catch (final JMException kaboom) {
+          if (logger != null && logger.isLoggable(Level.WARNING)) {
+            logger.logp(Level.WARNING, cn, "installMetrics", "Could not register metrics for policy context " + policyContextId, kaboom);
+          }
+        } catch (final SecurityException kaboom) {
+          if (logger != null && logger.isLoggable(Level.WARNING)) {
+            logger.logp(Level.WARNING, cn, "installMetrics", "Could not register metrics for policy context " + policyContextId, kaboom);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the supplied {@link ConfigurablePolicyContext} from the
+   * registry if it has been {@linkplain
+   * ConfigurablePolicyContext#delete() deleted} and is still
+   * registered, and unregisters its {@link PolicyContextMetrics}.
+   *
+   * <p>The state is checked and the policy context removed while its
+   * write lock is held, so a policy context that is concurrently
+   * {@linkplain ConfigurablePolicyContext#open() reopened} is either
+   * left alone or seen to be unregistered by {@link
+   * #getPolicyConfiguration(String, boolean)}.</p>
+   *
+   * @param policyContext the {@link ConfigurablePolicyContext}; must
+   * not be {@code null}
+   *
+   * @see ConfigurablePolicyContext#delete()
+   */
+  static final void purge(final ConfigurablePolicyContext policyContext) {
+    assert policyContext != null;
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
+    final String policyContextId = policyContext.getContextID();
+    final Lock lock = policyContext.getLock().writeLock();
+    lock.lock();
+    try {
+      if (policyContext.getState() != ConfigurablePolicyContext.State.DELETED || !policyContexts.remove(policyContextId, policyContext)) {
+        return;
+      }
+      policyContext.setPurged();
+    } finally {
+      lock.unlock();
+    }
+    purgedCount.incrementAndGet();
+    synchronized (registrationLock) {
+      final PolicyContextMetrics policyContextMetrics = metrics.get(policyContextId);
+      if (policyContextMetrics != null && policyContextMetrics.getPolicyContext() == policyContext) {
+        metrics.remove(policyContextId, policyContextMetrics);
+        if (registryRegistered) {
+          try {
+            final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = getObjectName(policyContextId);
+            if (mbeanServer.isRegistered(name)) {
+              mbeanServer.unregisterMBean(name);
+            }
+          } catch (final JMException kaboom) {
+            if (logger != null && logger.isLoggable(Level.WARNING)) {
+              logger.logp(Level.WARNING, cn, "purge", "Could not unregister metrics for policy context " + policyContextId, kaboom);
+            }
+          } catch (final SecurityException kaboom) {
+            if (logger != null && logger.isLoggable(Level.WARNING)) {
+              logger.logp(Level.WARNING, cn, "purge", "Could not unregister metrics for policy context " + policyContextId, kaboom);
+            }
+          }
+        }
+      }
+    }
+    if (logger != null && logger.isLoggable(Level.FINE)) {
+      logger.logp(Level.FINE, cn, "purge", "Removed deleted policy context {0}", policyContextId);
+    }
+  }
+
+  /**
+   * Returns the {@link PolicyContextRegistry} describing the policy
+   * contexts this class keeps.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} {@link PolicyContextRegistry}
+   */
+  public static final PolicyContextRegistry getRegistry() {
+    return registry;
+  }
+
+  /**
+   * Returns the {@link ObjectName} under which the {@link
+   * PolicyContextMetrics} for the policy context with the supplied
+   * identifier is registered.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param policyContextId the policy context identifier; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link ObjectName}
+   *
+   * @exception JMException if the name could not be formed
+   */
+  static final ObjectName getObjectName(final String policyContextId) throws JMException {
+    return new ObjectName("com.edugility.bauer:type=PolicyContext,name=" + ObjectName.quote(policyContextId));
+  }
+
+  /**
+   * Returns the {@link PolicyContextMetrics} for the policy context
+   * with the supplied identifier, or {@code null} if there is no such
+   * policy context.
+   *
+   * <p>This method does not allocate and may be called on every
+   * authorization decision.</p>
+   *
+   * @param policyContextId the policy context identifier; may be
+   * {@code null} in which case {@code null} will be returned
+   *
+   * @return the {@link PolicyContextMetrics}, or {@code null}
+   */
+  public static final PolicyContextMetrics getMetrics(final String policyContextId) {
+    if (policyContextId == null) {
+      return null;
+    }
+    return metrics.get(policyContextId);
   }
 
   /**
@@ -180,8 +621,8 @@ public class PolicyConfigurationFactory extends javax.security.jacc.PolicyConfig
    * @see PolicyConfiguration
    */
   protected <T extends PolicyConfiguration & Openable> T getPolicyConfigurationFor(final PolicyContext policyContext) throws PolicyContextException {
-    final String cn = this.getClass().getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "getPolicyConfigurationFor", policyContext);
     }
@@ -233,8 +674,8 @@ public class PolicyConfigurationFactory extends javax.security.jacc.PolicyConfig
   }
 
   public static final PolicyContext getPolicyContext(final String policyContextId) {
-    final String cn = PolicyConfigurationFactory.class.getName();
-    final Logger logger = Logger.getLogger(cn);
+    final String cn = CLASS_NAME;
+    final Logger logger = LOGGER;
     if (logger != null && logger.isLoggable(Level.FINER)) {
       logger.entering(cn, "getPolicyContext", policyContextId);
       logger.logp(Level.FINER, cn, "getPolicyContext", "policyContextId: {0}", policyContextId);
@@ -255,13 +696,21 @@ public class PolicyConfigurationFactory extends javax.security.jacc.PolicyConfig
    * Returns a {@link PolicyContext} that is currently in effect for
    * the caller.
    *
+   * <p>If the caller's thread has a {@linkplain PolicyContextBinding
+   * binding} for the current JACC policy context identifier, its
+   * {@link PolicyContext} is returned without being looked up.</p>
+   *
    * <p>This method may return {@code null}.</p>
    *
    * @return the {@link PolicyContext} that is currently in effect for
    * the caller, or {@code null}
+   *
+   * @see PolicyContextBinding
    */
   public static final PolicyContext getPolicyContext() {
-    return getPolicyContext(javax.security.jacc.PolicyContext.getContextID());
+    final String policyContextId = javax.security.jacc.PolicyContext.getContextID();
+    final PolicyContextBinding binding = PolicyContextBinding.current(policyContextId);
+    return binding == null ? getPolicyContext(policyContextId) : binding.getPolicyContext();
   }
 
 }
@@ -0,0 +1,288 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.jacc.PolicyContextException;
+
+/**
+ * A binding of a resolved {@link PolicyContext} to the current
+ * thread, typically for the duration of one request, so that {@link
+ * Policy} need not look the {@link PolicyContext} and its {@link
+ * PolicyContextMetrics} up by identifier on every authorization
+ * decision.
+ *
+ * <p>A container {@linkplain #bind(String) binds} a policy context
+ * identifier when it starts processing a request and {@linkplain
+ * #unbind() unbinds} it when it is done:</p>
+ *
+ * <blockquote><pre>
+ * final PolicyContextBinding binding = PolicyContextBinding.bind(contextId);
+ * try {
+ *   // process the request
+ * } finally {
+ *   binding.unbind();
+ * }</pre></blockquote>
+ *
+ * <p>Binding also {@linkplain
+ * javax.security.jacc.PolicyContext#setContextID(String) sets} the
+ * JACC policy context identifier, and unbinding restores the one in
+ * effect before.  Bindings nest.  A binding is used only while the
+ * current JACC policy context identifier is still the one it was
+ * created for, and only while its {@link PolicyContext} has not been
+ * {@linkplain ConfigurablePolicyContext#delete() deleted}, so code
+ * that changes the identifier without going through this class, or a
+ * policy context that is deleted and redeployed under the same
+ * identifier while a thread is bound to it, simply falls back to the
+ * ordinary lookup.  The
+ * {@linkplain #getCommittedPolicy() committed policy} is always read
+ * afresh from the bound {@link PolicyContext}, which costs a single
+ * {@code volatile} read, so a binding never hides a later commit.</p>
+ *
+ * <p>Instances of this class are confined to the thread that created
+ * them.</p>
+ *
+ * @see PolicyConfigurationFactory#getPolicyContext()
+ */
+public final class PolicyContextBinding {
+
+  /**
+   * The innermost {@link PolicyContextBinding} of each thread.
+   */
+  private static final ThreadLocal<PolicyContextBinding> bindings = new ThreadLocal<PolicyContextBinding>();
+
+  /**
+   * The number of {@link PolicyContextBinding}s that have been
+   * created and not yet unbound, across all threads, maintained only
+   * in {@linkplain Policy#VIRTUAL_THREADS virtual thread mode}.
+   *
+   * <p>In that mode {@link #current(String)} does not consult {@link
+   * #bindings} while it is zero, so virtual threads that never bind a
+   * policy context never acquire an entry in it.  Otherwise {@link
+   * #bindings} is consulted directly and this field is not
+   * touched.</p>
+   */
+  private static final AtomicInteger outstanding = new AtomicInteger();
+
+  /**
+   * The bound policy context identifier.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final String policyContextId;
+
+  /**
+   * The {@link PolicyContext} identified by {@link #policyContextId}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final PolicyContext policyContext;
+
+  /**
+   * The {@link PolicyContextMetrics} of {@link #policyContext}, or
+   * {@code null} if it has none.
+   */
+  private final PolicyContextMetrics metrics;
+
+  /**
+   * The {@link PolicyContextBinding} this one encloses, or {@code
+   * null}.
+   */
+  private final PolicyContextBinding previous;
+
+  /**
+   * The JACC policy context identifier in effect before this {@link
+   * PolicyContextBinding} was created, or {@code null}.
+   */
+  private final String previousPolicyContextId;
+
+  private PolicyContextBinding(final String policyContextId, final PolicyContext policyContext, final PolicyContextMetrics metrics, final PolicyContextBinding previous, final String previousPolicyContextId) {
+    super();
+    assert policyContextId != null;
+    assert policyContext != null;
+    this.policyContextId = policyContextId;
+    this.policyContext = policyContext;
+    this.metrics = metrics;
+    this.previous = previous;
+    this.previousPolicyContextId = previousPolicyContextId;
+  }
+
+  /**
+   * Resolves the {@link PolicyContext} with the supplied identifier,
+   * binds it to the current thread and {@linkplain
+   * javax.security.jacc.PolicyContext#setContextID(String) makes its
+   * identifier the current JACC policy context identifier}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param policyContextId the policy context identifier; must not be
+   * {@code null}
+   *
+   * @return a new, non-{@code null} {@link PolicyContextBinding} that
+   * must be {@linkplain #unbind() unbound} by the current thread
+   *
+   * @exception PolicyContextException if {@code policyContextId} is
+   * {@code null} or there is no policy context with that identifier
+   *
+   * @exception SecurityException if the caller may not set the JACC
+   * policy context identifier
+   */
+  public static final PolicyContextBinding bind(final String policyContextId) throws PolicyContextException {
+    if (policyContextId == null) {
+      throw new PolicyContextException(new IllegalArgumentException("policyContextId", new NullPointerException("policyContextId")));
+    }
+    final PolicyContext policyContext = PolicyConfigurationFactory.getPolicyContext(policyContextId);
+    if (policyContext == null) {
+      throw new PolicyContextException(new IllegalStateException("No policy context with identifier " + policyContextId));
+    }
+    final PolicyContextBinding returnValue = new PolicyContextBinding(policyContextId, policyContext, PolicyConfigurationFactory.getMetrics(policyContextId), bindings.get(), javax.security.jacc.PolicyContext.getContextID());
+    javax.security.jacc.PolicyContext.setContextID(policyContextId);
+    bindings.set(returnValue);
+    if (Policy.VIRTUAL_THREADS) {
+      outstanding.incrementAndGet();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Removes this {@link PolicyContextBinding} from the current thread,
+   * restoring the binding and JACC policy context identifier that
+   * were in effect when it was created.
+   *
+   * @exception IllegalStateException if this is not the current
+   * thread's innermost {@link PolicyContextBinding}
+   *
+   * @exception SecurityException if the caller may not set the JACC
+   * policy context identifier
+   */
+  public final void unbind() {
+    if (bindings.get() != this) {
+      throw new IllegalStateException("Not the current thread's innermost binding: " + this);
+    }
+    javax.security.jacc.PolicyContext.setContextID(this.previousPolicyContextId);
+    if (this.previous == null) {
+      bindings.remove();
+    } else {
+      bindings.set(this.previous);
+    }
+    if (Policy.VIRTUAL_THREADS) {
+      outstanding.decrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the current thread's innermost {@link
+   * PolicyContextBinding} if it was created for the supplied policy
+   * context identifier and its {@link PolicyContext} is neither
+   * {@linkplain ConfigurablePolicyContext#delete() deleted} nor
+   * {@linkplain
+   * PolicyConfigurationFactory#purge(ConfigurablePolicyContext)
+   * purged}, or {@code null}.
+   *
+   * <p>Only a {@link ConfigurablePolicyContext} is ever purged, so
+   * any other {@link PolicyContext} stays registered for good.</p>
+   *
+   * @param policyContextId the current JACC policy context
+   * identifier; may be {@code null} in which case {@code null} will
+   * be returned
+   *
+   * @return a {@link PolicyContextBinding}, or {@code null}
+   */
+  static final PolicyContextBinding current(final String policyContextId) {
+    if (policyContextId == null || (Policy.VIRTUAL_THREADS && outstanding.get() == 0)) {
+      return null;
+    }
+    final PolicyContextBinding returnValue = bindings.get();
+    if (returnValue == null) {
+      return null;
+    }
+    final String boundId = returnValue.policyContextId;
+    if (boundId != policyContextId && !boundId.equals(policyContextId)) {
+      return null;
+    }
+    final PolicyContext policyContext = returnValue.policyContext;
+    if (policyContext instanceof ConfigurablePolicyContext) {
+      final ConfigurablePolicyContext configurablePolicyContext = (ConfigurablePolicyContext)policyContext;
+      if (configurablePolicyContext.getState() == ConfigurablePolicyContext.State.DELETED || configurablePolicyContext.isPurged()) {
+        return null;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the bound policy context identifier.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} policy context identifier
+   */
+  public final String getContextID() {
+    return this.policyContextId;
+  }
+
+  /**
+   * Returns the bound {@link PolicyContext}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} {@link PolicyContext}
+   */
+  public final PolicyContext getPolicyContext() {
+    return this.policyContext;
+  }
+
+  /**
+   * Returns the {@link PolicyContextMetrics} of the bound {@link
+   * PolicyContext}, or {@code null} if it has none.
+   *
+   * @return the {@link PolicyContextMetrics}, or {@code null}
+   */
+  public final PolicyContextMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * Returns the {@link CommittedPolicy} currently in effect for the
+   * bound {@link PolicyContext}, or {@code null} if it is not a
+   * {@link ConfigurablePolicyContext} or is not in service.
+   *
+   * @return the {@link CommittedPolicy}, or {@code null}
+   */
+  public final CommittedPolicy getCommittedPolicy() {
+    final PolicyContext policyContext = this.policyContext;
+    return policyContext instanceof ConfigurablePolicyContext ? ((ConfigurablePolicyContext)policyContext).getCommittedPolicyOrNull() : null;
+  }
+
+  @Override
+  public final String toString() {
+    return "PolicyContextBinding[" + this.policyContextId + "]";
+  }
+
+}
@@ -0,0 +1,324 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+import java.security.PermissionCollection;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.security.jacc.PolicyContextException;
+
+/**
+ * Authorization statistics for a single {@link PolicyContext},
+ * exposed over JMX as a {@link PolicyContextMetricsMXBean}.
+ *
+ * <p>{@link PolicyConfigurationFactory} creates one {@link
+ * PolicyContextMetrics} for each {@link PolicyContext} it creates
+ * and registers it with the platform {@link
+ * javax.management.MBeanServer} under the name {@code
+ * com.edugility.bauer:type=PolicyContext,name=}<var>quoted context
+ * identifier</var>.  {@link Policy} records each decision in the
+ * {@link PolicyContextMetrics} of the policy context it was made
+ * against.</p>
+ *
+ * <p>Counters are {@linkplain StripedCounter striped} so that threads
+ * recording decisions concurrently do not contend, and latencies are
+ * kept in a {@linkplain LatencyHistogram power-of-two histogram}.
+ * Both start small and spread out only when recorders actually
+ * collide, so a policy context that is never evaluated costs a few
+ * hundred bytes here whatever the number of processors.  Once a
+ * counter has spread, recording a decision never blocks and allocates
+ * nothing.  Permission counts are computed from the {@link
+ * PolicyContext} when they are read.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ *
+ * @see PolicyConfigurationFactory#getMetrics(String)
+ */
+public class PolicyContextMetrics implements PolicyContextMetricsMXBean {
+
+  private static final PermissionEvaluation[] EVALUATIONS = PermissionEvaluation.values();
+
+  private final PolicyContext policyContext;
+
+  /**
+   * Evaluation counts indexed by {@link PermissionEvaluation}
+   * {@linkplain Enum#ordinal() ordinal}.
+   */
+  private final StripedCounter[] evaluations;
+
+  private final StripedCounter delegateFallbacks;
+
+  private final StripedCounter reentrantCalls;
+
+  private final LatencyHistogram latencies;
+
+  /**
+   * Creates a new {@link PolicyContextMetrics}.
+   *
+   * @param policyContext the {@link PolicyContext} to describe; must
+   * not be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code policyContext} is
+   * {@code null}
+   */
+  public PolicyContextMetrics(final PolicyContext policyContext) {
+    super();
+    if (policyContext == null) {
+      throw new IllegalArgumentException("policyContext", new NullPointerException("policyContext"));
+    }
+    this.policyContext = policyContext;
+    this.evaluations = new StripedCounter[EVALUATIONS.length];
+    for (int i = 0; i < this.evaluations.length; i++) {
+      this.evaluations[i] = new StripedCounter();
+    }
+    this.delegateFallbacks = new StripedCounter();
+    this.reentrantCalls = new StripedCounter();
+    this.latencies = new LatencyHistogram();
+  }
+
+  /**
+   * Returns the {@link PolicyContext} this {@link PolicyContextMetrics}
+   * describes.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} {@link PolicyContext}
+   */
+  final PolicyContext getPolicyContext() {
+    return this.policyContext;
+  }
+
+  /**
+   * Records an evaluation.
+   *
+   * @param evaluation the outcome; if {@code null} then it is counted
+   * as {@link PermissionEvaluation#INDETERMINATE}
+   *
+   * @param nanos how long the evaluation took, in nanoseconds
+   */
+  final void recordEvaluation(final PermissionEvaluation evaluation, final long nanos) {
+    this.evaluations[(evaluation == null ? PermissionEvaluation.INDETERMINATE : evaluation).ordinal()].increment();
+    this.latencies.record(nanos);
+  }
+
+  /**
+   * Records that a decision was referred to the delegate {@link
+   * java.security.Policy}.
+   */
+  final void recordDelegateFallback() {
+    this.delegateFallbacks.increment();
+  }
+
+  /**
+   * Records a reentrant call to {@link
+   * Policy#implies(java.security.ProtectionDomain, Permission)}.
+   */
+  final void recordReentrantCall() {
+    this.reentrantCalls.increment();
+  }
+
+  @Override
+  public String getContextID() {
+    return this.policyContext.getContextID();
+  }
+
+  @Override
+  public long getEvaluationCount() {
+    long returnValue = 0L;
+    for (final StripedCounter counter : this.evaluations) {
+      returnValue += counter.sum();
+    }
+    return returnValue;
+  }
+
+  @Override
+  public Map<String, Long> getEvaluationCounts() {
+    final Map<String, Long> returnValue = new LinkedHashMap<String, Long>();
+    for (final PermissionEvaluation evaluation : EVALUATIONS) {
+      returnValue.put(evaluation.name(), Long.valueOf(this.getCount(evaluation)));
+    }
+    return returnValue;
+  }
+
+  @Override
+  public long getGrantedCount() {
+    return this.getCount(PermissionEvaluation.GRANTED);
+  }
+
+  @Override
+  public long getMandatedCount() {
+    return this.getCount(PermissionEvaluation.MANDATED);
+  }
+
+  @Override
+  public long getExcludedCount() {
+    return this.getCount(PermissionEvaluation.EXCLUDED);
+  }
+
+  @Override
+  public long getDeniedCount() {
+    return this.getCount(PermissionEvaluation.DENIED);
+  }
+
+  @Override
+  public long getIndeterminateCount() {
+    return this.getCount(PermissionEvaluation.INDETERMINATE);
+  }
+
+  /**
+   * Returns the number of evaluations with the supplied outcome.
+   *
+   * @param evaluation the outcome; must not be {@code null}
+   *
+   * @return the number of evaluations with that outcome
+   */
+  public final long getCount(final PermissionEvaluation evaluation) {
+    if (evaluation == null) {
+      throw new IllegalArgumentException("evaluation", new NullPointerException("evaluation"));
+    }
+    return this.evaluations[evaluation.ordinal()].sum();
+  }
+
+  @Override
+  public long getDelegateFallbackCount() {
+    return this.delegateFallbacks.sum();
+  }
+
+  @Override
+  public long getReentrantCount() {
+    return this.reentrantCalls.sum();
+  }
+
+  @Override
+  public long getCommitCount() {
+    if (this.policyContext instanceof ConfigurablePolicyContext) {
+      return ((ConfigurablePolicyContext)this.policyContext).getCommitCount();
+    }
+    return 0L;
+  }
+
+  @Override
+  public int getExcludedPermissionCount() {
+    try {
+      return count(this.policyContext.getExcludedPolicy());
+    } catch (final IllegalStateException notInService) {
+      return 0;
+    } catch (final PolicyContextException unavailable) {
+      return 0;
+    }
+  }
+
+  @Override
+  public int getUncheckedPermissionCount() {
+    try {
+      return count(this.policyContext.getUncheckedPolicy());
+    } catch (final IllegalStateException notInService) {
+      return 0;
+    } catch (final PolicyContextException unavailable) {
+      return 0;
+    }
+  }
+
+  @Override
+  public Map<String, Integer> getRolePermissionCounts() {
+    final Map<? extends String, ? extends PermissionCollection> roles;
+    try {
+      roles = this.policyContext.getRoles();
+    } catch (final IllegalStateException notInService) {
+      return Collections.emptyMap();
+    } catch (final PolicyContextException unavailable) {
+      return Collections.emptyMap();
+    }
+    if (roles == null || roles.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    final Map<String, Integer> returnValue = new TreeMap<String, Integer>();
+    for (final Map.Entry<? extends String, ? extends PermissionCollection> entry : roles.entrySet()) {
+      returnValue.put(entry.getKey(), Integer.valueOf(count(entry.getValue())));
+    }
+    return returnValue;
+  }
+
+  @Override
+  public long[] getLatencyHistogram() {
+    return this.latencies.getCounts();
+  }
+
+  @Override
+  public long getMedianLatencyNanos() {
+    return this.latencies.getQuantileNanos(0.5);
+  }
+
+  @Override
+  public long get99thPercentileLatencyNanos() {
+    return this.latencies.getQuantileNanos(0.99);
+  }
+
+  @Override
+  public void reset() {
+    for (final StripedCounter counter : this.evaluations) {
+      counter.reset();
+    }
+    this.delegateFallbacks.reset();
+    this.reentrantCalls.reset();
+    this.latencies.reset();
+  }
+
+  @Override
+  public String toString() {
+    return this.getContextID() + " " + this.getEvaluationCounts();
+  }
+
+  private static final int count(final PermissionCollection permissions) {
+    if (permissions == null) {
+      return 0;
+    }
+    if (permissions instanceof ImmutablePermissions) {
+      return ((ImmutablePermissions)permissions).size();
+    }
+    int returnValue = 0;
+    synchronized (permissions) {
+      final Enumeration<Permission> elements = permissions.elements();
+      if (elements != null) {
+        while (elements.hasMoreElements()) {
+          elements.nextElement();
+          returnValue++;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,158 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link PolicyContextMetrics}: the
+ * authorization statistics of a single {@link PolicyContext}.
+ *
+ * <p>Counts accumulate from the time the {@link PolicyContext} was
+ * created or from the most recent invocation of {@link #reset()}.
+ * Permission counts describe the policy most recently committed.</p>
+ *
+ * @see PolicyContextMetrics
+ *
+ * @see PolicyConfigurationFactory#getMetrics(String)
+ */
+public interface PolicyContextMetricsMXBean {
+
+  /**
+   * Returns the identifier of the {@link PolicyContext} these
+   * statistics describe.
+   *
+   * @return the policy context identifier; never {@code null}
+   */
+  public String getContextID();
+
+  /**
+   * Returns the total number of permissions evaluated by {@link
+   * Policy#implies(java.security.ProtectionDomain,
+   * java.security.Permission)} against the {@link PolicyContext}.
+   *
+   * @return the number of evaluations
+   */
+  public long getEvaluationCount();
+
+  /**
+   * Returns the number of evaluations with each {@link
+   * PermissionEvaluation} outcome, indexed by {@linkplain
+   * PermissionEvaluation#name() outcome name}.
+   *
+   * <p>Every outcome is present, even if its count is {@code 0}.</p>
+   *
+   * @return a {@link Map} of counts; never {@code null}
+   */
+  public Map<String, Long> getEvaluationCounts();
+
+  public long getGrantedCount();
+
+  public long getMandatedCount();
+
+  public long getExcludedCount();
+
+  public long getDeniedCount();
+
+  public long getIndeterminateCount();
+
+  /**
+   * Returns the number of evaluations that were referred to the
+   * delegate {@link java.security.Policy} because the {@link
+   * PolicyContext} neither granted nor denied the permission.
+   *
+   * @return the number of delegate fallbacks
+   */
+  public long getDelegateFallbackCount();
+
+  /**
+   * Returns the number of times {@link
+   * Policy#implies(java.security.ProtectionDomain,
+   * java.security.Permission)} returned {@code true} immediately
+   * because it was invoked again on a thread already evaluating a
+   * permission.
+   *
+   * @return the number of reentrant calls
+   */
+  public long getReentrantCount();
+
+  /**
+   * Returns the number of times the {@link PolicyContext}'s
+   * configuration has been committed.
+   *
+   * @return the number of commits, or {@code 0} if the {@link
+   * PolicyContext} does not count them
+   */
+  public long getCommitCount();
+
+  public int getExcludedPermissionCount();
+
+  public int getUncheckedPermissionCount();
+
+  /**
+   * Returns the number of permissions granted to each role, indexed
+   * by role name.
+   *
+   * @return a {@link Map} of counts; never {@code null}
+   */
+  public Map<String, Integer> getRolePermissionCounts();
+
+  /**
+   * Returns the evaluation latency histogram: element <var>i</var>
+   * (for <var>i</var> &gt; 0) is the number of evaluations that took
+   * at least 2<sup><var>i</var>-1</sup> and less than
+   * 2<sup><var>i</var></sup> nanoseconds.
+   *
+   * @return the histogram; never {@code null}
+   */
+  public long[] getLatencyHistogram();
+
+  /**
+   * Returns an upper bound, in nanoseconds, on the median evaluation
+   * latency.
+   *
+   * @return the median latency bound, or {@code 0} if there have been
+   * no evaluations
+   */
+  public long getMedianLatencyNanos();
+
+  /**
+   * Returns an upper bound, in nanoseconds, on the 99th percentile
+   * evaluation latency.
+   *
+   * @return the 99th percentile latency bound, or {@code 0} if there
+   * have been no evaluations
+   */
+  public long get99thPercentileLatencyNanos();
+
+  /**
+   * Resets all counts and the latency histogram to zero.
+   */
+  public void reset();
+
+}
@@ -0,0 +1,176 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+
+/**
+ * Statistics about the {@link PolicyContext}s kept by {@link
+ * PolicyConfigurationFactory}, exposed over JMX as a {@link
+ * PolicyContextRegistryMXBean}.
+ *
+ * <p>{@link PolicyConfigurationFactory} registers its {@link
+ * PolicyContextRegistry} with the platform {@link
+ * javax.management.MBeanServer} under the name {@code
+ * com.edugility.bauer:type=PolicyContextRegistry} when it registers
+ * its first {@link PolicyContextMetrics}.  Every value is computed
+ * when it is read.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ *
+ * @see PolicyConfigurationFactory#getRegistry()
+ */
+public final class PolicyContextRegistry implements PolicyContextRegistryMXBean {
+
+  /**
+   * A live view of the registered {@link PolicyContext}s.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Collection<? extends PolicyContext> policyContexts;
+
+  /**
+   * The number of deleted {@link PolicyContext}s removed so far.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final AtomicLong purgedCount;
+
+  /**
+   * Creates a new {@link PolicyContextRegistry}.
+   *
+   * @param policyContexts a live view of the registered {@link
+   * PolicyContext}s; must not be {@code null}
+   *
+   * @param purgedCount the number of deleted {@link PolicyContext}s
+   * removed so far; must not be {@code null}
+   */
+  PolicyContextRegistry(final Collection<? extends PolicyContext> policyContexts, final AtomicLong purgedCount) {
+    super();
+    assert policyContexts != null;
+    assert purgedCount != null;
+    this.policyContexts = policyContexts;
+    this.purgedCount = purgedCount;
+  }
+
+  @Override
+  public int getPolicyContextCount() {
+    return this.policyContexts.size();
+  }
+
+  @Override
+  public int getInServiceCount() {
+    int returnValue = 0;
+    for (final PolicyContext policyContext : this.policyContexts) {
+      if (policyContext instanceof PolicyConfiguration) {
+        try {
+          if (((PolicyConfiguration)policyContext).inService()) {
+            returnValue++;
+          }
+        } catch (final PolicyContextException unavailable) {
+          // Not counted.
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  @Override
+  public int getDeletedCount() {
+    int returnValue = 0;
+    for (final PolicyContext policyContext : this.policyContexts) {
+      if (policyContext instanceof ConfigurablePolicyContext && ((ConfigurablePolicyContext)policyContext).getState() == ConfigurablePolicyContext.State.DELETED) {
+        returnValue++;
+      }
+    }
+    return returnValue;
+  }
+
+  @Override
+  public long getPurgedCount() {
+    return this.purgedCount.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Only {@link ConfigurablePolicyContext}s are counted.  A
+   * committed policy {@linkplain CommittedPolicy#getCanonical()
+   * shared} by several of them is counted once, but {@link
+   * java.security.Permission}s that merely occur in several committed
+   * policies are counted once for each.  The first reading after a
+   * commit walks the newly committed policy; later readings reuse the
+   * result.</p>
+   *
+   * @see CommittedPolicy#estimatedSize()
+   */
+  @Override
+  public long getEstimatedCommittedPolicyBytes() {
+    long returnValue = 0L;
+    final Set<CommittedPolicy> counted = Collections.newSetFromMap(new IdentityHashMap<CommittedPolicy, Boolean>());
+    for (final PolicyContext policyContext : this.policyContexts) {
+      if (policyContext instanceof ConfigurablePolicyContext) {
+        final CommittedPolicy committedPolicy = ((ConfigurablePolicyContext)policyContext).getCommittedPolicyOrNull();
+        if (committedPolicy != null && counted.add(committedPolicy.getCanonical())) {
+          returnValue += committedPolicy.estimatedSize();
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  @Override
+  public int getInternedPermissionCount() {
+    return ConfigurablePolicyContext.getInternedPermissionCount();
+  }
+
+  @Override
+  public int getInternedRoleNameCount() {
+    return ConfigurablePolicyContext.getInternedRoleNameCount();
+  }
+
+  @Override
+  public int getSharedCommittedPolicyCount() {
+    return ConfigurablePolicyContext.getSharedPolicyCount();
+  }
+
+  @Override
+  public String toString() {
+    return this.getPolicyContextCount() + " policy contexts, " + this.getPurgedCount() + " purged";
+  }
+
+}
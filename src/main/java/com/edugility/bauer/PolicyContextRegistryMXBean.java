@@ -0,0 +1,113 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+/**
+ * The management interface of {@link PolicyContextRegistry}: the size
+ * and approximate memory use of the set of {@link PolicyContext}s
+ * kept by {@link PolicyConfigurationFactory}.
+ *
+ * @see PolicyConfigurationFactory#getRegistry()
+ */
+public interface PolicyContextRegistryMXBean {
+
+  /**
+   * Returns the number of {@link PolicyContext}s currently
+   * registered.
+   *
+   * @return the number of registered {@link PolicyContext}s
+   */
+  public int getPolicyContextCount();
+
+  /**
+   * Returns the number of registered {@link PolicyContext}s that are
+   * in service.
+   *
+   * @return the number of in-service {@link PolicyContext}s
+   */
+  public int getInServiceCount();
+
+  /**
+   * Returns the number of registered {@link PolicyContext}s that have
+   * been deleted but not yet removed.
+   *
+   * <p>A {@link ConfigurablePolicyContext} is removed as soon as it is
+   * deleted, so this is normally {@code 0}.</p>
+   *
+   * @return the number of deleted {@link PolicyContext}s still
+   * registered
+   */
+  public int getDeletedCount();
+
+  /**
+   * Returns the number of deleted {@link PolicyContext}s that have been
+   * removed from the registry since it was created.
+   *
+   * @return the number of {@link PolicyContext}s removed
+   */
+  public long getPurgedCount();
+
+  /**
+   * Returns a rough estimate, in bytes, of the memory taken up by the
+   * committed policies of the registered {@link PolicyContext}s.
+   *
+   * @return an estimate of the bytes held by committed policies
+   */
+  public long getEstimatedCommittedPolicyBytes();
+
+  /**
+   * Returns the number of distinct {@link java.security.Permission}s
+   * held in the pool shared by all {@link ConfigurablePolicyContext}s.
+   *
+   * @return the number of pooled {@link java.security.Permission}s
+   */
+  public int getInternedPermissionCount();
+
+  /**
+   * Returns the number of distinct role names held in the pool shared
+   * by all {@link ConfigurablePolicyContext}s.
+   *
+   * @return the number of pooled role names
+   */
+  public int getInternedRoleNameCount();
+
+  /**
+   * Returns the number of distinct committed policies that {@link
+   * ConfigurablePolicyContext}s committing the same policy statements
+   * share.
+   *
+   * <p>A committed policy is counted even if only one {@link
+   * ConfigurablePolicyContext} uses it, so the ratio of this number to
+   * the {@linkplain #getInServiceCount() number of policy contexts in
+   * service} shows how much sharing takes place.</p>
+   *
+   * @return the number of shared committed policies
+   */
+  public int getSharedCommittedPolicyCount();
+
+}
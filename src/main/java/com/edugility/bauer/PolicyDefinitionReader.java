@@ -0,0 +1,874 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+import java.nio.charset.Charset;
+
+import java.security.Permission;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyConfigurationFactory;
+import javax.security.jacc.PolicyContextException;
+
+/**
+ * Reads policy statements from a line-oriented text format and adds
+ * them to the {@link PolicyConfiguration}s a {@link
+ * PolicyConfigurationFactory} supplies, one batch at a time, so that
+ * files far larger than the heap can be loaded.
+ *
+ * <p>Each line of a policy definition holds one directive, made up of
+ * tokens separated by spaces or tabs.  A token containing spaces,
+ * tabs, quotation marks or a leading {@code #} must be enclosed in
+ * quotation marks ({@code "}), within which a backslash ({@code \})
+ * causes the character following it to be taken literally.  Blank
+ * lines, and everything from an unquoted {@code #} at the start of a
+ * token to the end of its line, are ignored.  The directives
+ * are:</p>
+ *
+ * <dl>
+ *
+ * <dt>{@code context} <var>contextID</var> [{@code append}]</dt>
+ *
+ * <dd>Obtains the {@link PolicyConfiguration} with the supplied
+ * identifier by way of {@link
+ * PolicyConfigurationFactory#getPolicyConfiguration(String,
+ * boolean)}, clearing it unless {@code append} is present, and makes
+ * it the target of the statements that follow.</dd>
+ *
+ * <dt>{@code excluded} <var>class</var> <var>name</var>
+ * [<var>actions</var>]</dt>
+ *
+ * <dd>Adds a permission to the excluded policy.</dd>
+ *
+ * <dt>{@code unchecked} <var>class</var> <var>name</var>
+ * [<var>actions</var>]</dt>
+ *
+ * <dd>Adds a permission to the unchecked policy.</dd>
+ *
+ * <dt>{@code role} <var>roleName</var> <var>class</var>
+ * <var>name</var> [<var>actions</var>]</dt>
+ *
+ * <dd>Adds a permission to the policy of the named role.</dd>
+ *
+ * <dt>{@code commit}</dt>
+ *
+ * <dd>{@linkplain PolicyConfiguration#commit() Commits} the current
+ * {@link PolicyConfiguration}, after which a {@code context}
+ * directive must precede any further statements.</dd>
+ *
+ * </dl>
+ *
+ * <p>A permission <var>class</var> without a package, such as {@code
+ * WebResourcePermission}, is taken to be in the {@code
+ * javax.security.jacc} package.  The permission is created through
+ * the class's public {@code (String, String)} constructor or, if
+ * <var>actions</var> is absent, its public {@code (String)}
+ * constructor if it has one.  For example:</p>
+ *
+ * <blockquote><pre>
+ * # Generated for tenant 42
+ * context "acme.ear/web.war"
+ * excluded WebResourcePermission /admin/*
+ * unchecked WebUserDataPermission /
+ * role manager WebResourcePermission /reports/* GET,POST
+ * role "help desk" EJBMethodPermission TicketBean create,Remote,java.lang.String
+ * commit</pre></blockquote>
+ *
+ * <p>A line that is malformed, or whose permission cannot be created,
+ * is reported to the {@link Listener} and skipped, unless more than
+ * the maximum number of bad lines have been seen, in which case
+ * reading stops with an {@link IOException}.  A {@link
+ * PolicyContextException} thrown by a {@link PolicyConfiguration}
+ * always stops reading.  Statements are added in batches, using
+ * {@link ConfigurablePolicyContext#addAll(PolicyStatements)} where
+ * possible, so the memory a {@link PolicyDefinitionReader} uses does
+ * not depend on the size of its input.  A {@link PolicyConfiguration}
+ * that is still open when the input ends has had all of its
+ * statements added but is not committed.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent threads,
+ * each reading its own input.</p>
+ *
+ * @see PolicyStatements
+ */
+public class PolicyDefinitionReader {
+
+  private static final String CLASS_NAME = PolicyDefinitionReader.class.getName();
+
+  /**
+   * The {@link Logger} used by this class, looked up once rather than
+   * on every call.
+   */
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  /**
+   * The number of statements added to a {@link PolicyConfiguration}
+   * at a time.
+   */
+  private static final int BATCH_SIZE = 8192;
+
+  /**
+   * The number of lines read between calls to {@link
+   * Listener#progress(long, long, long)}.
+   */
+  private static final long PROGRESS_INTERVAL = 65536L;
+
+  /**
+   * The length, in characters, beyond which a line is considered bad
+   * and is not retained.
+   */
+  public static final int MAXIMUM_LINE_LENGTH = 65536;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The {@link PolicyConfigurationFactory} supplying the {@link
+   * PolicyConfiguration}s named by {@code context} directives.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final PolicyConfigurationFactory factory;
+
+  /**
+   * The {@link Listener} notified of progress and of bad lines.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Listener listener;
+
+  /**
+   * The number of bad lines tolerated in any one input.
+   */
+  private final long maximumBadLines;
+
+  /**
+   * Creates a new {@link PolicyDefinitionReader} that logs progress
+   * and bad lines and tolerates any number of bad lines.
+   *
+   * @param factory the {@link PolicyConfigurationFactory} supplying
+   * {@link PolicyConfiguration}s; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code factory} is {@code
+   * null}
+   */
+  public PolicyDefinitionReader(final PolicyConfigurationFactory factory) {
+    this(factory, null, Long.MAX_VALUE);
+  }
+
+  /**
+   * Creates a new {@link PolicyDefinitionReader}.
+   *
+   * @param factory the {@link PolicyConfigurationFactory} supplying
+   * {@link PolicyConfiguration}s; must not be {@code null}
+   *
+   * @param listener the {@link Listener} to notify of progress and of
+   * bad lines; if {@code null}, progress and bad lines are logged
+   *
+   * @param maximumBadLines the number of bad lines to tolerate in any
+   * one input; must not be negative
+   *
+   * @exception IllegalArgumentException if {@code factory} is {@code
+   * null} or {@code maximumBadLines} is negative
+   */
+  public PolicyDefinitionReader(final PolicyConfigurationFactory factory, final Listener listener, final long maximumBadLines) {
+    super();
+    if (factory == null) {
+      throw new IllegalArgumentException("factory", new NullPointerException("factory"));
+    }
+    if (maximumBadLines < 0L) {
+      throw new IllegalArgumentException("maximumBadLines < 0: " + maximumBadLines);
+    }
+    this.factory = factory;
+    this.listener = listener == null ? new LoggingListener() : listener;
+    this.maximumBadLines = maximumBadLines;
+  }
+
+  /**
+   * Reads the policy definition in the supplied UTF-8-encoded file.
+   *
+   * @param file the file; must not be {@code null}
+   *
+   * @return the number of statements added
+   *
+   * @exception IllegalArgumentException if {@code file} is {@code
+   * null}
+   *
+   * @exception IOException if the file could not be read or held too
+   * many bad lines
+   *
+   * @exception PolicyContextException if a {@link
+   * PolicyConfiguration} could not be obtained, configured or
+   * committed
+   *
+   * @see #read(Reader)
+   */
+  public long read(final File file) throws IOException, PolicyContextException {
+    if (file == null) {
+      throw new IllegalArgumentException("file", new NullPointerException("file"));
+    }
+    final InputStream in = new FileInputStream(file);
+    try {
+      return this.read(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads the UTF-8-encoded policy definition available from the
+   * supplied {@link InputStream}, which is not closed.
+   *
+   * <p>The number of bytes read is included in each {@linkplain
+   * Listener#progress(long, long, long) progress report}.</p>
+   *
+   * @param in the {@link InputStream}; must not be {@code null}
+   *
+   * @return the number of statements added
+   *
+   * @exception IllegalArgumentException if {@code in} is {@code
+   * null}
+   *
+   * @exception IOException if {@code in} could not be read or held
+   * too many bad lines
+   *
+   * @exception PolicyContextException if a {@link
+   * PolicyConfiguration} could not be obtained, configured or
+   * committed
+   *
+   * @see #read(Reader)
+   */
+  public long read(final InputStream in) throws IOException, PolicyContextException {
+    if (in == null) {
+      throw new IllegalArgumentException("in", new NullPointerException("in"));
+    }
+    final CountingInputStream countingIn = new CountingInputStream(in);
+    return new Session(new InputStreamReader(countingIn, UTF_8), countingIn).run();
+  }
+
+  /**
+   * Reads the policy definition available from the supplied {@link
+   * Reader}, which is not closed.
+   *
+   * @param reader the {@link Reader}; must not be {@code null}
+   *
+   * @return the number of statements added
+   *
+   * @exception IllegalArgumentException if {@code reader} is {@code
+   * null}
+   *
+   * @exception IOException if {@code reader} could not be read or
+   * held too many bad lines
+   *
+   * @exception PolicyContextException if a {@link
+   * PolicyConfiguration} could not be obtained, configured or
+   * committed
+   */
+  public long read(final Reader reader) throws IOException, PolicyContextException {
+    if (reader == null) {
+      throw new IllegalArgumentException("reader", new NullPointerException("reader"));
+    }
+    return new Session(reader, null).run();
+  }
+
+  /**
+   * Splits the supplied line into tokens, adding them to the supplied
+   * {@link List}.
+   *
+   * @exception IllegalArgumentException if a quoted token is not
+   * terminated
+   */
+  static final void tokenize(final String line, final List<String> tokens) {
+    assert line != null;
+    assert tokens != null;
+    final int length = line.length();
+    int i = 0;
+    while (i < length) {
+      char c = line.charAt(i);
+      if (c == ' ' || c == '\t') {
+        i++;
+      } else if (c == '#') {
+        break;
+      } else if (c == '"') {
+        final StringBuilder token = new StringBuilder();
+        boolean terminated = false;
+        for (i++; i < length; i++) {
+          c = line.charAt(i);
+          if (c == '"') {
+            terminated = true;
+            i++;
+            break;
+          } else if (c == '\\' && i + 1 < length) {
+            token.append(line.charAt(++i));
+          } else {
+            token.append(c);
+          }
+        }
+        if (!terminated) {
+          throw new IllegalArgumentException("Unterminated quoted token");
+        }
+        tokens.add(token.toString());
+      } else {
+        final int start = i;
+        while (i < length && (c = line.charAt(i)) != ' ' && c != '\t') {
+          i++;
+        }
+        tokens.add(line.substring(start, i));
+      }
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An object notified as a {@link PolicyDefinitionReader} reads its
+   * input.
+   *
+   * <p>A {@link Listener} is called only by the thread reading the
+   * input.</p>
+   */
+  public static interface Listener {
+
+    /**
+     * Called periodically, and once more when the input ends, to
+     * report how far reading has progressed.
+     *
+     * @param lines the number of lines read
+     *
+     * @param statements the number of statements read, not counting
+     * those on bad lines
+     *
+     * @param bytes the number of bytes read, or {@code -1} if the
+     * input is a {@link Reader}
+     */
+    public void progress(final long lines, final long statements, final long bytes);
+
+    /**
+     * Called when a line is skipped because it is malformed or its
+     * permission cannot be created.
+     *
+     * @param lineNumber the one-based number of the line
+     *
+     * @param line the line, truncated to {@link #MAXIMUM_LINE_LENGTH}
+     * characters; never {@code null}
+     *
+     * @param cause the problem with the line; never {@code null}
+     */
+    public void badLine(final long lineNumber, final String line, final Exception cause);
+
+  }
+
+  /**
+   * The {@link Listener} used when none is supplied, which logs
+   * progress at {@link Level#FINE} and bad lines at {@link
+   * Level#WARNING}.
+   */
+  private static final class LoggingListener implements Listener {
+
+    private LoggingListener() {
+      super();
+    }
+
+    @Override
+    public final void progress(final long lines, final long statements, final long bytes) {
+      final Logger logger = LOGGER;
+      if (logger != null && logger.isLoggable(Level.FINE)) {
+        logger.logp(Level.FINE, CLASS_NAME, "read", "Read {0} lines, {1} statements, {2} bytes", new Object[] { lines, statements, bytes });
+      }
+    }
+
+    @Override
+    public final void badLine(final long lineNumber, final String line, final Exception cause) {
+      final Logger logger = LOGGER;
+      if (logger != null && logger.isLoggable(Level.WARNING)) {
+        logger.logp(Level.WARNING, CLASS_NAME, "read", "Skipping bad line " + lineNumber + ": " + line, cause);
+      }
+    }
+
+  }
+
+  /**
+   * The state of one read of one input.
+   *
+   * <p>Instances of this class are not safe for use by concurrent
+   * threads.</p>
+   */
+  private final class Session {
+
+    private final Reader reader;
+
+    /**
+     * The {@link CountingInputStream} {@link #reader} reads from, or
+     * {@code null} if the input is a {@link Reader}.
+     */
+    private final CountingInputStream countingIn;
+
+    private final char[] buffer;
+
+    private int position;
+
+    private int limit;
+
+    /**
+     * Whether the last line ended with a carriage return, in which
+     * case a line feed immediately following it is skipped.
+     */
+    private boolean skipLineFeed;
+
+    private final StringBuilder line;
+
+    /**
+     * Whether the line just read was longer than {@link
+     * #MAXIMUM_LINE_LENGTH} characters.
+     */
+    private boolean overlong;
+
+    private final List<String> tokens;
+
+    /**
+     * Each usable {@link PermissionFactory} created so far, indexed by
+     * the permission class name as written in the input.
+     *
+     * <p>Factories for classes that could not be used are not kept,
+     * so that however many bad class names the input contains, this
+     * {@link Map} holds no more entries than there are permission
+     * classes to load.</p>
+     */
+    private final Map<String, PermissionFactory> permissionFactories;
+
+    private final ClassLoader classLoader;
+
+    /**
+     * The {@link PolicyConfiguration} named by the last {@code
+     * context} directive, or {@code null} if there is none or it has
+     * been committed.
+     */
+    private PolicyConfiguration policyConfiguration;
+
+    /**
+     * The statements read for {@link #policyConfiguration} but not
+     * yet added to it.
+     */
+    private final PolicyStatements statements;
+
+    private long lineNumber;
+
+    private long statementCount;
+
+    private long badLineCount;
+
+    private Session(final Reader reader, final CountingInputStream countingIn) {
+      super();
+      assert reader != null;
+      this.reader = reader;
+      this.countingIn = countingIn;
+      this.buffer = new char[8192];
+      this.line = new StringBuilder(128);
+      this.tokens = new ArrayList<String>(6);
+      this.permissionFactories = new HashMap<String, PermissionFactory>();
+      final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+      this.classLoader = contextClassLoader == null ? PolicyDefinitionReader.class.getClassLoader() : contextClassLoader;
+      this.statements = new PolicyStatements();
+    }
+
+    private final long run() throws IOException, PolicyContextException {
+      final Listener listener = PolicyDefinitionReader.this.listener;
+      String line;
+      while ((line = this.readLine()) != null) {
+        this.lineNumber++;
+        if (this.overlong) {
+          this.badLine(line, new IllegalArgumentException("Line longer than " + MAXIMUM_LINE_LENGTH + " characters"));
+        } else {
+          this.tokens.clear();
+          try {
+            tokenize(line, this.tokens);
+            if (!this.tokens.isEmpty()) {
+              this.process(this.tokens);
+            }
+          } catch (final IllegalArgumentException bad) {
+            this.badLine(line, bad);
+          } catch (final IllegalStateException bad) {
+            this.badLine(line, bad);
+          }
+        }
+        if (this.lineNumber % PROGRESS_INTERVAL == 0L) {
+          listener.progress(this.lineNumber, this.statementCount, this.bytes());
+        }
+      }
+      this.flush();
+      listener.progress(this.lineNumber, this.statementCount, this.bytes());
+      return this.statementCount;
+    }
+
+    private final long bytes() {
+      return this.countingIn == null ? -1L : this.countingIn.getCount();
+    }
+
+    private final void badLine(final String line, final Exception cause) throws IOException {
+      this.badLineCount++;
+      PolicyDefinitionReader.this.listener.badLine(this.lineNumber, line, cause);
+      if (this.badLineCount > PolicyDefinitionReader.this.maximumBadLines) {
+        throw new IOException("More than " + PolicyDefinitionReader.this.maximumBadLines + " bad lines; stopped at line " + this.lineNumber, cause);
+      }
+    }
+
+    /**
+     * Carries out the directive made up of the supplied tokens.
+     *
+     * @exception IllegalArgumentException if the directive is
+     * malformed
+     *
+     * @exception IllegalStateException if its permission cannot be
+     * created or there is no current {@link PolicyConfiguration}
+     */
+    private final void process(final List<String> tokens) throws PolicyContextException {
+      assert tokens != null;
+      final int size = tokens.size();
+      final String directive = tokens.get(0);
+      if ("role".equals(directive)) {
+        if (size < 4 || size > 5) {
+          throw new IllegalArgumentException("Expected: role roleName class name [actions]");
+        }
+        final Permission permission = this.permission(tokens, 2);
+        this.checkContext();
+        this.statements.addToRole(tokens.get(1), permission);
+      } else if ("excluded".equals(directive) || "unchecked".equals(directive)) {
+        if (size < 3 || size > 4) {
+          throw new IllegalArgumentException("Expected: " + directive + " class name [actions]");
+        }
+        final Permission permission = this.permission(tokens, 1);
+        this.checkContext();
+        if ("excluded".equals(directive)) {
+          this.statements.addToExcludedPolicy(permission);
+        } else {
+          this.statements.addToUncheckedPolicy(permission);
+        }
+      } else if ("context".equals(directive)) {
+        if (size < 2 || size > 3 || (size == 3 && !"append".equals(tokens.get(2)))) {
+          throw new IllegalArgumentException("Expected: context contextID [append]");
+        }
+        this.flush();
+        this.policyConfiguration = PolicyDefinitionReader.this.factory.getPolicyConfiguration(tokens.get(1), size == 2);
+        return;
+      } else if ("commit".equals(directive)) {
+        if (size != 1) {
+          throw new IllegalArgumentException("Expected: commit");
+        }
+        this.checkContext();
+        this.flush();
+        try {
+          this.policyConfiguration.commit();
+        } catch (final IllegalStateException kaboom) {
+          throw new PolicyContextException(kaboom);
+        }
+        this.policyConfiguration = null;
+        return;
+      } else {
+        throw new IllegalArgumentException("Unknown directive: " + directive);
+      }
+      this.statementCount++;
+      if (this.statements.size() >= BATCH_SIZE) {
+        this.flush();
+      }
+    }
+
+    private final void checkContext() {
+      if (this.policyConfiguration == null) {
+        throw new IllegalStateException("No context directive precedes this statement");
+      }
+    }
+
+    /**
+     * Creates the {@link Permission} described by the tokens from the
+     * supplied index onwards: a class name, a name and, optionally,
+     * actions.
+     *
+     * @exception IllegalStateException if the {@link Permission}
+     * cannot be created
+     */
+    private final Permission permission(final List<String> tokens, final int index) {
+      final String className = tokens.get(index);
+      PermissionFactory permissionFactory = this.permissionFactories.get(className);
+      if (permissionFactory == null) {
+        permissionFactory = new PermissionFactory(className.indexOf('.') < 0 ? "javax.security.jacc." + className : className, this.classLoader);
+        if (permissionFactory.problem == null) {
+          this.permissionFactories.put(className, permissionFactory);
+        }
+      }
+      return permissionFactory.newPermission(tokens.get(index + 1), index + 2 < tokens.size() ? tokens.get(index + 2) : null);
+    }
+
+    /**
+     * Adds the statements read so far to the current {@link
+     * PolicyConfiguration}.
+     *
+     * @exception PolicyContextException if the {@link
+     * PolicyConfiguration} could not be configured, including because
+     * it is no longer open
+     */
+    private final void flush() throws PolicyContextException {
+      final PolicyStatements statements = this.statements;
+      if (statements.isEmpty()) {
+        return;
+      }
+      final PolicyConfiguration policyConfiguration = this.policyConfiguration;
+      assert policyConfiguration != null;
+      if (policyConfiguration instanceof ConfigurablePolicyContext) {
+        try {
+          ((ConfigurablePolicyContext)policyConfiguration).addAll(statements);
+        } catch (final IllegalStateException kaboom) {
+          throw new PolicyContextException(kaboom);
+        }
+      } else {
+        for (final Permission p : statements.getExcludedPolicy()) {
+          policyConfiguration.addToExcludedPolicy(p);
+        }
+        for (final Permission p : statements.getUncheckedPolicy()) {
+          policyConfiguration.addToUncheckedPolicy(p);
+        }
+        for (final Map.Entry<String, List<Permission>> entry : statements.getRoles().entrySet()) {
+          final String roleName = entry.getKey();
+          for (final Permission p : entry.getValue()) {
+            policyConfiguration.addToRole(roleName, p);
+          }
+        }
+      }
+      statements.clear();
+    }
+
+    /**
+     * Reads the next line, which is truncated to {@link
+     * #MAXIMUM_LINE_LENGTH} characters if necessary, or returns
+     * {@code null} if the input has ended.
+     */
+    private final String readLine() throws IOException {
+      final StringBuilder line = this.line;
+      line.setLength(0);
+      this.overlong = false;
+      boolean any = false;
+      while (true) {
+        if (this.position >= this.limit) {
+          this.limit = this.reader.read(this.buffer, 0, this.buffer.length);
+          this.position = 0;
+          if (this.limit < 0) {
+            this.limit = 0;
+            return any ? line.toString() : null;
+          }
+        }
+        final char c = this.buffer[this.position++];
+        if (this.skipLineFeed) {
+          this.skipLineFeed = false;
+          if (c == '\n') {
+            continue;
+          }
+        }
+        if (c == '\n') {
+          return line.toString();
+        } else if (c == '\r') {
+          this.skipLineFeed = true;
+          return line.toString();
+        }
+        any = true;
+        if (line.length() < MAXIMUM_LINE_LENGTH) {
+          line.append(c);
+        } else {
+          this.overlong = true;
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Creates {@link Permission}s of one class through its public
+   * {@code (String, String)} and, if it has one, {@code (String)}
+   * constructors.
+   */
+  private static final class PermissionFactory {
+
+    private final String className;
+
+    /**
+     * The {@code (String, String)} constructor, or {@code null} if
+     * the class could not be loaded or has no such constructor.
+     */
+    private final Constructor<? extends Permission> nameAndActions;
+
+    /**
+     * The {@code (String)} constructor, or {@code null} if the class
+     * could not be loaded or has no such constructor.
+     */
+    private final Constructor<? extends Permission> nameOnly;
+
+    /**
+     * Why the class is unusable, or {@code null} if it is usable.
+     */
+    private final Exception problem;
+
+    private PermissionFactory(final String className, final ClassLoader classLoader) {
+      super();
+      assert className != null;
+      this.className = className;
+      Constructor<? extends Permission> nameAndActions = null;
+      Constructor<? extends Permission> nameOnly = null;
+      Exception problem = null;
+      try {
+        final Class<?> c = Class.forName(className, false, classLoader);
+        if (!Permission.class.isAssignableFrom(c)) {
+          throw new ClassCastException("Not a Permission class: " + className);
+        }
+        final Class<? extends Permission> permissionClass = c.asSubclass(Permission.class);
+        try {
+          nameAndActions = permissionClass.getConstructor(String.class, String.class);
+        } catch (final NoSuchMethodException ignore) {
+
+        }
+        try {
+          nameOnly = permissionClass.getConstructor(String.class);
+        } catch (final NoSuchMethodException ignore) {
+
+        }
+        if (nameAndActions == null && nameOnly == null) {
+          throw new NoSuchMethodException(className + ".<init>(String[, String])");
+        }
+      } catch (final ClassNotFoundException kaboom) {
+        problem = kaboom;
+      } catch (final ClassCastException kaboom) {
+        problem = kaboom;
+      } catch (final NoSuchMethodException kaboom) {
+        problem = kaboom;
+      } catch (final LinkageError kaboom) {
+        // For example, the web permission classes cannot be reflected
+        // upon without the servlet API.
+        problem = new ClassNotFoundException(className, kaboom);
+      }
+      this.nameAndActions = nameAndActions;
+      this.nameOnly = nameOnly;
+      this.problem = problem;
+    }
+
+    /**
+     * Creates a new {@link Permission}.
+     *
+     * @exception IllegalStateException if the {@link Permission}
+     * could not be created
+     */
+    private final Permission newPermission(final String name, final String actions) {
+      if (this.problem != null) {
+        throw new IllegalStateException(this.className, this.problem);
+      }
+      try {
+        if (actions == null && this.nameOnly != null) {
+          return this.nameOnly.newInstance(name);
+        } else if (this.nameAndActions != null) {
+          return this.nameAndActions.newInstance(name, actions);
+        } else {
+          throw new IllegalStateException(this.className + " takes no actions", new NoSuchMethodException(this.className + ".<init>(String, String)"));
+        }
+      } catch (final InstantiationException kaboom) {
+        throw new IllegalStateException(this.className, kaboom);
+      } catch (final IllegalAccessException kaboom) {
+        throw new IllegalStateException(this.className, kaboom);
+      } catch (final InvocationTargetException kaboom) {
+        throw new IllegalStateException(this.className, kaboom.getCause());
+      }
+    }
+
+  }
+
+  /**
+   * A {@link FilterInputStream} that counts the bytes read through
+   * it.
+   */
+  private static final class CountingInputStream extends FilterInputStream {
+
+    private long count;
+
+    private CountingInputStream(final InputStream in) {
+      super(in);
+    }
+
+    private final long getCount() {
+      return this.count;
+    }
+
+    @Override
+    public final int read() throws IOException {
+      final int returnValue = super.read();
+      if (returnValue >= 0) {
+        this.count++;
+      }
+      return returnValue;
+    }
+
+    @Override
+    public final int read(final byte[] bytes, final int offset, final int length) throws IOException {
+      final int returnValue = super.read(bytes, offset, length);
+      if (returnValue > 0) {
+        this.count += returnValue;
+      }
+      return returnValue;
+    }
+
+    @Override
+    public final long skip(final long n) throws IOException {
+      final long returnValue = super.skip(n);
+      this.count += returnValue;
+      return returnValue;
+    }
+
+    @Override
+    public final boolean markSupported() {
+      return false;
+    }
+
+  }
+
+}
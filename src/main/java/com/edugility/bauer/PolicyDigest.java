@@ -0,0 +1,199 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.nio.charset.Charset;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Permission;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The policy statements of a frozen {@link PolicyVersion}, identified
+ * by a SHA-256 digest of their content, together with the single
+ * {@link CommittedPolicy} built from them that every {@link
+ * ConfigurablePolicyContext} committing the same statements shares.
+ *
+ * <p>Two {@link PolicyDigest}s are {@linkplain #equals(Object) equal}
+ * if their digests are equal and their {@link PolicyVersion}s
+ * {@linkplain PolicyVersion#hasSameStatementsAs(PolicyVersion) hold
+ * the same statements} under the same role identifiers, so that a
+ * {@link ConfigurablePolicyContext} can {@linkplain Interner#intern(Object)
+ * intern} a new {@link PolicyDigest} to find the {@link
+ * CommittedPolicy} another has already built.  The digest covers each
+ * {@link Permission}'s class, name and actions in the order in which
+ * the {@link PolicyVersion}'s persistent maps hold them, so equal
+ * statements almost always have equal digests; when they do not,
+ * nothing is shared, which is merely wasteful.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ *
+ * @see ConfigurablePolicyContext#commit()
+ * @see CommittedPolicy#CommittedPolicy(PolicyDigest, long)
+ */
+final class PolicyDigest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The SHA-256 digest of the statements of {@link #version}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final byte[] digest;
+
+  private final int hashCode;
+
+  /**
+   * The frozen {@link PolicyVersion} whose statements were digested.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final PolicyVersion version;
+
+  /**
+   * The {@link CommittedPolicy} built from {@link #version}, or {@code
+   * null} until it is first {@linkplain #getCommittedPolicy()
+   * requested}; only accessed while this {@link PolicyDigest}'s
+   * monitor is held.
+   */
+  private CommittedPolicy committedPolicy;
+
+  /**
+   * Creates a new {@link PolicyDigest} by digesting the statements of
+   * the supplied {@link PolicyVersion}.
+   *
+   * <p>The cost is proportional to the number of statements.</p>
+   *
+   * @param version a frozen {@link PolicyVersion} whose role
+   * identifiers are not assigned by a {@link LinkGroup}; must not be
+   * {@code null}
+   */
+  PolicyDigest(final PolicyVersion version) {
+    super();
+    assert version != null;
+    assert version.getLinkGroup() == null;
+    final MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException noSha256) {
+      throw new IllegalStateException(noSha256);
+    }
+    update(md, version.getExcludedPolicy());
+    update(md, version.getUncheckedPolicy());
+    final PersistentHashMap<String, Integer> roleIds = version.getRoleIds();
+    for (final Map.Entry<String, PersistentHashMap<Permission, Permission>> entry : version.getRoles().entries()) {
+      final String roleName = entry.getKey();
+      update(md, roleName);
+      update(md, roleIds.get(roleName).intValue());
+      update(md, entry.getValue());
+    }
+    this.digest = md.digest();
+    this.hashCode = Arrays.hashCode(this.digest);
+    this.version = version;
+  }
+
+  private static final void update(final MessageDigest md, final PersistentHashMap<Permission, Permission> permissions) {
+    update(md, permissions.size());
+    for (final Permission p : permissions.keys()) {
+      update(md, p.getClass().getName());
+      update(md, p.getName());
+      update(md, p.getActions());
+    }
+  }
+
+  private static final void update(final MessageDigest md, final String s) {
+    if (s == null) {
+      update(md, -1);
+    } else {
+      final byte[] bytes = s.getBytes(UTF_8);
+      update(md, bytes.length);
+      md.update(bytes);
+    }
+  }
+
+  private static final void update(final MessageDigest md, final int i) {
+    md.update((byte)(i >>> 24));
+    md.update((byte)(i >>> 16));
+    md.update((byte)(i >>> 8));
+    md.update((byte)i);
+  }
+
+  /**
+   * Returns the frozen {@link PolicyVersion} whose statements were
+   * digested.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, frozen {@link PolicyVersion}
+   */
+  final PolicyVersion getPolicyVersion() {
+    return this.version;
+  }
+
+  /**
+   * Returns the {@link CommittedPolicy} built from this {@link
+   * PolicyDigest}'s {@link PolicyVersion}, building it if it has not
+   * yet been built.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link CommittedPolicy}
+   */
+  final synchronized CommittedPolicy getCommittedPolicy() {
+    if (this.committedPolicy == null) {
+      this.committedPolicy = new CommittedPolicy(this.version, null);
+    }
+    return this.committedPolicy;
+  }
+
+  @Override
+  public final int hashCode() {
+    return this.hashCode;
+  }
+
+  @Override
+  public final boolean equals(final Object other) {
+    if (other == this) {
+      return true;
+    } else if (other instanceof PolicyDigest) {
+      final PolicyDigest her = (PolicyDigest)other;
+      return
+        this.hashCode == her.hashCode &&
+        Arrays.equals(this.digest, her.digest) &&
+        this.version.hasSameStatementsAs(her.version);
+    } else {
+      return false;
+    }
+  }
+
+}
@@ -0,0 +1,1129 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.charset.Charset;
+
+import java.security.Permission;
+import java.security.PermissionCollection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.security.jacc.EJBMethodPermission;
+import javax.security.jacc.EJBRoleRefPermission;
+import javax.security.jacc.WebResourcePermission;
+import javax.security.jacc.WebRoleRefPermission;
+import javax.security.jacc.WebUserDataPermission;
+
+/**
+ * A compact binary image of a {@link CommittedPolicy} that can be
+ * {@linkplain #write(String, CommittedPolicy, File) written} to a
+ * file and later {@linkplain #read(File) read back} by memory-mapping
+ * it, so that a policy context can be put back in service at startup
+ * without rebuilding it from deployment descriptors.
+ *
+ * <p>Reading a {@link PolicySnapshot} decodes only its header and the
+ * names of its roles.  The {@link CommittedPolicy} it {@linkplain
+ * #getCommittedPolicy() returns} is usable at once; each of its parts
+ * (the excluded policy, the unchecked policy, the policy of each
+ * role, and the role grants of each permission class) is decoded
+ * from the mapped file, and indexed, only when it is first
+ * consulted.  The {@link ExclusionFilter} computed over the excluded
+ * policy is stored as is, so a permission that is not excluded is
+ * dismissed without decoding the excluded policy at all.</p>
+ *
+ * <h2>Format</h2>
+ *
+ * <p>All numbers are big-endian.  A snapshot begins with a fixed
+ * header of {@code int}s: a magic number, the format version, the
+ * string index of the policy context identifier, and the count and
+ * offset of each of the tables and sections that follow.  Strings
+ * are stored once each, as UTF-8, and referred to by index.  Each
+ * {@link Permission} is stored once, either as the names of its
+ * class, name and actions, from which it is recreated by its public
+ * {@code (String, String)} or {@code (String)} constructor just as a
+ * {@link java.security.UnresolvedPermission} would be, or, if that
+ * does not recreate an equal {@link Permission}, in Java
+ * serialization form.  Sections are lists of permission indexes;
+ * role grants are lists of permission indexes paired with
+ * {@linkplain RoleTable role bitsets}.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * concurrent threads.</p>
+ *
+ * @see PolicyConfigurationFactory#loadSnapshot(File)
+ *
+ * @see PolicyConfigurationFactory#saveSnapshot(String, File)
+ */
+public final class PolicySnapshot {
+
+  /**
+   * The first four bytes of every snapshot: {@code BAUR} in ASCII.
+   */
+  private static final int MAGIC = 0x42415552;
+
+  /**
+   * The version of the format written by this class.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * The size of the header in bytes.
+   */
+  private static final int HEADER_SIZE = 15 * 4;
+
+  /**
+   * The size of an entry in the permission table in bytes.
+   */
+  private static final int PERMISSION_RECORD_SIZE = 4 * 4;
+
+  /**
+   * The kind of a {@link Permission} recreated by its {@code (String,
+   * String)} constructor.
+   */
+  private static final int NAME_AND_ACTIONS = 0;
+
+  /**
+   * The kind of a {@link Permission} recreated by its {@code (String)}
+   * constructor.
+   */
+  private static final int NAME_ONLY = 1;
+
+  /**
+   * The kind of a {@link Permission} stored in Java serialization
+   * form.
+   */
+  private static final int SERIALIZED = 2;
+
+  /**
+   * The offset or index recorded for something that is absent.
+   */
+  private static final int ABSENT = -1;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The mapped snapshot, positioned at its start.
+   *
+   * <p>Only absolute reads, or reads through a {@linkplain
+   * ByteBuffer#duplicate() duplicate}, are made, so this buffer is
+   * never modified.</p>
+   */
+  private final ByteBuffer buffer;
+
+  /**
+   * The {@link ClassLoader} used to load permission classes, captured
+   * when this {@link PolicySnapshot} was read; may be {@code null}.
+   */
+  private final ClassLoader classLoader;
+
+  private final int stringCount;
+
+  private final int stringTableOffset;
+
+  private final int permissionCount;
+
+  private final int permissionTableOffset;
+
+  /**
+   * Strings decoded so far, indexed by string index.
+   */
+  private final AtomicReferenceArray<String> strings;
+
+  /**
+   * {@link Permission}s decoded so far, indexed by permission index.
+   */
+  private final AtomicReferenceArray<Permission> permissions;
+
+  /**
+   * The offsets of the role grants of each permission class, indexed
+   * by class name.
+   */
+  private final Map<String, Integer> grantOffsets;
+
+  private final String contextId;
+
+  private final CommittedPolicy committedPolicy;
+
+  /**
+   * Creates a new {@link PolicySnapshot} over the supplied mapped
+   * buffer.
+   *
+   * <p>Every table and section is checked here, before anything is
+   * put into service, so that a corrupt snapshot is rejected with an
+   * {@link IOException} rather than failing later on every check that
+   * consults the corrupt part.  Permission classes recorded by name
+   * are resolved here for the same reason.</p>
+   *
+   * @exception IOException if the buffer does not hold a valid
+   * snapshot
+   */
+  private PolicySnapshot(final ByteBuffer buffer) throws IOException {
+    super();
+    assert buffer != null;
+    this.buffer = buffer;
+    final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    this.classLoader = contextClassLoader == null ? PolicySnapshot.class.getClassLoader() : contextClassLoader;
+    try {
+      final int limit = buffer.limit();
+      if (limit < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a policy snapshot");
+      }
+      final int version = buffer.getInt(4);
+      if (version != VERSION) {
+        throw new IOException("Unsupported policy snapshot version: " + version);
+      }
+      final int contextIdIndex = buffer.getInt(8);
+      this.stringCount = buffer.getInt(12);
+      this.stringTableOffset = this.checkTable(buffer.getInt(16), this.stringCount, 4);
+      this.permissionCount = buffer.getInt(20);
+      this.permissionTableOffset = this.checkTable(buffer.getInt(24), this.permissionCount, PERMISSION_RECORD_SIZE);
+      final int excludedOffset = this.checkSection(buffer.getInt(28));
+      final int filterOffset = buffer.getInt(32);
+      final int uncheckedOffset = this.checkSection(buffer.getInt(36));
+      final int roleCount = buffer.getInt(40);
+      final int roleTableOffset = this.checkTable(buffer.getInt(44), roleCount, 8);
+      final int unindexedRolesOffset = buffer.getInt(48);
+      final int grantClassCount = buffer.getInt(52);
+      final int grantTableOffset = this.checkTable(buffer.getInt(56), grantClassCount, 8);
+      this.strings = new AtomicReferenceArray<String>(this.stringCount);
+      this.permissions = new AtomicReferenceArray<Permission>(this.permissionCount);
+
+      this.checkStrings();
+      if (this.checkString(contextIdIndex) == ABSENT) {
+        throw new IOException("Missing policy context identifier");
+      }
+      this.checkPermissions();
+
+      final Map<String, Integer> grantOffsets = new HashMap<String, Integer>(grantClassCount * 4 / 3 + 1);
+      for (int i = 0; i < grantClassCount; i++) {
+        final int entry = grantTableOffset + i * 8;
+        final int classNameIndex = this.checkString(buffer.getInt(entry));
+        if (classNameIndex == ABSENT) {
+          throw new IOException("Corrupt policy snapshot");
+        }
+        grantOffsets.put(this.getString(classNameIndex), Integer.valueOf(this.checkGrants(buffer.getInt(entry + 4))));
+      }
+      this.grantOffsets = grantOffsets;
+
+      final ImmutablePermissions excludedPolicy = new ImmutablePermissions(new Section(this, excludedOffset));
+      final ExclusionFilter exclusionFilter;
+      if (filterOffset == ABSENT) {
+        exclusionFilter = null;
+      } else {
+        try {
+          exclusionFilter = new ExclusionFilter(this.getLongs(filterOffset));
+        } catch (final IllegalArgumentException kaboom) {
+          throw (IOException)new IOException("Corrupt policy snapshot").initCause(kaboom);
+        }
+      }
+      final ImmutablePermissions uncheckedPolicy = new ImmutablePermissions(new Section(this, uncheckedOffset));
+
+      final List<String> roleNames = new ArrayList<String>(roleCount);
+      final Map<String, ImmutablePermissions> perRolePolicy = new LinkedHashMap<String, ImmutablePermissions>(roleCount * 4 / 3 + 1);
+      final PermissionCollection[] rolePolicies = new PermissionCollection[roleCount];
+      for (int id = 0; id < roleCount; id++) {
+        final int entry = roleTableOffset + id * 8;
+        final String roleName = this.getString(this.checkString(buffer.getInt(entry)));
+        if (roleName == null || perRolePolicy.containsKey(roleName)) {
+          throw new IOException("Corrupt policy snapshot");
+        }
+        final ImmutablePermissions rolePolicy = new ImmutablePermissions(new Section(this, this.checkSection(buffer.getInt(entry + 4))));
+        roleNames.add(roleName);
+        perRolePolicy.put(roleName, rolePolicy);
+        rolePolicies[id] = rolePolicy;
+      }
+      final RoleTable roleTable = new RoleTable(roleNames);
+      final RoleGrantIndex roleGrantIndex;
+      if (roleCount == 0) {
+        roleGrantIndex = null;
+      } else {
+        final long[] unindexedRoles = this.getLongs(unindexedRolesOffset);
+        if (unindexedRoles.length != roleTable.newBits().length) {
+          throw new IOException("Corrupt policy snapshot");
+        }
+        for (final Integer grantOffset : grantOffsets.values()) {
+          if (buffer.getInt(grantOffset.intValue() + 4) != unindexedRoles.length) {
+            throw new IOException("Corrupt policy snapshot");
+          }
+        }
+        roleGrantIndex = new RoleGrantIndex(rolePolicies, unindexedRoles, this);
+      }
+      this.committedPolicy = new CommittedPolicy(excludedPolicy, exclusionFilter, uncheckedPolicy, Collections.unmodifiableMap(perRolePolicy), roleTable, roleGrantIndex);
+      this.contextId = this.getString(contextIdIndex);
+    } catch (final RuntimeException kaboom) {
+      // Nothing unchecked may escape for a corrupt file.
+      throw (IOException)new IOException("Corrupt policy snapshot").initCause(kaboom);
+    }
+  }
+
+  /**
+   * Returns the identifier of the policy context this {@link
+   * PolicySnapshot} was written from.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} policy context identifier
+   */
+  public final String getContextID() {
+    return this.contextId;
+  }
+
+  /**
+   * Returns the {@link CommittedPolicy} recorded by this {@link
+   * PolicySnapshot}, whose parts are decoded as they are first
+   * consulted.
+   *
+   * <p>The structure of every part, and the permission classes
+   * recorded by name, were checked when this {@link PolicySnapshot}
+   * was read.  A part that still cannot be decoded, because a
+   * permission's constructor rejects its recorded name or actions or
+   * a serialized permission cannot be deserialized, causes an {@link
+   * IllegalStateException} when it is first consulted.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} {@link CommittedPolicy}
+   */
+  public final CommittedPolicy getCommittedPolicy() {
+    return this.committedPolicy;
+  }
+
+  /**
+   * Returns a new {@link PermissionIndex} over the role grants of the
+   * supplied permission class, or {@code null} if this {@link
+   * PolicySnapshot} records none.
+   *
+   * @param c the permission class; must not be {@code null}
+   *
+   * @return a new {@link PermissionIndex}, or {@code null}
+   *
+   * @exception IllegalStateException if the grants cannot be decoded
+   */
+  final PermissionIndex getGrantIndex(final Class<?> c) {
+    assert c != null;
+    final Integer offset = this.grantOffsets.get(c.getName());
+    if (offset == null) {
+      return null;
+    }
+    final ByteBuffer buffer = this.buffer;
+    int position = offset.intValue();
+    final int count = buffer.getInt(position);
+    final int words = buffer.getInt(position + 4);
+    position += 8;
+    final Permission[] permissions = new Permission[count];
+    final long[][] roles = new long[count][];
+    for (int i = 0; i < count; i++) {
+      permissions[i] = this.getPermission(buffer.getInt(position));
+      position += 4;
+      final long[] bits = new long[words];
+      for (int w = 0; w < words; w++) {
+        bits[w] = buffer.getLong(position);
+        position += 8;
+      }
+      roles[i] = bits;
+    }
+    return PermissionIndex.of(permissions, roles);
+  }
+
+  /**
+   * Returns the {@link Permission} with the supplied index, decoding
+   * it if it has not been decoded before.
+   *
+   * @param index the permission index
+   *
+   * @return the {@link Permission}; never {@code null}
+   *
+   * @exception IllegalStateException if the {@link Permission} cannot
+   * be decoded
+   */
+  private final Permission getPermission(final int index) {
+    if (index < 0 || index >= this.permissionCount) {
+      throw new IllegalStateException("Corrupt policy snapshot: permission index " + index);
+    }
+    Permission returnValue = this.permissions.get(index);
+    if (returnValue == null) {
+      final ByteBuffer buffer = this.buffer;
+      final int record = this.permissionTableOffset + index * PERMISSION_RECORD_SIZE;
+      final int kind = buffer.getInt(record);
+      try {
+        if (kind == SERIALIZED) {
+          returnValue = this.deserialize(buffer.getInt(record + 4), buffer.getInt(record + 8));
+        } else {
+          final String className = this.getString(buffer.getInt(record + 4));
+          final String name = this.getString(buffer.getInt(record + 8));
+          final String actions = this.getString(buffer.getInt(record + 12));
+          final Class<?> c = Class.forName(className, false, this.classLoader);
+          returnValue = instantiate(c, kind == NAME_ONLY, name, actions);
+        }
+      } catch (final IOException kaboom) {
+        throw new IllegalStateException("Could not decode permission " + index, kaboom);
+      } catch (final ClassNotFoundException kaboom) {
+        throw new IllegalStateException("Could not decode permission " + index, kaboom);
+      }
+      if (returnValue == null) {
+        throw new IllegalStateException("Could not decode permission " + index);
+      }
+      this.permissions.set(index, returnValue);
+    }
+    return returnValue;
+  }
+
+  private final Permission deserialize(final int offset, final int length) throws IOException, ClassNotFoundException {
+    final byte[] bytes = this.getBytes(offset, length);
+    final ClassLoader classLoader = this.classLoader;
+    final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+        @Override
+        protected final Class<?> resolveClass(final ObjectStreamClass description) throws IOException, ClassNotFoundException {
+          try {
+            return Class.forName(description.getName(), false, classLoader);
+          } catch (final ClassNotFoundException notVisible) {
+            return super.resolveClass(description);
+          }
+        }
+      };
+    try {
+      final Object returnValue;
+      try {
+        returnValue = in.readObject();
+        if (returnValue instanceof Permission) {
+          // readObject() methods validate as they see fit, so make
+          // sure the result can at least be hashed and checked
+          // before it ends up in a grant index.
+          final Permission permission = (Permission)returnValue;
+          permission.hashCode();
+          permission.implies(permission);
+        }
+      } catch (final RuntimeException kaboom) {
+        throw (IOException)new IOException("Could not deserialize permission").initCause(kaboom);
+      }
+      if (!(returnValue instanceof Permission)) {
+        throw new IOException("Not a Permission: " + returnValue);
+      }
+      return (Permission)returnValue;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns the string with the supplied index, decoding it if it has
+   * not been decoded before, or {@code null} if the index is {@link
+   * #ABSENT}.
+   */
+  private final String getString(final int index) {
+    if (index == ABSENT) {
+      return null;
+    }
+    if (index < 0 || index >= this.stringCount) {
+      throw new IllegalStateException("Corrupt policy snapshot: string index " + index);
+    }
+    String returnValue = this.strings.get(index);
+    if (returnValue == null) {
+      final int offset = this.buffer.getInt(this.stringTableOffset + index * 4);
+      if (offset < 0 || offset > this.buffer.limit() - 4) {
+        throw new IllegalStateException("Corrupt policy snapshot: string offset " + offset);
+      }
+      returnValue = new String(this.getBytes(offset + 4, this.buffer.getInt(offset)), UTF_8);
+      this.strings.set(index, returnValue);
+    }
+    return returnValue;
+  }
+
+  private final byte[] getBytes(final int offset, final int length) {
+    if (offset < 0 || length < 0 || offset > this.buffer.limit() - length) {
+      throw new IllegalStateException("Corrupt policy snapshot: " + length + " bytes at " + offset);
+    }
+    final byte[] returnValue = new byte[length];
+    final ByteBuffer duplicate = this.buffer.duplicate();
+    duplicate.position(offset);
+    duplicate.get(returnValue);
+    return returnValue;
+  }
+
+  private final long[] getLongs(final int offset) throws IOException {
+    final ByteBuffer buffer = this.buffer;
+    if (offset < 0 || offset > buffer.limit() - 4) {
+      throw new IOException("Corrupt policy snapshot");
+    }
+    final int length = buffer.getInt(offset);
+    if (length < 0 || length > (buffer.limit() - offset - 4) / 8) {
+      throw new IOException("Corrupt policy snapshot");
+    }
+    final long[] returnValue = new long[length];
+    for (int i = 0; i < length; i++) {
+      returnValue[i] = buffer.getLong(offset + 4 + i * 8);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Checks that every entry in the string table refers to bytes
+   * within the snapshot.
+   */
+  private final void checkStrings() throws IOException {
+    final ByteBuffer buffer = this.buffer;
+    final int limit = buffer.limit();
+    for (int i = 0; i < this.stringCount; i++) {
+      final int offset = buffer.getInt(this.stringTableOffset + i * 4);
+      if (offset < 0 || offset > limit - 4) {
+        throw new IOException("Corrupt policy snapshot: string offset " + offset);
+      }
+      final int length = buffer.getInt(offset);
+      if (length < 0 || length > limit - offset - 4) {
+        throw new IOException("Corrupt policy snapshot: string length " + length);
+      }
+    }
+  }
+
+  /**
+   * Returns the supplied string index if it is {@link #ABSENT} or
+   * within the string table.
+   */
+  private final int checkString(final int index) throws IOException {
+    if (index != ABSENT && (index < 0 || index >= this.stringCount)) {
+      throw new IOException("Corrupt policy snapshot: string index " + index);
+    }
+    return index;
+  }
+
+  /**
+   * Returns the supplied permission index if it is within the
+   * permission table.
+   */
+  private final int checkPermission(final int index) throws IOException {
+    if (index < 0 || index >= this.permissionCount) {
+      throw new IOException("Corrupt policy snapshot: permission index " + index);
+    }
+    return index;
+  }
+
+  /**
+   * Checks every record in the permission table, and resolves the
+   * constructor of each distinct permission class recorded by
+   * name.
+   */
+  private final void checkPermissions() throws IOException {
+    final ByteBuffer buffer = this.buffer;
+    // Keyed by class name index and kind.
+    final Map<Integer, Boolean> constructors = new HashMap<Integer, Boolean>();
+    for (int i = 0; i < this.permissionCount; i++) {
+      final int record = this.permissionTableOffset + i * PERMISSION_RECORD_SIZE;
+      final int kind = buffer.getInt(record);
+      if (kind == SERIALIZED) {
+        final int offset = buffer.getInt(record + 4);
+        final int length = buffer.getInt(record + 8);
+        if (offset < 0 || length < 0 || offset > buffer.limit() - length) {
+          throw new IOException("Corrupt policy snapshot: " + length + " bytes at " + offset);
+        }
+      } else if (kind == NAME_AND_ACTIONS || kind == NAME_ONLY) {
+        final int classNameIndex = this.checkString(buffer.getInt(record + 4));
+        final int nameIndex = this.checkString(buffer.getInt(record + 8));
+        this.checkString(buffer.getInt(record + 12));
+        if (classNameIndex == ABSENT || nameIndex == ABSENT) {
+          throw new IOException("Corrupt policy snapshot: permission " + i);
+        }
+        if (constructors.put(Integer.valueOf(classNameIndex * 2 + kind), Boolean.TRUE) == null) {
+          final String className = this.getString(classNameIndex);
+          try {
+            final Class<?> c = Class.forName(className, false, this.classLoader);
+            if (!Permission.class.isAssignableFrom(c)) {
+              throw new IOException("Not a Permission class: " + className);
+            }
+            if (kind == NAME_ONLY) {
+              c.getConstructor(String.class);
+            } else if (!isJaccPermissionClass(c)) {
+              c.getConstructor(String.class, String.class);
+            }
+          } catch (final ClassNotFoundException kaboom) {
+            throw (IOException)new IOException("Permission class not found: " + className).initCause(kaboom);
+          } catch (final NoSuchMethodException kaboom) {
+            throw (IOException)new IOException("Permission constructor not found: " + className).initCause(kaboom);
+          } catch (final LinkageError kaboom) {
+            throw (IOException)new IOException("Permission class could not be linked: " + className).initCause(kaboom);
+          }
+        }
+      } else {
+        throw new IOException("Corrupt policy snapshot: permission kind " + kind);
+      }
+    }
+  }
+
+  private final int checkTable(final int offset, final int count, final int recordSize) throws IOException {
+    if (offset < 0 || count < 0 || count > (this.buffer.limit() - offset) / recordSize) {
+      throw new IOException("Corrupt policy snapshot");
+    }
+    return offset;
+  }
+
+  private final int checkSection(final int offset) throws IOException {
+    if (offset < 0 || offset > this.buffer.limit() - 4) {
+      throw new IOException("Corrupt policy snapshot");
+    }
+    final int count = this.buffer.getInt(offset);
+    this.checkTable(offset + 4, count, 4);
+    for (int i = 0; i < count; i++) {
+      this.checkPermission(this.buffer.getInt(offset + 4 + i * 4));
+    }
+    return offset;
+  }
+
+  private final int checkGrants(final int offset) throws IOException {
+    if (offset < 0 || offset > this.buffer.limit() - 8) {
+      throw new IOException("Corrupt policy snapshot");
+    }
+    final int count = this.buffer.getInt(offset);
+    final int words = this.buffer.getInt(offset + 4);
+    if (words < 0 || words > 1 << 24) {
+      throw new IOException("Corrupt policy snapshot");
+    }
+    final int recordSize = 4 + words * 8;
+    this.checkTable(offset + 8, count, recordSize);
+    for (int i = 0; i < count; i++) {
+      this.checkPermission(this.buffer.getInt(offset + 8 + i * recordSize));
+    }
+    return offset;
+  }
+
+  /**
+   * Reads a {@link PolicySnapshot} by memory-mapping the supplied
+   * file.
+   *
+   * <p>Only the header and role names are decoded; everything else
+   * is decoded from the mapping when it is first needed.  The file
+   * must therefore not be modified or truncated while the returned
+   * {@link PolicySnapshot} is in use; {@link #write(String,
+   * CommittedPolicy, File)} replaces files rather than overwriting
+   * them for this reason.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param file the file to read; must not be {@code null}
+   *
+   * @return a new, non-{@code null} {@link PolicySnapshot}
+   *
+   * @exception IOException if the file cannot be read or is not a
+   * valid snapshot
+   *
+   * @exception IllegalArgumentException if {@code file} is {@code
+   * null}
+   */
+  public static final PolicySnapshot read(final File file) throws IOException {
+    if (file == null) {
+      throw new IllegalArgumentException("file", new NullPointerException("file"));
+    }
+    final ByteBuffer buffer;
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = randomAccessFile.getChannel();
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Policy snapshot too large: " + file);
+      }
+      // The mapping remains valid after the channel is closed.
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+    } finally {
+      randomAccessFile.close();
+    }
+    return new PolicySnapshot(buffer);
+  }
+
+  /**
+   * Writes a snapshot of the supplied {@link CommittedPolicy} to the
+   * supplied file, replacing it if it exists.
+   *
+   * <p>The snapshot is written to a temporary file in the same
+   * directory that is then renamed, so a reader never sees a partly
+   * written snapshot and an existing mapping of the old file is left
+   * intact.</p>
+   *
+   * @param contextId the identifier of the policy context whose
+   * {@link CommittedPolicy} is being written; must not be {@code
+   * null}
+   *
+   * @param committedPolicy the {@link CommittedPolicy} to write; must
+   * not be {@code null}
+   *
+   * @param file the file to write; must not be {@code null}
+   *
+   * @exception IOException if the file cannot be written, or if a
+   * {@link Permission} can neither be recreated from its class name,
+   * name and actions nor serialized
+   *
+   * @exception IllegalArgumentException if any parameter is {@code
+   * null}
+   */
+  public static final void write(final String contextId, final CommittedPolicy committedPolicy, final File file) throws IOException {
+    if (contextId == null) {
+      throw new IllegalArgumentException("contextId", new NullPointerException("contextId"));
+    }
+    if (committedPolicy == null) {
+      throw new IllegalArgumentException("committedPolicy", new NullPointerException("committedPolicy"));
+    }
+    if (file == null) {
+      throw new IllegalArgumentException("file", new NullPointerException("file"));
+    }
+    final byte[] bytes = new Writer().write(contextId, committedPolicy);
+    final File directory = file.getAbsoluteFile().getParentFile();
+    final File temporaryFile = File.createTempFile("." + file.getName() + ".", ".tmp", directory);
+    boolean renamed = false;
+    try {
+      final FileOutputStream out = new FileOutputStream(temporaryFile);
+      try {
+        out.write(bytes);
+        out.getFD().sync();
+      } finally {
+        out.close();
+      }
+      renamed = temporaryFile.renameTo(file);
+      if (!renamed && file.delete()) {
+        renamed = temporaryFile.renameTo(file);
+      }
+      if (!renamed) {
+        throw new IOException("Could not rename " + temporaryFile + " to " + file);
+      }
+    } finally {
+      if (!renamed) {
+        temporaryFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Creates a {@link Permission} of the supplied class through its
+   * public {@code (String, String)} or {@code (String)} constructor.
+   *
+   * <p>The JACC permission classes are instantiated directly rather
+   * than reflectively: reflecting on a JACC web permission class
+   * fails with a {@link NoClassDefFoundError} when the servlet API
+   * is absent, since some of its constructors take servlet
+   * requests.  For the same reason any other {@link LinkageError} is
+   * reported as an {@link IllegalStateException}.</p>
+   *
+   * @exception IllegalStateException if the {@link Permission} could
+   * not be created
+   */
+  private static final Permission instantiate(final Class<?> c, final boolean nameOnly, final String name, final String actions) {
+    if (!Permission.class.isAssignableFrom(c)) {
+      throw new IllegalStateException("Not a Permission class: " + c.getName());
+    }
+    if (!nameOnly && isJaccPermissionClass(c)) {
+      try {
+        if (c == WebResourcePermission.class) {
+          return new WebResourcePermission(name, actions);
+        } else if (c == WebUserDataPermission.class) {
+          return new WebUserDataPermission(name, actions);
+        } else if (c == WebRoleRefPermission.class) {
+          return new WebRoleRefPermission(name, actions);
+        } else if (c == EJBMethodPermission.class) {
+          return new EJBMethodPermission(name, actions);
+        } else {
+          return new EJBRoleRefPermission(name, actions);
+        }
+      } catch (final RuntimeException kaboom) {
+        throw new IllegalStateException(c.getName(), kaboom);
+      }
+    }
+    final Object returnValue;
+    try {
+      if (nameOnly) {
+        final Constructor<?> constructor = c.getConstructor(String.class);
+        returnValue = constructor.newInstance(name);
+      } else {
+        final Constructor<?> constructor = c.getConstructor(String.class, String.class);
+        returnValue = constructor.newInstance(name, actions);
+      }
+    } catch (final NoSuchMethodException kaboom) {
+      throw new IllegalStateException(c.getName(), kaboom);
+    } catch (final InstantiationException kaboom) {
+      throw new IllegalStateException(c.getName(), kaboom);
+    } catch (final IllegalAccessException kaboom) {
+      throw new IllegalStateException(c.getName(), kaboom);
+    } catch (final InvocationTargetException kaboom) {
+      throw new IllegalStateException(c.getName(), kaboom.getCause());
+    } catch (final LinkageError kaboom) {
+      throw new IllegalStateException(c.getName(), kaboom);
+    }
+    return (Permission)returnValue;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Class} is one of the
+   * JACC permission classes, all of which have a public {@code
+   * (String, String)} constructor that {@link #instantiate(Class,
+   * boolean, String, String)} calls directly.
+   */
+  private static final boolean isJaccPermissionClass(final Class<?> c) {
+    return
+      c == WebResourcePermission.class ||
+      c == WebUserDataPermission.class ||
+      c == WebRoleRefPermission.class ||
+      c == EJBMethodPermission.class ||
+      c == EJBRoleRefPermission.class;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A list of {@link Permission}s in a {@link PolicySnapshot}, such
+   * as the excluded policy or the policy of one role.
+   *
+   * <p>Instances of this class are immutable and safe for use by
+   * concurrent threads.</p>
+   *
+   * @see ImmutablePermissions#ImmutablePermissions(PolicySnapshot.Section)
+   */
+  static final class Section {
+
+    private final PolicySnapshot snapshot;
+
+    /**
+     * The offset of the section: an {@code int} count followed by
+     * that many {@code int} permission indexes.
+     */
+    private final int offset;
+
+    private Section(final PolicySnapshot snapshot, final int offset) {
+      super();
+      assert snapshot != null;
+      this.snapshot = snapshot;
+      this.offset = offset;
+    }
+
+    /**
+     * Returns the number of {@link Permission}s in this {@link
+     * Section} without decoding any of them.
+     *
+     * @return the number of {@link Permission}s
+     */
+    final int size() {
+      return this.snapshot.buffer.getInt(this.offset);
+    }
+
+    /**
+     * Decodes and returns the {@link Permission}s in this {@link
+     * Section}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a new, non-{@code null} array of non-{@code null}
+     * {@link Permission}s
+     *
+     * @exception IllegalStateException if a {@link Permission} cannot
+     * be decoded
+     */
+    final Permission[] permissions() {
+      final ByteBuffer buffer = this.snapshot.buffer;
+      final Permission[] returnValue = new Permission[this.size()];
+      for (int i = 0; i < returnValue.length; i++) {
+        returnValue[i] = this.snapshot.getPermission(buffer.getInt(this.offset + 4 + i * 4));
+      }
+      return returnValue;
+    }
+
+  }
+
+  /**
+   * Encodes a {@link CommittedPolicy} in the snapshot format.
+   *
+   * <p>Instances of this class are not safe for use by concurrent
+   * threads and are used once.</p>
+   */
+  private static final class Writer {
+
+    private final Map<String, Integer> strings;
+
+    private final Map<Permission, Integer> permissions;
+
+    /**
+     * The permission table, four {@code int}s per {@link Permission}.
+     */
+    private final List<int[]> permissionRecords;
+
+    /**
+     * Everything after the header.
+     */
+    private final ByteArrayOutputStream bytes;
+
+    private final DataOutputStream out;
+
+    private Writer() {
+      super();
+      this.strings = new LinkedHashMap<String, Integer>();
+      this.permissions = new HashMap<Permission, Integer>();
+      this.permissionRecords = new ArrayList<int[]>();
+      this.bytes = new ByteArrayOutputStream();
+      this.out = new DataOutputStream(this.bytes);
+    }
+
+    private final byte[] write(final String contextId, final CommittedPolicy committedPolicy) throws IOException {
+      final int contextIdIndex = this.string(contextId);
+
+      final int excludedOffset = this.section(committedPolicy.getExcludedPolicy());
+      final ExclusionFilter exclusionFilter = committedPolicy.getExclusionFilter();
+      final int filterOffset = exclusionFilter == null ? ABSENT : this.longs(exclusionFilter.getBits());
+      final int uncheckedOffset = this.section(committedPolicy.getUncheckedPolicy());
+
+      final Map<String, ? extends PermissionCollection> perRolePolicy = committedPolicy.getRoles();
+      // Role identifiers are renumbered densely, leaving out any
+      // that a versioned policy context has retired.
+      final RoleTable roleTable = new RoleTable(perRolePolicy.keySet());
+      final int roleCount = roleTable.size();
+      final int[] roleRecords = new int[roleCount * 2];
+      for (int id = 0; id < roleCount; id++) {
+        final String roleName = roleTable.nameOf(id);
+        roleRecords[id * 2] = this.string(roleName);
+        roleRecords[id * 2 + 1] = this.section(perRolePolicy.get(roleName));
+      }
+
+      final long[] unindexedRoles = roleTable.newBits();
+      final Map<Class<?>, Map<Permission, long[]>> grants = RoleGrantIndex.group(roleTable, perRolePolicy, unindexedRoles);
+      final int unindexedRolesOffset = this.longs(unindexedRoles);
+      final int[] grantRecords = new int[grants.size() * 2];
+      int g = 0;
+      for (final Map.Entry<Class<?>, Map<Permission, long[]>> entry : grants.entrySet()) {
+        final Map<Permission, long[]> permissions = entry.getValue();
+        final int[] indexes = new int[permissions.size()];
+        int i = 0;
+        for (final Permission permission : permissions.keySet()) {
+          indexes[i++] = this.permission(permission);
+        }
+        grantRecords[g * 2] = this.string(entry.getKey().getName());
+        grantRecords[g * 2 + 1] = this.offset();
+        this.out.writeInt(indexes.length);
+        this.out.writeInt(unindexedRoles.length);
+        i = 0;
+        for (final long[] roles : permissions.values()) {
+          this.out.writeInt(indexes[i++]);
+          for (final long word : roles) {
+            this.out.writeLong(word);
+          }
+        }
+        g++;
+      }
+
+      final int roleTableOffset = this.offset();
+      for (final int value : roleRecords) {
+        this.out.writeInt(value);
+      }
+      final int grantTableOffset = this.offset();
+      for (final int value : grantRecords) {
+        this.out.writeInt(value);
+      }
+      final int permissionTableOffset = this.offset();
+      for (final int[] record : this.permissionRecords) {
+        for (final int value : record) {
+          this.out.writeInt(value);
+        }
+      }
+      final int[] stringOffsets = new int[this.strings.size()];
+      int s = 0;
+      for (final String string : this.strings.keySet()) {
+        stringOffsets[s++] = this.offset();
+        final byte[] utf8 = string.getBytes(UTF_8);
+        this.out.writeInt(utf8.length);
+        this.out.write(utf8);
+      }
+      final int stringTableOffset = this.offset();
+      for (final int value : stringOffsets) {
+        this.out.writeInt(value);
+      }
+      this.out.flush();
+
+      final ByteArrayOutputStream file = new ByteArrayOutputStream(HEADER_SIZE + this.bytes.size());
+      final DataOutputStream header = new DataOutputStream(file);
+      header.writeInt(MAGIC);
+      header.writeInt(VERSION);
+      header.writeInt(contextIdIndex);
+      header.writeInt(stringOffsets.length);
+      header.writeInt(stringTableOffset);
+      header.writeInt(this.permissionRecords.size());
+      header.writeInt(permissionTableOffset);
+      header.writeInt(excludedOffset);
+      header.writeInt(filterOffset);
+      header.writeInt(uncheckedOffset);
+      header.writeInt(roleCount);
+      header.writeInt(roleTableOffset);
+      header.writeInt(unindexedRolesOffset);
+      header.writeInt(grants.size());
+      header.writeInt(grantTableOffset);
+      assert file.size() == HEADER_SIZE;
+      this.bytes.writeTo(header);
+      header.flush();
+      return file.toByteArray();
+    }
+
+    /**
+     * Returns the offset, from the start of the snapshot, at which
+     * the next byte will be written.
+     */
+    private final int offset() {
+      return HEADER_SIZE + this.out.size();
+    }
+
+    private final int string(final String string) {
+      if (string == null) {
+        return ABSENT;
+      }
+      Integer returnValue = this.strings.get(string);
+      if (returnValue == null) {
+        returnValue = Integer.valueOf(this.strings.size());
+        this.strings.put(string, returnValue);
+      }
+      return returnValue.intValue();
+    }
+
+    /**
+     * Records the supplied {@link Permission} in the permission table
+     * if it is not already there, serializing it first if necessary,
+     * and returns its index.
+     */
+    private final int permission(final Permission permission) throws IOException {
+      Integer returnValue = this.permissions.get(permission);
+      if (returnValue == null) {
+        final Class<?> c = permission.getClass();
+        final String name = permission.getName();
+        final String actions = permission.getActions();
+        final int[] record;
+        if (name == null) {
+          // Names are never recorded as absent; see checkPermissions().
+          record = this.serialize(permission);
+        } else if (recreates(permission, false, name, actions)) {
+          record = new int[] { NAME_AND_ACTIONS, this.string(c.getName()), this.string(name), this.string(actions) };
+        } else if (recreates(permission, true, name, null)) {
+          record = new int[] { NAME_ONLY, this.string(c.getName()), this.string(name), ABSENT };
+        } else {
+          record = this.serialize(permission);
+        }
+        returnValue = Integer.valueOf(this.permissionRecords.size());
+        this.permissionRecords.add(record);
+        this.permissions.put(permission, returnValue);
+      }
+      return returnValue.intValue();
+    }
+
+    /**
+     * Writes the supplied {@link Permission} in Java serialization
+     * form and returns its permission table record.
+     */
+    private final int[] serialize(final Permission permission) throws IOException {
+      final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+      final ObjectOutputStream objectOut = new ObjectOutputStream(serialized);
+      try {
+        objectOut.writeObject(permission);
+      } catch (final LinkageError kaboom) {
+        throw (IOException)new IOException("Could not serialize " + permission).initCause(kaboom);
+      }
+      objectOut.close();
+      final int[] returnValue = new int[] { SERIALIZED, this.offset(), serialized.size(), ABSENT };
+      serialized.writeTo(this.out);
+      return returnValue;
+    }
+
+    /**
+     * Writes a section listing the {@link Permission}s of the supplied
+     * {@link PermissionCollection} and returns its offset.
+     */
+    private final int section(final PermissionCollection permissions) throws IOException {
+      final List<Integer> indexes = new ArrayList<Integer>();
+      if (permissions != null) {
+        final Enumeration<Permission> elements = permissions.elements();
+        while (elements != null && elements.hasMoreElements()) {
+          final Permission permission = elements.nextElement();
+          if (permission != null) {
+            indexes.add(Integer.valueOf(this.permission(permission)));
+          }
+        }
+      }
+      final int returnValue = this.offset();
+      this.out.writeInt(indexes.size());
+      for (final Integer index : indexes) {
+        this.out.writeInt(index.intValue());
+      }
+      return returnValue;
+    }
+
+    private final int longs(final long[] longs) throws IOException {
+      final int returnValue = this.offset();
+      this.out.writeInt(longs.length);
+      for (final long value : longs) {
+        this.out.writeLong(value);
+      }
+      return returnValue;
+    }
+
+    /**
+     * Returns {@code true} if {@link #instantiate(Class, boolean,
+     * String, String)} recreates a {@link Permission} equal to the
+     * supplied one.
+     *
+     * <p>A {@link Permission} whose class cannot be instantiated that
+     * way in this JVM, such as a JACC web permission when the servlet
+     * API is absent, is therefore written in serialized form.</p>
+     */
+    private static final boolean recreates(final Permission permission, final boolean nameOnly, final String name, final String actions) {
+      try {
+        return permission.equals(instantiate(permission.getClass(), nameOnly, name, actions));
+      } catch (final RuntimeException kaboom) {
+        return false;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,398 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+import java.security.PermissionCollection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A mutable batch of policy statements, gathered without any locking
+ * and then {@linkplain ConfigurablePolicyContext#addAll(PolicyStatements)
+ * added} to a {@link ConfigurablePolicyContext} all at once.
+ *
+ * <p>Adding a {@link PolicyStatements} acquires the policy context's
+ * write lock and checks its state once, however many statements it
+ * holds, and adds each role's grants in one pass that looks up the
+ * role's identifier and policy only once.  A container deploying a
+ * large application can therefore gather the statements of every
+ * module into one {@link PolicyStatements} and add them in one call.
+ * Statements are kept in the order in which they were added;
+ * duplicates are tolerated and ignored when the batch is added.</p>
+ *
+ * <p>Instances of this class are not safe for use by concurrent
+ * threads.</p>
+ *
+ * @see ConfigurablePolicyContext#addAll(PolicyStatements)
+ */
+public final class PolicyStatements {
+
+  /**
+   * The excluded {@link Permission}s.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<Permission> excludedPolicy;
+
+  /**
+   * The unchecked {@link Permission}s.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final List<Permission> uncheckedPolicy;
+
+  /**
+   * The {@link Permission}s granted to each role, indexed by role
+   * name in the order in which the roles were first named.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<String, List<Permission>> perRolePolicy;
+
+  /**
+   * The name of the role most recently added to, or {@code null}.
+   */
+  private String lastRoleName;
+
+  /**
+   * The {@link Permission}s of the role named {@link #lastRoleName},
+   * or {@code null}.
+   */
+  private List<Permission> lastRolePolicy;
+
+  /**
+   * The number of statements added.
+   */
+  private int size;
+
+  /**
+   * Creates a new, empty {@link PolicyStatements}.
+   */
+  public PolicyStatements() {
+    this(16);
+  }
+
+  /**
+   * Creates a new, empty {@link PolicyStatements} sized for the
+   * supplied number of roles.
+   *
+   * @param expectedRoles the number of distinct roles expected; must
+   * not be negative
+   *
+   * @exception IllegalArgumentException if {@code expectedRoles} is
+   * negative
+   */
+  public PolicyStatements(final int expectedRoles) {
+    super();
+    if (expectedRoles < 0) {
+      throw new IllegalArgumentException("expectedRoles < 0: " + expectedRoles);
+    }
+    this.excludedPolicy = new ArrayList<Permission>();
+    this.uncheckedPolicy = new ArrayList<Permission>();
+    this.perRolePolicy = new LinkedHashMap<String, List<Permission>>(expectedRoles * 4 / 3 + 1);
+  }
+
+  /**
+   * Adds the supplied {@link Permission} to the excluded policy.
+   *
+   * @param p the {@link Permission}; may be {@code null} in which case
+   * no action is taken
+   *
+   * @return this {@link PolicyStatements}
+   */
+  public final PolicyStatements addToExcludedPolicy(final Permission p) {
+    this.add(this.excludedPolicy, p);
+    return this;
+  }
+
+  /**
+   * Adds the elements of the supplied {@link PermissionCollection} to
+   * the excluded policy.
+   *
+   * @param permissions the {@link PermissionCollection}; may be {@code
+   * null} in which case no action is taken
+   *
+   * @return this {@link PolicyStatements}
+   */
+  public final PolicyStatements addToExcludedPolicy(final PermissionCollection permissions) {
+    this.addAll(this.excludedPolicy, permissions);
+    return this;
+  }
+
+  /**
+   * Adds the supplied {@link Permission}s to the excluded policy.
+   *
+   * @param permissions the {@link Permission}s; may be {@code null} in
+   * which case no action is taken; {@code null} elements are ignored
+   *
+   * @return this {@link PolicyStatements}
+   */
+  public final PolicyStatements addToExcludedPolicy(final Iterable<? extends Permission> permissions) {
+    this.addAll(this.excludedPolicy, permissions);
+    return this;
+  }
+
+  /**
+   * Adds the supplied {@link Permission} to the unchecked policy.
+   *
+   * @param p the {@link Permission}; may be {@code null} in which case
+   * no action is taken
+   *
+   * @return this {@link PolicyStatements}
+   */
+  public final PolicyStatements addToUncheckedPolicy(final Permission p) {
+    this.add(this.uncheckedPolicy, p);
+    return this;
+  }
+
+  /**
+   * Adds the elements of the supplied {@link PermissionCollection} to
+   * the unchecked policy.
+   *
+   * @param permissions the {@link PermissionCollection}; may be {@code
+   * null} in which case no action is taken
+   *
+   * @return this {@link PolicyStatements}
+   */
+  public final PolicyStatements addToUncheckedPolicy(final PermissionCollection permissions) {
+    this.addAll(this.uncheckedPolicy, permissions);
+    return this;
+  }
+
+  /**
+   * Adds the supplied {@link Permission}s to the unchecked policy.
+   *
+   * @param permissions the {@link Permission}s; may be {@code null} in
+   * which case no action is taken; {@code null} elements are ignored
+   *
+   * @return this {@link PolicyStatements}
+   */
+  public final PolicyStatements addToUncheckedPolicy(final Iterable<? extends Permission> permissions) {
+    this.addAll(this.uncheckedPolicy, permissions);
+    return this;
+  }
+
+  /**
+   * Grants the supplied {@link Permission} to the role with the
+   * supplied name.
+   *
+   * @param roleName the role name; may be {@code null} in which case
+   * no action is taken
+   *
+   * @param p the {@link Permission}; may be {@code null} in which case
+   * no action is taken
+   *
+   * @return this {@link PolicyStatements}
+   */
+  public final PolicyStatements addToRole(final String roleName, final Permission p) {
+    if (roleName != null && p != null) {
+      this.add(this.rolePolicy(roleName), p);
+    }
+    return this;
+  }
+
+  /**
+   * Grants the elements of the supplied {@link PermissionCollection}
+   * to the role with the supplied name.
+   *
+   * @param roleName the role name; may be {@code null} in which case
+   * no action is taken
+   *
+   * @param permissions the {@link PermissionCollection}; may be {@code
+   * null} in which case no action is taken
+   *
+   * @return this {@link PolicyStatements}
+   */
+  public final PolicyStatements addToRole(final String roleName, final PermissionCollection permissions) {
+    if (roleName != null && permissions != null) {
+      this.addAll(this.rolePolicy(roleName), permissions);
+    }
+    return this;
+  }
+
+  /**
+   * Grants the supplied {@link Permission}s to the role with the
+   * supplied name.
+   *
+   * @param roleName the role name; may be {@code null} in which case
+   * no action is taken
+   *
+   * @param permissions the {@link Permission}s; may be {@code null} in
+   * which case no action is taken; {@code null} elements are ignored
+   *
+   * @return this {@link PolicyStatements}
+   */
+  public final PolicyStatements addToRole(final String roleName, final Iterable<? extends Permission> permissions) {
+    if (roleName != null && permissions != null) {
+      this.addAll(this.rolePolicy(roleName), permissions);
+    }
+    return this;
+  }
+
+  /**
+   * Grants the {@link Permission}s in each value of the supplied
+   * {@link Map} to the role named by its key, as returned, for
+   * example, by {@link PolicyContext#getRoles()}.
+   *
+   * @param perRolePolicy a {@link Map} of {@link
+   * PermissionCollection}s indexed by role name; may be {@code null}
+   * in which case no action is taken; {@code null} keys and values are
+   * ignored
+   *
+   * @return this {@link PolicyStatements}
+   */
+  public final PolicyStatements addToRoles(final Map<? extends String, ? extends PermissionCollection> perRolePolicy) {
+    if (perRolePolicy != null && !perRolePolicy.isEmpty()) {
+      for (final Map.Entry<? extends String, ? extends PermissionCollection> entry : perRolePolicy.entrySet()) {
+        this.addToRole(entry.getKey(), entry.getValue());
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Returns the number of statements added to this {@link
+   * PolicyStatements}, counting duplicates.
+   *
+   * @return the number of statements
+   */
+  public final int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns {@code true} if no statements have been added to this
+   * {@link PolicyStatements}.
+   *
+   * @return {@code true} if this {@link PolicyStatements} is empty
+   */
+  public final boolean isEmpty() {
+    return this.size <= 0;
+  }
+
+  /**
+   * Removes every statement from this {@link PolicyStatements}.
+   */
+  public final void clear() {
+    this.excludedPolicy.clear();
+    this.uncheckedPolicy.clear();
+    this.perRolePolicy.clear();
+    this.lastRoleName = null;
+    this.lastRolePolicy = null;
+    this.size = 0;
+  }
+
+  /**
+   * Returns the excluded {@link Permission}s.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link List}
+   */
+  final List<Permission> getExcludedPolicy() {
+    return Collections.unmodifiableList(this.excludedPolicy);
+  }
+
+  /**
+   * Returns the unchecked {@link Permission}s.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link List}
+   */
+  final List<Permission> getUncheckedPolicy() {
+    return Collections.unmodifiableList(this.uncheckedPolicy);
+  }
+
+  /**
+   * Returns the {@link Permission}s granted to each role, indexed by
+   * role name; a value may be empty.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link Map}
+   */
+  final Map<String, List<Permission>> getRoles() {
+    return Collections.unmodifiableMap(this.perRolePolicy);
+  }
+
+  private final List<Permission> rolePolicy(final String roleName) {
+    assert roleName != null;
+    if (roleName.equals(this.lastRoleName)) {
+      return this.lastRolePolicy;
+    }
+    List<Permission> rolePolicy = this.perRolePolicy.get(roleName);
+    if (rolePolicy == null) {
+      rolePolicy = new ArrayList<Permission>();
+      this.perRolePolicy.put(roleName, rolePolicy);
+    }
+    this.lastRoleName = roleName;
+    this.lastRolePolicy = rolePolicy;
+    return rolePolicy;
+  }
+
+  private final void add(final List<Permission> target, final Permission p) {
+    if (p != null) {
+      target.add(p);
+      this.size++;
+    }
+  }
+
+  private final void addAll(final List<Permission> target, final PermissionCollection permissions) {
+    if (permissions != null) {
+      synchronized (permissions) {
+        final Enumeration<Permission> elements = permissions.elements();
+        if (elements != null) {
+          while (elements.hasMoreElements()) {
+            this.add(target, elements.nextElement());
+          }
+        }
+      }
+    }
+  }
+
+  private final void addAll(final List<Permission> target, final Iterable<? extends Permission> permissions) {
+    if (permissions != null) {
+      for (final Permission p : permissions) {
+        this.add(target, p);
+      }
+    }
+  }
+
+  @Override
+  public final String toString() {
+    return "excluded=" + this.excludedPolicy + ", unchecked=" + this.uncheckedPolicy + ", roles=" + this.perRolePolicy;
+  }
+
+}
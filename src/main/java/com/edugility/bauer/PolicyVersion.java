@@ -0,0 +1,744 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, numbered version of the policy statements of a
+ * {@link ConfigurablePolicyContext}, held in {@linkplain
+ * PersistentHashMap persistent maps} so that each change produces a
+ * new {@link PolicyVersion} sharing everything it did not touch with
+ * its predecessor.
+ *
+ * <p>Besides the excluded, unchecked and per-role policies, a {@link
+ * PolicyVersion} maintains the role identifiers and the per-class
+ * {@linkplain RoleTable bitsets} of granting roles from which a
+ * {@link RoleGrantIndex} is built, updating them as each statement is
+ * added or removed.  A {@link CommittedPolicy} built from a {@link
+ * PolicyVersion} can therefore {@linkplain
+ * CommittedPolicy#CommittedPolicy(PolicyVersion, CommittedPolicy)
+ * reuse} every part of its predecessor whose persistent map is
+ * identical, and rebuild only the parts that were changed.</p>
+ *
+ * <p>A {@link ConfigurablePolicyContext} derives its changes from
+ * an {@linkplain #editable() editable} {@link PolicyVersion}, so that
+ * nodes of the persistent maps created since it was last opened are
+ * updated in place rather than copied again, and {@linkplain
+ * #withNumber(long) freezes} it when committing.</p>
+ *
+ * <p>Role identifiers are kept stable for as long as a role has any
+ * permissions, so that unchanged bitsets remain valid.  The
+ * identifier of a removed role is given to the next new role, unless
+ * a {@link LinkGroup} {@linkplain #withLinkGroup(LinkGroup) assigns}
+ * them instead, in which case every role keeps the identifier its
+ * name has throughout the group.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * concurrent threads.</p>
+ *
+ * @see ConfigurablePolicyContext
+ * @see CommittedPolicy#getVersion()
+ */
+final class PolicyVersion {
+
+  /**
+   * The empty {@link PolicyVersion}, numbered {@code 0}.
+   */
+  static final PolicyVersion EMPTY = new PolicyVersion(0L,
+                                                       PersistentHashMap.<Permission, Permission>empty(),
+                                                       PersistentHashMap.<Permission, Permission>empty(),
+                                                       PersistentHashMap.<String, PersistentHashMap<Permission, Permission>>empty(),
+                                                       PersistentHashMap.<String, Integer>empty(),
+                                                       0,
+                                                       PersistentHashMap.<Class<?>, PersistentHashMap<Permission, long[]>>empty(),
+                                                       RoleTable.EMPTY_BITS,
+                                                       null,
+                                                       null);
+
+  private final long number;
+
+  /**
+   * The excluded policy, each {@link Permission} mapped to itself.
+   */
+  private final PersistentHashMap<Permission, Permission> excludedPolicy;
+
+  /**
+   * The unchecked policy, each {@link Permission} mapped to itself.
+   */
+  private final PersistentHashMap<Permission, Permission> uncheckedPolicy;
+
+  /**
+   * The per-role policies, indexed by role name; none is empty.
+   */
+  private final PersistentHashMap<String, PersistentHashMap<Permission, Permission>> perRolePolicy;
+
+  /**
+   * The identifier of each key of {@link #perRolePolicy}.
+   */
+  private final PersistentHashMap<String, Integer> roleIds;
+
+  /**
+   * One more than the greatest identifier ever assigned since this
+   * {@link PolicyVersion} was last {@linkplain #cleared() cleared}.
+   */
+  private final int roleCapacity;
+
+  /**
+   * Every indexable {@link Permission} granted to any role, indexed
+   * by class, each mapped to the bitset of roles that grant it.
+   *
+   * <p>The bitsets are never modified; each change installs a
+   * copy.</p>
+   *
+   * @see RoleGrantIndex#isIndexable(Permission)
+   */
+  private final PersistentHashMap<Class<?>, PersistentHashMap<Permission, long[]>> grants;
+
+  /**
+   * The bitset of roles granting any {@link Permission} that is not
+   * indexable; never modified.
+   */
+  private final long[] unindexedRoles;
+
+  /**
+   * The edit token under which the persistent maps of this {@link
+   * PolicyVersion} are updated in place, or {@code null} if this
+   * {@link PolicyVersion} is frozen.
+   *
+   * @see #editable()
+   */
+  private final Object edit;
+
+  /**
+   * The {@link LinkGroup} that assigns role identifiers, or {@code
+   * null} if they are assigned by this {@link PolicyVersion} itself.
+   */
+  private final LinkGroup linkGroup;
+
+  private PolicyVersion(final long number,
+                        final PersistentHashMap<Permission, Permission> excludedPolicy,
+                        final PersistentHashMap<Permission, Permission> uncheckedPolicy,
+                        final PersistentHashMap<String, PersistentHashMap<Permission, Permission>> perRolePolicy,
+                        final PersistentHashMap<String, Integer> roleIds,
+                        final int roleCapacity,
+                        final PersistentHashMap<Class<?>, PersistentHashMap<Permission, long[]>> grants,
+                        final long[] unindexedRoles,
+                        final LinkGroup linkGroup,
+                        final Object edit) {
+    super();
+    this.number = number;
+    this.excludedPolicy = excludedPolicy;
+    this.uncheckedPolicy = uncheckedPolicy;
+    this.perRolePolicy = perRolePolicy;
+    this.roleIds = roleIds;
+    this.roleCapacity = roleCapacity;
+    this.grants = grants;
+    this.unindexedRoles = unindexedRoles;
+    this.linkGroup = linkGroup;
+    this.edit = edit;
+  }
+
+  /**
+   * Returns the number of this {@link PolicyVersion}.
+   *
+   * @return the version number
+   */
+  final long getNumber() {
+    return this.number;
+  }
+
+  /**
+   * Returns a frozen {@link PolicyVersion} identical to this one but
+   * with the supplied number.
+   *
+   * <p>Once a {@link PolicyVersion} has been frozen, no {@link
+   * PolicyVersion} derived from it will ever disturb it.  This method
+   * never returns {@code null}.</p>
+   *
+   * @param number the new version number
+   *
+   * @return a non-{@code null}, frozen {@link PolicyVersion}
+   */
+  final PolicyVersion withNumber(final long number) {
+    if (number == this.number && this.edit == null) {
+      return this;
+    }
+    return new PolicyVersion(number, this.excludedPolicy, this.uncheckedPolicy, this.perRolePolicy, this.roleIds, this.roleCapacity, this.grants, this.unindexedRoles, this.linkGroup, null);
+  }
+
+  /**
+   * Returns a {@link PolicyVersion} identical to this one but with a
+   * new edit token, so that the {@link PolicyVersion}s derived from
+   * it by successive changes update in place whatever their
+   * predecessors, but not this {@link PolicyVersion}, created.
+   *
+   * <p>Only the {@link PolicyVersion} most recently derived from the
+   * returned one is valid; a {@link PolicyVersion} must be {@linkplain
+   * #withNumber(long) frozen} before it is published.  This method
+   * never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, editable {@link PolicyVersion}
+   */
+  final PolicyVersion editable() {
+    return new PolicyVersion(this.number, this.excludedPolicy, this.uncheckedPolicy, this.perRolePolicy, this.roleIds, this.roleCapacity, this.grants, this.unindexedRoles, this.linkGroup, new Object());
+  }
+
+  /**
+   * Returns the {@link LinkGroup} that assigns role identifiers, or
+   * {@code null} if this {@link PolicyVersion} assigns them itself.
+   *
+   * @return the {@link LinkGroup}, or {@code null}
+   */
+  final LinkGroup getLinkGroup() {
+    return this.linkGroup;
+  }
+
+  /**
+   * Returns a {@link PolicyVersion} with the same policy statements
+   * as this one but whose role identifiers are assigned by the
+   * supplied {@link LinkGroup}.
+   *
+   * <p>Unless {@code linkGroup} is already the one assigning them,
+   * every role grant is added again, so the cost is proportional to
+   * the size of the per-role policies.  The returned {@link
+   * PolicyVersion} is editable if this one is.  This method never
+   * returns {@code null}.</p>
+   *
+   * @param linkGroup the {@link LinkGroup}; may be {@code null}, in
+   * which case this {@link PolicyVersion} assigns identifiers itself
+   *
+   * @return a non-{@code null} {@link PolicyVersion}
+   */
+  final PolicyVersion withLinkGroup(final LinkGroup linkGroup) {
+    if (linkGroup == this.linkGroup) {
+      return this;
+    }
+    PolicyVersion returnValue = new PolicyVersion(this.number, this.excludedPolicy, this.uncheckedPolicy, EMPTY.perRolePolicy, EMPTY.roleIds, 0, EMPTY.grants, EMPTY.unindexedRoles, linkGroup, this.edit);
+    for (final Map.Entry<String, PersistentHashMap<Permission, Permission>> entry : this.perRolePolicy.entries()) {
+      final String roleName = entry.getKey();
+      for (final Permission p : entry.getValue().keys()) {
+        returnValue = returnValue.plusRole(roleName, p);
+      }
+    }
+    return returnValue;
+  }
+
+  final PersistentHashMap<Permission, Permission> getExcludedPolicy() {
+    return this.excludedPolicy;
+  }
+
+  final PersistentHashMap<Permission, Permission> getUncheckedPolicy() {
+    return this.uncheckedPolicy;
+  }
+
+  final PersistentHashMap<String, PersistentHashMap<Permission, Permission>> getRoles() {
+    return this.perRolePolicy;
+  }
+
+  final PersistentHashMap<String, Integer> getRoleIds() {
+    return this.roleIds;
+  }
+
+  final PersistentHashMap<Class<?>, PersistentHashMap<Permission, long[]>> getGrants() {
+    return this.grants;
+  }
+
+  /**
+   * Returns the bitset of roles granting any {@link Permission} that
+   * is not indexable.
+   *
+   * <p>This method never returns {@code null}.  The returned array
+   * must not be modified.</p>
+   *
+   * @return a non-{@code null} bitset
+   */
+  final long[] getUnindexedRoles() {
+    return this.unindexedRoles;
+  }
+
+  /**
+   * Returns a new array of role names indexed by role identifier,
+   * with a {@code null} element for each identifier not currently
+   * assigned.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} array
+   *
+   * @see RoleTable#RoleTable(String[])
+   */
+  final String[] getRoleNames() {
+    final String[] returnValue = new String[this.roleCapacity];
+    for (final String roleName : this.roleIds.keys()) {
+      returnValue[this.roleIds.get(roleName).intValue()] = roleName;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link PolicyVersion} has the
+   * same excluded, unchecked and per-role policies as this one, made
+   * up of equal {@link Permission}s of the same classes, and gives
+   * each role the same identifier.
+   *
+   * <p>Version numbers, edit tokens and {@link LinkGroup}s are not
+   * compared.  The cost is proportional to the number of
+   * statements.</p>
+   *
+   * @param other the {@link PolicyVersion} to compare; may be {@code
+   * null} in which case {@code false} will be returned
+   *
+   * @return {@code true} if the two hold the same statements
+   *
+   * @see PolicyDigest
+   */
+  final boolean hasSameStatementsAs(final PolicyVersion other) {
+    if (other == this) {
+      return true;
+    }
+    if (other == null ||
+        !sameKeys(this.excludedPolicy, other.excludedPolicy) ||
+        !sameKeys(this.uncheckedPolicy, other.uncheckedPolicy) ||
+        this.perRolePolicy.size() != other.perRolePolicy.size() ||
+        this.roleIds.size() != other.roleIds.size()) {
+      return false;
+    }
+    for (final Map.Entry<String, Integer> entry : this.roleIds.entries()) {
+      if (!entry.getValue().equals(other.roleIds.get(entry.getKey()))) {
+        return false;
+      }
+    }
+    for (final Map.Entry<String, PersistentHashMap<Permission, Permission>> entry : this.perRolePolicy.entries()) {
+      final PersistentHashMap<Permission, Permission> otherRolePolicy = other.perRolePolicy.get(entry.getKey());
+      if (otherRolePolicy == null || !sameKeys(entry.getValue(), otherRolePolicy)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns {@code true} if the two supplied policies contain equal
+   * {@link Permission}s of the same classes.
+   */
+  private static final boolean sameKeys(final PersistentHashMap<Permission, Permission> a, final PersistentHashMap<Permission, Permission> b) {
+    if (a == b) {
+      return true;
+    }
+    if (a.size() != b.size()) {
+      return false;
+    }
+    for (final Permission p : a.keys()) {
+      final Permission q = b.get(p);
+      if (q == null || q.getClass() != p.getClass()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a {@link PolicyVersion} that also excludes the supplied
+   * {@link Permission}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param p the {@link Permission} to add; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link PolicyVersion}, which is this
+   * one if {@code p}, or a {@link Permission} equal to it, was
+   * already excluded
+   */
+  final PolicyVersion plusExcluded(final Permission p) {
+    assert p != null;
+    if (this.excludedPolicy.get(p) != null) {
+      return this;
+    }
+    final PersistentHashMap<Permission, Permission> excludedPolicy = this.excludedPolicy.plus(p, p, this.edit);
+    return new PolicyVersion(this.number, excludedPolicy, this.uncheckedPolicy, this.perRolePolicy, this.roleIds, this.roleCapacity, this.grants, this.unindexedRoles, this.linkGroup, this.edit);
+  }
+
+  /**
+   * Returns a {@link PolicyVersion} whose unchecked policy also
+   * contains the supplied {@link Permission}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param p the {@link Permission} to add; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link PolicyVersion}, which is this
+   * one if {@code p} was already present
+   */
+  final PolicyVersion plusUnchecked(final Permission p) {
+    assert p != null;
+    if (this.uncheckedPolicy.get(p) != null) {
+      return this;
+    }
+    final PersistentHashMap<Permission, Permission> uncheckedPolicy = this.uncheckedPolicy.plus(p, p, this.edit);
+    return new PolicyVersion(this.number, this.excludedPolicy, uncheckedPolicy, this.perRolePolicy, this.roleIds, this.roleCapacity, this.grants, this.unindexedRoles, this.linkGroup, this.edit);
+  }
+
+  /**
+   * Returns a {@link PolicyVersion} in which the supplied {@link
+   * Permission} is also granted to the role with the supplied name.
+   *
+   * <p>Only the role's own policy and either the grants of {@code
+   * p}'s class or the bitset of unindexed roles are copied.  This
+   * method never returns {@code null}.</p>
+   *
+   * @param roleName the role name; must not be {@code null}
+   *
+   * @param p the {@link Permission} to add; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link PolicyVersion}, which is this
+   * one if {@code p} was already granted to the role
+   */
+  final PolicyVersion plusRole(final String roleName, final Permission p) {
+    assert roleName != null;
+    assert p != null;
+    PersistentHashMap<Permission, Permission> rolePolicy = this.perRolePolicy.get(roleName);
+    if (rolePolicy == null) {
+      rolePolicy = PersistentHashMap.empty();
+    } else if (rolePolicy.get(p) != null) {
+      return this;
+    }
+    final PersistentHashMap<Permission, Permission> newRolePolicy = rolePolicy.plus(p, p, this.edit);
+
+    PersistentHashMap<String, Integer> roleIds = this.roleIds;
+    int roleCapacity = this.roleCapacity;
+    final int id;
+    final Integer existingId = roleIds.get(roleName);
+    if (existingId == null) {
+      id = this.linkGroup == null ? freeRoleId(roleIds, roleCapacity) : this.linkGroup.idOf(roleName);
+      roleIds = roleIds.plus(roleName, Integer.valueOf(id), this.edit);
+      if (id >= roleCapacity) {
+        roleCapacity = id + 1;
+      }
+    } else {
+      id = existingId.intValue();
+    }
+
+    PersistentHashMap<Class<?>, PersistentHashMap<Permission, long[]>> grants = this.grants;
+    long[] unindexedRoles = this.unindexedRoles;
+    if (RoleGrantIndex.isIndexable(p)) {
+      final Class<?> c = p.getClass();
+      PersistentHashMap<Permission, long[]> permissions = grants.get(c);
+      if (permissions == null) {
+        permissions = PersistentHashMap.empty();
+      }
+      final long[] roles = permissions.get(p);
+      grants = grants.plus(c, permissions.plus(p, withBit(roles == null ? RoleTable.EMPTY_BITS : roles, id), this.edit), this.edit);
+    } else {
+      unindexedRoles = withBit(unindexedRoles, id);
+    }
+
+    return new PolicyVersion(this.number, this.excludedPolicy, this.uncheckedPolicy, this.perRolePolicy.plus(roleName, newRolePolicy, this.edit), roleIds, roleCapacity, grants, unindexedRoles, this.linkGroup, this.edit);
+  }
+
+  /**
+   * Returns a {@link PolicyVersion} to which every statement in the
+   * supplied {@link PolicyStatements} has been added.
+   *
+   * <p>This is equivalent to calling {@link #plusExcluded(Permission)},
+   * {@link #plusUnchecked(Permission)} and {@link #plusRole(String,
+   * Permission)} for each statement in turn, but each role's
+   * identifier and policy are looked up once, the grants of each
+   * permission class are looked up once per run of {@link
+   * Permission}s of that class, each {@link Permission} is looked up
+   * in its policy only once, and no intermediate {@link
+   * PolicyVersion}s are created.  This method never returns {@code
+   * null}.</p>
+   *
+   * @param statements the {@link PolicyStatements} to add; must not
+   * be {@code null}
+   *
+   * @param permissionPool the {@link Interner} through which each
+   * {@link Permission} is passed before it is added; may be {@code
+   * null} in which case {@link Permission}s are added as they are
+   *
+   * @param roleNamePool the {@link Interner} through which each role
+   * name is passed before it is added; may be {@code null} in which
+   * case role names are added as they are
+   *
+   * @return a non-{@code null} {@link PolicyVersion}, which is this
+   * one if nothing was added
+   */
+  final PolicyVersion plusAll(final PolicyStatements statements, final Interner<Permission> permissionPool, final Interner<String> roleNamePool) {
+    assert statements != null;
+    final Object edit = this.edit;
+
+    PersistentHashMap<Permission, Permission> excludedPolicy = this.excludedPolicy;
+    for (final Permission statement : statements.getExcludedPolicy()) {
+      final Permission p = permissionPool == null ? statement : permissionPool.intern(statement);
+      excludedPolicy = excludedPolicy.plusIfAbsent(p, p, edit);
+    }
+    PersistentHashMap<Permission, Permission> uncheckedPolicy = this.uncheckedPolicy;
+    for (final Permission statement : statements.getUncheckedPolicy()) {
+      final Permission p = permissionPool == null ? statement : permissionPool.intern(statement);
+      uncheckedPolicy = uncheckedPolicy.plusIfAbsent(p, p, edit);
+    }
+
+    PersistentHashMap<String, PersistentHashMap<Permission, Permission>> perRolePolicy = this.perRolePolicy;
+    PersistentHashMap<String, Integer> roleIds = this.roleIds;
+    int roleCapacity = this.roleCapacity;
+    PersistentHashMap<Class<?>, PersistentHashMap<Permission, long[]>> grants = this.grants;
+    long[] unindexedRoles = this.unindexedRoles;
+    for (final Map.Entry<String, List<Permission>> entry : statements.getRoles().entrySet()) {
+      final List<Permission> permissions = entry.getValue();
+      if (permissions.isEmpty()) {
+        continue;
+      }
+      final String roleName = roleNamePool == null ? entry.getKey() : roleNamePool.intern(entry.getKey());
+      final PersistentHashMap<Permission, Permission> oldRolePolicy = perRolePolicy.get(roleName);
+      PersistentHashMap<Permission, Permission> rolePolicy = oldRolePolicy == null ? PersistentHashMap.<Permission, Permission>empty() : oldRolePolicy;
+      final int id;
+      final Integer existingId = roleIds.get(roleName);
+      if (existingId == null) {
+        // roleIds changes below, so a free identifier has to be
+        // found against the current one rather than this.roleIds.
+        id = this.linkGroup == null ? freeRoleId(roleIds, roleCapacity) : this.linkGroup.idOf(roleName);
+        roleIds = roleIds.plus(roleName, Integer.valueOf(id), edit);
+        if (id >= roleCapacity) {
+          roleCapacity = id + 1;
+        }
+      } else {
+        id = existingId.intValue();
+      }
+
+      Class<?> c = null;
+      PersistentHashMap<Permission, long[]> classGrants = null;
+      for (final Permission statement : permissions) {
+        final Permission p = permissionPool == null ? statement : permissionPool.intern(statement);
+        final int size = rolePolicy.size();
+        rolePolicy = rolePolicy.plusIfAbsent(p, p, edit);
+        if (rolePolicy.size() == size) {
+          continue;
+        }
+        if (RoleGrantIndex.isIndexable(p)) {
+          if (p.getClass() != c) {
+            if (c != null) {
+              grants = grants.plus(c, classGrants, edit);
+            }
+            c = p.getClass();
+            classGrants = grants.get(c);
+            if (classGrants == null) {
+              classGrants = PersistentHashMap.empty();
+            }
+          }
+          final long[] roles = classGrants.get(p);
+          classGrants = classGrants.plus(p, withBit(roles == null ? RoleTable.EMPTY_BITS : roles, id), edit);
+        } else {
+          unindexedRoles = withBit(unindexedRoles, id);
+        }
+      }
+      if (c != null) {
+        grants = grants.plus(c, classGrants, edit);
+      }
+      if (rolePolicy != oldRolePolicy) {
+        perRolePolicy = perRolePolicy.plus(roleName, rolePolicy, edit);
+      }
+    }
+
+    if (excludedPolicy == this.excludedPolicy &&
+        uncheckedPolicy == this.uncheckedPolicy &&
+        perRolePolicy == this.perRolePolicy &&
+        roleIds == this.roleIds) {
+      return this;
+    }
+    return new PolicyVersion(this.number, excludedPolicy, uncheckedPolicy, perRolePolicy, roleIds, roleCapacity, grants, unindexedRoles, this.linkGroup, edit);
+  }
+
+  /**
+   * Returns a {@link PolicyVersion} with an empty excluded policy.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link PolicyVersion}
+   */
+  final PolicyVersion withoutExcluded() {
+    if (this.excludedPolicy.isEmpty()) {
+      return this;
+    }
+    return new PolicyVersion(this.number, PersistentHashMap.<Permission, Permission>empty(), this.uncheckedPolicy, this.perRolePolicy, this.roleIds, this.roleCapacity, this.grants, this.unindexedRoles, this.linkGroup, this.edit);
+  }
+
+  /**
+   * Returns a {@link PolicyVersion} with an empty unchecked policy.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link PolicyVersion}
+   */
+  final PolicyVersion withoutUnchecked() {
+    if (this.uncheckedPolicy.isEmpty()) {
+      return this;
+    }
+    return new PolicyVersion(this.number, this.excludedPolicy, PersistentHashMap.<Permission, Permission>empty(), this.perRolePolicy, this.roleIds, this.roleCapacity, this.grants, this.unindexedRoles, this.linkGroup, this.edit);
+  }
+
+  /**
+   * Returns a {@link PolicyVersion} without the role with the supplied
+   * name.
+   *
+   * <p>The role's bit is cleared from the grants of each of its
+   * {@link Permission}s, so the cost is proportional to the size of
+   * the role's policy.  This method never returns {@code null}.</p>
+   *
+   * @param roleName the role name; may be {@code null}
+   *
+   * @return a non-{@code null} {@link PolicyVersion}, which is this
+   * one if there is no such role
+   */
+  final PolicyVersion withoutRole(final String roleName) {
+    final PersistentHashMap<Permission, Permission> rolePolicy = this.perRolePolicy.get(roleName);
+    if (rolePolicy == null) {
+      return this;
+    }
+    final int id = this.roleIds.get(roleName).intValue();
+    PersistentHashMap<Class<?>, PersistentHashMap<Permission, long[]>> grants = this.grants;
+    boolean unindexed = false;
+    for (final Permission p : rolePolicy.keys()) {
+      if (RoleGrantIndex.isIndexable(p)) {
+        final Class<?> c = p.getClass();
+        PersistentHashMap<Permission, long[]> permissions = grants.get(c);
+        final long[] roles = withoutBit(permissions.get(p), id);
+        if (roles.length <= 0) {
+          permissions = permissions.minus(p);
+        } else {
+          permissions = permissions.plus(p, roles);
+        }
+        if (permissions.isEmpty()) {
+          grants = grants.minus(c);
+        } else {
+          grants = grants.plus(c, permissions);
+        }
+      } else {
+        unindexed = true;
+      }
+    }
+    final long[] unindexedRoles = unindexed ? withoutBit(this.unindexedRoles, id) : this.unindexedRoles;
+    return new PolicyVersion(this.number, this.excludedPolicy, this.uncheckedPolicy, this.perRolePolicy.minus(roleName), this.roleIds.minus(roleName), this.roleCapacity, grants, unindexedRoles, this.linkGroup, this.edit);
+  }
+
+  /**
+   * Returns a {@link PolicyVersion} without any roles.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link PolicyVersion}
+   */
+  final PolicyVersion withoutRoles() {
+    if (this.perRolePolicy.isEmpty()) {
+      return this;
+    }
+    return new PolicyVersion(this.number, this.excludedPolicy, this.uncheckedPolicy, EMPTY.perRolePolicy, EMPTY.roleIds, 0, EMPTY.grants, EMPTY.unindexedRoles, this.linkGroup, this.edit);
+  }
+
+  /**
+   * Returns an empty {@link PolicyVersion} with the same number as
+   * this one.
+   *
+   * <p>The returned {@link PolicyVersion} is editable if this one
+   * is.  This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null}, empty {@link PolicyVersion}
+   */
+  final PolicyVersion cleared() {
+    return new PolicyVersion(this.number, EMPTY.excludedPolicy, EMPTY.uncheckedPolicy, EMPTY.perRolePolicy, EMPTY.roleIds, 0, EMPTY.grants, EMPTY.unindexedRoles, this.linkGroup, this.edit);
+  }
+
+  /**
+   * Returns the lowest role identifier not assigned in the supplied
+   * map of role identifiers, all of which are less than the supplied
+   * capacity.
+   */
+  private static final int freeRoleId(final PersistentHashMap<String, Integer> roleIds, final int roleCapacity) {
+    final int assigned = roleIds.size();
+    if (assigned == roleCapacity) {
+      return assigned;
+    }
+    final boolean[] used = new boolean[roleCapacity];
+    final List<Integer> ids = roleIds.values();
+    for (final Integer id : ids) {
+      used[id.intValue()] = true;
+    }
+    int returnValue = 0;
+    while (used[returnValue]) {
+      returnValue++;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a copy of the supplied bitset, lengthened if necessary,
+   * with the supplied bit set, or the bitset itself if the bit is
+   * already set.
+   */
+  private static final long[] withBit(final long[] bits, final int id) {
+    final int word = id >>> 6;
+    if (word < bits.length && (bits[word] & (1L << id)) != 0L) {
+      return bits;
+    }
+    final long[] returnValue = new long[Math.max(bits.length, word + 1)];
+    System.arraycopy(bits, 0, returnValue, 0, bits.length);
+    RoleTable.set(returnValue, id);
+    return returnValue;
+  }
+
+  /**
+   * Returns a copy of the supplied bitset with the supplied bit
+   * cleared and without trailing zero words, so that a bitset with no
+   * bits set has a length of zero.
+   */
+  private static final long[] withoutBit(final long[] bits, final int id) {
+    final int word = id >>> 6;
+    if (word >= bits.length || (bits[word] & (1L << id)) == 0L) {
+      return bits;
+    }
+    int length = bits.length;
+    final long[] cleared = bits.clone();
+    cleared[word] &= ~(1L << id);
+    while (length > 0 && cleared[length - 1] == 0L) {
+      length--;
+    }
+    if (length <= 0) {
+      return RoleTable.EMPTY_BITS;
+    }
+    if (length == cleared.length) {
+      return cleared;
+    }
+    final long[] returnValue = new long[length];
+    System.arraycopy(cleared, 0, returnValue, 0, length);
+    return returnValue;
+  }
+
+}
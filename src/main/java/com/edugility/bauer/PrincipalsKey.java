@@ -0,0 +1,599 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Principal;
+
+import java.security.acl.Group;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A canonical, order-insensitive fingerprint of an array of {@link
+ * Principal}s suitable for use as (part of) a cache key.
+ *
+ * <p>Two {@link PrincipalsKey}s are equal if the arrays from which
+ * they were built contain the same set of {@link Principal}s, where
+ * {@link Principal}s are compared by their own {@link
+ * Principal#equals(Object) equals} and {@link Principal#hashCode()
+ * hashCode} methods, and if every {@link Group} among them has the
+ * same members, compared the same way, at every level of nesting.
+ * Duplicate and {@code null} elements are ignored.  A {@link Group}'s
+ * members are read when the {@link PrincipalsKey} is built; later
+ * changes to them do not affect it.  A {@link Group} that contains
+ * itself, directly or indirectly, is expanded only once.  On a JVM
+ * without the {@link Group} class, which was removed in Java 14, no
+ * {@link Principal} is treated as a {@link Group}.</p>
+ *
+ * <p>Building a {@link PrincipalsKey} allocates.  To look one up in a
+ * hash-based {@link java.util.Map} without allocating, {@linkplain
+ * Probe#reset(Principal[]) reset} a reusable {@link Probe} and pass
+ * that to {@link java.util.Map#get(Object)} instead.  Because reading
+ * a {@link Group}'s members allocates, a {@link Probe} reset with an
+ * array containing a {@link Group} builds a {@link PrincipalsKey}
+ * anyway.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * concurrent threads.</p>
+ */
+final class PrincipalsKey {
+
+  /**
+   * A {@link PrincipalsKey} representing no {@link Principal}s at all.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  static final PrincipalsKey EMPTY = new PrincipalsKey(new Principal[0], null, new int[0]);
+
+  /**
+   * Stands for the members of a {@link Group} reached again while its
+   * own members are being read; compared by identity.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final PrincipalsKey CYCLE = new PrincipalsKey(new Principal[0], null, new int[0]);
+
+  /**
+   * The {@link Group} class, or {@code null} if this JVM does not have
+   * one; {@link Group} is only referred to directly once a {@link
+   * Principal} is known to be one.
+   */
+  private static final Class<?> GROUP = findGroupClass();
+
+  /**
+   * Orders {@link Element}s by hash code.
+   */
+  private static final Comparator<Element> BY_HASH_CODE = new Comparator<Element>() {
+      @Override
+      public final int compare(final Element a, final Element b) {
+        return a.hashCode < b.hashCode ? -1 : (a.hashCode > b.hashCode ? 1 : 0);
+      }
+    };
+
+  /**
+   * The distinct {@link Principal}s, ordered by {@linkplain #hashes
+   * element hash code}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Principal[] principals;
+
+  /**
+   * The members of each {@link Group} in {@link #principals}, at the
+   * same index, or {@code null} at the index of a {@link Principal}
+   * that is not a {@link Group}; {@code null} itself if there are no
+   * {@link Group}s.
+   */
+  private final PrincipalsKey[] members;
+
+  /**
+   * The hash code of each element, in ascending order.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final int[] hashes;
+
+  private final int hashCode;
+
+  private PrincipalsKey(final Principal[] principals, final PrincipalsKey[] members, final int[] hashes) {
+    super();
+    assert principals != null;
+    assert hashes != null;
+    assert principals.length == hashes.length;
+    this.principals = principals;
+    this.members = members;
+    this.hashes = hashes;
+    int hashCode = 0;
+    for (final int hash : hashes) {
+      hashCode += hash;
+    }
+    this.hashCode = hashCode;
+  }
+
+  /**
+   * Returns a {@link PrincipalsKey} for the supplied {@link Principal}
+   * array.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param principals the {@link Principal}s to fingerprint; may be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link PrincipalsKey}
+   */
+  static final PrincipalsKey of(final Principal[] principals) {
+    return of(principals, null);
+  }
+
+  /**
+   * Returns a {@link PrincipalsKey} for the supplied {@link Principal}
+   * array.
+   *
+   * @param principals the {@link Principal}s to fingerprint; may be
+   * {@code null}
+   *
+   * @param path the {@link Group}s whose members are being read, or
+   * {@code null} if none are
+   *
+   * @return a non-{@code null} {@link PrincipalsKey}
+   */
+  private static final PrincipalsKey of(final Principal[] principals, Map<Principal, Boolean> path) {
+    if (principals == null || principals.length <= 0) {
+      return EMPTY;
+    }
+    final Element[] elements = new Element[principals.length];
+    int size = 0;
+    boolean groups = false;
+    for (final Principal principal : principals) {
+      if (principal != null) {
+        PrincipalsKey members = null;
+        if (isGroup(principal)) {
+          if (path == null) {
+            path = new IdentityHashMap<Principal, Boolean>();
+          }
+          members = membersOf(principal, path);
+          groups = true;
+        }
+        elements[size++] = new Element(principal, members);
+      }
+    }
+    if (size <= 0) {
+      return EMPTY;
+    }
+    if (size > 1) {
+      Arrays.sort(elements, 0, size, BY_HASH_CODE);
+      int unique = 0;
+      for (int i = 0; i < size; i++) {
+        final Element element = elements[i];
+        boolean duplicate = false;
+        for (int j = unique - 1; j >= 0 && elements[j].hashCode == element.hashCode; j--) {
+          if (elements[j].matches(element.principal, element.members)) {
+            duplicate = true;
+            break;
+          }
+        }
+        if (!duplicate) {
+          elements[unique++] = element;
+        }
+      }
+      size = unique;
+    }
+    final Principal[] distinctPrincipals = new Principal[size];
+    final PrincipalsKey[] members = groups ? new PrincipalsKey[size] : null;
+    final int[] hashes = new int[size];
+    for (int i = 0; i < size; i++) {
+      final Element element = elements[i];
+      distinctPrincipals[i] = element.principal;
+      if (members != null) {
+        members[i] = element.members;
+      }
+      hashes[i] = element.hashCode;
+    }
+    return new PrincipalsKey(distinctPrincipals, members, hashes);
+  }
+
+  /**
+   * Returns a {@link PrincipalsKey} for the current members of the
+   * supplied {@link Group}, or {@link #CYCLE} if they are already
+   * being read.
+   */
+  private static final PrincipalsKey membersOf(final Principal group, final Map<Principal, Boolean> path) {
+    assert isGroup(group);
+    assert path != null;
+    if (path.containsKey(group)) {
+      return CYCLE;
+    }
+    path.put(group, Boolean.TRUE);
+    try {
+      final Enumeration<? extends Principal> members = ((Group)group).members();
+      if (members == null) {
+        return EMPTY;
+      }
+      final List<Principal> list = new ArrayList<Principal>();
+      while (members.hasMoreElements()) {
+        list.add(members.nextElement());
+      }
+      return of(list.toArray(new Principal[list.size()]), path);
+    } finally {
+      path.remove(group);
+    }
+  }
+
+  /**
+   * Returns the number of distinct {@link Principal}s represented by
+   * this {@link PrincipalsKey}, not counting the members of {@link
+   * Group}s.
+   *
+   * @return the number of distinct {@link Principal}s
+   */
+  final int size() {
+    return this.principals.length;
+  }
+
+  /**
+   * Returns {@code true} if this {@link PrincipalsKey} contains an
+   * element equal to the supplied {@link Principal} with the supplied
+   * members.
+   *
+   * @param principal the {@link Principal}; must not be {@code null}
+   *
+   * @param members the members of {@code principal} if it is a {@link
+   * Group}, or {@code null}
+   *
+   * @param hashCode the {@linkplain #hash(Principal, PrincipalsKey)
+   * element hash code} of {@code principal} and {@code members}
+   */
+  private final boolean contains(final Principal principal, final PrincipalsKey members, final int hashCode) {
+    int i = Arrays.binarySearch(this.hashes, hashCode);
+    if (i < 0) {
+      return false;
+    }
+    while (i > 0 && this.hashes[i - 1] == hashCode) {
+      i--;
+    }
+    for (; i < this.hashes.length && this.hashes[i] == hashCode; i++) {
+      if (sameMembers(this.members == null ? null : this.members[i], members) && this.principals[i].equals(principal)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public final int hashCode() {
+    return this.hashCode;
+  }
+
+  @Override
+  public final boolean equals(final Object other) {
+    if (other == this) {
+      return true;
+    } else if (other instanceof PrincipalsKey) {
+      final PrincipalsKey her = (PrincipalsKey)other;
+      if (this == CYCLE || her == CYCLE || this.hashCode != her.hashCode || !Arrays.equals(this.hashes, her.hashes)) {
+        return false;
+      }
+      for (int i = 0; i < this.principals.length; i++) {
+        if (!her.contains(this.principals[i], this.members == null ? null : this.members[i], this.hashes[i])) {
+          return false;
+        }
+      }
+      return true;
+    } else if (other instanceof Probe) {
+      return other.equals(this);
+    } else {
+      return false;
+    }
+  }
+
+  @Override
+  public final String toString() {
+    if (this == CYCLE) {
+      return "[...]";
+    }
+    final StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < this.principals.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      final Principal principal = this.principals[i];
+      sb.append(principal.getClass().getName()).append(':').append(principal.getName());
+      if (this.members != null && this.members[i] != null) {
+        sb.append(this.members[i]);
+      }
+    }
+    return sb.append(']').toString();
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Principal} is a {@link
+   * Group}.
+   *
+   * @param principal the {@link Principal} to test; may be {@code
+   * null}
+   *
+   * @return {@code true} if {@code principal} is a {@link Group}
+   */
+  static final boolean isGroup(final Principal principal) {
+    return GROUP != null && GROUP.isInstance(principal);
+  }
+
+  private static final Class<?> findGroupClass() {
+    try {
+      return Class.forName("java.security.acl.Group");
+    } catch (final ClassNotFoundException removed) {
+      return null;
+    } catch (final LinkageError removed) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns {@code true} if the supplied member fingerprints are
+   * equal; {@link #CYCLE} is equal only to itself.
+   */
+  private static final boolean sameMembers(final PrincipalsKey a, final PrincipalsKey b) {
+    return a == b || (a != null && b != null && a.equals(b));
+  }
+
+  /**
+   * Returns the hash code of an element consisting of the supplied
+   * {@link Principal} and, if it is a {@link Group}, its members.
+   *
+   * @param principal the {@link Principal}; must not be {@code null}
+   *
+   * @param members the members of {@code principal}, or {@code null}
+   * if it is not a {@link Group}
+   */
+  private static final int hash(final Principal principal, final PrincipalsKey members) {
+    int hashCode = principal.hashCode();
+    if (members != null) {
+      hashCode = 31 * hashCode + (members == CYCLE ? 1 : 2 + members.hashCode);
+    }
+    return mix(hashCode);
+  }
+
+  /**
+   * Spreads the bits of an element's hash code so that summing them
+   * yields a well-distributed, order-insensitive hash code.
+   */
+  private static final int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A {@link Principal} and, if it is a {@link Group}, its members,
+   * used while building a {@link PrincipalsKey}.
+   */
+  private static final class Element {
+
+    private final Principal principal;
+
+    private final PrincipalsKey members;
+
+    private final int hashCode;
+
+    private Element(final Principal principal, final PrincipalsKey members) {
+      super();
+      this.principal = principal;
+      this.members = members;
+      this.hashCode = hash(principal, members);
+    }
+
+    private final boolean matches(final Principal principal, final PrincipalsKey members) {
+      return sameMembers(this.members, members) && this.principal.equals(principal);
+    }
+
+  }
+
+  /**
+   * A mutable stand-in for a {@link PrincipalsKey} that can be used to
+   * look one up in a hash-based {@link java.util.Map} without
+   * allocating.
+   *
+   * <p>A {@link Probe} has the same {@linkplain #hashCode() hash code}
+   * as, and is {@linkplain #equals(Object) equal} to, the {@link
+   * PrincipalsKey} that {@link PrincipalsKey#of(Principal[])} would
+   * return for the {@link Principal} array it was last {@linkplain
+   * #reset(Principal[]) reset} with.  It must never itself be stored
+   * in a {@link java.util.Map}.</p>
+   *
+   * <p>Instances of this class are not safe for use by concurrent
+   * threads; each thread should use its own.</p>
+   */
+  static final class Probe {
+
+    /**
+     * The length above which {@link #reset(Principal[])} simply builds
+     * a {@link PrincipalsKey}, since finding distinct elements in
+     * place is quadratic.
+     */
+    private static final int MAXIMUM_IN_PLACE_LENGTH = 32;
+
+    private Principal[] principals;
+
+    /**
+     * A real {@link PrincipalsKey} to defer to, or {@code null}.
+     */
+    private PrincipalsKey key;
+
+    private int size;
+
+    private int hashCode;
+
+    Probe() {
+      super();
+    }
+
+    /**
+     * Makes this {@link Probe} stand in for the {@link PrincipalsKey}
+     * that would be built from the supplied {@link Principal} array.
+     *
+     * <p>The array is retained, but not modified, until this {@link
+     * Probe} is next reset.  If it contains a {@link Group}, a {@link
+     * PrincipalsKey} is built from it.</p>
+     *
+     * @param principals the {@link Principal}s; may be {@code null}
+     *
+     * @return this {@link Probe}
+     */
+    final Probe reset(final Principal[] principals) {
+      this.principals = null;
+      this.key = null;
+      this.size = 0;
+      this.hashCode = 0;
+      if (principals != null && principals.length > 0) {
+        if (principals.length > MAXIMUM_IN_PLACE_LENGTH || containsGroup(principals)) {
+          this.key = PrincipalsKey.of(principals);
+          this.size = this.key.size();
+          this.hashCode = this.key.hashCode();
+        } else {
+          this.principals = principals;
+          int size = 0;
+          int hashCode = 0;
+          for (int i = 0; i < principals.length; i++) {
+            if (isDistinct(principals, i)) {
+              size++;
+              hashCode += hash(principals[i], null);
+            }
+          }
+          this.size = size;
+          this.hashCode = hashCode;
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Returns a real {@link PrincipalsKey} equal to this {@link Probe}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link PrincipalsKey}
+     */
+    final PrincipalsKey toKey() {
+      if (this.key != null) {
+        return this.key;
+      }
+      return PrincipalsKey.of(this.principals);
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hashCode;
+    }
+
+    /**
+     * Returns {@code true} if the supplied {@link Object} is a {@link
+     * PrincipalsKey} for the same set of {@link Principal}s this
+     * {@link Probe} was last reset with.
+     *
+     * @param other the {@link Object} to compare; may be {@code null}
+     *
+     * @return {@code true} if {@code other} is an equal {@link
+     * PrincipalsKey}
+     */
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof PrincipalsKey) {
+        final PrincipalsKey her = (PrincipalsKey)other;
+        if (this.key != null) {
+          return this.key.equals(her);
+        }
+        if (her == CYCLE || this.hashCode != her.hashCode || this.size != her.size()) {
+          return false;
+        }
+        if (this.principals != null) {
+          // Every one of our distinct elements is in her, and she has
+          // no more elements than we do.
+          for (final Principal principal : this.principals) {
+            if (principal != null && !her.contains(principal, null, hash(principal, null))) {
+              return false;
+            }
+          }
+        }
+        return true;
+      } else {
+        return false;
+      }
+    }
+
+    @Override
+    public final String toString() {
+      return this.toKey().toString();
+    }
+
+    private static final boolean containsGroup(final Principal[] principals) {
+      for (final Principal principal : principals) {
+        if (isGroup(principal)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Returns {@code true} if the element at the supplied index is
+     * non-{@code null} and not equal to any earlier element.
+     */
+    private static final boolean isDistinct(final Principal[] principals, final int index) {
+      final Principal principal = principals[index];
+      if (principal == null) {
+        return false;
+      }
+      for (int i = 0; i < index; i++) {
+        final Principal earlier = principals[i];
+        if (earlier != null && earlier.equals(principal)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+}
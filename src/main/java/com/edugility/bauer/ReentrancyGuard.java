@@ -0,0 +1,199 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records which threads are executing {@link
+ * Policy#implies(java.security.ProtectionDomain,
+ * java.security.Permission)} so that permission checks made while
+ * evaluating a permission can be recognized as reentrant.
+ *
+ * <p>Two implementations are available.  The {@linkplain
+ * #newThreadLocalGuard() thread-local guard} keeps a flag in a {@link
+ * ThreadLocal}, which costs one map entry on every thread that has
+ * ever checked a permission.  The {@linkplain #newSharedGuard()
+ * shared guard} keeps the threads that are executing {@link
+ * Policy#implies(java.security.ProtectionDomain,
+ * java.security.Permission)} right now in one concurrent map, so its
+ * size follows the number of permission checks in flight rather than
+ * the number of threads, which suits applications that run each
+ * request on its own virtual thread.  The price is that every
+ * {@link #enter()} allocates a node in that map, so a {@link
+ * Policy#implies(java.security.ProtectionDomain,
+ * java.security.Permission)} call guarded by the shared guard is
+ * never allocation-free.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ *
+ * @see Policy#VIRTUAL_THREADS
+ */
+abstract class ReentrancyGuard {
+
+  ReentrancyGuard() {
+    super();
+  }
+
+  /**
+   * Marks the current thread as executing {@link
+   * Policy#implies(java.security.ProtectionDomain,
+   * java.security.Permission)}.
+   *
+   * @return {@code true} if the current thread was not already so
+   * marked, in which case the caller must eventually invoke {@link
+   * #exit()}; {@code false} if the call is reentrant
+   */
+  abstract boolean enter();
+
+  /**
+   * Clears the mark set by a successful call to {@link #enter()}.
+   */
+  abstract void exit();
+
+  /**
+   * Sets or clears the mark for the current thread regardless of its
+   * prior state.
+   *
+   * @param inImplies whether the current thread is to be treated as
+   * executing {@link Policy#implies(java.security.ProtectionDomain,
+   * java.security.Permission)}
+   *
+   * @return the previous setting, which callers should restore
+   */
+  abstract boolean set(final boolean inImplies);
+
+  /**
+   * Returns a new {@link ReentrancyGuard} that keeps its marks in a
+   * {@link ThreadLocal}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link ReentrancyGuard}
+   */
+  static final ReentrancyGuard newThreadLocalGuard() {
+    return new ThreadLocalGuard();
+  }
+
+  /**
+   * Returns a new {@link ReentrancyGuard} that keeps its marks in a
+   * map shared by all threads.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} {@link ReentrancyGuard}
+   */
+  static final ReentrancyGuard newSharedGuard() {
+    return new SharedGuard();
+  }
+
+  private static final class ThreadLocalGuard extends ReentrancyGuard {
+
+    /**
+     * Per-thread flags.
+     *
+     * <p>Each thread's flag is a single-element {@code boolean}
+     * array that is flipped in place, so entering and leaving does
+     * not touch the {@link ThreadLocal}'s map.</p>
+     */
+    private final ThreadLocal<boolean[]> flags;
+
+    private ThreadLocalGuard() {
+      super();
+      this.flags = new ThreadLocal<boolean[]>() {
+          @Override
+          protected final boolean[] initialValue() {
+            return new boolean[1];
+          }
+        };
+    }
+
+    @Override
+    final boolean enter() {
+      final boolean[] flag = this.flags.get();
+      if (flag[0]) {
+        return false;
+      }
+      flag[0] = true;
+      return true;
+    }
+
+    @Override
+    final void exit() {
+      this.flags.get()[0] = false;
+    }
+
+    @Override
+    final boolean set(final boolean inImplies) {
+      final boolean[] flag = this.flags.get();
+      final boolean returnValue = flag[0];
+      flag[0] = inImplies;
+      return returnValue;
+    }
+
+  }
+
+  private static final class SharedGuard extends ReentrancyGuard {
+
+    /**
+     * The threads currently marked, keyed by identity ({@link
+     * Thread} does not override {@link Object#equals(Object)}).
+     *
+     * <p>An entry exists only while its thread is marked, so a thread
+     * that has finished leaves nothing behind.</p>
+     */
+    private final ConcurrentMap<Thread, Boolean> threads;
+
+    private SharedGuard() {
+      super();
+      this.threads = new ConcurrentHashMap<Thread, Boolean>();
+    }
+
+    @Override
+    final boolean enter() {
+      return this.threads.putIfAbsent(Thread.currentThread(), Boolean.TRUE) == null;
+    }
+
+    @Override
+    final void exit() {
+      this.threads.remove(Thread.currentThread());
+    }
+
+    @Override
+    final boolean set(final boolean inImplies) {
+      if (inImplies) {
+        return this.threads.put(Thread.currentThread(), Boolean.TRUE) != null;
+      }
+      return this.threads.remove(Thread.currentThread()) != null;
+    }
+
+  }
+
+}
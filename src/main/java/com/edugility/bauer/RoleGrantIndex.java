@@ -0,0 +1,359 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.AllPermission;
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.UnresolvedPermission;
+
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable index of every {@link Permission} granted to any role
+ * of a {@link CommittedPolicy}, in which each {@link Permission}
+ * carries a {@linkplain RoleTable bitset} of the roles that grant it.
+ *
+ * <p>Rather than looking up and consulting the policy of each of a
+ * caller's roles in turn, a {@link RoleGrantIndex} consults a single
+ * {@link PermissionIndex} per permission class and skips any
+ * candidate whose granting roles do not intersect the caller's with
+ * a bitwise AND.  A caller holding dozens of roles therefore pays for
+ * one index lookup, not dozens.</p>
+ *
+ * <p>Permissions whose classes supply their own homogeneous {@link
+ * PermissionCollection}, {@link AllPermission}s and {@link
+ * UnresolvedPermission}s are not indexed here; the roles granting
+ * them are instead recorded so that their own policies can be
+ * consulted directly.</p>
+ *
+ * <p>A {@link RoleGrantIndex} read from a {@link PolicySnapshot}
+ * builds the {@link PermissionIndex} for a permission class only the
+ * first time a {@link Permission} of that class is checked.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * concurrent threads.</p>
+ *
+ * @see CommittedPolicy#grants(Permission, java.util.Collection)
+ */
+final class RoleGrantIndex {
+
+  /**
+   * An empty {@link PermissionIndex} recorded for permission classes
+   * that a {@link PolicySnapshot} has no grants for, so that they are
+   * looked up only once.
+   */
+  private static final PermissionIndex NO_GRANTS = new PermissionIndex.Linear(new Permission[0]);
+
+  /**
+   * {@link PermissionIndex}es of role-granted {@link Permission}s,
+   * indexed by the {@link Class} of the {@link Permission}s they
+   * contain.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<Class<?>, PermissionIndex> indexes;
+
+  /**
+   * The bitset of roles whose policies contain {@link Permission}s
+   * that are not indexed and so must be consulted directly.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final long[] unindexedRoles;
+
+  /**
+   * The per-role policies, indexed by role identifier.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final PermissionCollection[] rolePolicies;
+
+  /**
+   * The {@link PolicySnapshot} from which {@link PermissionIndex}es
+   * missing from {@link #indexes} are built on demand, or {@code
+   * null} if {@link #indexes} is complete.
+   */
+  private final PolicySnapshot snapshot;
+
+  /**
+   * Creates a new {@link RoleGrantIndex}.
+   *
+   * @param roleTable the {@link RoleTable} assigning identifiers to
+   * the keys of {@code perRolePolicy}; must not be {@code null}
+   *
+   * @param perRolePolicy the per-role policies; must not be {@code
+   * null} and its keys must all be present in {@code roleTable}
+   */
+  RoleGrantIndex(final RoleTable roleTable, final Map<String, ? extends PermissionCollection> perRolePolicy) {
+    super();
+    assert roleTable != null;
+    assert perRolePolicy != null;
+    final int roleCount = roleTable.size();
+    this.rolePolicies = new PermissionCollection[roleCount];
+    for (final Map.Entry<String, ? extends PermissionCollection> entry : perRolePolicy.entrySet()) {
+      final int id = roleTable.idOf(entry.getKey());
+      if (id >= 0) {
+        this.rolePolicies[id] = entry.getValue();
+      }
+    }
+    this.unindexedRoles = roleTable.newBits();
+    this.snapshot = null;
+
+    final Map<Class<?>, Map<Permission, long[]>> byClass = group(roleTable, perRolePolicy, this.unindexedRoles);
+    final Map<Class<?>, PermissionIndex> indexes = new HashMap<Class<?>, PermissionIndex>(byClass.size() * 4 / 3 + 1);
+    for (final Map.Entry<Class<?>, Map<Permission, long[]>> entry : byClass.entrySet()) {
+      final Map<Permission, long[]> permissions = entry.getValue();
+      final Permission[] keys = new Permission[permissions.size()];
+      final long[][] roles = new long[keys.length][];
+      int i = 0;
+      for (final Map.Entry<Permission, long[]> permissionEntry : permissions.entrySet()) {
+        keys[i] = permissionEntry.getKey();
+        roles[i] = permissionEntry.getValue();
+        i++;
+      }
+      indexes.put(entry.getKey(), PermissionIndex.of(keys, roles));
+    }
+    this.indexes = indexes;
+  }
+
+  /**
+   * Creates a new {@link RoleGrantIndex} whose {@link
+   * PermissionIndex}es will be built from the supplied {@link
+   * PolicySnapshot} as they are needed.
+   *
+   * @param rolePolicies the per-role policies, indexed by role
+   * identifier; must not be {@code null}
+   *
+   * @param unindexedRoles the bitset of roles whose policies must be
+   * consulted directly; must not be {@code null}
+   *
+   * @param snapshot the {@link PolicySnapshot} recording the grants;
+   * must not be {@code null}
+   */
+  RoleGrantIndex(final PermissionCollection[] rolePolicies, final long[] unindexedRoles, final PolicySnapshot snapshot) {
+    super();
+    assert rolePolicies != null;
+    assert unindexedRoles != null;
+    assert snapshot != null;
+    this.rolePolicies = rolePolicies;
+    this.unindexedRoles = unindexedRoles;
+    this.snapshot = snapshot;
+    this.indexes = new ConcurrentHashMap<Class<?>, PermissionIndex>();
+  }
+
+  /**
+   * Creates a new {@link RoleGrantIndex} from already-built {@link
+   * PermissionIndex}es, such as those {@linkplain #getIndex(Class)
+   * taken} from a previous {@link RoleGrantIndex} and those built for
+   * a {@link PolicyVersion}.
+   *
+   * @param rolePolicies the per-role policies, indexed by role
+   * identifier; must not be {@code null}
+   *
+   * @param unindexedRoles the bitset of roles whose policies must be
+   * consulted directly; must not be {@code null}
+   *
+   * @param indexes {@link PermissionIndex}es indexed by permission
+   * class; must not be {@code null} and must not be modified
+   * afterwards
+   */
+  RoleGrantIndex(final PermissionCollection[] rolePolicies, final long[] unindexedRoles, final Map<Class<?>, PermissionIndex> indexes) {
+    super();
+    assert rolePolicies != null;
+    assert unindexedRoles != null;
+    assert indexes != null;
+    this.rolePolicies = rolePolicies;
+    this.unindexedRoles = unindexedRoles;
+    this.snapshot = null;
+    this.indexes = indexes;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission} can be
+   * indexed by a {@link RoleGrantIndex}, that is, if it is neither an
+   * {@link AllPermission} nor an {@link UnresolvedPermission} and its
+   * class does not supply a homogeneous {@link
+   * PermissionCollection}.
+   *
+   * @param p the {@link Permission} to test; must not be {@code null}
+   *
+   * @return {@code true} if {@code p} can be indexed
+   */
+  static final boolean isIndexable(final Permission p) {
+    assert p != null;
+    return !(p instanceof AllPermission) && !(p instanceof UnresolvedPermission) && p.newPermissionCollection() == null;
+  }
+
+  /**
+   * Groups every indexable {@link Permission} granted by the supplied
+   * per-role policies by class, pairing each with the {@linkplain
+   * RoleTable bitset} of roles that grant it, and records in {@code
+   * unindexedRoles} the roles granting anything that cannot be
+   * indexed.
+   *
+   * <p>The same {@link Permission} granted to several roles appears
+   * once.  This method never returns {@code null}.</p>
+   *
+   * @param roleTable the {@link RoleTable} assigning identifiers to
+   * the keys of {@code perRolePolicy}; must not be {@code null}
+   *
+   * @param perRolePolicy the per-role policies; must not be {@code
+   * null}
+   *
+   * @param unindexedRoles a bitset, {@linkplain RoleTable#newBits()
+   * sized} for {@code roleTable}, to which the roles that must be
+   * consulted directly are added; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Map} of {@link Permission}s and
+   * their granting roles, indexed by {@link Class}
+   */
+  static final Map<Class<?>, Map<Permission, long[]>> group(final RoleTable roleTable, final Map<String, ? extends PermissionCollection> perRolePolicy, final long[] unindexedRoles) {
+    assert roleTable != null;
+    assert perRolePolicy != null;
+    assert unindexedRoles != null;
+    final Map<Class<?>, Map<Permission, long[]>> byClass = new LinkedHashMap<Class<?>, Map<Permission, long[]>>();
+    final Map<Class<?>, Boolean> indexable = new HashMap<Class<?>, Boolean>();
+    for (final Map.Entry<String, ? extends PermissionCollection> entry : perRolePolicy.entrySet()) {
+      final int id = roleTable.idOf(entry.getKey());
+      final PermissionCollection rolePolicy = entry.getValue();
+      if (id < 0 || rolePolicy == null) {
+        continue;
+      }
+      final Enumeration<Permission> elements = rolePolicy.elements();
+      while (elements != null && elements.hasMoreElements()) {
+        final Permission p = elements.nextElement();
+        if (p == null) {
+          continue;
+        }
+        final Class<?> c = p.getClass();
+        Boolean isIndexable = indexable.get(c);
+        if (isIndexable == null) {
+          isIndexable = Boolean.valueOf(isIndexable(p));
+          indexable.put(c, isIndexable);
+        }
+        if (isIndexable.booleanValue()) {
+          Map<Permission, long[]> permissions = byClass.get(c);
+          if (permissions == null) {
+            permissions = new LinkedHashMap<Permission, long[]>();
+            byClass.put(c, permissions);
+          }
+          long[] roles = permissions.get(p);
+          if (roles == null) {
+            roles = roleTable.newBits();
+            permissions.put(p, roles);
+          }
+          RoleTable.set(roles, id);
+        } else {
+          RoleTable.set(unindexedRoles, id);
+        }
+      }
+    }
+    return byClass;
+  }
+
+  /**
+   * Returns the {@link PermissionIndex} of the grants of the supplied
+   * permission class, or {@code null} if there are none.
+   *
+   * @param c the permission class; must not be {@code null}
+   *
+   * @return the {@link PermissionIndex}, or {@code null}
+   */
+  final PermissionIndex getIndex(final Class<?> c) {
+    assert c != null;
+    PermissionIndex returnValue = this.indexes.get(c);
+    if (returnValue == null && this.snapshot != null) {
+      returnValue = this.inflate(c);
+    }
+    return returnValue == NO_GRANTS ? null : returnValue;
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Permission} is implied
+   * by the policy of at least one of the roles in the supplied
+   * bitset.
+   *
+   * @param p the {@link Permission} to check; must not be {@code null}
+   *
+   * @param roles a {@linkplain RoleTable bitset} of roles; must not
+   * be {@code null}
+   *
+   * @return {@code true} if {@code p} is granted to any of the roles
+   */
+  final boolean implies(final Permission p, final long[] roles) {
+    assert p != null;
+    assert roles != null;
+    PermissionIndex index = this.indexes.get(p.getClass());
+    if (index == null && this.snapshot != null) {
+      index = this.inflate(p.getClass());
+    }
+    if (index != null && index.implies(p, roles)) {
+      return true;
+    }
+    final long[] unindexedRoles = this.unindexedRoles;
+    final int length = Math.min(unindexedRoles.length, roles.length);
+    for (int i = 0; i < length; i++) {
+      long word = unindexedRoles[i] & roles[i];
+      while (word != 0L) {
+        final int id = (i << 6) + Long.numberOfTrailingZeros(word);
+        if (this.rolePolicies[id].implies(p)) {
+          return true;
+        }
+        word &= word - 1L;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Builds, records and returns the {@link PermissionIndex} for the
+   * supplied permission class from {@link #snapshot}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param c the permission class; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link PermissionIndex}
+   */
+  private final PermissionIndex inflate(final Class<?> c) {
+    assert c != null;
+    PermissionIndex returnValue = this.snapshot.getGrantIndex(c);
+    if (returnValue == null) {
+      returnValue = NO_GRANTS;
+    }
+    this.indexes.put(c, returnValue);
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,130 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * An unmodifiable {@link Set} of role names that remembers its own
+ * {@linkplain RoleTable#bitsOf(java.util.Collection) bitset}, so that
+ * a subject whose roles are cached by a {@link CachingRoleMapper} has
+ * them converted to a bitset only once per {@link CommittedPolicy}, or
+ * only once for all the {@link CommittedPolicy}s of {@linkplain
+ * LinkGroup linked} policy contexts.
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ *
+ * @see CachingRoleMapper
+ * @see RoleTable
+ */
+final class RoleSet extends AbstractSet<String> {
+
+  /**
+   * The role names.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Set<String> roles;
+
+  /**
+   * The most recently computed bitset and the {@link RoleTable} it
+   * was computed against, or {@code null}.
+   */
+  private volatile Bits bits;
+
+  /**
+   * Creates a new {@link RoleSet}.
+   *
+   * @param roles the role names; must not be {@code null} and must
+   * not be modified afterwards
+   */
+  RoleSet(final Set<String> roles) {
+    super();
+    assert roles != null;
+    this.roles = Collections.unmodifiableSet(roles);
+  }
+
+  @Override
+  public final Iterator<String> iterator() {
+    return this.roles.iterator();
+  }
+
+  @Override
+  public final int size() {
+    return this.roles.size();
+  }
+
+  @Override
+  public final boolean contains(final Object o) {
+    return this.roles.contains(o);
+  }
+
+  /**
+   * Returns the bitset last {@linkplain #setBits(RoleTable, long[])
+   * remembered}, if it was computed against a {@link RoleTable} that
+   * {@linkplain RoleTable#covers(RoleTable) covers} the supplied one,
+   * or {@code null}.
+   */
+  final long[] getBits(final RoleTable roleTable) {
+    final Bits bits = this.bits;
+    return bits == null || !bits.roleTable.covers(roleTable) ? null : bits.bits;
+  }
+
+  /**
+   * Remembers the bitset of this {@link RoleSet} computed against the
+   * supplied {@link RoleTable}, replacing any other.
+   */
+  final void setBits(final RoleTable roleTable, final long[] bits) {
+    this.bits = new Bits(roleTable, bits);
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  private static final class Bits {
+
+    private final RoleTable roleTable;
+
+    private final long[] bits;
+
+    private Bits(final RoleTable roleTable, final long[] bits) {
+      super();
+      this.roleTable = roleTable;
+      this.bits = bits;
+    }
+
+  }
+
+}
@@ -0,0 +1,302 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable table that assigns each role name known to a {@link
+ * CommittedPolicy} a dense integer identifier, so that sets of roles
+ * can be represented as bitsets and compared with a bitwise AND.
+ *
+ * <p>A bitset is a {@code long[]} in which bit {@code id % 64} of
+ * word {@code id / 64} is set if the role with identifier {@code id}
+ * is a member.  Role names not present in the table have no
+ * identifier and are simply left out of any bitset built from
+ * them.</p>
+ *
+ * <p>A {@link RoleTable} may belong to a <em>lineage</em>, such as a
+ * {@link LinkGroup}, in which each table keeps the identifiers of
+ * its predecessors and only adds to them.  A bitset computed against
+ * one table of a lineage is then also valid for every smaller
+ * table of the same lineage.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * concurrent threads.</p>
+ *
+ * @see CommittedPolicy
+ * @see RoleGrantIndex
+ */
+final class RoleTable {
+
+  /**
+   * A shared, empty bitset.
+   */
+  static final long[] EMPTY_BITS = new long[0];
+
+  /**
+   * Role identifiers indexed by role name.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<String, Integer> ids;
+
+  /**
+   * Role names indexed by role identifier.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final String[] names;
+
+  /**
+   * The lineage of this {@link RoleTable}, or {@code null}.
+   *
+   * @see #covers(RoleTable)
+   */
+  private final Object lineage;
+
+  /**
+   * Creates a new {@link RoleTable} assigning identifiers to the
+   * supplied role names in iteration order.
+   *
+   * @param roleNames the role names; may be {@code null}; {@code
+   * null} and duplicate elements are ignored
+   */
+  RoleTable(final Collection<? extends String> roleNames) {
+    super();
+    if (roleNames == null || roleNames.isEmpty()) {
+      this.ids = new HashMap<String, Integer>(1);
+      this.names = new String[0];
+    } else {
+      final Map<String, Integer> ids = new HashMap<String, Integer>(roleNames.size() * 4 / 3 + 1);
+      for (final String roleName : roleNames) {
+        if (roleName != null && !ids.containsKey(roleName)) {
+          ids.put(roleName, Integer.valueOf(ids.size()));
+        }
+      }
+      final String[] names = new String[ids.size()];
+      for (final Map.Entry<String, Integer> entry : ids.entrySet()) {
+        names[entry.getValue().intValue()] = entry.getKey();
+      }
+      this.ids = ids;
+      this.names = names;
+    }
+    this.lineage = null;
+  }
+
+  /**
+   * Creates a new {@link RoleTable} assigning to each element of the
+   * supplied array its index as an identifier.
+   *
+   * @param names the role names, indexed by identifier; must not be
+   * {@code null}; {@code null} elements mark identifiers that are not
+   * assigned; no role name may appear twice; the array is not copied
+   * and must not be modified afterwards
+   *
+   * @see PolicyVersion#getRoleNames()
+   */
+  RoleTable(final String[] names) {
+    this(names, null);
+  }
+
+  /**
+   * Creates a new {@link RoleTable} assigning to each element of the
+   * supplied array its index as an identifier, and belonging to the
+   * supplied lineage.
+   *
+   * @param names the role names, indexed by identifier; must not be
+   * {@code null}; {@code null} elements mark identifiers that are not
+   * assigned; no role name may appear twice; the array is not copied
+   * and must not be modified afterwards
+   *
+   * @param lineage the lineage of the new {@link RoleTable}, every
+   * other member of which assigns the same identifiers to the names
+   * they have in common; may be {@code null}
+   *
+   * @see #covers(RoleTable)
+   * @see LinkGroup#getRoleTable()
+   */
+  RoleTable(final String[] names, final Object lineage) {
+    super();
+    assert names != null;
+    final Map<String, Integer> ids = new HashMap<String, Integer>(names.length * 4 / 3 + 1);
+    for (int id = 0; id < names.length; id++) {
+      if (names[id] != null) {
+        ids.put(names[id], Integer.valueOf(id));
+      }
+    }
+    this.ids = ids;
+    this.names = names;
+    this.lineage = lineage;
+  }
+
+  /**
+   * Returns {@code true} if a bitset computed against this {@link
+   * RoleTable} is also valid for the supplied one, either because
+   * they are the same or because they belong to the same lineage and
+   * this one is at least as large.
+   *
+   * @param other a {@link RoleTable}; may be {@code null}
+   *
+   * @return {@code true} if this {@link RoleTable} covers {@code
+   * other}
+   */
+  final boolean covers(final RoleTable other) {
+    return other == this || (other != null && this.lineage != null && this.lineage == other.lineage && this.names.length >= other.names.length);
+  }
+
+  /**
+   * Returns the number of role identifiers in this {@link RoleTable},
+   * including any that are not assigned.
+   *
+   * @return the number of role identifiers
+   */
+  final int size() {
+    return this.names.length;
+  }
+
+  /**
+   * Returns the identifier of the supplied role name, or {@code -1}
+   * if it has none.
+   *
+   * @param roleName the role name; may be {@code null}
+   *
+   * @return the role identifier, or {@code -1}
+   */
+  final int idOf(final String roleName) {
+    if (roleName == null) {
+      return -1;
+    }
+    final Integer id = this.ids.get(roleName);
+    return id == null ? -1 : id.intValue();
+  }
+
+  /**
+   * Returns the role name with the supplied identifier.
+   *
+   * @param id a role identifier in the range {@code [0, }{@link
+   * #size()}{@code )}
+   *
+   * @return the role name, or {@code null} if {@code id} is not
+   * assigned
+   */
+  final String nameOf(final int id) {
+    return this.names[id];
+  }
+
+  /**
+   * Returns a new bitset large enough to hold every role in this
+   * {@link RoleTable}, with no bits set.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, empty bitset
+   */
+  final long[] newBits() {
+    return new long[(this.names.length + 63) >>> 6];
+  }
+
+  /**
+   * Returns a bitset of the supplied role names.
+   *
+   * <p>If {@code roles} is a {@link RoleSet}, as returned by {@link
+   * CachingRoleMapper}, the bitset is computed only once per {@link
+   * RoleTable} and then remembered by the {@link RoleSet}.</p>
+   *
+   * <p>This method never returns {@code null}.  The returned array
+   * must not be modified.</p>
+   *
+   * @param roles the role names; may be {@code null}
+   *
+   * @return a non-{@code null} bitset
+   */
+  final long[] bitsOf(final Collection<? extends String> roles) {
+    if (roles == null || roles.isEmpty() || this.names.length <= 0) {
+      return EMPTY_BITS;
+    }
+    if (roles instanceof RoleSet) {
+      final RoleSet roleSet = (RoleSet)roles;
+      long[] bits = roleSet.getBits(this);
+      if (bits == null) {
+        bits = this.computeBits(roles);
+        roleSet.setBits(this, bits);
+      }
+      return bits;
+    }
+    return this.computeBits(roles);
+  }
+
+  private final long[] computeBits(final Collection<? extends String> roles) {
+    long[] bits = null;
+    for (final String role : roles) {
+      final int id = this.idOf(role);
+      if (id >= 0) {
+        if (bits == null) {
+          bits = this.newBits();
+        }
+        set(bits, id);
+      }
+    }
+    return bits == null ? EMPTY_BITS : bits;
+  }
+
+  /**
+   * Sets the bit for the supplied role identifier.
+   *
+   * @param bits the bitset to modify; must not be {@code null} and
+   * must be large enough
+   *
+   * @param id the role identifier
+   */
+  static final void set(final long[] bits, final int id) {
+    bits[id >>> 6] |= 1L << id;
+  }
+
+  /**
+   * Returns {@code true} if the supplied bitsets have at least one
+   * bit in common.
+   *
+   * @param a a bitset; must not be {@code null}
+   *
+   * @param b another bitset; must not be {@code null}
+   *
+   * @return {@code true} if {@code a} and {@code b} intersect
+   */
+  static final boolean intersects(final long[] a, final long[] b) {
+    final int length = Math.min(a.length, b.length);
+    for (int i = 0; i < length; i++) {
+      if ((a[i] & b[i]) != 0L) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,189 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.Map;
+
+/**
+ * An immutable, open-addressing hash table keyed by {@link String}s
+ * that can be probed with a region of a larger {@link String}
+ * without creating a substring.
+ *
+ * <p>The indexes built at commit time look up path segments, file
+ * extensions and method names that are parts of a {@link
+ * java.security.Permission}'s name or actions.  Probing a {@link
+ * StringTable} with {@link #get(String, int, int)} lets them do so
+ * without allocating.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * concurrent threads.</p>
+ *
+ * @param <V> the type of value stored
+ */
+final class StringTable<V> {
+
+  private static final StringTable<?> EMPTY = new StringTable<Object>(new String[1], new Object[1]);
+
+  private final String[] keys;
+
+  private final Object[] values;
+
+  private final int mask;
+
+  private StringTable(final String[] keys, final Object[] values) {
+    super();
+    assert keys.length == values.length;
+    assert Integer.bitCount(keys.length) == 1;
+    this.keys = keys;
+    this.values = values;
+    this.mask = keys.length - 1;
+  }
+
+  /**
+   * Returns a {@link StringTable} with the same contents as the
+   * supplied {@link Map}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param <V> the type of value stored
+   *
+   * @param map the {@link Map} to copy; may be {@code null}; must not
+   * have {@code null} keys or values
+   *
+   * @return a non-{@code null} {@link StringTable}
+   */
+  @SuppressWarnings("unchecked")
+  static final <V> StringTable<V> of(final Map<String, ? extends V> map) {
+    if (map == null || map.isEmpty()) {
+      return (StringTable<V>)EMPTY;
+    }
+    int capacity = 2;
+    while (capacity < map.size() * 2) {
+      capacity <<= 1;
+    }
+    final String[] keys = new String[capacity];
+    final Object[] values = new Object[capacity];
+    final int mask = capacity - 1;
+    for (final Map.Entry<String, ? extends V> entry : map.entrySet()) {
+      final String key = entry.getKey();
+      assert key != null;
+      assert entry.getValue() != null;
+      int i = spread(key.hashCode()) & mask;
+      while (keys[i] != null) {
+        i = (i + 1) & mask;
+      }
+      keys[i] = key;
+      values[i] = entry.getValue();
+    }
+    return new StringTable<V>(keys, values);
+  }
+
+  /**
+   * Returns {@code true} if this {@link StringTable} has no entries.
+   *
+   * @return {@code true} if this {@link StringTable} is empty
+   */
+  final boolean isEmpty() {
+    return this == EMPTY;
+  }
+
+  /**
+   * Returns the value stored under the supplied key, or {@code null}.
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @return the value, or {@code null}
+   */
+  final V get(final String key) {
+    return this.get(key, 0, key.length());
+  }
+
+  /**
+   * Returns the value stored under the key equal to the characters of
+   * {@code s} from {@code start} (inclusive) to {@code end}
+   * (exclusive), or {@code null}.
+   *
+   * @param s the {@link String} containing the key; must not be
+   * {@code null}
+   *
+   * @param start the index of the first character of the key
+   *
+   * @param end the index just past the last character of the key
+   *
+   * @return the value, or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  final V get(final String s, final int start, final int end) {
+    // The same hash String.hashCode() would produce for the
+    // substring.
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + s.charAt(i);
+    }
+    final int length = end - start;
+    final String[] keys = this.keys;
+    int i = spread(hash) & this.mask;
+    String key;
+    while ((key = keys[i]) != null) {
+      if (key.length() == length && key.hashCode() == hash && s.regionMatches(start, key, 0, length)) {
+        return (V)this.values[i];
+      }
+      i = (i + 1) & this.mask;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the number of slots in this {@link StringTable}, for use
+   * with {@link #valueAt(int)}.
+   *
+   * @return the number of slots
+   */
+  final int slots() {
+    return this.values.length;
+  }
+
+  /**
+   * Returns the value in the supplied slot, or {@code null} if the
+   * slot is empty.
+   *
+   * @param slot a slot number in the range {@code [0, }{@link
+   * #slots()}{@code )}
+   *
+   * @return the value in the slot, or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  final V valueAt(final int slot) {
+    return (V)this.values[slot];
+  }
+
+  private static final int spread(final int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+}
@@ -0,0 +1,248 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.Arrays;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A counter that many threads can increment at once without
+ * contending for a single memory location.
+ *
+ * <p>A {@link StripedCounter} starts out as a single {@code long}.
+ * Only when two threads are seen to collide on it does it spread
+ * increments across a table of <em>stripes</em>, chosen by the
+ * incrementing thread's identifier and each padded onto its own cache
+ * line; the table doubles on each further collision until it has
+ * {@link #STRIPES} stripes, and each stripe is created the first time
+ * a thread needs it.  This is the scheme {@code
+ * java.util.concurrent.atomic.LongAdder} uses, so an uncontended
+ * counter costs a few dozen bytes no matter how many processors the
+ * host has.  Reading the counter sums the base value and the stripes.
+ * A sum taken while other threads are incrementing is not an atomic
+ * snapshot, which is fine for statistics.</p>
+ *
+ * <p>Instances of this class are safe for use by concurrent
+ * threads.</p>
+ */
+final class StripedCounter {
+
+  /**
+   * The largest number of stripes; a power of two no smaller than the
+   * number of available processors and no larger than {@code 64}.
+   */
+  static final int STRIPES = stripes();
+
+  private static final AtomicLongFieldUpdater<StripedCounter> BASE = AtomicLongFieldUpdater.newUpdater(StripedCounter.class, "base");
+
+  /**
+   * The value of this {@link StripedCounter} not held in {@link
+   * #cells}.
+   */
+  private volatile long base;
+
+  /**
+   * The stripes, or {@code null} if there has been no contention;
+   * its length is a power of two no larger than {@link #STRIPES}, and
+   * any element may be {@code null}.
+   */
+  private volatile Cell[] cells;
+
+  /**
+   * Creates a new {@link StripedCounter} whose value is {@code 0}.
+   */
+  StripedCounter() {
+    super();
+  }
+
+  /**
+   * Adds {@code 1} to this {@link StripedCounter}.
+   */
+  final void increment() {
+    this.add(1L);
+  }
+
+  /**
+   * Adds the supplied amount to this {@link StripedCounter}.
+   *
+   * @param delta the amount to add
+   */
+  final void add(final long delta) {
+    Cell[] cells = this.cells;
+    if (cells == null) {
+      final long base = this.base;
+      if (BASE.compareAndSet(this, base, base + delta)) {
+        return;
+      }
+      cells = this.expand(null, false);
+    }
+    final int stripe = stripe();
+    while (true) {
+      final Cell cell = cells[stripe & (cells.length - 1)];
+      if (cell == null) {
+        cells = this.expand(cells, false);
+      } else {
+        final long value = cell.value;
+        if (Cell.VALUE.compareAndSet(cell, value, value + delta)) {
+          return;
+        }
+        if (cells.length >= STRIPES) {
+          // Nowhere left to spread to.
+          Cell.VALUE.addAndGet(cell, delta);
+          return;
+        }
+        cells = this.expand(cells, true);
+      }
+    }
+  }
+
+  /**
+   * Returns the current value of this {@link StripedCounter}.
+   *
+   * @return the sum of all stripes
+   */
+  final long sum() {
+    long returnValue = this.base;
+    final Cell[] cells = this.cells;
+    if (cells != null) {
+      for (final Cell cell : cells) {
+        if (cell != null) {
+          returnValue += cell.value;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Sets this {@link StripedCounter} back to {@code 0}.
+   *
+   * <p>Increments that happen concurrently with this method may or
+   * may not be lost.</p>
+   */
+  final void reset() {
+    this.base = 0L;
+    final Cell[] cells = this.cells;
+    if (cells != null) {
+      for (final Cell cell : cells) {
+        if (cell != null) {
+          cell.value = 0L;
+        }
+      }
+    }
+  }
+
+  /**
+   * Makes sure the current thread has a stripe, doubling the table of
+   * stripes first if it has not grown since {@code seen} was read and
+   * the current thread collided on its stripe.
+   *
+   * <p>This method is called only when contention is first seen, so
+   * it simply synchronizes.  This method never returns {@code
+   * null}.</p>
+   *
+   * @param seen the table the caller last read; may be {@code null}
+   *
+   * @param collided whether the caller collided with another thread
+   * on its stripe in {@code seen}
+   *
+   * @return the current table, in which the current thread's stripe
+   * exists
+   */
+  private final synchronized Cell[] expand(final Cell[] seen, final boolean collided) {
+    Cell[] cells = this.cells;
+    if (cells == null) {
+      cells = new Cell[Math.min(2, STRIPES)];
+    } else if (cells == seen && collided && cells.length < STRIPES) {
+      cells = Arrays.copyOf(cells, cells.length * 2);
+    }
+    final int index = stripe() & (cells.length - 1);
+    if (cells[index] == null) {
+      // Readers that see the new Cell before its value is published
+      // see 0, which is its initial value anyway.
+      cells[index] = new Cell();
+    }
+    this.cells = cells;
+    return cells;
+  }
+
+  /**
+   * Returns the stripe the current thread should use, in the range
+   * {@code [0, }{@link #STRIPES}{@code )}.
+   *
+   * @return the current thread's stripe
+   */
+  static final int stripe() {
+    long id = Thread.currentThread().getId();
+    id ^= id >>> 33;
+    id *= 0xff51afd7ed558ccdL;
+    id ^= id >>> 33;
+    return (int)id & (STRIPES - 1);
+  }
+
+  private static final int stripes() {
+    final int processors = Runtime.getRuntime().availableProcessors();
+    int returnValue = 1;
+    while (returnValue < processors && returnValue < 64) {
+      returnValue <<= 1;
+    }
+    return returnValue;
+  }
+
+  @Override
+  public final String toString() {
+    return String.valueOf(this.sum());
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A stripe: a {@code long} followed by enough padding that the
+   * values of two {@link Cell}s allocated one after the other never
+   * share a 64-byte cache line.
+   */
+  private static final class Cell {
+
+    private static final AtomicLongFieldUpdater<Cell> VALUE = AtomicLongFieldUpdater.newUpdater(Cell.class, "value");
+
+    private volatile long value;
+
+    private long p1, p2, p3, p4, p5, p6, p7;
+
+    private Cell() {
+      super();
+    }
+
+  }
+
+}
@@ -0,0 +1,726 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link PermissionIndex} for {@link
+ * javax.security.jacc.WebResourcePermission}s or {@link
+ * javax.security.jacc.WebUserDataPermission}s that uses the servlet
+ * URL pattern matching rules to find candidate permissions.
+ *
+ * <p>A web permission can only imply another if the first URL
+ * pattern in its name matches the first URL pattern in the other's
+ * name.  Permissions are therefore bucketed by the type of their
+ * first URL pattern:</p>
+ *
+ * <ul>
+ *
+ * <li><strong>exact</strong> patterns (including the empty
+ * context-root pattern) are found by a single hash lookup;</li>
+ *
+ * <li><strong>path-prefix</strong> patterns ({@code /a/b/*}) are
+ * stored in a trie of path segments that is walked once along the
+ * path being checked;</li>
+ *
+ * <li><strong>extension</strong> patterns ({@code *.jsp}) are found
+ * by a single hash lookup on the extension being checked;</li>
+ *
+ * <li>the <strong>default</strong> pattern ({@code /}) is always a
+ * candidate.</li>
+ *
+ * </ul>
+ *
+ * <p>Each candidate also carries its parsed HTTP method set and its
+ * qualifying (excluded) URL patterns so that candidates that plainly
+ * cannot imply the permission being checked are rejected without
+ * calling {@link Permission#implies(Permission)}.  A surviving
+ * candidate whose implying side has no qualifying patterns is
+ * decided here, from its parsed pattern, methods and transport type,
+ * by the same rules {@link javax.security.jacc.WebResourcePermission}
+ * and {@link javax.security.jacc.WebUserDataPermission} apply; any
+ * other candidate is confirmed with {@link
+ * Permission#implies(Permission)}.  Either way this index never
+ * changes the outcome of a check, only its cost.</p>
+ *
+ * <p>The same buckets answer the reverse question, namely whether a
+ * given web permission implies any indexed permission, which is how
+ * exclusions are tested.  Exact patterns are also stored in the trie
+ * and by extension so that a path-prefix or extension pattern can
+ * find the exact patterns it matches without a full scan.</p>
+ *
+ * <p>Lookups probe the buckets with regions of the checked
+ * permission's name (see {@link StringTable}) rather than with
+ * substrings, and parsed HTTP method sets are cached by their actions
+ * string, so that a check against a warm index allocates no memory
+ * unless it has to fall back to {@link
+ * Permission#implies(Permission)}: the reference implementation's
+ * URL pattern matching allocates substrings, and its HTTP method
+ * matching clones bit sets when extension methods are involved.  The
+ * reference {@link javax.security.jacc.WebUserDataPermission} also
+ * builds a new actions string on every call to {@link
+ * Permission#getActions()} when it has a transport type.</p>
+ *
+ * <p>Instances of this class are immutable and safe for use by
+ * concurrent threads.</p>
+ */
+final class WebPermissionIndex extends PermissionIndex {
+
+  private static final Entry[] EMPTY_ENTRY_ARRAY = new Entry[0];
+
+  private final StringTable<Entry[]> exact;
+
+  private final StringTable<Entry[]> extensions;
+
+  private final StringTable<Entry[]> exactByExtension;
+
+  private final PathNode root;
+
+  private final Entry[] defaults;
+
+  private final Entry[] all;
+
+  /**
+   * Creates a new {@link WebPermissionIndex}.
+   *
+   * @param permissions the {@link Permission}s to index; must not be
+   * {@code null}, must not contain {@code null} elements and must all
+   * be of the same web permission class
+   *
+   * @param roles the {@linkplain RoleTable role bitsets} granting
+   * each of the {@code permissions}, in the same order; may be {@code
+   * null}
+   */
+  WebPermissionIndex(final Permission[] permissions, final long[][] roles) {
+    super();
+    assert permissions != null;
+    final Map<String, List<Entry>> exact = new HashMap<String, List<Entry>>();
+    final Map<String, List<Entry>> extensions = new HashMap<String, List<Entry>>();
+    final Map<String, List<Entry>> exactByExtension = new HashMap<String, List<Entry>>();
+    final PathNode.Builder root = new PathNode.Builder();
+    final List<Entry> defaults = new ArrayList<Entry>();
+    final Entry[] all = new Entry[permissions.length];
+    for (int i = 0; i < permissions.length; i++) {
+      final Entry entry = new Entry(permissions[i], roles == null ? null : roles[i]);
+      all[i] = entry;
+      final String pattern = entry.pattern;
+      if ("/".equals(pattern)) {
+        defaults.add(entry);
+      } else if (pattern.startsWith("*.")) {
+        add(extensions, extensionOf(pattern), entry);
+      } else if (pattern.startsWith("/") && pattern.endsWith("/*")) {
+        root.descendant(pattern.substring(0, pattern.length() - 2)).entries.add(entry);
+      } else {
+        add(exact, pattern, entry);
+        if (pattern.startsWith("/")) {
+          root.descendant(pattern).exactEntries.add(entry);
+        }
+        if (pattern.lastIndexOf('.') >= 0) {
+          add(exactByExtension, extensionOf(pattern), entry);
+        }
+      }
+    }
+    this.exact = freeze(exact);
+    this.extensions = freeze(extensions);
+    this.exactByExtension = freeze(exactByExtension);
+    this.root = root.build();
+    this.defaults = defaults.toArray(new Entry[defaults.size()]);
+    this.all = all;
+  }
+
+  @Override
+  final boolean implies(final Permission permission, final long[] roles) {
+    // The first URL pattern is name[0, end); it is never extracted.
+    final String name = permission.getName();
+    final int end = patternEnd(name);
+    final Methods methods = Methods.of(permission.getActions());
+
+    if (this.defaults.length > 0 && implies(this.defaults, name, end, methods, roles, permission)) {
+      return true;
+    }
+
+    final Entry[] exactEntries = this.exact.get(name, 0, end);
+    if (exactEntries != null && implies(exactEntries, name, end, methods, roles, permission)) {
+      return true;
+    }
+
+    PathNode node = this.root;
+    if (node.entries.length > 0 && implies(node.entries, name, end, methods, roles, permission)) {
+      return true;
+    }
+    if (end > 0 && name.charAt(0) == '/') {
+      int start = 1;
+      while (node.children != null) {
+        final int slash = segmentEnd(name, start, end);
+        node = node.children.get(name, start, slash);
+        if (node == null) {
+          break;
+        }
+        if (node.entries.length > 0 && implies(node.entries, name, end, methods, roles, permission)) {
+          return true;
+        }
+        if (slash >= end) {
+          break;
+        }
+        start = slash + 1;
+      }
+    }
+
+    if (!this.extensions.isEmpty() && end > 0) {
+      final int dot = name.lastIndexOf('.', end - 1);
+      if (dot >= 0) {
+        final Entry[] extensionEntries = this.extensions.get(name, dot + 1, end);
+        if (extensionEntries != null && implies(extensionEntries, name, end, methods, roles, permission)) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  final boolean anyImpliedBy(final Permission permission) {
+    final String name = permission.getName();
+    final int end = patternEnd(name);
+    final Methods methods = Methods.of(permission.getActions());
+
+    if ((end == 1 && name.charAt(0) == '/') || (end == 2 && name.startsWith("/*"))) {
+      // Matches every pattern.
+      return impliedBy(this.all, name, end, methods, permission);
+    }
+
+    if (end >= 2 && name.startsWith("*.")) {
+      // Matches itself and exact patterns with the same extension.
+      final int dot = name.lastIndexOf('.', end - 1);
+      final Entry[] extensionEntries = this.extensions.get(name, dot + 1, end);
+      if (extensionEntries != null && impliedBy(extensionEntries, name, end, methods, permission)) {
+        return true;
+      }
+      final Entry[] exactEntries = this.exactByExtension.get(name, dot + 1, end);
+      return exactEntries != null && impliedBy(exactEntries, name, end, methods, permission);
+    }
+
+    if (end >= 2 && name.charAt(0) == '/' && name.charAt(end - 2) == '/' && name.charAt(end - 1) == '*') {
+      // Matches every exact and path-prefix pattern at or below its
+      // prefix.
+      final PathNode node = this.root.descendant(name, end - 2);
+      return node != null && impliedBy(node, name, end, methods, permission);
+    }
+
+    // An exact pattern matches only itself.
+    final Entry[] exactEntries = this.exact.get(name, 0, end);
+    return exactEntries != null && impliedBy(exactEntries, name, end, methods, permission);
+  }
+
+  private static final boolean impliedBy(final PathNode node, final String name, final int end, final Methods methods, final Permission permission) {
+    if (node.entries.length > 0 && impliedBy(node.entries, name, end, methods, permission)) {
+      return true;
+    }
+    if (node.exactEntries.length > 0 && impliedBy(node.exactEntries, name, end, methods, permission)) {
+      return true;
+    }
+    if (node.children != null) {
+      for (int i = 0; i < node.children.slots(); i++) {
+        final PathNode child = node.children.valueAt(i);
+        if (child != null && impliedBy(child, name, end, methods, permission)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static final boolean impliedBy(final Entry[] entries, final String name, final int end, final Methods methods, final Permission permission) {
+    for (final Entry entry : entries) {
+      if (methods.mayImply(entry.methods)) {
+        final boolean implied;
+        if (end < name.length() || permission.getClass() != entry.permission.getClass()) {
+          implied = permission.implies(entry.permission);
+        } else {
+          implied = methods.implies(entry.methods) && implies(name, end, entry.pattern, entry.pattern.length());
+        }
+        if (implied) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static final boolean implies(final Entry[] entries, final String name, final int end, final Methods methods, final long[] roles, final Permission permission) {
+    for (final Entry entry : entries) {
+      if (admits(entry.roles, roles) && entry.admits(name, end, methods) && entry.implies(name, end, methods, permission)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns {@code true} if the URL pattern {@code pattern[0,
+   * patternEnd)} matches the URL pattern {@code path[0, pathEnd)}.
+   *
+   * <p>This applies the rules of the servlet specification exactly as
+   * the reference implementation's {@code URLPattern.implies} does,
+   * but compares regions instead of extracting substrings, so it
+   * never allocates.</p>
+   */
+  static final boolean implies(final String pattern, final int patternEnd, final String path, final int pathEnd) {
+    if (patternEnd == pathEnd && pattern.regionMatches(0, path, 0, patternEnd)) {
+      return true;
+    }
+    if (patternEnd >= 2 && pattern.charAt(0) == '/' && pattern.charAt(patternEnd - 2) == '/' && pattern.charAt(patternEnd - 1) == '*') {
+      // Path-prefix pattern: the path must be the prefix or continue
+      // it with a new segment.
+      final int length = patternEnd - 2;
+      return length == 0 || (pathEnd >= length && path.regionMatches(0, pattern, 0, length) && (pathEnd == length || path.charAt(length) == '/'));
+    }
+    if (patternEnd >= 2 && pattern.charAt(0) == '*' && pattern.charAt(1) == '.') {
+      // Extension pattern: the last period must follow the last slash
+      // and the path must end with the extension.
+      final int slash = pathEnd > 0 ? path.lastIndexOf('/', pathEnd - 1) : -1;
+      final int period = pathEnd > 0 ? path.lastIndexOf('.', pathEnd - 1) : -1;
+      final int length = patternEnd - 1;
+      return slash >= 0 && period > slash && pathEnd >= length && path.regionMatches(pathEnd - length, pattern, 1, length);
+    }
+    // Only the default pattern matches everything else.
+    return patternEnd == 1 && pattern.charAt(0) == '/';
+  }
+
+  /**
+   * Returns the index just past the first URL pattern in the supplied
+   * web permission name.
+   */
+  private static final int patternEnd(final String name) {
+    final int colon = name.indexOf(':');
+    return colon < 0 ? name.length() : colon;
+  }
+
+  /**
+   * Returns the index of the next {@code /} in {@code name} at or
+   * after {@code start}, or {@code end} if there is none before
+   * {@code end}.
+   */
+  private static final int segmentEnd(final String name, final int start, final int end) {
+    final int slash = name.indexOf('/', start);
+    return slash < 0 || slash > end ? end : slash;
+  }
+
+  private static final String extensionOf(final String pattern) {
+    return pattern.substring(pattern.lastIndexOf('.') + 1);
+  }
+
+  private static final void add(final Map<String, List<Entry>> map, final String key, final Entry entry) {
+    List<Entry> list = map.get(key);
+    if (list == null) {
+      list = new ArrayList<Entry>(2);
+      map.put(key, list);
+    }
+    list.add(entry);
+  }
+
+  private static final StringTable<Entry[]> freeze(final Map<String, List<Entry>> map) {
+    final Map<String, Entry[]> arrays = new HashMap<String, Entry[]>(map.size() * 4 / 3 + 1);
+    for (final Map.Entry<String, List<Entry>> mapEntry : map.entrySet()) {
+      final List<Entry> list = mapEntry.getValue();
+      arrays.put(mapEntry.getKey(), list.toArray(new Entry[list.size()]));
+    }
+    return StringTable.of(arrays);
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A node in the path-segment trie of path-prefix patterns.
+   */
+  private static final class PathNode {
+
+    /**
+     * Entries whose path-prefix pattern ends at this node; never
+     * {@code null}.
+     */
+    private final Entry[] entries;
+
+    /**
+     * Entries whose exact pattern ends at this node; never {@code
+     * null}.  These are used only by {@link
+     * WebPermissionIndex#anyImpliedBy(Permission)}.
+     */
+    private final Entry[] exactEntries;
+
+    /**
+     * Child nodes indexed by path segment, or {@code null} if there
+     * are none.
+     */
+    private final StringTable<PathNode> children;
+
+    private PathNode(final Entry[] entries, final Entry[] exactEntries, final StringTable<PathNode> children) {
+      super();
+      this.entries = entries;
+      this.exactEntries = exactEntries;
+      this.children = children;
+    }
+
+    /**
+     * Returns the node reached by following the segments of the
+     * path {@code path[0, end)}, which must be empty or begin with
+     * {@code /}, or {@code null} if there is no such node.
+     */
+    private final PathNode descendant(final String path, final int end) {
+      PathNode node = this;
+      if (end > 0) {
+        int start = 1;
+        while (node != null) {
+          if (node.children == null) {
+            return null;
+          }
+          final int slash = segmentEnd(path, start, end);
+          node = node.children.get(path, start, slash);
+          if (slash >= end) {
+            break;
+          }
+          start = slash + 1;
+        }
+      }
+      return node;
+    }
+
+    private static final class Builder {
+
+      private final List<Entry> entries;
+
+      private final List<Entry> exactEntries;
+
+      private Map<String, Builder> children;
+
+      private Builder() {
+        super();
+        this.entries = new ArrayList<Entry>(1);
+        this.exactEntries = new ArrayList<Entry>(1);
+      }
+
+      private final Builder descendant(final String path) {
+        Builder node = this;
+        if (path.length() > 0) {
+          // path starts with "/"
+          int start = 1;
+          while (true) {
+            final int slash = path.indexOf('/', start);
+            node = node.child(slash < 0 ? path.substring(start) : path.substring(start, slash));
+            if (slash < 0) {
+              break;
+            }
+            start = slash + 1;
+          }
+        }
+        return node;
+      }
+
+      private final Builder child(final String segment) {
+        if (this.children == null) {
+          this.children = new HashMap<String, Builder>();
+        }
+        Builder child = this.children.get(segment);
+        if (child == null) {
+          child = new Builder();
+          this.children.put(segment, child);
+        }
+        return child;
+      }
+
+      private final PathNode build() {
+        final StringTable<PathNode> children;
+        if (this.children == null || this.children.isEmpty()) {
+          children = null;
+        } else {
+          final Map<String, PathNode> map = new HashMap<String, PathNode>(this.children.size() * 4 / 3 + 1);
+          for (final Map.Entry<String, Builder> mapEntry : this.children.entrySet()) {
+            map.put(mapEntry.getKey(), mapEntry.getValue().build());
+          }
+          children = StringTable.of(map);
+        }
+        return new PathNode(toArray(this.entries), toArray(this.exactEntries), children);
+      }
+
+      private static final Entry[] toArray(final List<Entry> entries) {
+        if (entries.isEmpty()) {
+          return EMPTY_ENTRY_ARRAY;
+        }
+        return entries.toArray(new Entry[entries.size()]);
+      }
+
+    }
+
+  }
+
+  /**
+   * An indexed web permission together with its pre-parsed first URL
+   * pattern, qualifying patterns and HTTP methods.
+   */
+  private static final class Entry {
+
+    private final Permission permission;
+
+    private final String pattern;
+
+    /**
+     * The qualifying URL patterns, or {@code null} if there are none.
+     */
+    private final String[] qualifiers;
+
+    private final Methods methods;
+
+    /**
+     * The {@linkplain RoleTable bitset} of roles granting {@link
+     * #permission}, or {@code null}.
+     */
+    private final long[] roles;
+
+    private Entry(final Permission permission, final long[] roles) {
+      super();
+      this.permission = permission;
+      this.roles = roles;
+      final String name = permission.getName();
+      final int colon = name.indexOf(':');
+      if (colon < 0) {
+        this.pattern = name;
+        this.qualifiers = null;
+      } else {
+        this.pattern = name.substring(0, colon);
+        this.qualifiers = name.substring(colon + 1).split(":");
+      }
+      this.methods = Methods.of(permission.getActions());
+    }
+
+    /**
+     * Returns {@code false} if this {@link Entry}'s permission plainly
+     * cannot imply a permission whose first URL pattern is {@code
+     * name[0, end)} and whose HTTP methods are as supplied; {@code
+     * true} if it might.
+     */
+    private final boolean admits(final String name, final int end, final Methods methods) {
+      if (this.qualifiers != null) {
+        for (final String qualifier : this.qualifiers) {
+          if (qualifier.length() == end && name.startsWith(qualifier)) {
+            // Our own qualifier excludes the pattern being checked.
+            return false;
+          }
+        }
+      }
+      return this.methods.mayImply(methods);
+    }
+
+    /**
+     * Returns {@code true} if this {@link Entry}'s permission implies
+     * the supplied {@link Permission}, whose first URL pattern is
+     * {@code name[0, end)} and whose parsed HTTP methods are as
+     * supplied.
+     *
+     * <p>If this {@link Entry} has no qualifying patterns the answer
+     * is computed without calling {@link
+     * Permission#implies(Permission)}, since the other permission's
+     * qualifying patterns then play no part in it.</p>
+     */
+    private final boolean implies(final String name, final int end, final Methods methods, final Permission permission) {
+      if (this.qualifiers != null || this.permission.getClass() != permission.getClass()) {
+        return this.permission.implies(permission);
+      }
+      return this.methods.implies(methods) && WebPermissionIndex.implies(this.pattern, this.pattern.length(), name, end);
+    }
+
+  }
+
+  /**
+   * The HTTP method portion of a web permission's actions, parsed
+   * only as far as needed to reject impossible candidates cheaply.
+   */
+  static final class Methods {
+
+    private static final Methods ALL = new Methods(null, false, null);
+
+    /**
+     * The most {@link Methods} instances {@link #CACHE} will hold.
+     */
+    private static final int CACHE_LIMIT = 1024;
+
+    /**
+     * Parsed {@link Methods} indexed by the actions string they were
+     * parsed from.
+     *
+     * <p>Web permissions return the same few actions strings over and
+     * over, so this keeps {@link #of(String)} from allocating during
+     * a check.  Once {@link #CACHE_LIMIT} is reached new actions
+     * strings are simply parsed each time.</p>
+     */
+    private static final ConcurrentMap<String, Methods> CACHE = new ConcurrentHashMap<String, Methods>();
+
+    /**
+     * The sorted method names, or {@code null} if every method is
+     * named.
+     */
+    private final String[] names;
+
+    /**
+     * Whether {@link #names} is an exception list ({@code !GET,POST}).
+     */
+    private final boolean excepted;
+
+    /**
+     * The transport type ({@link
+     * javax.security.jacc.WebUserDataPermission} only), or {@code null}
+     * if there is none or it is {@code NONE}.
+     */
+    private final String transport;
+
+    private Methods(final String[] names, final boolean excepted, final String transport) {
+      super();
+      this.names = names;
+      this.excepted = excepted;
+      this.transport = transport;
+    }
+
+    static final Methods of(final String actions) {
+      if (actions == null || actions.length() <= 0) {
+        return ALL;
+      }
+      Methods returnValue = CACHE.get(actions);
+      if (returnValue == null) {
+        returnValue = parse(actions);
+        if (CACHE.size() < CACHE_LIMIT) {
+          final Methods old = CACHE.putIfAbsent(actions, returnValue);
+          if (old != null) {
+            returnValue = old;
+          }
+        }
+      }
+      return returnValue;
+    }
+
+    private static final Methods parse(final String actions) {
+      assert actions != null;
+      // Split off any transport type (WebUserDataPermission).
+      final int colon = actions.indexOf(':');
+      String methodSpec = colon < 0 ? actions : actions.substring(0, colon);
+      String transport = colon < 0 ? null : actions.substring(colon + 1);
+      if (transport != null && (transport.length() <= 0 || "NONE".equals(transport))) {
+        transport = null;
+      }
+      if (methodSpec.length() <= 0) {
+        return transport == null ? ALL : new Methods(null, false, transport);
+      }
+      final boolean excepted = methodSpec.charAt(0) == '!';
+      if (excepted) {
+        methodSpec = methodSpec.substring(1);
+      }
+      final String[] names = methodSpec.split(",");
+      Arrays.sort(names);
+      return new Methods(names, excepted, transport);
+    }
+
+    /**
+     * Returns {@code false} if a permission with these methods cannot
+     * possibly imply a permission with the supplied methods.
+     *
+     * <p>Only a plain list of methods is ever rejected: it cannot
+     * imply every method, an exception list, or a list containing a
+     * method it does not name.  Anything else is left to {@link
+     * #implies(Methods)} or {@link Permission#implies(Permission)}.</p>
+     */
+    private final boolean mayImply(final Methods her) {
+      if (this.names == null || this.excepted) {
+        return true;
+      }
+      if (her.names == null || her.excepted) {
+        return false;
+      }
+      return containsAll(this.names, her.names);
+    }
+
+    /**
+     * Returns {@code true} if a web permission with these methods and
+     * transport type implies, as far as its methods and transport type
+     * go, a web permission of the same class with the supplied ones.
+     *
+     * <p>This is the set logic of the reference implementation's
+     * {@code HttpMethodSpec.implies} and of {@link
+     * javax.security.jacc.WebUserDataPermission#implies(Permission)},
+     * applied to the sorted method names.</p>
+     */
+    final boolean implies(final Methods her) {
+      if (this.transport != null && !this.transport.equals(her.transport)) {
+        return false;
+      }
+      if (this.names == null) {
+        return true;
+      }
+      if (her.names == null) {
+        return false;
+      }
+      if (this.excepted) {
+        if (her.excepted) {
+          // Everything we exclude she excludes too.
+          return containsAll(her.names, this.names);
+        }
+        // She names nothing we exclude.
+        for (final String name : her.names) {
+          if (Arrays.binarySearch(this.names, name) >= 0) {
+            return false;
+          }
+        }
+        return true;
+      }
+      return !her.excepted && containsAll(this.names, her.names);
+    }
+
+    private static final boolean containsAll(final String[] sortedNames, final String[] names) {
+      for (final String name : names) {
+        if (Arrays.binarySearch(sortedNames, name) < 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+}
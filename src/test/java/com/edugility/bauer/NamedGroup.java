@@ -0,0 +1,75 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Principal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A {@link java.security.acl.Group} that, like most, is equal to any
+ * other {@link NamedGroup} with the same name, whatever its members.
+ *
+ * <p>{@link java.security.acl.Group} was removed in Java 14.  Check
+ * {@link Groups#supported()} before referring to this class.</p>
+ */
+@SuppressWarnings("deprecation")
+final class NamedGroup extends NamedPrincipal implements java.security.acl.Group {
+
+  private final Set<Principal> members;
+
+  NamedGroup(final String name, final Principal... members) {
+    super(name);
+    this.members = new LinkedHashSet<Principal>(Arrays.asList(members));
+  }
+
+  @Override
+  public final boolean addMember(final Principal member) {
+    return this.members.add(member);
+  }
+
+  @Override
+  public final boolean removeMember(final Principal member) {
+    return this.members.remove(member);
+  }
+
+  @Override
+  public final boolean isMember(final Principal member) {
+    return this.members.contains(member);
+  }
+
+  @Override
+  public final Enumeration<? extends Principal> members() {
+    return Collections.enumeration(this.members);
+  }
+
+}
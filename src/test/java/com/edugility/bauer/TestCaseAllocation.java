@@ -0,0 +1,193 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.security.Permission;
+import java.security.Principal;
+import java.security.ProtectionDomain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.security.jacc.EJBMethodPermission;
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+import javax.security.jacc.WebResourcePermission;
+import javax.security.jacc.WebUserDataPermission;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests that a warm {@link Policy#implies(ProtectionDomain,
+ * Permission)} call allocates no memory, using the JDK's per-thread
+ * allocation counter.
+ *
+ * <p>Every permission checked is decided by the policy itself, with
+ * unqualified web permissions on both sides of each comparison.
+ * Permissions referred to the delegate {@link java.security.Policy},
+ * comparisons against qualified URL patterns and {@link
+ * WebUserDataPermission}s with a transport type allocate whatever the
+ * JACC permission classes allocate; the last build a new actions
+ * string on every call to {@link Permission#getActions()}.</p>
+ */
+public class TestCaseAllocation {
+
+  private static final String CONTEXT_ID = TestCaseAllocation.class.getName();
+
+  private static final int CALLS = 200000;
+
+  /**
+   * The most bytes per call tolerated; a little above zero to absorb
+   * the odd allocation by the runtime itself.
+   */
+  private static final double MAXIMUM_BYTES_PER_CALL = 0.5;
+
+  private static volatile int sink;
+
+  private com.sun.management.ThreadMXBean threads;
+
+  private String oldContextId;
+
+  private ProtectionDomain protectionDomain;
+
+  private Permission[] permissions;
+
+  public TestCaseAllocation() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws PolicyContextException {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+    this.threads = (com.sun.management.ThreadMXBean)threads;
+    assumeTrue(this.threads.isThreadAllocatedMemorySupported());
+    this.threads.setThreadAllocatedMemoryEnabled(true);
+
+    final PolicyConfiguration configuration = new PolicyConfigurationFactory().getPolicyConfiguration(CONTEXT_ID, true);
+    for (int module = 0; module < 10; module++) {
+      final String prefix = "/module" + module;
+      configuration.addToExcludedPolicy(new WebResourcePermission(prefix + "/admin/*", (String)null));
+      configuration.addToUncheckedPolicy(new WebResourcePermission(prefix + "/public/*", (String)null));
+      configuration.addToUncheckedPolicy(new WebUserDataPermission(prefix + "/secure/*", (String)null));
+      for (int role = 0; role < 5; role++) {
+        final String roleName = "role" + role;
+        configuration.addToRole(roleName, new WebResourcePermission(prefix + "/page" + role + ".jsp", "GET,POST"));
+        configuration.addToRole(roleName, new WebResourcePermission(prefix + "/api" + role + "/*", "!DELETE"));
+        configuration.addToRole(roleName, new EJBMethodPermission("Bean" + module, "method" + role + ",Remote,java.lang.String"));
+      }
+      configuration.addToRole("role0", new WebResourcePermission("*.html", "GET"));
+    }
+    configuration.commit();
+    ((AbstractPolicyContext)PolicyConfigurationFactory.getPolicyContext(CONTEXT_ID)).setRoleMapper(new CachingRoleMapper(new AllPrincipalsRoleMapper()));
+    this.oldContextId = javax.security.jacc.PolicyContext.getContextID();
+    javax.security.jacc.PolicyContext.setContextID(CONTEXT_ID);
+
+    this.protectionDomain = new ProtectionDomain(null, null, null, new Principal[] { new NamedPrincipal("role0"), new NamedPrincipal("role3") });
+    final List<Permission> permissions = new ArrayList<Permission>();
+    for (int module = 0; module < 10; module++) {
+      final String prefix = "/module" + module;
+      permissions.add(new WebResourcePermission(prefix + "/page0.jsp", "GET"));
+      permissions.add(new WebResourcePermission(prefix + "/api3/items/" + module, "PUT"));
+      permissions.add(new WebResourcePermission(prefix + "/admin/users", "GET"));
+      permissions.add(new WebResourcePermission(prefix + "/public/index.html", "GET"));
+      permissions.add(new WebResourcePermission(prefix + "/docs/index.html", "GET"));
+      permissions.add(new WebUserDataPermission(prefix + "/secure/account", "GET"));
+      permissions.add(new EJBMethodPermission("Bean" + module, "method3,Remote,java.lang.String"));
+    }
+    this.permissions = permissions.toArray(new Permission[permissions.size()]);
+  }
+
+  @After
+  public void tearDown() throws PolicyContextException {
+    if (this.threads != null) {
+      javax.security.jacc.PolicyContext.setContextID(this.oldContextId);
+      new PolicyConfigurationFactory().getPolicyConfiguration(CONTEXT_ID, true).delete();
+    }
+  }
+
+  @Test
+  public void testDefaultPermissionEvaluator() throws PolicyContextException {
+    assertAllocationFree(new DefaultPermissionEvaluator(), null);
+  }
+
+  @Test
+  public void testDefaultPermissionEvaluatorWithDecisionCache() throws PolicyContextException {
+    assertAllocationFree(new DefaultPermissionEvaluator(), new DecisionCache(4096));
+  }
+
+  @Test
+  public void testCompositePermissionEvaluator() throws PolicyContextException {
+    assertAllocationFree(new CompositePermissionEvaluator(new DefaultPermissionEvaluator()), null);
+  }
+
+  @Test
+  public void testCompositePermissionEvaluatorWithDecisionCache() throws PolicyContextException {
+    assertAllocationFree(new CompositePermissionEvaluator(new DefaultPermissionEvaluator()), new DecisionCache(4096));
+  }
+
+  private final void assertAllocationFree(final PermissionEvaluator evaluator, final DecisionCache decisionCache) throws PolicyContextException {
+    final PolicyContext policyContext = PolicyConfigurationFactory.getPolicyContext(CONTEXT_ID);
+    for (final Permission permission : this.permissions) {
+      final PermissionEvaluation evaluation = evaluator.evaluate(this.protectionDomain, policyContext, permission);
+      assertTrue(permission.toString(), evaluation != null && evaluation.toBoolean() != null);
+    }
+    final Policy policy = new Policy();
+    policy.setPermissionEvaluator(evaluator);
+    policy.setDecisionCache(decisionCache);
+
+    // Warm up the JIT and every cache along the way.
+    run(policy, CALLS);
+
+    final long threadId = Thread.currentThread().getId();
+    final long before = this.threads.getThreadAllocatedBytes(threadId);
+    run(policy, CALLS);
+    final long after = this.threads.getThreadAllocatedBytes(threadId);
+    final double bytesPerCall = (double)(after - before) / CALLS;
+    assertTrue(bytesPerCall + " bytes/call", bytesPerCall <= MAXIMUM_BYTES_PER_CALL);
+  }
+
+  private final void run(final Policy policy, final int calls) {
+    int granted = 0;
+    for (int i = 0; i < calls; i++) {
+      if (policy.implies(this.protectionDomain, this.permissions[i % this.permissions.length])) {
+        granted++;
+      }
+    }
+    sink += granted;
+  }
+
+}
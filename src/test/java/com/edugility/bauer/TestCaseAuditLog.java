@@ -0,0 +1,259 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import java.security.Principal;
+import java.security.ProtectionDomain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link AuditLog}.
+ */
+public class TestCaseAuditLog {
+
+  private static final String TIME = "\\d{4}-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d\\.\\d{3}Z";
+
+  private File directory;
+
+  private AuditLog auditLog;
+
+  public TestCaseAuditLog() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.directory = File.createTempFile(TestCaseAuditLog.class.getName(), ".d");
+    assertTrue(this.directory.delete());
+  }
+
+  @After
+  public void tearDown() {
+    if (this.auditLog != null) {
+      this.auditLog.close();
+    }
+    final File[] files = this.directory.listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        file.delete();
+      }
+    }
+    this.directory.delete();
+  }
+
+  @Test
+  public void testEveryOfferedDecisionIsWrittenOrDropped() throws InterruptedException, IOException {
+    final AuditLog auditLog = new AuditLog(this.directory, 64, 1.0, Long.MAX_VALUE, 1);
+    this.auditLog = auditLog;
+    final int threads = 8;
+    final int decisionsPerThread = 5000;
+    final AtomicLong accepted = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> producers = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      final String contextId = "context" + i;
+      final Thread producer = new Thread(new Runnable() {
+          @Override
+          public final void run() {
+            try {
+              start.await();
+            } catch (final InterruptedException kaboom) {
+              Thread.currentThread().interrupt();
+              return;
+            }
+            for (int j = 0; j < decisionsPerThread; j++) {
+              if (auditLog.record(contextId, null, new RuntimePermission("p" + j), j % 2 == 0 ? PermissionEvaluation.DENIED : PermissionEvaluation.GRANTED)) {
+                accepted.incrementAndGet();
+              } else {
+                rejected.incrementAndGet();
+              }
+            }
+          }
+        });
+      producers.add(producer);
+      producer.start();
+    }
+    start.countDown();
+    for (final Thread producer : producers) {
+      producer.join();
+    }
+    this.auditLog.close();
+
+    assertEquals(threads * decisionsPerThread, accepted.get() + rejected.get());
+    assertEquals(threads * decisionsPerThread, this.auditLog.getWrittenCount() + this.auditLog.getDroppedCount());
+    assertEquals(accepted.get(), this.auditLog.getWrittenCount());
+    assertEquals(rejected.get(), this.auditLog.getDroppedCount());
+    assertEquals(0L, this.auditLog.getFailedCount());
+    assertEquals(this.auditLog.getWrittenCount(), this.readLines(AuditLog.FILE_NAME).size());
+  }
+
+  @Test
+  public void testLineFormatAndEscaping() throws IOException {
+    this.auditLog = new AuditLog(this.directory, 16, 1.0, Long.MAX_VALUE, 1);
+    final ProtectionDomain domain = new ProtectionDomain(null, null, null, new Principal[] { new NamedPrincipal("back\\slash"), null, new NamedPrincipal("b") });
+    assertTrue(this.auditLog.record("context\tid", domain, new RuntimePermission("line\nbreak\r"), PermissionEvaluation.EXCLUDED));
+    assertTrue(this.auditLog.record(null, null, null, PermissionEvaluation.DENIED));
+    assertTrue(this.auditLog.record("", new ProtectionDomain(null, null), new java.io.FilePermission("/tmp", "read"), PermissionEvaluation.GRANTED));
+    this.auditLog.close();
+
+    final List<String> lines = this.readLines(AuditLog.FILE_NAME);
+    assertEquals(3, lines.size());
+    final String principal = NamedPrincipal.class.getName();
+    assertTrue(lines.get(0), lines.get(0).matches(TIME + "\tEXCLUDED\tcontext\\\\tid\t" + principal + "=back\\\\\\\\slash,-," + principal + "=b\tjava\\.lang\\.RuntimePermission\tline\\\\nbreak\\\\r\t-"));
+    assertTrue(lines.get(1), lines.get(1).matches(TIME + "\tDENIED\t-\t-\t-\t-\t-"));
+    assertTrue(lines.get(2), lines.get(2).matches(TIME + "\tGRANTED\t-\t-\tjava\\.io\\.FilePermission\t/tmp\tread"));
+  }
+
+  @Test
+  public void testSampling() throws IOException {
+    this.auditLog = new AuditLog(this.directory, 16, 0.0, Long.MAX_VALUE, 1);
+    assertFalse(this.auditLog.record("a", null, null, PermissionEvaluation.GRANTED));
+    assertFalse(this.auditLog.record("a", null, null, PermissionEvaluation.MANDATED));
+    assertFalse(this.auditLog.record("a", null, null, PermissionEvaluation.INDETERMINATE));
+    assertFalse(this.auditLog.record("a", null, null, null));
+    assertTrue(this.auditLog.record("a", null, null, PermissionEvaluation.DENIED));
+    assertTrue(this.auditLog.record("a", null, null, PermissionEvaluation.EXCLUDED));
+    this.auditLog.close();
+    assertEquals(2L, this.auditLog.getWrittenCount());
+    assertFalse(this.auditLog.record("a", null, null, PermissionEvaluation.DENIED));
+
+    this.auditLog = new AuditLog(this.directory, 16, 1.0, Long.MAX_VALUE, 1);
+    assertTrue(this.auditLog.record("a", null, null, PermissionEvaluation.GRANTED));
+    assertTrue(this.auditLog.record("a", null, null, PermissionEvaluation.MANDATED));
+    assertFalse(this.auditLog.record("a", null, null, PermissionEvaluation.UNSUPPORTED));
+    this.auditLog.close();
+    assertEquals(2L, this.auditLog.getWrittenCount());
+    assertEquals(4, this.readLines(AuditLog.FILE_NAME).size());
+  }
+
+  @Test
+  public void testRotation() throws InterruptedException, IOException {
+    // Every batch fills a file, so each decision is rotated out as
+    // soon as it is written.
+    this.auditLog = new AuditLog(this.directory, 16, 1.0, 1L, 3);
+    for (int i = 1; i <= 5; i++) {
+      assertTrue(this.auditLog.record(String.valueOf(i), null, null, PermissionEvaluation.DENIED));
+      this.awaitWritten(i);
+    }
+    this.auditLog.close();
+    assertFalse(new File(this.directory, AuditLog.FILE_NAME).exists());
+    assertContextIds(this.readLines(AuditLog.FILE_NAME + ".1"), "5");
+    assertContextIds(this.readLines(AuditLog.FILE_NAME + ".2"), "4");
+    assertFalse(new File(this.directory, AuditLog.FILE_NAME + ".3").exists());
+    assertEquals(0L, this.auditLog.getFailedCount());
+  }
+
+  @Test
+  public void testRotationKeepingOneFile() throws InterruptedException, IOException {
+    this.auditLog = new AuditLog(this.directory, 16, 1.0, 1L, 1);
+    for (int i = 1; i <= 3; i++) {
+      assertTrue(this.auditLog.record(String.valueOf(i), null, null, PermissionEvaluation.DENIED));
+      this.awaitWritten(i);
+    }
+    this.auditLog.close();
+    final String[] names = this.directory.list();
+    assertTrue(names == null || names.length == 0);
+    assertEquals(0L, this.auditLog.getFailedCount());
+
+    // A file that has not yet reached the maximum size is kept.
+    this.auditLog = new AuditLog(this.directory, 16, 1.0, 1024L * 1024L, 1);
+    assertTrue(this.auditLog.record("4", null, null, PermissionEvaluation.DENIED));
+    this.auditLog.close();
+    assertContextIds(this.readLines(AuditLog.FILE_NAME), "4");
+    assertFalse(new File(this.directory, AuditLog.FILE_NAME + ".1").exists());
+  }
+
+  @Test
+  public void testCloseDrainsTheBuffer() throws IOException {
+    this.auditLog = new AuditLog(this.directory, 4096, 1.0, Long.MAX_VALUE, 1);
+    final int decisions = 3000;
+    for (int i = 0; i < decisions; i++) {
+      assertTrue(this.auditLog.record(String.valueOf(i), null, null, PermissionEvaluation.DENIED));
+    }
+    this.auditLog.close();
+    assertEquals(decisions, this.auditLog.getWrittenCount());
+    assertEquals(0L, this.auditLog.getDroppedCount());
+    final List<String> lines = this.readLines(AuditLog.FILE_NAME);
+    assertEquals(decisions, lines.size());
+    for (int i = 0; i < decisions; i++) {
+      assertEquals(String.valueOf(i), lines.get(i).split("\t")[2]);
+    }
+  }
+
+  private final void awaitWritten(final long count) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (this.auditLog.getWrittenCount() < count && System.nanoTime() < deadline) {
+      Thread.sleep(1L);
+    }
+    assertEquals(count, this.auditLog.getWrittenCount());
+  }
+
+  private final List<String> readLines(final String name) throws IOException {
+    final List<String> returnValue = new ArrayList<String>();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(this.directory, name)), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        returnValue.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    return returnValue;
+  }
+
+  private static final void assertContextIds(final List<String> lines, final String... contextIds) {
+    assertEquals(contextIds.length, lines.size());
+    for (int i = 0; i < contextIds.length; i++) {
+      assertEquals(contextIds[i], lines.get(i).split("\t")[2]);
+    }
+  }
+
+}
@@ -0,0 +1,203 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Principal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.security.jacc.PolicyContextException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests {@link CachingRoleMapper} and the {@link PrincipalsKey}s it
+ * is keyed on.
+ */
+public class TestCaseCachingRoleMapper {
+
+  private CountingRoleMapper delegate;
+
+  private CachingRoleMapper roleMapper;
+
+  public TestCaseCachingRoleMapper() {
+    super();
+  }
+
+  @Before
+  public void setUp() {
+    this.delegate = new CountingRoleMapper(new AllPrincipalsRoleMapper());
+    this.roleMapper = new CachingRoleMapper(this.delegate, 100, 1L, TimeUnit.HOURS);
+  }
+
+  @Test
+  public void testEquivalentArraysShareAnEntry() throws PolicyContextException {
+    final Set<String> roles = this.roleMapper.getRoles(new Principal[] { new NamedPrincipal("a"), new NamedPrincipal("b") });
+    assertEquals(new HashSet<String>(Arrays.asList("a", "b")), roles);
+    assertSame(roles, this.roleMapper.getRoles(new Principal[] { new NamedPrincipal("b"), null, new NamedPrincipal("a"), new NamedPrincipal("b") }));
+    assertEquals(1, this.delegate.calls);
+    assertEquals(1, this.roleMapper.size());
+  }
+
+  @Test
+  public void testPrincipalsAreComparedByEquals() throws PolicyContextException {
+    final CachingRoleMapper roleMapper = new CachingRoleMapper(new RealmRoleMapper(), 100, 1L, TimeUnit.HOURS);
+    assertEquals(Collections.singleton("ops:alice"), roleMapper.getRoles(new Principal[] { new RealmPrincipal("ops", "alice") }));
+    assertEquals(Collections.singleton("dev:alice"), roleMapper.getRoles(new Principal[] { new RealmPrincipal("dev", "alice") }));
+    assertEquals(2, roleMapper.size());
+  }
+
+  @Test
+  public void testGroupMembersArePartOfTheKey() throws PolicyContextException {
+    assumeTrue(Groups.supported());
+    assertEquals(Collections.singleton("admin"), this.roleMapper.getRoles(new Principal[] { new NamedGroup("Roles", new NamedPrincipal("admin")) }));
+    assertEquals(Collections.singleton("guest"), this.roleMapper.getRoles(new Principal[] { new NamedGroup("Roles", new NamedPrincipal("guest")) }));
+    assertEquals(2, this.delegate.calls);
+    assertEquals(Collections.singleton("admin"), this.roleMapper.getRoles(new Principal[] { new NamedGroup("Roles", new NamedPrincipal("admin")) }));
+    assertEquals(2, this.delegate.calls);
+  }
+
+  @Test
+  public void testGroupMembershipChangesAreSeen() throws PolicyContextException {
+    assumeTrue(Groups.supported());
+    final NamedGroup group = new NamedGroup("Roles", new NamedPrincipal("guest"));
+    final Principal[] principals = new Principal[] { group };
+    assertEquals(Collections.singleton("guest"), this.roleMapper.getRoles(principals));
+    group.addMember(new NamedPrincipal("admin"));
+    assertEquals(new HashSet<String>(Arrays.asList("admin", "guest")), this.roleMapper.getRoles(principals));
+    group.removeMember(new NamedPrincipal("admin"));
+    assertEquals(Collections.singleton("guest"), this.roleMapper.getRoles(principals));
+    assertEquals(2, this.delegate.calls);
+  }
+
+  @Test
+  public void testNestedAndCyclicGroups() {
+    assumeTrue(Groups.supported());
+    final NamedGroup outer = new NamedGroup("outer", new NamedPrincipal("a"));
+    final NamedGroup inner = new NamedGroup("inner", new NamedPrincipal("b"));
+    outer.addMember(inner);
+    final PrincipalsKey key = PrincipalsKey.of(new Principal[] { outer });
+    assertEquals(key, PrincipalsKey.of(new Principal[] { new NamedGroup("outer", new NamedGroup("inner", new NamedPrincipal("b")), new NamedPrincipal("a")) }));
+    assertNotEqual(key, PrincipalsKey.of(new Principal[] { new NamedGroup("outer", new NamedGroup("inner", new NamedPrincipal("c")), new NamedPrincipal("a")) }));
+    inner.addMember(outer);
+    final PrincipalsKey cyclic = PrincipalsKey.of(new Principal[] { outer });
+    assertEquals(cyclic, PrincipalsKey.of(new Principal[] { outer }));
+    assertNotEqual(key, cyclic);
+  }
+
+  @Test
+  public void testProbeMatchesKey() {
+    final Principal[] principals = new Principal[] { new NamedPrincipal("x"), new RealmPrincipal("r", "x"), new NamedPrincipal("x") };
+    final PrincipalsKey key = PrincipalsKey.of(principals);
+    final PrincipalsKey.Probe probe = new PrincipalsKey.Probe().reset(principals);
+    assertEquals(2, key.size());
+    assertEquals(key.hashCode(), probe.hashCode());
+    assertEquals(probe, key);
+    assertEquals(key, probe.toKey());
+    assertNotEqual(probe.reset(new Principal[] { new NamedPrincipal("x") }), key);
+  }
+
+  private static final void assertNotEqual(final Object a, final Object b) {
+    assertEquals(Boolean.FALSE, Boolean.valueOf(a.equals(b)));
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  private static final class CountingRoleMapper implements RoleMapper {
+
+    private final RoleMapper delegate;
+
+    private volatile int calls;
+
+    private CountingRoleMapper(final RoleMapper delegate) {
+      super();
+      this.delegate = delegate;
+    }
+
+    @Override
+    public final Set<String> getRoles(final Principal[] principals) throws PolicyContextException {
+      this.calls++;
+      return this.delegate.getRoles(principals);
+    }
+
+  }
+
+  private static final class RealmRoleMapper implements RoleMapper {
+
+    @Override
+    public final Set<String> getRoles(final Principal[] principals) {
+      final Set<String> roles = new HashSet<String>();
+      for (final Principal principal : principals) {
+        roles.add(((RealmPrincipal)principal).realm + ":" + principal.getName());
+      }
+      return roles;
+    }
+
+  }
+
+  /**
+   * A {@link Principal} whose identity includes a realm that is not
+   * part of its {@linkplain #getName() name}.
+   */
+  private static final class RealmPrincipal extends NamedPrincipal {
+
+    private final String realm;
+
+    private RealmPrincipal(final String realm, final String name) {
+      super(name);
+      this.realm = realm;
+    }
+
+    @Override
+    public final int hashCode() {
+      return 31 * super.hashCode() + this.realm.hashCode();
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      return super.equals(other) && this.realm.equals(((RealmPrincipal)other).realm);
+    }
+
+  }
+
+}
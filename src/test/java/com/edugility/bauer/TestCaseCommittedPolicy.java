@@ -0,0 +1,107 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.security.jacc.EJBMethodPermission;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link CommittedPolicy}.
+ */
+public class TestCaseCommittedPolicy {
+
+  private static final int ROLES = 12;
+
+  private CommittedPolicy committedPolicy;
+
+  public TestCaseCommittedPolicy() {
+    super();
+  }
+
+  @Before
+  public void setUp() {
+    final ConfigurablePolicyContext policyContext = new ConfigurablePolicyContext("TestCaseCommittedPolicy");
+    for (int role = 0; role < ROLES; role++) {
+      policyContext.addToRole("role" + role, new EJBMethodPermission("Bean", "method" + role + ",Local"));
+    }
+    policyContext.addToUncheckedPolicy(new RuntimePermission("unchecked"));
+    policyContext.commit();
+    this.committedPolicy = policyContext.getCommittedPolicy();
+  }
+
+  @Test
+  public void testPermissionsCacheEvictsLeastRecentlyUsedRoleSets() {
+    final int roleSets = CommittedPolicy.DEFAULT_PERMISSIONS_CACHE_SIZE * 3;
+    assertTrue(roleSets < 1 << ROLES);
+    final Collection<String> hot = roles(1);
+    final Collection<String> cold = roles(2);
+    final ImmutablePermissions hotPermissions = this.committedPolicy.grantedPermissions(hot);
+    final ImmutablePermissions coldPermissions = this.committedPolicy.grantedPermissions(cold);
+    assertSame(coldPermissions, this.committedPolicy.grantedPermissions(roles(2)));
+
+    for (int mask = 3; mask < roleSets; mask++) {
+      final Collection<String> roles = roles(mask);
+      final ImmutablePermissions permissions = this.committedPolicy.grantedPermissions(roles);
+      assertEquals(Integer.bitCount(mask) + 1, permissions.size());
+      // Role sets first seen after the cache filled up are cached,
+      // too.
+      assertSame(permissions, this.committedPolicy.grantedPermissions(roles(mask)));
+      assertSame(hotPermissions, this.committedPolicy.grantedPermissions(hot));
+    }
+
+    final ImmutablePermissions recomputed = this.committedPolicy.grantedPermissions(cold);
+    assertNotSame(coldPermissions, recomputed);
+    assertEquals(coldPermissions.size(), recomputed.size());
+  }
+
+  /**
+   * Returns the names of the roles whose numbers are set in the
+   * supplied bitmask.
+   */
+  private static final Collection<String> roles(final int mask) {
+    final List<String> returnValue = new ArrayList<String>();
+    for (int role = 0; role < ROLES; role++) {
+      if ((mask & (1 << role)) != 0) {
+        returnValue.add("role" + role);
+      }
+    }
+    return returnValue;
+  }
+
+}
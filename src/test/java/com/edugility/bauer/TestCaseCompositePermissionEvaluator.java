@@ -0,0 +1,393 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+import java.security.ProtectionDomain;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.jacc.PolicyContextException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link CompositePermissionEvaluator}.
+ */
+public class TestCaseCompositePermissionEvaluator {
+
+  private static final Permission PERMISSION = new RuntimePermission("test");
+
+  private CompositePermissionEvaluator evaluator;
+
+  private ExecutorService executor;
+
+  public TestCaseCompositePermissionEvaluator() {
+    super();
+  }
+
+  @Before
+  public void setUp() {
+    this.evaluator = new CompositePermissionEvaluator();
+    this.executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    this.executor.shutdownNow();
+    javax.security.jacc.PolicyContext.setContextID(null);
+  }
+
+  @Test
+  public void testConcurrentExclusionCancelsASlowDelegate() throws InterruptedException, PolicyContextException {
+    final SlowEvaluator slow = new SlowEvaluator();
+    this.evaluator.add(slow);
+    this.evaluator.add(new FixedEvaluator(PermissionEvaluation.EXCLUDED, slow.started));
+    this.evaluator.setExecutor(this.executor);
+    final long start = System.nanoTime();
+    assertSame(PermissionEvaluation.EXCLUDED, this.evaluator.evaluate(null, null, PERMISSION));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30L));
+    assertTrue(slow.interrupted.await(10L, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testConcurrentOutOfServiceDelegateIsRemoved() throws PolicyContextException {
+    final PermissionEvaluator outOfService = new FixedEvaluator(PermissionEvaluation.EVALUATOR_OUT_OF_SERVICE, null);
+    final PermissionEvaluator granting = new FixedEvaluator(PermissionEvaluation.GRANTED, null);
+    final PermissionEvaluator alsoGranting = new FixedEvaluator(PermissionEvaluation.GRANTED, null);
+    this.evaluator.add(granting);
+    this.evaluator.add(outOfService);
+    this.evaluator.add(alsoGranting);
+    this.evaluator.setExecutor(this.executor);
+    assertSame(PermissionEvaluation.GRANTED, this.evaluator.evaluate(null, null, PERMISSION));
+    assertEquals(2, this.evaluator.getDelegates().size());
+    assertSame(granting, this.evaluator.getDelegates().get(0));
+    assertSame(alsoGranting, this.evaluator.getDelegates().get(1));
+    assertSame(PermissionEvaluation.GRANTED, this.evaluator.evaluate(null, null, PERMISSION));
+  }
+
+  @Test
+  public void testConcurrentDelegateExceptionIsRethrown() {
+    final PolicyContextException policyContextException = new PolicyContextException("expected");
+    this.evaluator.add(new FixedEvaluator(PermissionEvaluation.GRANTED, null));
+    this.evaluator.add(new ThrowingEvaluator(policyContextException));
+    this.evaluator.setExecutor(this.executor);
+    try {
+      this.evaluator.evaluate(null, null, PERMISSION);
+      fail();
+    } catch (final PolicyContextException expected) {
+      assertSame(policyContextException, expected);
+    }
+
+    final IllegalStateException runtimeException = new IllegalStateException("expected");
+    this.evaluator = new CompositePermissionEvaluator();
+    this.evaluator.add(new FixedEvaluator(PermissionEvaluation.GRANTED, null));
+    this.evaluator.add(new ThrowingEvaluator(runtimeException));
+    this.evaluator.setExecutor(this.executor);
+    try {
+      this.evaluator.evaluate(null, null, PERMISSION);
+      fail();
+    } catch (final PolicyContextException unexpected) {
+      fail(unexpected.toString());
+    } catch (final IllegalStateException expected) {
+      assertSame(runtimeException, expected);
+    }
+  }
+
+  @Test
+  public void testConcurrentDelegatesSeeContextIdAndReentrancy() throws PolicyContextException {
+    final RecordingEvaluator recording = new RecordingEvaluator();
+    this.evaluator.add(recording);
+    this.evaluator.add(new FixedEvaluator(PermissionEvaluation.GRANTED, null));
+    this.evaluator.setExecutor(this.executor);
+    javax.security.jacc.PolicyContext.setContextID("test");
+    assertSame(PermissionEvaluation.GRANTED, this.evaluator.evaluate(null, null, PERMISSION));
+    assertEquals("test", recording.contextId);
+    assertTrue(recording.inImplies);
+    assertFalse(recording.thread == Thread.currentThread());
+    assertEquals("test", javax.security.jacc.PolicyContext.getContextID());
+  }
+
+  @Test
+  public void testExclusionShortCircuitsAndMandateDoesNot() throws PolicyContextException {
+    FixedEvaluator last = new FixedEvaluator(PermissionEvaluation.GRANTED, null);
+    this.evaluator.add(new FixedEvaluator(PermissionEvaluation.EXCLUDED, null));
+    this.evaluator.add(last);
+    assertSame(PermissionEvaluation.EXCLUDED, this.evaluator.evaluate(null, null, PERMISSION));
+    assertEquals(0, last.calls);
+
+    last = new FixedEvaluator(PermissionEvaluation.EXCLUDED, null);
+    this.evaluator = new CompositePermissionEvaluator();
+    this.evaluator.add(new FixedEvaluator(PermissionEvaluation.MANDATED, null));
+    this.evaluator.add(last);
+    assertSame(PermissionEvaluation.EXCLUDED, this.evaluator.evaluate(null, null, PERMISSION));
+    assertEquals(1, last.calls);
+  }
+
+  @Test
+  public void testOverriddenConsolidateGetsMatchingShortCircuits() throws PolicyContextException {
+    this.evaluator = new MandateFirstEvaluator();
+    FixedEvaluator last = new FixedEvaluator(PermissionEvaluation.EXCLUDED, null);
+    this.evaluator.add(new FixedEvaluator(PermissionEvaluation.MANDATED, null));
+    this.evaluator.add(last);
+    assertSame(PermissionEvaluation.MANDATED, this.evaluator.evaluate(null, null, PERMISSION));
+    assertEquals(0, last.calls);
+
+    last = new FixedEvaluator(PermissionEvaluation.MANDATED, null);
+    this.evaluator = new MandateFirstEvaluator();
+    this.evaluator.add(new FixedEvaluator(PermissionEvaluation.EXCLUDED, null));
+    this.evaluator.add(last);
+    assertSame(PermissionEvaluation.MANDATED, this.evaluator.evaluate(null, null, PERMISSION));
+    assertEquals(1, last.calls);
+  }
+
+  @Test
+  public void testReorderKeepsTiesInPlace() throws PolicyContextException {
+    final PermissionEvaluator a = new FixedEvaluator(PermissionEvaluation.INDETERMINATE, null);
+    final PermissionEvaluator b = new FixedEvaluator(PermissionEvaluation.INDETERMINATE, null);
+    final PermissionEvaluator c = new FixedEvaluator(PermissionEvaluation.INDETERMINATE, null);
+    this.evaluator.add(a);
+    this.evaluator.add(b);
+    this.evaluator.add(c);
+    this.evaluator.reorder();
+    assertEquals(Arrays.asList(a, b, c), this.evaluator.getDelegates());
+  }
+
+  @Test
+  public void testReorderMovesACheapDecisiveDelegateToTheFront() throws PolicyContextException {
+    final PermissionEvaluator slow = new SleepingEvaluator(PermissionEvaluation.INDETERMINATE, 2L);
+    final PermissionEvaluator cheap = new FixedEvaluator(PermissionEvaluation.EXCLUDED, null);
+    this.evaluator.add(slow);
+    this.evaluator.add(cheap);
+    this.evaluator.setAdaptive(true);
+    for (int i = 0; i < 10; i++) {
+      assertSame(PermissionEvaluation.EXCLUDED, this.evaluator.evaluate(null, null, PERMISSION));
+    }
+    this.evaluator.reorder();
+    assertEquals(Arrays.asList(cheap, slow), this.evaluator.getDelegates());
+    final List<CompositePermissionEvaluator.DelegateStatistics> statistics = this.evaluator.getStatistics();
+    assertSame(cheap, statistics.get(0).getPermissionEvaluator());
+    assertTrue(statistics.get(0).getConclusiveCount() > 0L);
+    assertEquals(0L, statistics.get(1).getConclusiveCount());
+    assertTrue(statistics.get(0).getExpectedCostNanos() < statistics.get(1).getExpectedCostNanos());
+  }
+
+  @Test
+  public void testAdaptiveOrderingReordersOnItsOwn() throws PolicyContextException {
+    final PermissionEvaluator slow = new SleepingEvaluator(PermissionEvaluation.INDETERMINATE, 5L);
+    final PermissionEvaluator cheap = new FixedEvaluator(PermissionEvaluation.EXCLUDED, null);
+    this.evaluator.add(slow);
+    this.evaluator.add(cheap);
+    this.evaluator.setAdaptive(true);
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30L);
+    while (this.evaluator.getDelegates().get(0) != cheap && System.nanoTime() < deadline) {
+      assertSame(PermissionEvaluation.EXCLUDED, this.evaluator.evaluate(null, null, PERMISSION));
+    }
+    assertEquals(Arrays.asList(cheap, slow), this.evaluator.getDelegates());
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A {@link PermissionEvaluator} that returns a fixed {@link
+   * PermissionEvaluation}, optionally once a {@link CountDownLatch}
+   * has been released, and counts how often it is asked.
+   */
+  private static final class FixedEvaluator implements PermissionEvaluator {
+
+    private final PermissionEvaluation evaluation;
+
+    private final CountDownLatch gate;
+
+    private volatile int calls;
+
+    private FixedEvaluator(final PermissionEvaluation evaluation, final CountDownLatch gate) {
+      super();
+      this.evaluation = evaluation;
+      this.gate = gate;
+    }
+
+    @Override
+    public final PermissionEvaluation evaluate(final ProtectionDomain protectionDomain, final PolicyContext policyContext, final Permission permission) throws PolicyContextException {
+      this.calls++;
+      if (this.gate != null) {
+        try {
+          this.gate.await();
+        } catch (final InterruptedException kaboom) {
+          Thread.currentThread().interrupt();
+          throw new PolicyContextException(kaboom);
+        }
+      }
+      return this.evaluation;
+    }
+
+    @Override
+    public final String toString() {
+      return String.valueOf(this.evaluation);
+    }
+
+  }
+
+  /**
+   * A {@link PermissionEvaluator} that waits until it is interrupted.
+   */
+  private static final class SlowEvaluator implements PermissionEvaluator {
+
+    private final CountDownLatch started;
+
+    private final CountDownLatch interrupted;
+
+    private SlowEvaluator() {
+      super();
+      this.started = new CountDownLatch(1);
+      this.interrupted = new CountDownLatch(1);
+    }
+
+    @Override
+    public final PermissionEvaluation evaluate(final ProtectionDomain protectionDomain, final PolicyContext policyContext, final Permission permission) {
+      this.started.countDown();
+      try {
+        Thread.sleep(TimeUnit.MINUTES.toMillis(1L));
+      } catch (final InterruptedException expected) {
+        this.interrupted.countDown();
+      }
+      return PermissionEvaluation.GRANTED;
+    }
+
+  }
+
+  /**
+   * A {@link PermissionEvaluator} that sleeps for a number of
+   * milliseconds before returning a fixed {@link
+   * PermissionEvaluation}.
+   */
+  private static final class SleepingEvaluator implements PermissionEvaluator {
+
+    private final PermissionEvaluation evaluation;
+
+    private final long millis;
+
+    private SleepingEvaluator(final PermissionEvaluation evaluation, final long millis) {
+      super();
+      this.evaluation = evaluation;
+      this.millis = millis;
+    }
+
+    @Override
+    public final PermissionEvaluation evaluate(final ProtectionDomain protectionDomain, final PolicyContext policyContext, final Permission permission) throws PolicyContextException {
+      try {
+        Thread.sleep(this.millis);
+      } catch (final InterruptedException kaboom) {
+        Thread.currentThread().interrupt();
+        throw new PolicyContextException(kaboom);
+      }
+      return this.evaluation;
+    }
+
+  }
+
+  /**
+   * A {@link CompositePermissionEvaluator} whose {@link
+   * #consolidate(Set)} lets {@link PermissionEvaluation#MANDATED}
+   * override {@link PermissionEvaluation#EXCLUDED}.
+   */
+  private static final class MandateFirstEvaluator extends CompositePermissionEvaluator {
+
+    @Override
+    protected final PermissionEvaluation consolidate(final Set<? extends PermissionEvaluation> evaluations) {
+      if (evaluations.contains(PermissionEvaluation.MANDATED)) {
+        return PermissionEvaluation.MANDATED;
+      }
+      return super.consolidate(evaluations);
+    }
+
+  }
+
+  private static final class ThrowingEvaluator implements PermissionEvaluator {
+
+    private final Exception exception;
+
+    private ThrowingEvaluator(final Exception exception) {
+      super();
+      this.exception = exception;
+    }
+
+    @Override
+    public final PermissionEvaluation evaluate(final ProtectionDomain protectionDomain, final PolicyContext policyContext, final Permission permission) throws PolicyContextException {
+      if (this.exception instanceof PolicyContextException) {
+        throw (PolicyContextException)this.exception;
+      }
+      throw (RuntimeException)this.exception;
+    }
+
+  }
+
+  /**
+   * A {@link PermissionEvaluator} that records the thread it runs on,
+   * the JACC policy context identifier it sees and whether {@link
+   * Policy} would treat a permission check made on it as reentrant.
+   */
+  private static final class RecordingEvaluator implements PermissionEvaluator {
+
+    private volatile Thread thread;
+
+    private volatile String contextId;
+
+    private volatile boolean inImplies;
+
+    @Override
+    public final PermissionEvaluation evaluate(final ProtectionDomain protectionDomain, final PolicyContext policyContext, final Permission permission) {
+      this.thread = Thread.currentThread();
+      this.contextId = javax.security.jacc.PolicyContext.getContextID();
+      this.inImplies = Policy.setInImplies(true);
+      Policy.setInImplies(this.inImplies);
+      return PermissionEvaluation.INDETERMINATE;
+    }
+
+  }
+
+}
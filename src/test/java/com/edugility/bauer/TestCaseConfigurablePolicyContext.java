@@ -0,0 +1,174 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+import java.security.Permissions;
+import java.security.Principal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.security.jacc.EJBMethodPermission;
+import javax.security.jacc.PolicyContextException;
+import javax.security.jacc.WebResourcePermission;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ConfigurablePolicyContext}.
+ */
+public class TestCaseConfigurablePolicyContext {
+
+  private static final String[] ROLES = { "a", "b", "c", "d", "e" };
+
+  private List<Permission> permissions;
+
+  private List<Permission> probes;
+
+  public TestCaseConfigurablePolicyContext() {
+    super();
+  }
+
+  @Before
+  public void setUp() {
+    this.permissions = new ArrayList<Permission>();
+    this.probes = new ArrayList<Permission>();
+    for (int i = 0; i < 10; i++) {
+      this.permissions.add(new WebResourcePermission("/" + i + "/*", i % 2 == 0 ? "GET" : "GET,POST"));
+      this.permissions.add(new EJBMethodPermission("Bean" + (i % 3), "method" + i + ",Local"));
+      this.permissions.add(new RuntimePermission("r" + i));
+      this.probes.add(new WebResourcePermission("/" + i + "/index.html", "GET"));
+      this.probes.add(new WebResourcePermission("/" + i + "/index.html", "POST"));
+    }
+    this.probes.addAll(this.permissions);
+    this.probes.add(new RuntimePermission("absent"));
+  }
+
+  @Test
+  public void testAddAllMatchesAddingStatementsOneByOne() throws PolicyContextException {
+    final Random random = new Random(42L);
+    final ConfigurablePolicyContext oneByOne = new ConfigurablePolicyContext("TestCaseConfigurablePolicyContext.oneByOne");
+    final ConfigurablePolicyContext batched = new ConfigurablePolicyContext("TestCaseConfigurablePolicyContext.batched");
+    oneByOne.setRoleMapper(new AllPrincipalsRoleMapper());
+    batched.setRoleMapper(new AllPrincipalsRoleMapper());
+
+    batched.addAll(this.addStatements(random, oneByOne, 3, 200));
+    oneByOne.commit();
+    batched.commit();
+    this.assertEquivalent(oneByOne, batched);
+
+    // Reopened, the existing drafts are extended with some new roles
+    // and more statements for the existing ones.
+    oneByOne.open();
+    batched.open();
+    batched.addAll(this.addStatements(random, oneByOne, ROLES.length, 200));
+    oneByOne.commit();
+    batched.commit();
+    this.assertEquivalent(oneByOne, batched);
+
+    // An empty batch changes nothing.
+    batched.open();
+    batched.addAll(new PolicyStatements());
+    batched.commit();
+    this.assertEquivalent(oneByOne, batched);
+  }
+
+  /**
+   * Adds random statements to the supplied {@link
+   * ConfigurablePolicyContext} one at a time and returns a {@link
+   * PolicyStatements} holding the same statements in the same
+   * order.
+   */
+  private final PolicyStatements addStatements(final Random random, final ConfigurablePolicyContext policyContext, final int roles, final int count) {
+    final PolicyStatements statements = new PolicyStatements();
+    for (int i = 0; i < count; i++) {
+      final Permission p = this.permissions.get(random.nextInt(this.permissions.size()));
+      final int operation = random.nextInt(10);
+      if (operation == 0) {
+        policyContext.addToExcludedPolicy(p);
+        statements.addToExcludedPolicy(p);
+      } else if (operation == 1) {
+        policyContext.addToUncheckedPolicy(p);
+        statements.addToUncheckedPolicy(p);
+      } else if (operation == 2) {
+        final String role = ROLES[random.nextInt(roles)];
+        final Permissions collection = new Permissions();
+        collection.add(p);
+        collection.add(this.permissions.get(random.nextInt(this.permissions.size())));
+        policyContext.addToRole(role, collection);
+        statements.addToRole(role, collection);
+      } else {
+        final String role = ROLES[random.nextInt(roles)];
+        policyContext.addToRole(role, p);
+        statements.addToRole(role, p);
+      }
+    }
+    return statements;
+  }
+
+  private final void assertEquivalent(final ConfigurablePolicyContext expected, final ConfigurablePolicyContext actual) throws PolicyContextException {
+    assertTrue(expected.getCommittedPolicy().getPolicyVersion().hasSameStatementsAs(actual.getCommittedPolicy().getPolicyVersion()));
+    final List<Principal[]> subjects = new ArrayList<Principal[]>();
+    subjects.add(new Principal[0]);
+    subjects.add(new Principal[] { new NamedPrincipal("nobody") });
+    for (int i = 0; i < ROLES.length; i++) {
+      subjects.add(new Principal[] { new NamedPrincipal(ROLES[i]) });
+      subjects.add(new Principal[] { new NamedPrincipal(ROLES[i]), new NamedPrincipal(ROLES[(i + 2) % ROLES.length]) });
+    }
+    int excluded = 0;
+    int mandated = 0;
+    int granted = 0;
+    for (final Permission p : this.probes) {
+      assertEquals(p.toString(), expected.excludes(p), actual.excludes(p));
+      assertEquals(p.toString(), expected.mandates(p), actual.mandates(p));
+      if (actual.excludes(p)) {
+        excluded++;
+      }
+      if (actual.mandates(p)) {
+        mandated++;
+      }
+      for (final Principal[] principals : subjects) {
+        assertEquals(p.toString(), expected.grants(p, principals), actual.grants(p, principals));
+        if (actual.grants(p, principals)) {
+          granted++;
+        }
+      }
+    }
+    // Make sure the comparison was not vacuous.
+    assertTrue(excluded > 0 && excluded < this.probes.size());
+    assertTrue(mandated > 0 && mandated < this.probes.size());
+    assertTrue(granted > 0 && granted < this.probes.size() * subjects.size());
+  }
+
+}
@@ -0,0 +1,138 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+import java.security.Principal;
+import java.security.ProtectionDomain;
+
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+import javax.security.jacc.WebResourcePermission;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests {@link DecisionCache}, alone and in front of {@link Policy}.
+ */
+public class TestCaseDecisionCache {
+
+  private static final Permission PERMISSION = new WebResourcePermission("/admin/*", "GET");
+
+  private DecisionCache cache;
+
+  private CommittedPolicy policy;
+
+  public TestCaseDecisionCache() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws PolicyContextException {
+    this.cache = new DecisionCache(100);
+    final ConfigurablePolicyContext policyContext = new ConfigurablePolicyContext("TestCaseDecisionCache");
+    policyContext.addToRole("admin", PERMISSION);
+    policyContext.commit();
+    this.policy = policyContext.getCommittedPolicyOrNull();
+    assertNotNull(this.policy);
+  }
+
+  @Test
+  public void testEqualPrincipalsShareADecision() {
+    this.cache.put("a", this.policy, new Principal[] { new NamedPrincipal("x"), new NamedPrincipal("y") }, PERMISSION, PermissionEvaluation.GRANTED);
+    assertSame(PermissionEvaluation.GRANTED, this.cache.get("a", this.policy, new Principal[] { new NamedPrincipal("y"), new NamedPrincipal("x") }, PERMISSION));
+    assertNull(this.cache.get("a", this.policy, new Principal[] { new NamedPrincipal("x") }, PERMISSION));
+    assertNull(this.cache.get("b", this.policy, new Principal[] { new NamedPrincipal("x"), new NamedPrincipal("y") }, PERMISSION));
+    assertEquals(1L, this.cache.getHitCount());
+    assertEquals(2L, this.cache.getMissCount());
+  }
+
+  @Test
+  public void testGroupMembersArePartOfTheKey() {
+    assumeTrue(Groups.supported());
+    this.cache.put("a", this.policy, new Principal[] { new NamedGroup("Roles", new NamedPrincipal("admin")) }, PERMISSION, PermissionEvaluation.GRANTED);
+    assertNull(this.cache.get("a", this.policy, new Principal[] { new NamedGroup("Roles", new NamedPrincipal("guest")) }, PERMISSION));
+    assertSame(PermissionEvaluation.GRANTED, this.cache.get("a", this.policy, new Principal[] { new NamedGroup("Roles", new NamedPrincipal("admin")) }, PERMISSION));
+  }
+
+  @Test
+  public void testInvalidate() {
+    final Principal[] principals = new Principal[] { new NamedPrincipal("x") };
+    this.cache.put("a", this.policy, principals, PERMISSION, PermissionEvaluation.GRANTED);
+    this.cache.put("b", this.policy, principals, PERMISSION, PermissionEvaluation.GRANTED);
+    this.cache.invalidate("a");
+    assertNull(this.cache.get("a", this.policy, principals, PERMISSION));
+    assertSame(PermissionEvaluation.GRANTED, this.cache.get("b", this.policy, principals, PERMISSION));
+  }
+
+  @Test
+  public void testSizeIsBounded() {
+    final DecisionCache cache = new DecisionCache(10);
+    for (int i = 0; i < 1000; i++) {
+      cache.put("a", this.policy, new Principal[] { new NamedPrincipal("p" + i) }, PERMISSION, PermissionEvaluation.GRANTED);
+    }
+    assertTrue(cache.size() <= 11);
+  }
+
+  @Test
+  public void testPolicyNeverServesADecisionFromAnEarlierCommit() throws PolicyContextException {
+    final String contextId = "TestCaseDecisionCache.testPolicyNeverServesADecisionFromAnEarlierCommit";
+    final PolicyConfiguration configuration = new PolicyConfigurationFactory().getPolicyConfiguration(contextId, true);
+    configuration.addToRole("admin", PERMISSION);
+    configuration.commit();
+    final Policy policy = new Policy();
+    policy.setPermissionEvaluator(new DefaultPermissionEvaluator());
+    policy.setDecisionCache(this.cache);
+    final ProtectionDomain admin = new ProtectionDomain(null, null, null, new Principal[] { new NamedPrincipal("admin") });
+    final String oldContextId = javax.security.jacc.PolicyContext.getContextID();
+    javax.security.jacc.PolicyContext.setContextID(contextId);
+    try {
+      assertTrue(policy.implies(admin, PERMISSION));
+      assertTrue(policy.implies(admin, PERMISSION));
+      assertEquals(1L, this.cache.getHitCount());
+
+      final PolicyConfiguration reopened = new PolicyConfigurationFactory().getPolicyConfiguration(contextId, true);
+      reopened.addToExcludedPolicy(PERMISSION);
+      reopened.commit();
+      assertFalse(policy.implies(admin, PERMISSION));
+    } finally {
+      javax.security.jacc.PolicyContext.setContextID(oldContextId);
+      new PolicyConfigurationFactory().getPolicyConfiguration(contextId, true).delete();
+    }
+  }
+
+}
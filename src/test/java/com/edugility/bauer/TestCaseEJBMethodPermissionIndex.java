@@ -0,0 +1,98 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.security.jacc.EJBMethodPermission;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link EJBMethodPermissionIndex} against a linear scan of
+ * {@link Permission#implies(Permission)}.
+ */
+public class TestCaseEJBMethodPermissionIndex {
+
+  private static final String[] NAMES = { "A", "B", "AB" };
+
+  private static final String[] ACTIONS = {
+    null, "", "foo", "bar", "foo,Local", "foo,Remote", ",Local", ",Home", "foo,Local,java.lang.String",
+    "foo,Local,", "foo,,java.lang.String", "foo,Remote,int,java.lang.String", "fo", "foo,LocalHome", "bar,ServiceEndpoint"
+  };
+
+  public TestCaseEJBMethodPermissionIndex() {
+    super();
+  }
+
+  @Test
+  public void testMatchesLinearScan() {
+    final List<Permission> permissions = new ArrayList<Permission>();
+    for (final String name : NAMES) {
+      for (final String actions : ACTIONS) {
+        permissions.add(new EJBMethodPermission(name, actions));
+      }
+    }
+    final Random random = new Random(42L);
+    for (int round = 0; round < 50; round++) {
+      final List<Permission> indexed = new ArrayList<Permission>();
+      final List<long[]> roles = new ArrayList<long[]>();
+      for (final Permission permission : permissions) {
+        if (random.nextInt(4) == 0) {
+          indexed.add(permission);
+          roles.add(new long[] { 1L << random.nextInt(4) });
+        }
+      }
+      final PermissionIndex index = new EJBMethodPermissionIndex(indexed.toArray(new Permission[indexed.size()]), roles.toArray(new long[roles.size()][]));
+      final long[] callerRoles = new long[] { 1L << random.nextInt(4) | 1L << random.nextInt(4) };
+      for (final Permission permission : permissions) {
+        boolean implied = false;
+        boolean impliedForCaller = false;
+        boolean impliesAny = false;
+        for (int i = 0; i < indexed.size(); i++) {
+          final Permission candidate = indexed.get(i);
+          if (candidate.implies(permission)) {
+            implied = true;
+            impliedForCaller = impliedForCaller || RoleTable.intersects(roles.get(i), callerRoles);
+          }
+          impliesAny = impliesAny || permission.implies(candidate);
+        }
+        assertEquals(permission.toString(), implied, index.implies(permission, null));
+        assertEquals(permission.toString(), impliedForCaller, index.implies(permission, callerRoles));
+        assertEquals(permission.toString(), impliesAny, index.anyImpliedBy(permission));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,156 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.lang.ref.WeakReference;
+
+import java.security.Permission;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.security.jacc.WebResourcePermission;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link ConfigurablePolicyContext}s share equal {@link
+ * Permission}s, role names and committed policies, and that sharing
+ * keeps nothing alive once the policy contexts are deleted.
+ */
+public class TestCaseFootprint {
+
+  private static final String PREFIX = "/" + TestCaseFootprint.class.getName();
+
+  private static final int CONTEXTS = 20;
+
+  public TestCaseFootprint() {
+    super();
+  }
+
+  @Test
+  public void testSharedInstancesAreIdenticalAndReleasedAfterDelete() throws InterruptedException {
+    final List<ConfigurablePolicyContext> contexts = new ArrayList<ConfigurablePolicyContext>();
+    for (int i = 0; i < CONTEXTS; i++) {
+      final ConfigurablePolicyContext context = new ConfigurablePolicyContext("TestCaseFootprint." + i);
+      // Fresh, equal instances every time.
+      context.addToRole(new String("user"), new WebResourcePermission(PREFIX + "/common/*", "GET"));
+      context.addToExcludedPolicy(new WebResourcePermission(PREFIX + "/admin/*", (String)null));
+      if (i % 2 != 0) {
+        context.addToRole(new String("user"), new WebResourcePermission(PREFIX + "/tenant" + i + "/*", "GET"));
+      }
+      context.commit();
+      contexts.add(context);
+    }
+    final List<WeakReference<?>> shared = assertShared(contexts);
+    for (final ConfigurablePolicyContext context : contexts) {
+      context.delete();
+    }
+    // The deleted contexts themselves stay reachable; only what they
+    // held, and the pools, must let go.
+    for (final WeakReference<?> reference : shared) {
+      assertTrue(collect(reference));
+    }
+    assertEquals(CONTEXTS, contexts.size());
+  }
+
+  /**
+   * Asserts that the supplied {@link ConfigurablePolicyContext}s share
+   * their common {@link Permission}, role name and, where their
+   * statements are identical, committed policy, and returns weak
+   * references to the shared instances.
+   */
+  private static final List<WeakReference<?>> assertShared(final List<ConfigurablePolicyContext> contexts) {
+    final CommittedPolicy first = contexts.get(0).getCommittedPolicyOrNull();
+    final Permission common = role(first, "user", new WebResourcePermission(PREFIX + "/common/*", "GET"));
+    final String user = roleName(first, "user");
+    for (int i = 0; i < contexts.size(); i++) {
+      final CommittedPolicy policy = contexts.get(i).getCommittedPolicyOrNull();
+      assertSame(common, role(policy, "user", common));
+      assertSame(user, roleName(policy, "user"));
+      if (i % 2 == 0) {
+        // Identical statements, so one committed policy.
+        assertSame(first.getCanonical(), policy.getCanonical());
+      } else {
+        assertNotSame(first.getCanonical(), policy.getCanonical());
+      }
+    }
+    final List<WeakReference<?>> returnValue = new ArrayList<WeakReference<?>>();
+    returnValue.add(new WeakReference<Permission>(common));
+    returnValue.add(new WeakReference<CommittedPolicy>(first.getCanonical()));
+    return returnValue;
+  }
+
+  @Test
+  public void testInternerEmptiesOnceInstancesAreUnreachable() throws InterruptedException {
+    final Interner<String> interner = new Interner<String>();
+    final List<String> strings = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      final String string = interner.intern(new String("s" + (i % 10)));
+      strings.add(string);
+      assertSame(strings.get(i % 10), string);
+    }
+    assertEquals(10, interner.size());
+    final WeakReference<String> reference = new WeakReference<String>(strings.get(0));
+    strings.clear();
+    assertTrue(collect(reference));
+    assertEquals(0, interner.size());
+  }
+
+  private static final Permission role(final CommittedPolicy policy, final String roleName, final Permission permission) {
+    return policy.getPolicyVersion().getRoles().get(roleName).get(permission);
+  }
+
+  private static final String roleName(final CommittedPolicy policy, final String roleName) {
+    for (final String name : policy.getPolicyVersion().getRoles().keys()) {
+      if (name.equals(roleName)) {
+        return name;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Runs the garbage collector until the supplied {@link
+   * WeakReference} is cleared, returning {@code false} if it never
+   * is.
+   */
+  private static final boolean collect(final WeakReference<?> reference) throws InterruptedException {
+    for (int i = 0; i < 50 && reference.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10L);
+    }
+    return reference.get() == null;
+  }
+
+}
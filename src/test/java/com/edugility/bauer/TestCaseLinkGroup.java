@@ -0,0 +1,98 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Principal;
+
+import java.util.Collections;
+import java.util.Set;
+
+import javax.security.jacc.PolicyContextException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the sharing of {@link RoleMapper}s by {@link LinkGroup}s.
+ */
+public class TestCaseLinkGroup {
+
+  public TestCaseLinkGroup() {
+    super();
+  }
+
+  @Test
+  public void testOnlyEqualRoleMappersAreShared() throws PolicyContextException {
+    final ConfigurablePolicyContext a = new ConfigurablePolicyContext("TestCaseLinkGroup.a");
+    final ConfigurablePolicyContext b = new ConfigurablePolicyContext("TestCaseLinkGroup.b");
+    final ConfigurablePolicyContext c = new ConfigurablePolicyContext("TestCaseLinkGroup.c");
+    final ConfigurablePolicyContext d = new ConfigurablePolicyContext("TestCaseLinkGroup.d");
+    a.setRoleMapper(new AllPrincipalsRoleMapper());
+    b.setRoleMapper(new AllPrincipalsRoleMapper());
+    c.setRoleMapper(new RoleMapper() {
+        @Override
+        public final Set<String> getRoles(final Principal[] principals) {
+          return Collections.singleton("custom");
+        }
+      });
+    d.setRoleMapper(null);
+
+    a.linkConfiguration(b);
+    b.linkConfiguration(c);
+    c.linkConfiguration(d);
+
+    assertTrue(a.getRoleMapper() instanceof CachingRoleMapper);
+    assertSame(a.getRoleMapper(), b.getRoleMapper());
+    assertNotSame(a.getRoleMapper(), c.getRoleMapper());
+    assertNull(d.getRoleMapper());
+    assertEquals(2, a.getLinkGroup().getRoleMappers().size());
+
+    final Principal[] principals = new Principal[] { new NamedPrincipal("admin") };
+    assertEquals(Collections.singleton("admin"), a.getRoleMapper().getRoles(principals));
+    assertEquals(Collections.singleton("custom"), c.getRoleMapper().getRoles(principals));
+
+    // Linking again, or merging groups, changes nothing.
+    final ConfigurablePolicyContext e = new ConfigurablePolicyContext("TestCaseLinkGroup.e");
+    final ConfigurablePolicyContext f = new ConfigurablePolicyContext("TestCaseLinkGroup.f");
+    e.setRoleMapper(new AllPrincipalsRoleMapper());
+    f.setRoleMapper(new CachingRoleMapper(new AllPrincipalsRoleMapper()));
+    e.linkConfiguration(f);
+    assertSame(e.getRoleMapper(), f.getRoleMapper());
+    a.linkConfiguration(e);
+    assertSame(a.getRoleMapper(), e.getRoleMapper());
+    assertSame(a.getRoleMapper(), f.getRoleMapper());
+    assertEquals(Collections.singleton("custom"), c.getRoleMapper().getRoles(principals));
+    assertEquals(2, a.getLinkGroup().getRoleMappers().size());
+  }
+
+}
@@ -0,0 +1,127 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.Permissions;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.PropertyPermission;
+
+import javax.security.jacc.EJBMethodPermission;
+import javax.security.jacc.PolicyContextException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the {@link PermissionCollection}s returned by {@link
+ * CommittedPolicy#getPermissions(PermissionCollection,
+ * PermissionCollection, java.util.Collection)}.
+ */
+public class TestCasePermissionCollectionView {
+
+  private static final Permission GRANTED = new EJBMethodPermission("Bean", "get,Local");
+
+  private static final Permission EXCLUDED = new RuntimePermission("excluded");
+
+  private CommittedPolicy policy;
+
+  public TestCasePermissionCollectionView() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws PolicyContextException {
+    final ConfigurablePolicyContext policyContext = new ConfigurablePolicyContext("TestCasePermissionCollectionView");
+    policyContext.addToRole("admin", GRANTED);
+    policyContext.addToExcludedPolicy(EXCLUDED);
+    policyContext.commit();
+    this.policy = policyContext.getCommittedPolicyOrNull();
+  }
+
+  @Test
+  public void testEachCallReturnsANewMutableCollection() {
+    final PermissionCollection a = this.policy.getPermissions(null, null, Collections.singleton("admin"));
+    final PermissionCollection b = this.policy.getPermissions(null, null, Collections.singleton("admin"));
+    assertNotSame(a, b);
+    assertFalse(a.isReadOnly());
+    assertTrue(a.implies(GRANTED));
+
+    final Permission property = new PropertyPermission("user.*", "read");
+    a.add(property);
+    a.add(new RuntimePermission("other"));
+    assertTrue(a.implies(new PropertyPermission("user.home", "read")));
+    assertTrue(a.implies(new RuntimePermission("other")));
+    assertTrue(a.implies(GRANTED));
+    assertFalse(b.implies(new RuntimePermission("other")));
+    assertEquals(3, count(a.elements()));
+    assertEquals(1, count(b.elements()));
+
+    a.setReadOnly();
+    try {
+      a.add(new RuntimePermission("late"));
+      fail();
+    } catch (final SecurityException expected) {
+
+    }
+  }
+
+  @Test
+  public void testAddKeepsTheExcludedPolicyApplied() {
+    final Permissions domainPermissions = new Permissions();
+    domainPermissions.add(EXCLUDED);
+    domainPermissions.add(new RuntimePermission("domain"));
+    final PermissionCollection view = this.policy.getPermissions(null, domainPermissions, null);
+    assertFalse(view.implies(EXCLUDED));
+    assertTrue(view.implies(new RuntimePermission("domain")));
+    assertFalse(view.implies(GRANTED));
+    view.add(GRANTED);
+    assertTrue(view.implies(GRANTED));
+    assertFalse(view.implies(EXCLUDED));
+    assertTrue(view.implies(new RuntimePermission("domain")));
+  }
+
+  private static final int count(final Enumeration<Permission> elements) {
+    int returnValue = 0;
+    while (elements.hasMoreElements()) {
+      elements.nextElement();
+      returnValue++;
+    }
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,243 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link PersistentHashMap} against a {@link HashMap}.
+ */
+public class TestCasePersistentHashMap {
+
+  public TestCasePersistentHashMap() {
+    super();
+  }
+
+  @Test
+  public void testRandomOperationsMatchHashMap() {
+    final Random random = new Random(42L);
+    final Map<Key, Integer> expected = new HashMap<Key, Integer>();
+    PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+    for (int i = 0; i < 20000; i++) {
+      // Few distinct hash codes, so that many keys collide fully and
+      // many more share their first levels.
+      final Key key = new Key(random.nextInt(600), random.nextInt(40) * 0x10001);
+      final Integer value = Integer.valueOf(random.nextInt(4));
+      final int operation = random.nextInt(4);
+      if (operation == 0) {
+        final PersistentHashMap<Key, Integer> minus = map.minus(key);
+        if (expected.remove(key) == null) {
+          assertSame(map, minus);
+        }
+        map = minus;
+      } else if (operation == 1) {
+        final PersistentHashMap<Key, Integer> plus = map.plusIfAbsent(key, value, null);
+        if (expected.containsKey(key)) {
+          assertSame(map, plus);
+        } else {
+          expected.put(key, value);
+        }
+        map = plus;
+      } else {
+        final Integer old = expected.put(key, value);
+        final PersistentHashMap<Key, Integer> plus = map.plus(key, value);
+        if (old == value) {
+          assertSame(map, plus);
+        }
+        map = plus;
+      }
+      assertEquals(expected.size(), map.size());
+      assertEquals(expected.get(key), map.get(key));
+      if (i % 1000 == 0) {
+        assertContents(expected, map);
+      }
+    }
+    assertContents(expected, map);
+  }
+
+  @Test
+  public void testFullCollisions() {
+    PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+    for (int i = 0; i < 10; i++) {
+      map = map.plus(new Key(i, 7), Integer.valueOf(i));
+    }
+    assertEquals(10, map.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Integer.valueOf(i), map.get(new Key(i, 7)));
+    }
+    assertNull(map.get(new Key(10, 7)));
+    assertSame(map, map.minus(new Key(10, 7)));
+    assertSame(map, map.plusIfAbsent(new Key(3, 7), Integer.valueOf(99), null));
+    for (int i = 0; i < 10; i++) {
+      map = map.minus(new Key(i, 7));
+      assertEquals(9 - i, map.size());
+      assertNull(map.get(new Key(i, 7)));
+      if (i < 9) {
+        assertEquals(Integer.valueOf(9), map.get(new Key(9, 7)));
+      }
+    }
+    assertTrue(map.isEmpty());
+    assertSame(PersistentHashMap.empty(), map);
+  }
+
+  @Test
+  public void testEditsDoNotDisturbFrozenMaps() {
+    final Random random = new Random(17L);
+    PersistentHashMap<Key, Integer> frozen = PersistentHashMap.empty();
+    final Map<Key, Integer> frozenContents = new HashMap<Key, Integer>();
+    for (int i = 0; i < 500; i++) {
+      final Key key = new Key(i, random.nextInt(64));
+      frozen = frozen.plus(key, Integer.valueOf(i));
+      frozenContents.put(key, Integer.valueOf(i));
+    }
+
+    for (int round = 0; round < 10; round++) {
+      // Each round stands for one open policy configuration: its own
+      // edit token, many changes, and a frozen result.
+      final Object edit = new Object();
+      final Map<Key, Integer> expected = new HashMap<Key, Integer>(frozenContents);
+      PersistentHashMap<Key, Integer> map = frozen;
+      for (int i = 0; i < 2000; i++) {
+        final Key key = new Key(random.nextInt(1000), random.nextInt(64));
+        final Integer value = Integer.valueOf(random.nextInt(1000));
+        if (random.nextInt(5) == 0) {
+          map = map.minus(key);
+          expected.remove(key);
+        } else if (random.nextBoolean()) {
+          map = map.plusIfAbsent(key, value, edit);
+          if (!expected.containsKey(key)) {
+            expected.put(key, value);
+          }
+        } else {
+          map = map.plus(key, value, edit);
+          expected.put(key, value);
+        }
+      }
+      assertContents(expected, map);
+      assertContents(frozenContents, frozen);
+      frozen = map;
+      frozenContents.clear();
+      frozenContents.putAll(expected);
+    }
+  }
+
+  @Test
+  public void testChangesSince() {
+    PersistentHashMap<Key, Integer> older = PersistentHashMap.empty();
+    for (int i = 0; i < 300; i++) {
+      older = older.plus(new Key(i, i % 50), Integer.valueOf(i));
+    }
+    final Object edit = new Object();
+    PersistentHashMap<Key, Integer> newer = older;
+    final Map<Key, Integer> expected = new HashMap<Key, Integer>();
+    for (int i = 250; i < 350; i += 3) {
+      final Key key = new Key(i, i % 50);
+      final Integer value = Integer.valueOf(-i);
+      newer = newer.plus(key, value, edit);
+      expected.put(key, value);
+    }
+    final Map<Key, Integer> changes = new HashMap<Key, Integer>();
+    assertTrue(newer.changesSince(older, changes, Integer.MAX_VALUE));
+    assertEquals(expected, changes);
+
+    changes.clear();
+    assertFalse(newer.changesSince(older, changes, 5));
+
+    changes.clear();
+    assertFalse(newer.minus(new Key(0, 0)).changesSince(older, changes, Integer.MAX_VALUE));
+  }
+
+  private static final void assertContents(final Map<Key, Integer> expected, final PersistentHashMap<Key, Integer> map) {
+    assertEquals(expected.size(), map.size());
+    final List<Map.Entry<Key, Integer>> entries = map.entries();
+    assertEquals(expected.size(), entries.size());
+    for (final Map.Entry<Key, Integer> entry : entries) {
+      assertEquals(expected.get(entry.getKey()), entry.getValue());
+    }
+    for (final Map.Entry<Key, Integer> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), map.get(entry.getKey()));
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A key whose hash code is chosen independently of its identity.
+   */
+  private static final class Key {
+
+    private final int id;
+
+    private final int hashCode;
+
+    private Key(final int id, final int hashCode) {
+      super();
+      this.id = id;
+      this.hashCode = hashCode;
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hashCode;
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof Key) {
+        final Key her = (Key)other;
+        return this.id == her.id && this.hashCode == her.hashCode;
+      } else {
+        return false;
+      }
+    }
+
+    @Override
+    public final String toString() {
+      return this.id + "@" + this.hashCode;
+    }
+
+  }
+
+}
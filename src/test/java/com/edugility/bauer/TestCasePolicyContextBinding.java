@@ -0,0 +1,84 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests {@link PolicyContextBinding}.
+ */
+public class TestCasePolicyContextBinding {
+
+  public TestCasePolicyContextBinding() {
+    super();
+  }
+
+  @Test
+  public void testBindingIsIgnoredOnceItsPolicyContextIsDeleted() throws PolicyContextException {
+    final String contextId = "TestCasePolicyContextBinding";
+    final PolicyConfigurationFactory factory = new PolicyConfigurationFactory();
+    final PolicyConfiguration deployed = factory.getPolicyConfiguration(contextId, true);
+    deployed.commit();
+
+    final PolicyContextBinding binding = PolicyContextBinding.bind(contextId);
+    try {
+      assertSame(binding, PolicyContextBinding.current(contextId));
+      assertSame(deployed, PolicyConfigurationFactory.getPolicyContext());
+      assertNull(PolicyContextBinding.current(contextId + ".other"));
+
+      deployed.delete();
+      assertNull(PolicyContextBinding.current(contextId));
+
+      final PolicyConfiguration redeployed = factory.getPolicyConfiguration(contextId, true);
+      redeployed.commit();
+      assertNotSame(deployed, redeployed);
+      assertNull(PolicyContextBinding.current(contextId));
+      assertSame(redeployed, PolicyConfigurationFactory.getPolicyContext());
+    } finally {
+      binding.unbind();
+    }
+    assertNull(PolicyContextBinding.current(contextId));
+
+    final PolicyContextBinding rebinding = PolicyContextBinding.bind(contextId);
+    try {
+      assertNotNull(PolicyContextBinding.current(contextId));
+      assertSame(PolicyConfigurationFactory.getPolicyContext(contextId), rebinding.getPolicyContext());
+    } finally {
+      rebinding.unbind();
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.security.jacc.PolicyContextException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link PolicyDefinitionReader}.
+ */
+public class TestCasePolicyDefinitionReader {
+
+  public TestCasePolicyDefinitionReader() {
+    super();
+  }
+
+  @Test
+  public void testBadClassNamesAreSkippedEveryTime() throws IOException, PolicyContextException {
+    final StringBuilder definition = new StringBuilder();
+    definition.append("context TestCasePolicyDefinitionReader\n");
+    for (int i = 0; i < 1000; i++) {
+      definition.append("role r").append(i % 10).append(" EJBMethodPermission Bean").append(i).append(" get,Local\n");
+      definition.append("role r").append(i % 10).append(" com.example.Missing").append(i).append(" x\n");
+      definition.append("excluded java.lang.String x\n");
+    }
+    definition.append("commit\n");
+    final List<Long> badLines = new ArrayList<Long>();
+    final PolicyDefinitionReader reader = new PolicyDefinitionReader(new PolicyConfigurationFactory(), new PolicyDefinitionReader.Listener() {
+        @Override
+        public final void progress(final long lines, final long statements, final long bytes) {
+
+        }
+
+        @Override
+        public final void badLine(final long lineNumber, final String line, final Exception cause) {
+          assertTrue(cause instanceof IllegalStateException);
+          badLines.add(Long.valueOf(lineNumber));
+        }
+      }, Long.MAX_VALUE);
+    assertEquals(1000L, reader.read(new StringReader(definition.toString())));
+    assertEquals(2000, badLines.size());
+    assertEquals(Long.valueOf(3L), badLines.get(0));
+    assertEquals(Long.valueOf(4L), badLines.get(1));
+  }
+
+}
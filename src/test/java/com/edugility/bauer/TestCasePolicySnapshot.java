@@ -0,0 +1,302 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.security.BasicPermission;
+import java.security.Permission;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Random;
+
+import javax.security.jacc.EJBMethodPermission;
+import javax.security.jacc.PolicyContextException;
+import javax.security.jacc.WebResourcePermission;
+import javax.security.jacc.WebUserDataPermission;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link PolicySnapshot} round trips and its handling of
+ * corrupt files.
+ */
+public class TestCasePolicySnapshot {
+
+  private static final String CONTEXT_ID = TestCasePolicySnapshot.class.getName();
+
+  private static final Permission[] CHECKED = {
+    new WebResourcePermission("/admin/users", "GET"),
+    new WebResourcePermission("/admin/users", "POST"),
+    new WebResourcePermission("/admin/secret", "GET"),
+    new WebResourcePermission("/public/index.html", "GET"),
+    new WebResourcePermission("/x/y.jsp", "GET"),
+    new WebUserDataPermission("/secure/a", "GET:CONFIDENTIAL"),
+    new EJBMethodPermission("Bean", "foo,Remote,int"),
+    new EJBMethodPermission("Bean", "bar,Remote,int"),
+    new RuntimePermission("exitVM"),
+    new OpaquePermission("opaque", 1)
+  };
+
+  private static final Collection<String> USER = Collections.singleton("user");
+
+  private static final Collection<String> ADMIN = Arrays.asList("user", "admin");
+
+  private CommittedPolicy policy;
+
+  private File file;
+
+  public TestCasePolicySnapshot() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException, PolicyContextException {
+    final ConfigurablePolicyContext policyContext = new ConfigurablePolicyContext(CONTEXT_ID);
+    policyContext.addToExcludedPolicy(new WebResourcePermission("/admin/secret", (String)null));
+    policyContext.addToUncheckedPolicy(new WebResourcePermission("/public/*", (String)null));
+    policyContext.addToUncheckedPolicy(new WebUserDataPermission("/secure/*", ":CONFIDENTIAL"));
+    policyContext.addToRole("admin", new WebResourcePermission("/admin/*", "GET"));
+    policyContext.addToRole("admin", new OpaquePermission("opaque", 1));
+    policyContext.addToRole("user", new WebResourcePermission("*.jsp", "GET"));
+    policyContext.addToRole("user", new EJBMethodPermission("Bean", "foo,Remote"));
+    policyContext.addToRole("user", new RuntimePermission("exitVM"));
+    policyContext.commit();
+    this.policy = policyContext.getCommittedPolicy();
+    this.file = File.createTempFile(CONTEXT_ID, ".snapshot");
+    PolicySnapshot.write(CONTEXT_ID, this.policy, this.file);
+  }
+
+  @After
+  public void tearDown() {
+    if (this.file != null) {
+      this.file.delete();
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    final PolicySnapshot snapshot = PolicySnapshot.read(this.file);
+    assertEquals(CONTEXT_ID, snapshot.getContextID());
+    final CommittedPolicy copy = snapshot.getCommittedPolicy();
+    assertEquals(this.policy.getRoles().keySet(), copy.getRoles().keySet());
+    for (final Permission permission : CHECKED) {
+      assertEquals(permission.toString(), this.policy.excludes(permission), copy.excludes(permission));
+      assertEquals(permission.toString(), this.policy.mandates(permission), copy.mandates(permission));
+      assertEquals(permission.toString(), this.policy.grants(permission, USER), copy.grants(permission, USER));
+      assertEquals(permission.toString(), this.policy.grants(permission, ADMIN), copy.grants(permission, ADMIN));
+    }
+    assertTrue(copy.excludes(new WebResourcePermission("/admin/secret", "GET")));
+    assertTrue(copy.grants(new OpaquePermission("opaque", 2), ADMIN));
+    assertFalse(copy.grants(new OpaquePermission("opaque", 2), USER));
+  }
+
+  @Test
+  public void testCorruptStringIndex() throws IOException {
+    // The string index of the policy context identifier.
+    writeInt(this.file, 8, 999999);
+    assertUnreadable(this.file);
+  }
+
+  @Test
+  public void testCorruptPermissionIndexInSection() throws IOException {
+    // The excluded policy section holds one permission index.
+    final int excludedOffset = readInt(this.file, 28);
+    assertEquals(1, readInt(this.file, excludedOffset));
+    writeInt(this.file, excludedOffset + 4, 999999);
+    assertUnreadable(this.file);
+  }
+
+  @Test
+  public void testCorruptPermissionRecord() throws IOException {
+    final int permissionTableOffset = readInt(this.file, 24);
+    writeInt(this.file, permissionTableOffset, 7);
+    assertUnreadable(this.file);
+  }
+
+  @Test
+  public void testUnknownPermissionClass() throws IOException {
+    // Point the class name of the first permission recorded by name
+    // at the policy context identifier, which names no class.
+    final int permissionCount = readInt(this.file, 20);
+    final int permissionTableOffset = readInt(this.file, 24);
+    for (int i = 0; i < permissionCount; i++) {
+      final int record = permissionTableOffset + i * 16;
+      if (readInt(this.file, record) != 2) {
+        writeInt(this.file, record + 4, readInt(this.file, 8));
+        assertUnreadable(this.file);
+        return;
+      }
+    }
+    fail("No permission recorded by name");
+  }
+
+  @Test
+  public void testRandomCorruptionIsReportedAsIOException() throws IOException {
+    final byte[] original = new byte[(int)this.file.length()];
+    RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "r");
+    try {
+      randomAccessFile.readFully(original);
+    } finally {
+      randomAccessFile.close();
+    }
+    final Random random = new Random(7L);
+    for (int i = 0; i < 500; i++) {
+      final File corrupt = File.createTempFile(CONTEXT_ID, ".snapshot");
+      try {
+        final byte[] bytes = original.clone();
+        final int position = random.nextInt(bytes.length / 4) * 4;
+        final int value = random.nextBoolean() ? random.nextInt() : random.nextInt(64) - 1;
+        bytes[position] = (byte)(value >>> 24);
+        bytes[position + 1] = (byte)(value >>> 16);
+        bytes[position + 2] = (byte)(value >>> 8);
+        bytes[position + 3] = (byte)value;
+        randomAccessFile = new RandomAccessFile(corrupt, "rw");
+        try {
+          randomAccessFile.write(bytes);
+        } finally {
+          randomAccessFile.close();
+        }
+        final PolicySnapshot snapshot;
+        try {
+          snapshot = PolicySnapshot.read(corrupt);
+        } catch (final IOException expected) {
+          continue;
+        }
+        // What was read must be usable; only a permission that its
+        // own constructor rejects may still fail.
+        final CommittedPolicy copy = snapshot.getCommittedPolicy();
+        for (final Permission permission : CHECKED) {
+          try {
+            copy.excludes(permission);
+            copy.mandates(permission);
+            copy.grants(permission, ADMIN);
+          } catch (final IllegalStateException undecodable) {
+            assertNotNull(undecodable.getCause());
+          }
+        }
+      } finally {
+        corrupt.delete();
+      }
+    }
+  }
+
+  @Test
+  public void testFactorySurvivesACorruptSnapshot() throws IOException, PolicyContextException {
+    final String goodId = CONTEXT_ID + ".good";
+    final File directory = this.file.getParentFile();
+    final File snapshotDirectory = new File(directory, CONTEXT_ID + ".d");
+    assertTrue(snapshotDirectory.mkdir() || snapshotDirectory.isDirectory());
+    final File good = new File(snapshotDirectory, "good.snapshot");
+    final File bad = new File(snapshotDirectory, "bad.snapshot");
+    final String property = "com.edugility.bauer.PolicyConfigurationFactory.snapshotDirectory";
+    final String oldValue = System.getProperty(property);
+    try {
+      PolicySnapshot.write(goodId, this.policy, good);
+      PolicySnapshot.write(CONTEXT_ID + ".bad", this.policy, bad);
+      writeInt(bad, 8, 999999);
+      System.setProperty(property, snapshotDirectory.getPath());
+      final PolicyConfigurationFactory factory = new PolicyConfigurationFactory();
+      final PolicyContext policyContext = PolicyConfigurationFactory.getPolicyContext(goodId);
+      assertNotNull(policyContext);
+      factory.getPolicyConfiguration(goodId, true).delete();
+    } finally {
+      if (oldValue == null) {
+        System.clearProperty(property);
+      } else {
+        System.setProperty(property, oldValue);
+      }
+      good.delete();
+      bad.delete();
+      snapshotDirectory.delete();
+    }
+  }
+
+  private static final void assertUnreadable(final File file) {
+    try {
+      PolicySnapshot.read(file);
+      fail("Corrupt snapshot was read");
+    } catch (final IOException expected) {
+
+    }
+  }
+
+  private static final int readInt(final File file, final int position) throws IOException {
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      randomAccessFile.seek(position);
+      return randomAccessFile.readInt();
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private static final void writeInt(final File file, final int position, final int value) throws IOException {
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.seek(position);
+      randomAccessFile.writeInt(value);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A {@link Permission} with no {@code (String)} or {@code (String,
+   * String)} constructor, which a {@link PolicySnapshot} must
+   * therefore serialize.
+   */
+  private static final class OpaquePermission extends BasicPermission {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpaquePermission(final String name, final int ignored) {
+      super(name);
+    }
+
+  }
+
+}
@@ -0,0 +1,234 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.security.jacc.WebResourcePermission;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link PolicyVersion}.
+ */
+public class TestCasePolicyVersion {
+
+  private static final String[] ROLES = { "a", "b", "c", "d", "e", "f", "g" };
+
+  public TestCasePolicyVersion() {
+    super();
+  }
+
+  @Test
+  public void testRoleIdentifiersAreStableAndReused() {
+    final Permission p = new WebResourcePermission("/a", "GET");
+    PolicyVersion v = PolicyVersion.EMPTY.plusRole("a", p).plusRole("b", p).plusRole("c", p);
+    assertEquals(Integer.valueOf(0), v.getRoleIds().get("a"));
+    assertEquals(Integer.valueOf(1), v.getRoleIds().get("b"));
+    assertEquals(Integer.valueOf(2), v.getRoleIds().get("c"));
+    assertSame(v, v.plusRole("b", new WebResourcePermission("/a", "GET")));
+    v = v.withoutRole("b");
+    assertEquals(Integer.valueOf(2), v.getRoleIds().get("c"));
+    v = v.plusRole("d", new RuntimePermission("x"));
+    assertEquals(Integer.valueOf(1), v.getRoleIds().get("d"));
+    assertEquals(3, v.getRoleNames().length);
+    assertEquals("d", v.getRoleNames()[1]);
+    assertConsistent(v);
+  }
+
+  @Test
+  public void testEditsDoNotDisturbFrozenVersions() {
+    final Random random = new Random(42L);
+    final List<Permission> permissions = new ArrayList<Permission>();
+    for (int i = 0; i < 40; i++) {
+      permissions.add(new WebResourcePermission("/" + (i % 20), i < 20 ? "GET" : "POST"));
+    }
+    for (int i = 0; i < 5; i++) {
+      // Not indexable, since BasicPermission has its own collection.
+      permissions.add(new RuntimePermission("r" + i));
+    }
+
+    final List<PolicyVersion> frozen = new ArrayList<PolicyVersion>();
+    final List<String> descriptions = new ArrayList<String>();
+    PolicyVersion version = PolicyVersion.EMPTY;
+    for (int commit = 1; commit <= 30; commit++) {
+      // As a ConfigurablePolicyContext does: open, change, commit.
+      PolicyVersion v = version.editable();
+      for (int i = 0; i < 50; i++) {
+        final Permission p = permissions.get(random.nextInt(permissions.size()));
+        final int operation = random.nextInt(10);
+        if (operation == 0) {
+          v = v.withoutRole(ROLES[random.nextInt(ROLES.length)]);
+        } else if (operation == 1) {
+          v = v.plusExcluded(p);
+        } else if (operation == 2) {
+          v = v.plusUnchecked(p);
+        } else if (operation == 3 && random.nextInt(4) == 0) {
+          v = random.nextBoolean() ? v.withoutExcluded() : v.withoutUnchecked();
+        } else {
+          v = v.plusRole(ROLES[random.nextInt(ROLES.length)], p);
+        }
+      }
+      if (commit % 10 == 0) {
+        v = v.withoutRoles();
+      }
+      version = v.withNumber(commit);
+      assertEquals(commit, version.getNumber());
+      assertSame(version, version.withNumber(commit));
+      assertConsistent(version);
+      frozen.add(version);
+      descriptions.add(describe(version));
+    }
+    for (int i = 0; i < frozen.size(); i++) {
+      assertEquals(descriptions.get(i), describe(frozen.get(i)));
+      assertConsistent(frozen.get(i));
+    }
+  }
+
+  @Test
+  public void testHasSameStatementsAs() {
+    final Permission p = new WebResourcePermission("/a", "GET");
+    final Permission q = new RuntimePermission("q");
+    final PolicyVersion v = PolicyVersion.EMPTY.plusExcluded(q).plusRole("a", p).plusRole("b", q).withNumber(1L);
+    final PolicyVersion w = PolicyVersion.EMPTY.editable().plusExcluded(q).plusRole("a", p).plusRole("b", q).withNumber(2L);
+    assertTrue(v.hasSameStatementsAs(w));
+    assertFalse(v.hasSameStatementsAs(w.plusUnchecked(p)));
+    assertFalse(v.hasSameStatementsAs(w.withoutRole("b")));
+    assertFalse(v.hasSameStatementsAs(PolicyVersion.EMPTY.plusExcluded(q).plusRole("b", q).plusRole("a", p)));
+    assertFalse(v.hasSameStatementsAs(null));
+  }
+
+  /**
+   * Asserts that the grants and unindexed roles of the supplied
+   * {@link PolicyVersion} agree with its per-role policies.
+   */
+  private static final void assertConsistent(final PolicyVersion version) {
+    final Map<String, Integer> roleIds = toMap(version.getRoleIds());
+    assertEquals(roleIds.keySet(), toMap(version.getRoles()).keySet());
+    assertEquals(roleIds.size(), new HashSet<Integer>(roleIds.values()).size());
+    final String[] roleNames = version.getRoleNames();
+    long[] unindexedRoles = RoleTable.EMPTY_BITS;
+    final Map<Permission, long[]> grants = new HashMap<Permission, long[]>();
+    for (final Map.Entry<String, PersistentHashMap<Permission, Permission>> entry : version.getRoles().entries()) {
+      final int id = roleIds.get(entry.getKey()).intValue();
+      assertEquals(entry.getKey(), roleNames[id]);
+      assertFalse(entry.getValue().isEmpty());
+      for (final Permission p : entry.getValue().keys()) {
+        if (RoleGrantIndex.isIndexable(p)) {
+          grants.put(p, set(grants.get(p), id));
+        } else {
+          unindexedRoles = set(unindexedRoles, id);
+        }
+      }
+    }
+    assertEquals(bits(unindexedRoles), bits(version.getUnindexedRoles()));
+    int count = 0;
+    for (final Map.Entry<Class<?>, PersistentHashMap<Permission, long[]>> entry : version.getGrants().entries()) {
+      for (final Map.Entry<Permission, long[]> grant : entry.getValue().entries()) {
+        assertSame(entry.getKey(), grant.getKey().getClass());
+        assertNotNull(grant.getKey().toString(), grants.get(grant.getKey()));
+        assertEquals(bits(grants.get(grant.getKey())), bits(grant.getValue()));
+        count++;
+      }
+    }
+    assertEquals(grants.size(), count);
+  }
+
+  /**
+   * Returns a description of every statement and role identifier of
+   * the supplied {@link PolicyVersion}.
+   */
+  private static final String describe(final PolicyVersion version) {
+    final Set<String> returnValue = new TreeSet<String>();
+    for (final Permission p : version.getExcludedPolicy().keys()) {
+      returnValue.add("excluded " + p);
+    }
+    for (final Permission p : version.getUncheckedPolicy().keys()) {
+      returnValue.add("unchecked " + p);
+    }
+    for (final Map.Entry<String, PersistentHashMap<Permission, Permission>> entry : version.getRoles().entries()) {
+      returnValue.add("role " + entry.getKey() + " " + version.getRoleIds().get(entry.getKey()));
+      for (final Permission p : entry.getValue().keys()) {
+        returnValue.add("role " + entry.getKey() + " " + p);
+      }
+    }
+    for (final Map.Entry<Class<?>, PersistentHashMap<Permission, long[]>> entry : version.getGrants().entries()) {
+      for (final Map.Entry<Permission, long[]> grant : entry.getValue().entries()) {
+        returnValue.add("grant " + grant.getKey() + " " + bits(grant.getValue()));
+      }
+    }
+    returnValue.add("unindexed " + bits(version.getUnindexedRoles()));
+    return returnValue.toString();
+  }
+
+  private static final <K, V> Map<K, V> toMap(final PersistentHashMap<K, V> map) {
+    final Map<K, V> returnValue = new HashMap<K, V>();
+    for (final Map.Entry<K, V> entry : map.entries()) {
+      returnValue.put(entry.getKey(), entry.getValue());
+    }
+    return returnValue;
+  }
+
+  private static final long[] set(final long[] bits, final int id) {
+    final long[] returnValue = new long[Math.max(bits == null ? 0 : bits.length, (id >>> 6) + 1)];
+    if (bits != null) {
+      System.arraycopy(bits, 0, returnValue, 0, bits.length);
+    }
+    RoleTable.set(returnValue, id);
+    return returnValue;
+  }
+
+  /**
+   * Returns the set bits of the supplied bitset, ignoring its length.
+   */
+  private static final Set<Integer> bits(final long[] bits) {
+    final Set<Integer> returnValue = new TreeSet<Integer>();
+    for (int i = 0; i < bits.length * 64; i++) {
+      if ((bits[i >>> 6] & (1L << i)) != 0L) {
+        returnValue.add(Integer.valueOf(i));
+      }
+    }
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,143 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests {@link StripedCounter} and {@link LatencyHistogram}.
+ */
+public class TestCaseStripedCounter {
+
+  private static final int THREADS = 16;
+
+  private static final int INCREMENTS = 100000;
+
+  public TestCaseStripedCounter() {
+    super();
+  }
+
+  @Test
+  public void testConcurrentIncrementsAreNotLost() throws InterruptedException {
+    final StripedCounter counter = new StripedCounter();
+    final LatencyHistogram histogram = new LatencyHistogram();
+    run(new Runnable() {
+        @Override
+        public final void run() {
+          for (int i = 0; i < INCREMENTS; i++) {
+            counter.increment();
+            histogram.record(i);
+          }
+        }
+      });
+    assertEquals((long)THREADS * INCREMENTS, counter.sum());
+    long total = 0L;
+    for (final long count : histogram.getCounts()) {
+      total += count;
+    }
+    assertEquals((long)THREADS * INCREMENTS, total);
+    assertEquals(THREADS, histogram.getCounts()[0]);
+
+    counter.reset();
+    histogram.reset();
+    assertEquals(0L, counter.sum());
+    assertEquals(0L, histogram.getQuantileNanos(0.99));
+    counter.add(5L);
+    assertEquals(5L, counter.sum());
+  }
+
+  @Test
+  public void testHistogramQuantiles() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(100L);
+    }
+    histogram.record(1000000L);
+    assertEquals(128L, histogram.getQuantileNanos(0.5));
+    assertEquals(128L, histogram.getQuantileNanos(0.99));
+    assertEquals(1L << 20, histogram.getQuantileNanos(1.0));
+  }
+
+  @Test
+  public void testUncontendedInstancesStaySmall() {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+    final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean)threads;
+    assumeTrue(allocations.isThreadAllocatedMemorySupported());
+    allocations.setThreadAllocatedMemoryEnabled(true);
+
+    final int n = 1000;
+    final StripedCounter[] counters = new StripedCounter[n];
+    final LatencyHistogram[] histograms = new LatencyHistogram[n];
+    final long threadId = Thread.currentThread().getId();
+    final long before = allocations.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < n; i++) {
+      counters[i] = new StripedCounter();
+      counters[i].increment();
+      histograms[i] = new LatencyHistogram();
+    }
+    final long bytesPerPair = (allocations.getThreadAllocatedBytes(threadId) - before) / n;
+    // Independent of the number of processors.
+    assertTrue(bytesPerPair + " bytes", bytesPerPair <= 64L);
+    assertEquals(1L, counters[n - 1].sum());
+  }
+
+  private static final void run(final Runnable runnable) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+          @Override
+          public final void run() {
+            try {
+              start.await();
+            } catch (final InterruptedException interrupted) {
+              Thread.currentThread().interrupt();
+              return;
+            }
+            runnable.run();
+          }
+        };
+      threads[i].start();
+    }
+    start.countDown();
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+}
@@ -0,0 +1,240 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import java.security.Permission;
+import java.security.Principal;
+import java.security.ProtectionDomain;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.jacc.EJBMethodPermission;
+import javax.security.jacc.PolicyConfiguration;
+import javax.security.jacc.PolicyContextException;
+import javax.security.jacc.WebResourcePermission;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs {@link Policy#implies(ProtectionDomain, Permission)} and the
+ * {@linkplain ReentrancyGuard#newSharedGuard() shared reentrancy
+ * guard} on many virtual threads at once; a scaled-down version of
+ * the {@code VirtualThreadStress} benchmark.
+ *
+ * <p>The tests are skipped on a JVM without virtual threads.  {@link
+ * Policy} runs in whichever {@linkplain Policy#VIRTUAL_THREADS mode}
+ * the {@code com.edugility.bauer.Policy.virtualThreads} system
+ * property selected when it was loaded, so the shared guard is also
+ * exercised directly.</p>
+ */
+public class TestCaseVirtualThreads {
+
+  private static final String CONTEXT_ID = TestCaseVirtualThreads.class.getName();
+
+  private static final int THREADS = 10000;
+
+  private static final int CHECKS_PER_THREAD = 4;
+
+  private Method startVirtualThread;
+
+  private Policy policy;
+
+  private ProtectionDomain[] domains;
+
+  private Permission[] permissions;
+
+  public TestCaseVirtualThreads() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws PolicyContextException {
+    try {
+      this.startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+    } catch (final NoSuchMethodException beforeJava21) {
+      assumeTrue(false);
+    }
+
+    final PolicyConfiguration configuration = new PolicyConfigurationFactory().getPolicyConfiguration(CONTEXT_ID, true);
+    for (int role = 0; role < 8; role++) {
+      configuration.addToRole("role" + role, new WebResourcePermission("/app" + role + "/*", "GET"));
+      configuration.addToRole("role" + role, new EJBMethodPermission("Bean", "method" + role + ",Local"));
+    }
+    configuration.addToExcludedPolicy(new WebResourcePermission("/app0/admin/*", (String)null));
+    configuration.commit();
+    ((AbstractPolicyContext)PolicyConfigurationFactory.getPolicyContext(CONTEXT_ID)).setRoleMapper(new CachingRoleMapper(new AllPrincipalsRoleMapper()));
+
+    this.policy = new Policy();
+    this.domains = new ProtectionDomain[8];
+    for (int d = 0; d < this.domains.length; d++) {
+      this.domains[d] = new ProtectionDomain(null, null, null, new Principal[] { new NamedPrincipal("role" + d), new NamedPrincipal("role" + ((d + 3) % 8)) });
+    }
+    this.permissions = new Permission[] {
+      new WebResourcePermission("/app0/index.html", "GET"),
+      new WebResourcePermission("/app0/admin/users", "GET"),
+      new WebResourcePermission("/app3/index.html", "GET"),
+      new WebResourcePermission("/app5/index.html", "POST"),
+      new EJBMethodPermission("Bean", "method2,Local"),
+      new EJBMethodPermission("Bean", "method6,Local")
+    };
+  }
+
+  @After
+  public void tearDown() throws PolicyContextException {
+    if (this.startVirtualThread != null) {
+      new PolicyConfigurationFactory().getPolicyConfiguration(CONTEXT_ID, true).delete();
+    }
+  }
+
+  @Test
+  public void testDecisionsOnVirtualThreadsMatchThoseOnAPlatformThread() throws InterruptedException {
+    final String oldContextId = javax.security.jacc.PolicyContext.getContextID();
+    final boolean[][] expected = new boolean[this.domains.length][this.permissions.length];
+    javax.security.jacc.PolicyContext.setContextID(CONTEXT_ID);
+    try {
+      int granted = 0;
+      for (int d = 0; d < expected.length; d++) {
+        for (int p = 0; p < this.permissions.length; p++) {
+          expected[d][p] = this.policy.implies(this.domains[d], this.permissions[p]);
+          if (expected[d][p]) {
+            granted++;
+          }
+        }
+      }
+      assertTrue(granted > 0 && granted < this.domains.length * this.permissions.length);
+    } finally {
+      javax.security.jacc.PolicyContext.setContextID(oldContextId);
+    }
+
+    final AtomicInteger checks = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();
+    this.run(new Task() {
+        @Override
+        public final void run(final int task) {
+          javax.security.jacc.PolicyContext.setContextID(CONTEXT_ID);
+          final int d = task % expected.length;
+          for (int c = 0; c < CHECKS_PER_THREAD; c++) {
+            final int p = (task * CHECKS_PER_THREAD + c) % permissions.length;
+            if (policy.implies(domains[d], permissions[p]) != expected[d][p]) {
+              failures.incrementAndGet();
+            }
+            checks.incrementAndGet();
+            Thread.yield();
+          }
+        }
+      }, failures);
+    assertEquals(0, failures.get());
+    assertEquals(THREADS * CHECKS_PER_THREAD, checks.get());
+  }
+
+  @Test
+  public void testSharedGuardOnVirtualThreads() throws InterruptedException {
+    final ReentrancyGuard guard = ReentrancyGuard.newSharedGuard();
+    final AtomicInteger failures = new AtomicInteger();
+    this.run(new Task() {
+        @Override
+        public final void run(final int task) {
+          if (!guard.enter()) {
+            failures.incrementAndGet();
+          }
+          Thread.yield();
+          if (guard.enter()) {
+            failures.incrementAndGet();
+          }
+          if (!guard.set(false) || guard.set(true)) {
+            failures.incrementAndGet();
+          }
+          Thread.yield();
+          guard.exit();
+          if (guard.set(false)) {
+            failures.incrementAndGet();
+          }
+        }
+      }, failures);
+    assertEquals(0, failures.get());
+    assertTrue(guard.enter());
+    guard.exit();
+  }
+
+  /**
+   * Runs the supplied {@link Task} on {@link #THREADS} virtual
+   * threads at once, counting any exception it throws as a failure,
+   * and waits for all of them to finish.
+   */
+  private final void run(final Task task, final AtomicInteger failures) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(THREADS);
+    for (int i = 0; i < THREADS; i++) {
+      final int taskNumber = i;
+      final Runnable runnable = new Runnable() {
+          @Override
+          public final void run() {
+            try {
+              task.run(taskNumber);
+            } catch (final RuntimeException kaboom) {
+              failures.incrementAndGet();
+            } finally {
+              done.countDown();
+            }
+          }
+        };
+      try {
+        this.startVirtualThread.invoke(null, runnable);
+      } catch (final IllegalAccessException kaboom) {
+        throw new IllegalStateException(kaboom);
+      } catch (final InvocationTargetException kaboom) {
+        throw new IllegalStateException(kaboom.getCause());
+      }
+    }
+    assertTrue(done.await(2L, TimeUnit.MINUTES));
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  private static interface Task {
+
+    public void run(final int task);
+
+  }
+
+}
@@ -0,0 +1,158 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2014 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.bauer;
+
+import java.security.Permission;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.security.jacc.WebResourcePermission;
+import javax.security.jacc.WebUserDataPermission;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link WebPermissionIndex} against a linear scan of {@link
+ * Permission#implies(Permission)}.
+ */
+public class TestCaseWebPermissionIndex {
+
+  private static final String[] PATTERNS = {
+    "/", "/*", "", "/a", "/a/*", "/a/b", "/a/b/*", "/ab", "/ab/*", "/a/b.jsp", "/a.jsp", "/a/b/c.jsp",
+    "/a/b.jsp/c", "/a.b/c", "*.jsp", "*.html", "*.b", "/b", "/b/*", "/b/c.html", "/a/", "/a.", "*.jsp/x"
+  };
+
+  private static final String[] METHODS = {
+    null, "GET", "POST", "GET,POST", "!GET", "!GET,POST", "!PUT", "FOO", "GET,FOO", "!FOO", "!GET,FOO", "DELETE,GET,HEAD,OPTIONS,POST,PUT,TRACE"
+  };
+
+  private static final String[] TRANSPORTS = { null, "NONE", "INTEGRAL", "CONFIDENTIAL" };
+
+  public TestCaseWebPermissionIndex() {
+    super();
+  }
+
+  @Test
+  public void testPatterns() {
+    assertTrue(WebPermissionIndex.implies("/", 1, "/anything", 9));
+    assertTrue(WebPermissionIndex.implies("/*", 2, "", 0));
+    assertTrue(WebPermissionIndex.implies("/a/*", 4, "/a", 2));
+    assertTrue(WebPermissionIndex.implies("/a/*", 4, "/a/b/c", 6));
+    assertFalse(WebPermissionIndex.implies("/a/*", 4, "/ab", 3));
+    assertTrue(WebPermissionIndex.implies("*.jsp", 5, "/a/b.jsp", 8));
+    assertFalse(WebPermissionIndex.implies("*.jsp", 5, "/a.jsp/b", 8));
+    assertFalse(WebPermissionIndex.implies("*.jsp", 5, "b.jsp", 5));
+    assertTrue(WebPermissionIndex.implies("/a/b", 4, "/a/b:/a/b/c", 4));
+    assertFalse(WebPermissionIndex.implies("/a/b", 4, "/a/bc", 5));
+  }
+
+  @Test
+  public void testWebResourcePermissions() {
+    final List<Permission> permissions = new ArrayList<Permission>();
+    for (final String pattern : patterns()) {
+      for (final String methods : METHODS) {
+        permissions.add(new WebResourcePermission(pattern, methods));
+      }
+    }
+    assertMatchesLinearScan(permissions);
+  }
+
+  @Test
+  public void testWebUserDataPermissions() {
+    final List<Permission> permissions = new ArrayList<Permission>();
+    for (final String pattern : patterns()) {
+      for (final String methods : METHODS) {
+        for (final String transport : TRANSPORTS) {
+          final String actions;
+          if (transport == null) {
+            actions = methods;
+          } else {
+            actions = (methods == null ? "" : methods) + ":" + transport;
+          }
+          permissions.add(new WebUserDataPermission(pattern, actions));
+        }
+      }
+    }
+    assertMatchesLinearScan(permissions);
+  }
+
+  /**
+   * Returns {@link #PATTERNS} plus every valid pattern made of one of
+   * them qualified by one or two of the others.
+   */
+  private static final List<String> patterns() {
+    final List<String> returnValue = new ArrayList<String>();
+    for (final String pattern : PATTERNS) {
+      returnValue.add(pattern);
+    }
+    final Random random = new Random(42L);
+    for (int i = 0; i < 200; i++) {
+      String pattern = PATTERNS[random.nextInt(PATTERNS.length)] + ":" + PATTERNS[random.nextInt(PATTERNS.length)];
+      if (random.nextBoolean()) {
+        pattern = pattern + ":" + PATTERNS[random.nextInt(PATTERNS.length)];
+      }
+      try {
+        new WebResourcePermission(pattern, (String)null);
+        returnValue.add(pattern);
+      } catch (final IllegalArgumentException invalid) {
+        // Qualifiers must be matched by the first pattern.
+      }
+    }
+    return returnValue;
+  }
+
+  private static final void assertMatchesLinearScan(final List<Permission> permissions) {
+    final Random random = new Random(17L);
+    for (int round = 0; round < 20; round++) {
+      final List<Permission> indexed = new ArrayList<Permission>();
+      for (final Permission permission : permissions) {
+        if (random.nextInt(8) == 0) {
+          indexed.add(permission);
+        }
+      }
+      final PermissionIndex index = new WebPermissionIndex(indexed.toArray(new Permission[indexed.size()]), null);
+      for (final Permission permission : permissions) {
+        boolean implied = false;
+        boolean impliesAny = false;
+        for (final Permission candidate : indexed) {
+          implied = implied || candidate.implies(permission);
+          impliesAny = impliesAny || permission.implies(candidate);
+        }
+        assertEquals(permission.toString(), implied, index.implies(permission));
+        assertEquals(permission.toString(), impliesAny, index.anyImpliedBy(permission));
+      }
+    }
+  }
+
+}